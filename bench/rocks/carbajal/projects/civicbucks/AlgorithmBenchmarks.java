@@ -0,0 +1,116 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of every {@link MiningAlgorithm} on blocks of different
+ * magnitudes and sizes, the same way a {@link MiningTask} runs them on a
+ * single chunk.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class AlgorithmBenchmarks {
+
+	/**
+	 * The starts of the blocks, in decimal digits.
+	 */
+	private static final int[] DIGITS = { 6, 12, 17 };
+
+	/**
+	 * The sizes of the blocks.
+	 */
+	private static final long[] SIZES = { 10000, 100000000 };
+
+	/**
+	 * This class only has static methods.
+	 */
+	private AlgorithmBenchmarks() {
+	}
+
+	/**
+	 * Creates the benchmarks of this suite. Scanning is only measured on the
+	 * small blocks, where it may compete.
+	 *
+	 * @return the benchmarks.
+	 */
+	static List<Benchmark> create() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final MiningMode mode : MiningMode.values()) {
+			final MiningAlgorithm algorithm = mode.getAlgorithm();
+			if (algorithm == null) {
+				continue;
+			}
+
+			for (final int digits : DIGITS) {
+				for (final long size : SIZES) {
+					if (!mode.isScan() || size <= SIZES[0]) {
+						benchmarks.add(mine(algorithm, PalindromeKernels.POWERS_OF_TEN[digits - 1], size));
+					}
+				}
+			}
+		}
+
+		// the generic kernels against the hand-written ones, and a pair of
+		// bases with a division and a shift path
+		final MiningAlgorithm[] radixAlgorithms = { new MultiRadixAlgorithm(10, 2), new MultiRadixAlgorithm(3, 16) };
+		for (final MiningAlgorithm algorithm : radixAlgorithms) {
+			for (final int digits : DIGITS) {
+				benchmarks.add(mine(algorithm, PalindromeKernels.POWERS_OF_TEN[digits - 1], SIZES[SIZES.length - 1]));
+			}
+		}
+
+		// counting walks the same blocks without keeping any CivicBuck
+		final MiningAlgorithm counting = new CountingAlgorithm();
+		for (final int digits : DIGITS) {
+			benchmarks.add(mine(counting, PalindromeKernels.POWERS_OF_TEN[digits - 1], SIZES[SIZES.length - 1]));
+		}
+
+		return benchmarks;
+	}
+
+	/**
+	 * Creates the benchmark of an algorithm on a block.
+	 *
+	 * @param algorithm
+	 *            the algorithm to measure.
+	 * @param start
+	 *            the start of the block.
+	 * @param size
+	 *            the size of the block.
+	 * @return the benchmark.
+	 */
+	private static Benchmark mine(final MiningAlgorithm algorithm, final long start, final long size) {
+		return new Benchmark("algorithm." + algorithm.getName(), "start=" + start + " size=" + size) {
+
+			@Override
+			protected long run() {
+				return algorithm.mine(start, start + size - 1).getCivicBucksTotal();
+			}
+		};
+	}
+}
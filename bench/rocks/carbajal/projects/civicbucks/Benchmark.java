@@ -0,0 +1,108 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * A single micro-benchmark: an operation measured repeatedly by the
+ * {@link BenchmarkRunner}, along with the parameters it was created with.
+ *
+ * Every operation returns a value computed from its work, which the runner
+ * consumes so that the JIT compiler cannot optimize the work away.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public abstract class Benchmark {
+
+	/**
+	 * The name of the benchmark, e.g. "kernel.decimal".
+	 */
+	private final String mName;
+
+	/**
+	 * The parameters of the benchmark, e.g. "variant=table digits=9".
+	 */
+	private final String mParameters;
+
+	/**
+	 * Creates a benchmark.
+	 *
+	 * @param name
+	 *            the name of the benchmark.
+	 * @param parameters
+	 *            the parameters of the benchmark.
+	 */
+	protected Benchmark(final String name, final String parameters) {
+		mName = name;
+		mParameters = parameters;
+	}
+
+	/**
+	 * Returns the name of the benchmark.
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Returns the parameters of the benchmark.
+	 */
+	public String getParameters() {
+		return mParameters;
+	}
+
+	/**
+	 * Runs a single operation of the benchmark.
+	 *
+	 * @return a value computed from the work of the operation.
+	 * @throws Exception
+	 *             if the operation fails, which aborts the benchmark.
+	 */
+	protected abstract long run() throws Exception;
+
+	/**
+	 * Prepares the state of the benchmark before it is measured. Does nothing
+	 * by default.
+	 *
+	 * @throws Exception
+	 *             if the preparation fails, which skips the benchmark.
+	 */
+	protected void setUp() throws Exception {
+	}
+
+	/**
+	 * Releases the state of the benchmark after it was measured. Does nothing
+	 * by default.
+	 *
+	 * @throws Exception
+	 *             if the release fails.
+	 */
+	protected void tearDown() throws Exception {
+	}
+
+	@Override
+	public String toString() {
+		return mName + " [" + mParameters + "]";
+	}
+}
@@ -0,0 +1,348 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the micro-benchmarks of CivicBucks mining and reports their throughput
+ * and allocation rates, so that every performance change can be checked
+ * against numbers.
+ *
+ * This is a small harness on top of the JDK only (no external libraries are
+ * allowed, see README.md), in the spirit of JMH: every benchmark runs a few
+ * warm-up iterations followed by measured iterations of a fixed duration, and
+ * reports the mean and standard deviation of its operations per second. Like
+ * the GC profiler of JMH, it also reports the bytes allocated per operation
+ * (by all the live threads, taken from {@link com.sun.management.ThreadMXBean}
+ * where available) and the collections that happened while measuring. Threads
+ * that die within an iteration (e.g. the threads of a
+ * {@link MiningExecutor}) are not accounted for.
+ *
+ * <pre>
+ * java BenchmarkRunner [--filter=regex] [--warmup=n] [--iterations=n] [--time=millis] [--csv=file]
+ * </pre>
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	private static final String USAGE = "Usage: java BenchmarkRunner [--filter=regex] [--warmup=n] [--iterations=n]"
+			+ " [--time=millis] [--csv=file]";
+
+	/**
+	 * The format of a row of the report.
+	 */
+	private static final String ROW_FORMAT = "%-26s %-62s %16s %12s %12s %6s %8s%n";
+
+	/**
+	 * The pattern of the benchmarks to run (matched against their names).
+	 */
+	private Pattern mFilter = Pattern.compile(".*");
+
+	/**
+	 * The number of warm-up iterations of every benchmark.
+	 */
+	private int mWarmupIterations = 3;
+
+	/**
+	 * The number of measured iterations of every benchmark.
+	 */
+	private int mIterations = 5;
+
+	/**
+	 * The duration (in millis) of every iteration.
+	 */
+	private long mIterationMillis = 500;
+
+	/**
+	 * The file to write the results to as CSV, or <code>null</code>.
+	 */
+	private String mCsvFile = null;
+
+	/**
+	 * The values returned by the operations, consumed so that their work
+	 * cannot be optimized away.
+	 */
+	private volatile long mSink;
+
+	/**
+	 * Runs the benchmarks as described in {@link BenchmarkRunner}.
+	 *
+	 * @param args
+	 *            the options of the run.
+	 */
+	public static void main(final String[] args) {
+		final BenchmarkRunner runner = new BenchmarkRunner();
+		try {
+			for (final String option : args) {
+				runner.parseOption(option);
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(2);
+		}
+
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(KernelBenchmarks.create());
+		benchmarks.addAll(AlgorithmBenchmarks.create());
+		benchmarks.addAll(PartitioningBenchmarks.create());
+		benchmarks.addAll(ResultAssemblyBenchmarks.create());
+
+		try {
+			runner.runAll(benchmarks);
+		} catch (final IOException e) {
+			System.out.println("Unable to write the results (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the total number of bytes allocated by all the live threads, or
+	 * -1 if the JVM does not measure it.
+	 */
+	private static long allocatedBytes() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+
+		long total = 0;
+		for (final long allocated : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (allocated > 0) {
+				total += allocated;
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Returns the total number of garbage collections so far.
+	 */
+	private static long collectionCount() {
+		long count = 0;
+		for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the total time (in millis) spent in garbage collections so far.
+	 */
+	private static long collectionTime() {
+		long time = 0;
+		for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+
+		return time;
+	}
+
+	/**
+	 * Runs the operations of a benchmark for the duration of an iteration.
+	 *
+	 * @param benchmark
+	 *            the benchmark to run.
+	 * @return the number of operations and the elapsed time (in nanos).
+	 * @throws Exception
+	 *             if an operation fails.
+	 */
+	private long[] iterate(final Benchmark benchmark) throws Exception {
+		final long duration = TimeUnit.MILLISECONDS.toNanos(mIterationMillis);
+		long sink = 0;
+		long operations = 0;
+		final long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink += benchmark.run();
+			operations++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < duration);
+
+		mSink += sink;
+		return new long[] { operations, elapsed };
+	}
+
+	/**
+	 * Measures a benchmark: warm-up iterations first, then measured ones.
+	 *
+	 * @param benchmark
+	 *            the benchmark to measure.
+	 * @return the cells of its row in the report: name, parameters, mean and
+	 *         standard deviation of the operations per second, bytes per
+	 *         operation, collections and collection time.
+	 * @throws Exception
+	 *             if the benchmark fails.
+	 */
+	private String[] measure(final Benchmark benchmark) throws Exception {
+		for (int iteration = 0; iteration < mWarmupIterations; iteration++) {
+			iterate(benchmark);
+		}
+
+		final double[] throughput = new double[mIterations];
+		long operations = 0;
+		final long allocatedBefore = allocatedBytes();
+		final long collectionsBefore = collectionCount();
+		final long collectionTimeBefore = collectionTime();
+		for (int iteration = 0; iteration < mIterations; iteration++) {
+			final long[] measured = iterate(benchmark);
+			operations += measured[0];
+			throughput[iteration] = measured[0] * 1e9 / measured[1];
+		}
+		final long allocatedAfter = allocatedBytes();
+
+		double mean = 0;
+		for (final double value : throughput) {
+			mean += value / throughput.length;
+		}
+		double variance = 0;
+		for (final double value : throughput) {
+			variance += (value - mean) * (value - mean) / Math.max(1, throughput.length - 1);
+		}
+
+		final String bytesPerOperation = (allocatedBefore < 0 || allocatedAfter < 0) ? "n/a"
+				: String.format("%.1f", (double) (allocatedAfter - allocatedBefore) / operations);
+		return new String[] { benchmark.getName(), benchmark.getParameters(), String.format("%.3f", mean),
+				String.format("%.3f", Math.sqrt(variance)), bytesPerOperation,
+				String.valueOf(collectionCount() - collectionsBefore),
+				String.valueOf(collectionTime() - collectionTimeBefore) };
+	}
+
+	/**
+	 * Parses a single option in the form <code>--name=value</code>.
+	 *
+	 * @param option
+	 *            the option to parse.
+	 * @throws IllegalArgumentException
+	 *             if the option is unknown or its value is not valid.
+	 */
+	private void parseOption(final String option) {
+		final int separator = option.indexOf('=');
+		if (!option.startsWith("--") || separator < 0) {
+			throw new IllegalArgumentException("Invalid option: " + option);
+		}
+
+		final String name = option.substring(2, separator);
+		final String value = option.substring(separator + 1);
+		try {
+			if ("filter".equals(name)) {
+				mFilter = Pattern.compile(value);
+			} else if ("warmup".equals(name)) {
+				mWarmupIterations = Integer.parseInt(value);
+			} else if ("iterations".equals(name)) {
+				mIterations = Integer.parseInt(value);
+			} else if ("time".equals(name)) {
+				mIterationMillis = Long.parseLong(value);
+			} else if ("csv".equals(name)) {
+				mCsvFile = value;
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+
+		if (mWarmupIterations < 0 || mIterations < 1 || mIterationMillis < 1) {
+			throw new IllegalArgumentException("Invalid option: " + option);
+		}
+	}
+
+	/**
+	 * Measures every benchmark whose name matches the filter, printing out a
+	 * row of the report for each one as soon as it is measured, and writes
+	 * out the CSV file if requested.
+	 *
+	 * @param benchmarks
+	 *            the benchmarks to run.
+	 * @throws IOException
+	 *             if the CSV file cannot be written.
+	 */
+	private void runAll(final List<Benchmark> benchmarks) throws IOException {
+		System.out.println("Warm-up: " + mWarmupIterations + " x " + mIterationMillis + " millis, measurement: "
+				+ mIterations + " x " + mIterationMillis + " millis");
+		System.out.printf(ROW_FORMAT, "Benchmark", "Parameters", "ops/s", "sd", "B/op", "gc", "gc ms");
+
+		final List<String[]> rows = new ArrayList<String[]>();
+		for (final Benchmark benchmark : benchmarks) {
+			if (!mFilter.matcher(benchmark.getName()).find()) {
+				continue;
+			}
+
+			try {
+				benchmark.setUp();
+				try {
+					final String[] row = measure(benchmark);
+					rows.add(row);
+					System.out.printf(ROW_FORMAT, (Object[]) row);
+				} finally {
+					benchmark.tearDown();
+				}
+			} catch (final Exception e) {
+				System.out.println("Benchmark " + benchmark + " failed (see error below).");
+				e.printStackTrace();
+			}
+		}
+
+		if (mCsvFile != null) {
+			try (final PrintWriter csv = new PrintWriter(
+					Files.newBufferedWriter(Paths.get(mCsvFile), StandardCharsets.US_ASCII))) {
+				csv.println("benchmark,parameters,ops_per_second,sd,bytes_per_op,gc_count,gc_millis");
+				for (final String[] row : rows) {
+					final StringBuilder line = new StringBuilder();
+					for (int cell = 0; cell < row.length; cell++) {
+						line.append(cell == 0 ? "" : ",").append(row[cell]);
+					}
+					csv.println(line);
+				}
+			}
+		}
+
+		// print the sink, the work of every operation is used
+		System.out.println("(checksum: " + mSink + ")");
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the palindrome kernels (see {@link PalindromeKernels}) against
+ * the original string-based checks, for numbers of different magnitudes.
+ *
+ * Every operation checks a batch of {@value #BATCH_SIZE} numbers, half of them
+ * palindromes (so that the checks do not always bail out on the first digit
+ * or bit) and half of them random.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class KernelBenchmarks {
+
+	/**
+	 * The number of numbers checked by every operation.
+	 */
+	static final int BATCH_SIZE = 1024;
+
+	/**
+	 * The magnitudes of the numbers, in decimal digits.
+	 */
+	private static final int[] DIGITS = { 4, 9, 18 };
+
+	/**
+	 * The seed of the random numbers, so that every run checks the same
+	 * numbers.
+	 */
+	private static final long SEED = 42;
+
+	/**
+	 * This class only has static methods.
+	 */
+	private KernelBenchmarks() {
+	}
+
+	/**
+	 * Creates the benchmarks of the binary palindrome check.
+	 *
+	 * @param digits
+	 *            the magnitude of the numbers, in decimal digits.
+	 * @param variant
+	 *            the name of the kernel variant: "string", "reverse" or
+	 *            "table".
+	 * @return the benchmark.
+	 */
+	private static Benchmark binary(final int digits, final String variant) {
+		return new Benchmark("kernel.binary", "variant=" + variant + " digits=" + digits) {
+
+			private long[] mNumbers;
+
+			@Override
+			protected void setUp() {
+				mNumbers = numbers(digits, false);
+			}
+
+			@Override
+			protected long run() {
+				/*
+				 * The variant is picked once per batch, every loop runs a
+				 * single kernel.
+				 */
+				long found = 0;
+				if ("string".equals(variant)) {
+					for (final long number : mNumbers) {
+						if (isPalindrome(Long.toBinaryString(number))) {
+							found++;
+						}
+					}
+				} else if ("table".equals(variant)) {
+					for (final long number : mNumbers) {
+						if (PalindromeKernels.isBinaryPalindromeByTable(number)) {
+							found++;
+						}
+					}
+				} else {
+					for (final long number : mNumbers) {
+						if (PalindromeKernels.isBinaryPalindrome(number)) {
+							found++;
+						}
+					}
+				}
+
+				return found;
+			}
+		};
+	}
+
+	/**
+	 * Creates the benchmarks of this suite.
+	 *
+	 * @return the benchmarks.
+	 */
+	static List<Benchmark> create() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int digits : DIGITS) {
+			benchmarks.add(decimal(digits, "string"));
+			benchmarks.add(decimal(digits, "arithmetic"));
+		}
+		for (final int digits : DIGITS) {
+			benchmarks.add(binary(digits, "string"));
+			benchmarks.add(binary(digits, "reverse"));
+			benchmarks.add(binary(digits, "table"));
+		}
+
+		return benchmarks;
+	}
+
+	/**
+	 * Creates the benchmarks of the decimal palindrome check.
+	 *
+	 * @param digits
+	 *            the magnitude of the numbers, in decimal digits.
+	 * @param variant
+	 *            the name of the kernel variant: "string" or "arithmetic".
+	 * @return the benchmark.
+	 */
+	private static Benchmark decimal(final int digits, final String variant) {
+		return new Benchmark("kernel.decimal", "variant=" + variant + " digits=" + digits) {
+
+			private long[] mNumbers;
+
+			@Override
+			protected void setUp() {
+				mNumbers = numbers(digits, true);
+			}
+
+			@Override
+			protected long run() {
+				long found = 0;
+				if ("string".equals(variant)) {
+					for (final long number : mNumbers) {
+						if (isPalindrome(String.valueOf(number))) {
+							found++;
+						}
+					}
+				} else {
+					for (final long number : mNumbers) {
+						if (PalindromeKernels.isDecimalPalindrome(number)) {
+							found++;
+						}
+					}
+				}
+
+				return found;
+			}
+		};
+	}
+
+	/**
+	 * The original check of the miner: reverses the string and compares it
+	 * with the original one.
+	 *
+	 * @param string
+	 *            the string to check.
+	 * @return <code>true</code> if the string is a palindrome.
+	 */
+	private static boolean isPalindrome(final String string) {
+		return string.equals(new StringBuilder(string).reverse().toString());
+	}
+
+	/**
+	 * Creates a batch of numbers of the specified magnitude, half of them
+	 * palindromes.
+	 *
+	 * @param digits
+	 *            the magnitude of the numbers, in decimal digits.
+	 * @param decimal
+	 *            whether to include decimal palindromes (binary ones
+	 *            otherwise).
+	 * @return the numbers, interleaved.
+	 */
+	private static long[] numbers(final int digits, final boolean decimal) {
+		final Random random = new Random(SEED);
+		final long low = PalindromeKernels.POWERS_OF_TEN[digits - 1];
+		final long span = low * 9;
+
+		final long[] numbers = new long[BATCH_SIZE];
+		for (int index = 0; index < BATCH_SIZE; index++) {
+			final long number = low + (random.nextLong() >>> 1) % span;
+			if (index % 2 == 0) {
+				numbers[index] = number;
+			} else if (decimal) {
+				numbers[index] = new PalindromeGenerator(number, Long.MAX_VALUE).next();
+			} else {
+				numbers[index] = new BinaryPalindromeGenerator(number, Long.MAX_VALUE).next();
+			}
+		}
+
+		return numbers;
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the non-blocking results API of {@link MiningExecutor} end to end:
+ * a {@link MiningListener} must be told about every chunk that completed, and
+ * then exactly once about the results of the run, whether the run mines the
+ * whole block, stops at its deadline, or is stopped with
+ * {@link MiningExecutor#shutdownNow()} while a slow listener holds the mining
+ * threads back.
+ *
+ * <pre>
+ * java MiningListenerCheck [--mode=name] [--threads=n] [--timeout=seconds]
+ * </pre>
+ *
+ * Every scenario prints PASS or FAIL; the process exits with status 1 if any
+ * of them failed.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class MiningListenerCheck {
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	private static final String USAGE = "Usage: java MiningListenerCheck [--mode=name] [--threads=n] [--timeout=seconds]";
+
+	/**
+	 * The format of a row of the report.
+	 */
+	private static final String ROW_FORMAT = "%-14s %-4s %10s %10s %10s %10s  %s%n";
+
+	/**
+	 * The last value of the block mined to completion.
+	 */
+	private static final long SMALL_BLOCK_END = 9999999L;
+
+	/**
+	 * The last value of the block stopped with shutdownNow, a few seconds of
+	 * mining: some chunks complete before it is stopped, some are running and
+	 * the others have not started.
+	 */
+	private static final long MEDIUM_BLOCK_END = 299999999L;
+
+	/**
+	 * The last value of the block stopped at its deadline, far more than any
+	 * scenario can mine.
+	 */
+	private static final long LARGE_BLOCK_END = 999999999999L;
+
+	/**
+	 * The time (in millis) a run mines before it is stopped.
+	 */
+	private static final long STOP_MILLIS = 1000;
+
+	/**
+	 * The time (in millis) the slow listener takes for every chunk.
+	 */
+	private static final long SLOW_LISTENER_MILLIS = 20;
+
+	/**
+	 * The strategy for finding CivicBucks.
+	 */
+	private MiningMode mMode = MiningMode.SCAN_SCALAR;
+
+	/**
+	 * The number of threads of every run.
+	 */
+	private int mThreads = 4;
+
+	/**
+	 * The time (in seconds) to wait for a run to end before it is reported as
+	 * hung.
+	 */
+	private long mTimeout = 60;
+
+	/**
+	 * Whether a scenario failed.
+	 */
+	private boolean mFailed = false;
+
+	/**
+	 * A listener that counts what it is told, optionally slowly.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class CountingListener implements MiningListener {
+
+		/**
+		 * The time (in millis) taken for every chunk.
+		 */
+		private final long mDelay;
+
+		/**
+		 * The number of chunks delivered.
+		 */
+		private final AtomicInteger mRangesMined = new AtomicInteger();
+
+		/**
+		 * The number of times the results of the run were delivered.
+		 */
+		private final AtomicInteger mDoneCalls = new AtomicInteger();
+
+		/**
+		 * Released once the results of the run are delivered.
+		 */
+		private final CountDownLatch mDone = new CountDownLatch(1);
+
+		/**
+		 * The results of the run, once delivered.
+		 */
+		private volatile MiningExecutorResults mResults = null;
+
+		/**
+		 * Creates a listener.
+		 *
+		 * @param delay
+		 *            the time (in millis) taken for every chunk.
+		 */
+		CountingListener(final long delay) {
+			mDelay = delay;
+		}
+
+		@Override
+		public void miningDone(final MiningExecutorResults results) {
+			mResults = results;
+			mDoneCalls.incrementAndGet();
+			mDone.countDown();
+		}
+
+		@Override
+		public void rangeMined(final TaskResult result) {
+			mRangesMined.incrementAndGet();
+			if (mDelay > 0) {
+				try {
+					Thread.sleep(mDelay);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the scenarios as described in {@link MiningListenerCheck}.
+	 *
+	 * @param args
+	 *            the options of the run.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a run.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		final MiningListenerCheck check = new MiningListenerCheck();
+		try {
+			for (final String option : args) {
+				check.parseOption(option);
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(2);
+		}
+
+		System.out.printf(ROW_FORMAT, "Scenario", "", "Delivered", "Reported", "Collected", "Done calls", "");
+		check.runScenario("complete", SMALL_BLOCK_END, 0, false, 0);
+		check.runScenario("deadline", LARGE_BLOCK_END, STOP_MILLIS, false, 0);
+		check.runScenario("shutdownNow", MEDIUM_BLOCK_END, 0, true, SLOW_LISTENER_MILLIS);
+
+		if (check.mFailed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Parses a single option of the run.
+	 *
+	 * @param option
+	 *            the option, in the form <code>--name=value</code>.
+	 * @throws IllegalArgumentException
+	 *             if the option is not valid.
+	 */
+	private void parseOption(final String option) {
+		final int separator = option.indexOf('=');
+		if (!option.startsWith("--") || separator < 0) {
+			throw new IllegalArgumentException("Invalid option: " + option);
+		}
+
+		final String name = option.substring(2, separator);
+		final String value = option.substring(separator + 1);
+		try {
+			if ("mode".equals(name)) {
+				mMode = MiningMode.fromName(value);
+			} else if ("threads".equals(name)) {
+				mThreads = Integer.parseInt(value);
+			} else if ("timeout".equals(name)) {
+				mTimeout = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Runs a single scenario and reports whether the listener was told about
+	 * the run as the executor collects it.
+	 *
+	 * @param name
+	 *            the name of the scenario.
+	 * @param blockEnd
+	 *            the last value of the block, which starts at 0.
+	 * @param deadline
+	 *            the time (in millis) the run may mine for, or 0 for no limit.
+	 * @param shutdownNow
+	 *            whether to stop the run with
+	 *            {@link MiningExecutor#shutdownNow()} after
+	 *            {@link #STOP_MILLIS}.
+	 * @param listenerDelay
+	 *            the time (in millis) the listener takes for every chunk.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the run.
+	 */
+	private void runScenario(final String name, final long blockEnd, final long deadline,
+			final boolean shutdownNow, final long listenerDelay) throws InterruptedException {
+		final CountingListener listener = new CountingListener(listenerDelay);
+		final MiningExecutor executor = new MiningExecutor(mThreads, 0, blockEnd, mMode);
+		// the smallest queue, so that the slow listener holds the mining threads back
+		executor.setListener(listener, 1);
+		if (deadline > 0) {
+			executor.setDeadline(deadline, TimeUnit.MILLISECONDS);
+		}
+
+		executor.startMining();
+		if (shutdownNow) {
+			Thread.sleep(STOP_MILLIS);
+			executor.shutdownNow();
+		}
+
+		final StringBuilder failures = new StringBuilder();
+		if (!executor.awaitTermination(mTimeout, TimeUnit.SECONDS)) {
+			failures.append("executor did not terminate; ");
+		}
+		if (!listener.mDone.await(mTimeout, TimeUnit.SECONDS)) {
+			failures.append("miningDone not called; ");
+		}
+		if (!executor.getFutureResults().isDone()) {
+			failures.append("future results not done; ");
+		}
+
+		final MiningExecutorResults collected = executor.calculateMiningResults();
+		// a second miningDone call would follow the first one right away
+		Thread.sleep(100);
+
+		final int delivered = listener.mRangesMined.get();
+		final int reported = (listener.mResults != null) ? listener.mResults.getTasksRun() : -1;
+		if (listener.mDoneCalls.get() > 1) {
+			failures.append("miningDone called more than once; ");
+		}
+		if (delivered != reported || reported != collected.getTasksRun()) {
+			failures.append("chunk counts differ; ");
+		}
+		try {
+			if (executor.getFutureResults().isDone()
+					&& executor.getFutureResults().get().getTasksRun() != collected.getTasksRun()) {
+				failures.append("future results differ; ");
+			}
+		} catch (final ExecutionException e) {
+			failures.append("future results failed; ");
+		}
+
+		final boolean passed = failures.length() == 0;
+		mFailed |= !passed;
+		System.out.printf(ROW_FORMAT, name, passed ? "PASS" : "FAIL", delivered, reported, collected.getTasksRun(),
+				listener.mDoneCalls.get(), failures);
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the scan mode of {@link MiningPipeline} end to end, for the
+ * regressions a scan through the pipeline is prone to:
+ *
+ * <ul>
+ * <li>a block mined to completion must find the same CivicBucks as the plain
+ * scan, in a time of the same order;</li>
+ * <li>a block far larger than the heap can hold the batches of (the check is
+ * meant to run on a small heap, see below) must stop at the deadline of the
+ * run, within the slack the miner allows for it, and report what it covered
+ * instead of failing.</li>
+ * </ul>
+ *
+ * <pre>
+ * java -Xmx64m MiningPipelineCheck [--pipeline=generators:filters] [--threads=n] [--deadline=seconds]
+ * </pre>
+ *
+ * Every scenario prints PASS or FAIL; the process exits with status 1 if any
+ * of them failed.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class MiningPipelineCheck {
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	private static final String USAGE = "Usage: java -Xmx64m MiningPipelineCheck [--pipeline=generators:filters]"
+			+ " [--threads=n] [--deadline=seconds]";
+
+	/**
+	 * The format of a row of the report.
+	 */
+	private static final String ROW_FORMAT = "%-16s %-4s %12s %12s %14s  %s%n";
+
+	/**
+	 * The last value of the block mined to completion.
+	 */
+	private static final long SMALL_BLOCK_END = 999999999L;
+
+	/**
+	 * The last value of the block stopped at its deadline, whose batches take
+	 * far more than a small heap.
+	 */
+	private static final long LARGE_BLOCK_END = 100000000000000L;
+
+	/**
+	 * The time (in millis) a run may end after its deadline, as the miner
+	 * allows it (see {@link CivicBucksMiner}).
+	 */
+	private static final long DEADLINE_SLACK_MILLIS = 100;
+
+	/**
+	 * How much slower than the plain scan the pipeline may be.
+	 */
+	private static final int MAX_SLOWDOWN = 4;
+
+	/**
+	 * The number of generator threads of the pipeline.
+	 */
+	private int mGenerators = 2;
+
+	/**
+	 * The number of filter threads of the pipeline.
+	 */
+	private int mFilters = 4;
+
+	/**
+	 * The number of threads of the executor.
+	 */
+	private int mThreads = 4;
+
+	/**
+	 * The time (in seconds) the run stopped at its deadline mines for.
+	 */
+	private long mDeadline = 10;
+
+	/**
+	 * Whether a scenario failed.
+	 */
+	private boolean mFailed = false;
+
+	/**
+	 * Runs the scenarios as described in {@link MiningPipelineCheck}.
+	 *
+	 * @param args
+	 *            the options of the run.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a run.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		final MiningPipelineCheck check = new MiningPipelineCheck();
+		try {
+			for (final String option : args) {
+				check.parseOption(option);
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(2);
+		}
+
+		System.out.printf("max heap: %d MB%n", Runtime.getRuntime().maxMemory() >> 20);
+		System.out.printf(ROW_FORMAT, "Scenario", "", "Millis", "CivicBucks", "Covered", "");
+		check.checkComplete();
+		check.checkDeadline();
+
+		if (check.mFailed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Mines a block to completion through the pipeline and with the plain
+	 * scan, and compares them.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a run.
+	 */
+	private void checkComplete() throws InterruptedException {
+		final long plainStart = System.nanoTime();
+		final MiningExecutorResults plain = mine(SMALL_BLOCK_END, false, 0);
+		final long plainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - plainStart);
+
+		final long pipelineStart = System.nanoTime();
+		final MiningExecutorResults piped = mine(SMALL_BLOCK_END, true, 0);
+		final long pipelineMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pipelineStart);
+
+		final StringBuilder failures = new StringBuilder();
+		if (!piped.getUncoveredRanges().isEmpty()) {
+			failures.append("block not covered; ");
+		}
+		if (piped.getTotalCivicBucks() != plain.getTotalCivicBucks()) {
+			failures.append("CivicBucks differ from the plain scan (" + plain.getTotalCivicBucks() + "); ");
+		}
+		if (pipelineMillis > MAX_SLOWDOWN * Math.max(plainMillis, 100)) {
+			failures.append("slower than the plain scan (" + plainMillis + " millis); ");
+		}
+		report("complete", pipelineMillis, piped, failures);
+	}
+
+	/**
+	 * Mines a block far too large to complete through the pipeline, until
+	 * the deadline of the run.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the run.
+	 */
+	private void checkDeadline() throws InterruptedException {
+		final long deadlineMillis = TimeUnit.SECONDS.toMillis(mDeadline);
+		final long start = System.nanoTime();
+		final MiningExecutorResults results = mine(LARGE_BLOCK_END, true, deadlineMillis);
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		final StringBuilder failures = new StringBuilder();
+		if (results == null) {
+			failures.append("did not stop; ");
+		} else if (results.getCoveredRanges().isEmpty()) {
+			failures.append("nothing covered; ");
+		}
+		if (millis > deadlineMillis + DEADLINE_SLACK_MILLIS) {
+			failures.append((millis - deadlineMillis) + " millis past the deadline; ");
+		}
+		report("deadline", millis, results, failures);
+	}
+
+	/**
+	 * Mines a block in scan mode and waits for its results.
+	 *
+	 * @param blockEnd
+	 *            the last value of the block, which starts at 0.
+	 * @param pipeline
+	 *            whether to mine through the pipeline.
+	 * @param deadline
+	 *            the time (in millis) the run may mine for, or 0 for no limit.
+	 * @return the results of the run, or <code>null</code> if they did not
+	 *         complete within a minute past the deadline.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the run.
+	 */
+	private MiningExecutorResults mine(final long blockEnd, final boolean pipeline, final long deadline)
+			throws InterruptedException {
+		final MiningExecutor executor = new MiningExecutor(mThreads, 0, blockEnd, MiningMode.SCAN);
+		if (pipeline) {
+			executor.setPipeline(mGenerators, mFilters);
+		}
+		if (deadline > 0) {
+			executor.setDeadline(deadline, TimeUnit.MILLISECONDS);
+		}
+
+		executor.startMining();
+		if (!executor.awaitTermination(deadline + TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS)) {
+			executor.shutdownNow();
+			return null;
+		}
+
+		return executor.calculateMiningResults();
+	}
+
+	/**
+	 * Parses a single option of the run.
+	 *
+	 * @param option
+	 *            the option, in the form <code>--name=value</code>.
+	 * @throws IllegalArgumentException
+	 *             if the option is not valid.
+	 */
+	private void parseOption(final String option) {
+		final int separator = option.indexOf('=');
+		if (!option.startsWith("--") || separator < 0) {
+			throw new IllegalArgumentException("Invalid option: " + option);
+		}
+
+		final String name = option.substring(2, separator);
+		final String value = option.substring(separator + 1);
+		try {
+			if ("pipeline".equals(name)) {
+				final int stages = value.indexOf(':');
+				if (stages < 0) {
+					throw new IllegalArgumentException("Invalid pipeline: " + value);
+				}
+				mGenerators = Integer.parseInt(value.substring(0, stages));
+				mFilters = Integer.parseInt(value.substring(stages + 1));
+			} else if ("threads".equals(name)) {
+				mThreads = Integer.parseInt(value);
+			} else if ("deadline".equals(name)) {
+				mDeadline = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Reports a scenario.
+	 *
+	 * @param name
+	 *            the name of the scenario.
+	 * @param millis
+	 *            the time the scenario took (in millis).
+	 * @param results
+	 *            the results of the run, or <code>null</code>.
+	 * @param failures
+	 *            what failed, empty if the scenario passed.
+	 */
+	private void report(final String name, final long millis, final MiningExecutorResults results,
+			final StringBuilder failures) {
+		final boolean passed = failures.length() == 0;
+		mFailed |= !passed;
+
+		double covered = 0;
+		if (results != null) {
+			for (final BlockRange range : results.getCoveredRanges()) {
+				covered += MiningProgress.sizeOf(range);
+			}
+		}
+		System.out.printf(ROW_FORMAT, name, passed ? "PASS" : "FAIL", millis,
+				(results != null) ? results.getTotalCivicBucks() : -1, String.format("%.3e", covered), failures);
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that a {@link MiningScheduler} preempts a large job for a small job
+ * of a higher priority: the small job must start within a fraction of a
+ * second even though every thread is busy with a chunk of hundreds of
+ * millions of numbers, and both jobs must still report exactly the CivicBucks
+ * of the parts they covered, without losing or repeating any of them where
+ * chunks were preempted and queued again.
+ *
+ * <pre>
+ * java MiningSchedulerCheck [--threads=n] [--max-queued=millis]
+ * </pre>
+ *
+ * Every scenario prints PASS or FAIL; the process exits with status 1 if any
+ * of them failed.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class MiningSchedulerCheck {
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	private static final String USAGE = "Usage: java MiningSchedulerCheck [--threads=n] [--max-queued=millis]";
+
+	/**
+	 * The format of a row of the report.
+	 */
+	private static final String ROW_FORMAT = "%-10s %-4s %10s %12s %14s  %s%n";
+
+	/**
+	 * The last value of the large job, whose chunks take seconds each.
+	 */
+	private static final long LARGE_JOB_END = 10000000000L;
+
+	/**
+	 * The last value of the urgent job.
+	 */
+	private static final long URGENT_JOB_END = 1000000L;
+
+	/**
+	 * The priority of the urgent job.
+	 */
+	private static final int URGENT_PRIORITY = 9;
+
+	/**
+	 * The time (in millis) the large job mines alone before the urgent job is
+	 * submitted, and again before it is cancelled.
+	 */
+	private static final long HEAD_START_MILLIS = 1000;
+
+	/**
+	 * The number of threads of the scheduler.
+	 */
+	private int mThreads = 2;
+
+	/**
+	 * The time (in millis) the urgent job may wait for its first chunk.
+	 */
+	private long mMaxQueuedMillis = 250;
+
+	/**
+	 * Whether a scenario failed.
+	 */
+	private boolean mFailed = false;
+
+	/**
+	 * Runs the scenarios as described in {@link MiningSchedulerCheck}.
+	 *
+	 * @param args
+	 *            the options of the run.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a job.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		final MiningSchedulerCheck check = new MiningSchedulerCheck();
+		try {
+			for (final String option : args) {
+				check.parseOption(option);
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(2);
+		}
+
+		System.out.printf(ROW_FORMAT, "Job", "", "Queued", "CivicBucks", "Covered", "");
+		check.checkPreemption();
+
+		if (check.mFailed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Counts the CivicBucks of a range with a generator, independently of the
+	 * scheduler.
+	 *
+	 * @param range
+	 *            the range.
+	 * @return the number of CivicBucks in the range.
+	 */
+	private static int countCivicBucks(final BlockRange range) {
+		return new DecimalGenerateAlgorithm().mine(range.getStart(), range.getEnd()).getCivicBucksTotal();
+	}
+
+	/**
+	 * Returns the number of CivicBucks the covered ranges of a job should
+	 * hold, or -1 if they overlap.
+	 *
+	 * @param results
+	 *            the results of the job.
+	 * @return the expected number of CivicBucks.
+	 */
+	private static int expectedCivicBucks(final MiningExecutorResults results) {
+		int expected = 0;
+		BigInteger previousEnd = null;
+		for (final BlockRange range : results.getCoveredRanges()) {
+			if (previousEnd != null && range.getStartValue().compareTo(previousEnd) <= 0) {
+				return -1;
+			}
+			expected += countCivicBucks(range);
+			previousEnd = range.getEndValue();
+		}
+
+		return expected;
+	}
+
+	/**
+	 * Submits a large job, then an urgent job once the large one holds all
+	 * the threads, and checks both.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a job.
+	 */
+	private void checkPreemption() throws InterruptedException {
+		final MiningScheduler scheduler = new MiningScheduler(mThreads);
+		final ScheduledJob large = scheduler.submit(new MiningJob("large",
+				Collections.singletonList(new BlockRange(BigInteger.ZERO, BigInteger.valueOf(LARGE_JOB_END))),
+				MiningMode.SCAN_SCALAR, RangePartitioner.DEFAULT_MIN_CHUNK_SIZE, 0));
+		Thread.sleep(HEAD_START_MILLIS);
+
+		final List<BlockRange> urgentRanges = Collections
+				.singletonList(new BlockRange(BigInteger.ZERO, BigInteger.valueOf(URGENT_JOB_END)));
+		final ScheduledJob urgent = scheduler.submit(new MiningJob("urgent", urgentRanges, MiningMode.SCAN_SCALAR,
+				RangePartitioner.DEFAULT_MIN_CHUNK_SIZE, 0, URGENT_PRIORITY, MiningJob.DEFAULT_SHARE));
+		final MiningExecutorResults urgentResults = urgent.await();
+
+		final StringBuilder urgentFailures = new StringBuilder();
+		if (urgent.getQueuedMillis() > mMaxQueuedMillis) {
+			urgentFailures.append("queued longer than " + mMaxQueuedMillis + " millis; ");
+		}
+		if (!urgentResults.getUncoveredRanges().isEmpty()) {
+			urgentFailures.append("not covered; ");
+		}
+		if (urgentResults.getTotalCivicBucks() != countCivicBucks(urgentRanges.get(0))) {
+			urgentFailures.append("wrong CivicBucks; ");
+		}
+		report("urgent", urgent, urgentResults, urgentFailures);
+
+		// let the large job go on with the rests of its preempted chunks
+		Thread.sleep(HEAD_START_MILLIS);
+		large.cancel();
+		final MiningExecutorResults largeResults = large.await();
+		scheduler.shutdown();
+
+		final StringBuilder largeFailures = new StringBuilder();
+		final int expected = expectedCivicBucks(largeResults);
+		if (expected < 0) {
+			largeFailures.append("covered ranges overlap; ");
+		} else if (largeResults.getTotalCivicBucks() != expected) {
+			largeFailures.append("wrong CivicBucks (" + expected + " expected); ");
+		}
+		report("large", large, largeResults, largeFailures);
+	}
+
+	/**
+	 * Parses a single option of the run.
+	 *
+	 * @param option
+	 *            the option, in the form <code>--name=value</code>.
+	 * @throws IllegalArgumentException
+	 *             if the option is not valid.
+	 */
+	private void parseOption(final String option) {
+		final int separator = option.indexOf('=');
+		if (!option.startsWith("--") || separator < 0) {
+			throw new IllegalArgumentException("Invalid option: " + option);
+		}
+
+		final String name = option.substring(2, separator);
+		final String value = option.substring(separator + 1);
+		try {
+			if ("threads".equals(name)) {
+				mThreads = Integer.parseInt(value);
+			} else if ("max-queued".equals(name)) {
+				mMaxQueuedMillis = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Reports a job.
+	 *
+	 * @param name
+	 *            the name of the job.
+	 * @param job
+	 *            the job.
+	 * @param results
+	 *            the results of the job.
+	 * @param failures
+	 *            what failed, empty if the job passed.
+	 */
+	private void report(final String name, final ScheduledJob job, final MiningExecutorResults results,
+			final StringBuilder failures) {
+		final boolean passed = failures.length() == 0;
+		mFailed |= !passed;
+
+		double covered = 0;
+		for (final BlockRange range : results.getCoveredRanges()) {
+			covered += MiningProgress.sizeOf(range);
+		}
+		System.out.printf(ROW_FORMAT, name, passed ? "PASS" : "FAIL", job.getQueuedMillis() + " ms",
+				results.getTotalCivicBucks(), String.format("%.3e", covered), failures);
+	}
+}
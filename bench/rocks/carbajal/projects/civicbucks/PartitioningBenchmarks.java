@@ -0,0 +1,146 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of splitting blocks into chunks (see {@link RangePartitioner})
+ * and of whole runs of a {@link MiningExecutor}, from planning the chunks to
+ * collecting the results, for different thread counts.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class PartitioningBenchmarks {
+
+	/**
+	 * The thread counts.
+	 */
+	private static final int[] THREADS = { 1, 2, 8, 64 };
+
+	/**
+	 * The ends of the blocks mined by whole runs, all starting at zero.
+	 */
+	private static final long[] RUN_ENDS = { 100000000L, 1000000000000L };
+
+	/**
+	 * This class only has static methods.
+	 */
+	private PartitioningBenchmarks() {
+	}
+
+	/**
+	 * Creates the benchmarks of this suite.
+	 *
+	 * @return the benchmarks.
+	 */
+	static List<Benchmark> create() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int threads : THREADS) {
+			benchmarks.add(partition(threads, 0, 100000000L));
+			benchmarks.add(partition(threads, Long.MIN_VALUE, Long.MAX_VALUE));
+			benchmarks.add(partitionWide(threads, BigInteger.ZERO, BigInteger.ONE.shiftLeft(100)));
+		}
+		for (final int threads : THREADS) {
+			for (final long end : RUN_ENDS) {
+				benchmarks.add(run(threads, end));
+			}
+		}
+
+		return benchmarks;
+	}
+
+	/**
+	 * Creates the benchmark of partitioning a block within the limit of type
+	 * long.
+	 *
+	 * @param threads
+	 *            the number of threads to plan for.
+	 * @param start
+	 *            the start of the block.
+	 * @param end
+	 *            the end of the block (inclusive).
+	 * @return the benchmark.
+	 */
+	private static Benchmark partition(final int threads, final long start, final long end) {
+		return new Benchmark("partitioner.long", "threads=" + threads + " block=" + start + ".." + end) {
+
+			private final RangePartitioner mPartitioner = new RangePartitioner();
+
+			@Override
+			protected long run() {
+				return mPartitioner.partition(start, end, threads).size();
+			}
+		};
+	}
+
+	/**
+	 * Creates the benchmark of partitioning a block of any size.
+	 *
+	 * @param threads
+	 *            the number of threads to plan for.
+	 * @param start
+	 *            the start of the block.
+	 * @param end
+	 *            the end of the block (inclusive).
+	 * @return the benchmark.
+	 */
+	private static Benchmark partitionWide(final int threads, final BigInteger start, final BigInteger end) {
+		return new Benchmark("partitioner.wide", "threads=" + threads + " block=" + start + ".." + end) {
+
+			private final RangePartitioner mPartitioner = new RangePartitioner();
+
+			@Override
+			protected long run() {
+				return mPartitioner.partition(start, end, threads).size();
+			}
+		};
+	}
+
+	/**
+	 * Creates the benchmark of a whole run of an executor.
+	 *
+	 * @param threads
+	 *            the number of threads of the executor.
+	 * @param end
+	 *            the end of the block (inclusive), which starts at zero.
+	 * @return the benchmark.
+	 */
+	private static Benchmark run(final int threads, final long end) {
+		return new Benchmark("executor.run", "threads=" + threads + " block=0.." + end + " mode=generate") {
+
+			@Override
+			protected long run() throws InterruptedException {
+				final MiningExecutor executor = new MiningExecutor(threads, 0, end, MiningMode.GENERATE);
+				executor.startMining();
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+				return executor.calculateMiningResults().getTotalCivicBucks();
+			}
+		};
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of assembling the results of a run for different output sizes:
+ * combining the results of the tasks (see {@link MiningExecutorResults}) and
+ * formatting the CivicBucks, either in memory or through an
+ * {@link OrderedResultWriter}.
+ *
+ * The CivicBucks are synthetic (any ascending numbers format the same way),
+ * spread evenly over the results of {@value #TASKS} tasks, and the formatted
+ * output is discarded.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class ResultAssemblyBenchmarks {
+
+	/**
+	 * An {@link Appendable} that discards everything, counting characters.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class DiscardingAppendable implements Appendable {
+
+		/**
+		 * The number of characters appended.
+		 */
+		private long mLength = 0;
+
+		@Override
+		public Appendable append(final char c) {
+			mLength++;
+			return this;
+		}
+
+		@Override
+		public Appendable append(final CharSequence csq) {
+			mLength += csq.length();
+			return this;
+		}
+
+		@Override
+		public Appendable append(final CharSequence csq, final int start, final int end) {
+			mLength += end - start;
+			return this;
+		}
+	}
+
+	/**
+	 * A {@link WritableByteChannel} that discards everything, counting bytes.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class DiscardingChannel implements WritableByteChannel {
+
+		/**
+		 * The number of bytes written.
+		 */
+		private long mLength = 0;
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public int write(final ByteBuffer source) {
+			final int length = source.remaining();
+			source.position(source.limit());
+			mLength += length;
+			return length;
+		}
+	}
+
+	/**
+	 * The number of task results the CivicBucks are spread over.
+	 */
+	static final int TASKS = 64;
+
+	/**
+	 * The output sizes, in CivicBucks.
+	 */
+	private static final int[] OUTPUT_SIZES = { 1000, 100000 };
+
+	/**
+	 * This class only has static methods.
+	 */
+	private ResultAssemblyBenchmarks() {
+	}
+
+	/**
+	 * Creates the benchmarks of this suite.
+	 *
+	 * @return the benchmarks.
+	 */
+	static List<Benchmark> create() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int size : OUTPUT_SIZES) {
+			benchmarks.add(results(size));
+			benchmarks.add(writer(size));
+		}
+
+		return benchmarks;
+	}
+
+	/**
+	 * Creates the results of the tasks of a run, with ascending CivicBucks.
+	 *
+	 * @param size
+	 *            the total number of CivicBucks.
+	 * @return the results, in ascending order.
+	 */
+	private static List<TaskResult> createTaskResults(final int size) {
+		final List<TaskResult> taskResults = new ArrayList<TaskResult>(TASKS);
+		final long step = 1000003;
+		long number = 0;
+		for (int task = 0; task < TASKS; task++) {
+			final long start = number;
+			final ResultBuffer civicBucks = new ResultBuffer(1);
+			for (int index = task * size / TASKS; index < (task + 1) * size / TASKS; index++) {
+				civicBucks.add(number);
+				number += step;
+			}
+			taskResults.add(new TaskResult(new BlockRange(start, number - 1), civicBucks));
+		}
+
+		return taskResults;
+	}
+
+	/**
+	 * Creates the benchmark of combining the results of the tasks and
+	 * formatting them in memory.
+	 *
+	 * @param size
+	 *            the total number of CivicBucks.
+	 * @return the benchmark.
+	 */
+	private static Benchmark results(final int size) {
+		return new Benchmark("results.writeOutput", "civicBucks=" + size + " tasks=" + TASKS) {
+
+			private List<TaskResult> mTaskResults;
+
+			@Override
+			protected void setUp() {
+				mTaskResults = createTaskResults(size);
+			}
+
+			@Override
+			protected long run() throws IOException {
+				final BlockRange block = new BlockRange(mTaskResults.get(0).getCoveredRange().getStart(),
+						mTaskResults.get(mTaskResults.size() - 1).getCoveredRange().getEnd());
+				final MiningExecutorResults results = new MiningExecutorResults(block, mTaskResults,
+						new MiningStatistics());
+				final DiscardingAppendable output = new DiscardingAppendable();
+				results.writeOutput(output);
+				return output.mLength;
+			}
+		};
+	}
+
+	/**
+	 * Creates the benchmark of streaming the results of the tasks through an
+	 * {@link OrderedResultWriter}, committed in reverse order (the worst case,
+	 * where nothing can be written before the last commit).
+	 *
+	 * @param size
+	 *            the total number of CivicBucks.
+	 * @return the benchmark.
+	 */
+	private static Benchmark writer(final int size) {
+		return new Benchmark("results.orderedWriter", "civicBucks=" + size + " tasks=" + TASKS) {
+
+			private List<TaskResult> mTaskResults;
+
+			@Override
+			protected void setUp() {
+				mTaskResults = createTaskResults(size);
+			}
+
+			@Override
+			protected long run() throws IOException {
+				final DiscardingChannel channel = new DiscardingChannel();
+				final OrderedResultWriter writer = new OrderedResultWriter(channel, true);
+				writer.start(TASKS);
+				for (int task = TASKS - 1; task >= 0; task--) {
+					writer.commit(task, mTaskResults.get(task));
+				}
+				writer.close();
+				return channel.mLength;
+			}
+		};
+	}
+}
@@ -0,0 +1,450 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the miner scales with the number of threads, end to end: every
+ * trial mines a whole block the way {@link CivicBucksMiner} does by default
+ * (a new {@link MiningExecutor}, its chunks, the CivicBucks formatted in order
+ * by an {@link OrderedResultWriter} and the combined results), only writing
+ * the output to nowhere.
+ *
+ * Every combination of mode, block size and number of threads runs a few
+ * warm-up trials followed by measured ones, and gets a row of the report with
+ * the mean wall time, its standard deviation, the throughput, the speedup,
+ * the efficiency and the time spent in garbage collections:
+ * <ul>
+ * <li>strong scaling mines the same block with every number of threads: the
+ * speedup is {@code b * T(b) / T(n)} for the lowest number of threads
+ * {@code b}, and the efficiency is the speedup divided by {@code n};</li>
+ * <li>weak scaling grows the block with the number of threads, {@code n / b}
+ * times the block size: the efficiency is {@code T(b) / T(n)}, and the
+ * (scaled) speedup is the efficiency times {@code n}.</li>
+ * </ul>
+ *
+ * The number of CivicBucks found is reported too, and a warning is printed
+ * out if it changes with the number of threads.
+ *
+ * <pre>
+ * java ScalingBenchmarkRunner [--threads=1,2,4] [--sizes=1e10,1e12] [--modes=generate,binary-generate]
+ *     [--scaling=strong,weak] [--start=n] [--warmup=n] [--trials=n] [--csv=file]
+ * </pre>
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class ScalingBenchmarkRunner {
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	private static final String USAGE = "Usage: java ScalingBenchmarkRunner [--threads=1,2,4] [--sizes=1e10,1e12]"
+			+ " [--modes=generate,binary-generate] [--scaling=strong,weak] [--start=n] [--warmup=n] [--trials=n]"
+			+ " [--csv=file]";
+
+	/**
+	 * The format of a row of the report.
+	 */
+	private static final String ROW_FORMAT = "%-7s %-16s %8s %16s %12s %10s %16s %9s %10s %8s %10s%n";
+
+	/**
+	 * A channel that discards everything written to it.
+	 */
+	private static final WritableByteChannel NOWHERE = new WritableByteChannel() {
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public int write(final ByteBuffer source) {
+			final int written = source.remaining();
+			source.position(source.limit());
+			return written;
+		}
+	};
+
+	/**
+	 * The numbers of threads to measure, in ascending order.
+	 */
+	private List<Integer> mThreads = defaultThreads();
+
+	/**
+	 * The sizes of the blocks (for the lowest number of threads).
+	 */
+	private List<Long> mSizes = new ArrayList<Long>();
+
+	/**
+	 * The strategies to measure.
+	 */
+	private List<MiningMode> mModes = new ArrayList<MiningMode>();
+
+	/**
+	 * Whether to measure strong scaling.
+	 */
+	private boolean mStrong = true;
+
+	/**
+	 * Whether to measure weak scaling.
+	 */
+	private boolean mWeak = true;
+
+	/**
+	 * The start of every block.
+	 */
+	private long mStart = 0;
+
+	/**
+	 * The number of warm-up trials of every combination.
+	 */
+	private int mWarmupTrials = 2;
+
+	/**
+	 * The number of measured trials of every combination.
+	 */
+	private int mTrials = 5;
+
+	/**
+	 * The file to write the results to as CSV, or <code>null</code>.
+	 */
+	private String mCsvFile = null;
+
+	/**
+	 * Creates a runner with the default matrix.
+	 */
+	private ScalingBenchmarkRunner() {
+		mSizes.add(Long.valueOf(10000000000L));
+		mSizes.add(Long.valueOf(1000000000000L));
+		mModes.add(MiningMode.GENERATE);
+		mModes.add(MiningMode.BINARY_GENERATE);
+	}
+
+	/**
+	 * Runs the benchmarks as described in {@link ScalingBenchmarkRunner}.
+	 *
+	 * @param args
+	 *            the options of the run.
+	 */
+	public static void main(final String[] args) {
+		final ScalingBenchmarkRunner runner = new ScalingBenchmarkRunner();
+		try {
+			for (final String option : args) {
+				runner.parseOption(option);
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(2);
+		}
+
+		try {
+			runner.runAll();
+		} catch (final IOException e) {
+			System.out.println("Unable to write the results (see error below).");
+			e.printStackTrace();
+		} catch (final InterruptedException e) {
+			System.out.println("Thread interrupted (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the total time (in millis) spent in garbage collections so far.
+	 */
+	private static long collectionTime() {
+		long time = 0;
+		for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+
+		return time;
+	}
+
+	/**
+	 * Returns the default numbers of threads: the powers of two up to the
+	 * number of processors, and the number of processors.
+	 *
+	 * @return the numbers of threads, in ascending order.
+	 */
+	private static List<Integer> defaultThreads() {
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final List<Integer> threads = new ArrayList<Integer>();
+		for (int count = 1; count < processors; count *= 2) {
+			threads.add(Integer.valueOf(count));
+		}
+		threads.add(Integer.valueOf(processors));
+
+		return threads;
+	}
+
+	/**
+	 * Returns the name of a mode, as it is given on the command line.
+	 *
+	 * @param mode
+	 *            the mode.
+	 * @return its name.
+	 */
+	private static String nameOf(final MiningMode mode) {
+		return mode.name().toLowerCase().replace('_', '-');
+	}
+
+	/**
+	 * Parses a positive count, also in scientific notation (e.g. 1e10).
+	 *
+	 * @param name
+	 *            the name of the value, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a positive whole number.
+	 */
+	private static long parseCount(final String name, final String value) {
+		final long count;
+		try {
+			count = new BigDecimal(value).longValueExact();
+		} catch (final NumberFormatException | ArithmeticException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+		if (count < 1) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Mines a block once, end to end.
+	 *
+	 * @param mode
+	 *            the strategy for finding CivicBucks.
+	 * @param threads
+	 *            the number of threads.
+	 * @param size
+	 *            the size of the block.
+	 * @return the wall time (in nanos), the time spent in garbage collections
+	 *         (in millis) and the number of CivicBucks found.
+	 * @throws IOException
+	 *             if the results cannot be written out.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the executor.
+	 */
+	private long[] mine(final MiningMode mode, final int threads, final long size)
+			throws IOException, InterruptedException {
+		// start every trial with a clean heap, so that it does not pay for the garbage of the previous one
+		System.gc();
+
+		final long collectionTimeBefore = collectionTime();
+		final long startTime = System.nanoTime();
+		final MiningExecutor executor = new MiningExecutor(threads, mStart, mStart + size - 1, mode);
+		final OrderedResultWriter writer = new OrderedResultWriter(NOWHERE, false);
+		executor.startMining(writer);
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		writer.close();
+		final MiningExecutorResults results = executor.calculateMiningResults();
+		final long wallTime = System.nanoTime() - startTime;
+
+		return new long[] { wallTime, collectionTime() - collectionTimeBefore, results.getTotalCivicBucks() };
+	}
+
+	/**
+	 * Parses a single option in the form <code>--name=value</code>.
+	 *
+	 * @param option
+	 *            the option to parse.
+	 * @throws IllegalArgumentException
+	 *             if the option is unknown or its value is not valid.
+	 */
+	private void parseOption(final String option) {
+		final int separator = option.indexOf('=');
+		if (!option.startsWith("--") || separator < 0) {
+			throw new IllegalArgumentException("Invalid option: " + option);
+		}
+
+		final String name = option.substring(2, separator);
+		final String value = option.substring(separator + 1);
+		if ("threads".equals(name)) {
+			mThreads = new ArrayList<Integer>();
+			for (final String count : value.split(",")) {
+				final long threads = parseCount(name, count);
+				if (threads > Integer.MAX_VALUE
+						|| (!mThreads.isEmpty() && threads <= mThreads.get(mThreads.size() - 1).intValue())) {
+					throw new IllegalArgumentException("The numbers of threads must be in ascending order: " + value);
+				}
+				mThreads.add(Integer.valueOf((int) threads));
+			}
+		} else if ("sizes".equals(name)) {
+			mSizes = new ArrayList<Long>();
+			for (final String size : value.split(",")) {
+				mSizes.add(Long.valueOf(parseCount(name, size)));
+			}
+		} else if ("modes".equals(name)) {
+			mModes = new ArrayList<MiningMode>();
+			for (final String mode : value.split(",")) {
+				mModes.add(MiningMode.fromName(mode));
+			}
+		} else if ("scaling".equals(name)) {
+			mStrong = false;
+			mWeak = false;
+			for (final String scaling : value.split(",")) {
+				if ("strong".equals(scaling)) {
+					mStrong = true;
+				} else if ("weak".equals(scaling)) {
+					mWeak = true;
+				} else {
+					throw new IllegalArgumentException("Invalid scaling: " + scaling);
+				}
+			}
+		} else if ("start".equals(name)) {
+			try {
+				mStart = Long.parseLong(value);
+			} catch (final NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+			}
+		} else if ("warmup".equals(name)) {
+			mWarmupTrials = (int) Math.min(Integer.MAX_VALUE, parseCount(name, value));
+		} else if ("trials".equals(name)) {
+			mTrials = (int) Math.min(Integer.MAX_VALUE, parseCount(name, value));
+		} else if ("csv".equals(name)) {
+			mCsvFile = value;
+		} else {
+			throw new IllegalArgumentException("Unknown option: " + option);
+		}
+	}
+
+	/**
+	 * Measures every combination of the matrix, printing out a row of the
+	 * report for each one as soon as it is measured, and writes out the CSV
+	 * file if requested.
+	 *
+	 * @throws IOException
+	 *             if the results or the CSV file cannot be written.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for an executor.
+	 */
+	private void runAll() throws IOException, InterruptedException {
+		System.out.println("Threads: " + mThreads + ", warm-up: " + mWarmupTrials + " trials, measurement: "
+				+ mTrials + " trials");
+		System.out.printf(ROW_FORMAT, "Scaling", "Mode", "Threads", "Block size", "Wall ms", "sd", "numbers/s",
+				"Speedup", "Efficiency", "GC ms", "CivicBucks");
+
+		final List<String[]> rows = new ArrayList<String[]>();
+		final List<String> scalings = new ArrayList<String>();
+		if (mStrong) {
+			scalings.add("strong");
+		}
+		if (mWeak) {
+			scalings.add("weak");
+		}
+		final int baseThreads = mThreads.get(0).intValue();
+		for (final String scaling : scalings) {
+			for (final MiningMode mode : mModes) {
+				for (final Long baseSize : mSizes) {
+					double baseWallTime = 0;
+					long baseCivicBucks = -1;
+					for (final Integer threads : mThreads) {
+						final boolean weak = "weak".equals(scaling);
+						final long size = weak ? baseSize.longValue() / baseThreads * threads.intValue()
+								: baseSize.longValue();
+
+						for (int trial = 0; trial < mWarmupTrials; trial++) {
+							mine(mode, threads.intValue(), size);
+						}
+						final double[] wallTimes = new double[mTrials];
+						double collectionMillis = 0;
+						long civicBucks = 0;
+						for (int trial = 0; trial < mTrials; trial++) {
+							final long[] measured = mine(mode, threads.intValue(), size);
+							wallTimes[trial] = measured[0];
+							collectionMillis += (double) measured[1] / mTrials;
+							civicBucks = measured[2];
+						}
+
+						double mean = 0;
+						for (final double value : wallTimes) {
+							mean += value / wallTimes.length;
+						}
+						double variance = 0;
+						for (final double value : wallTimes) {
+							variance += (value - mean) * (value - mean) / Math.max(1, wallTimes.length - 1);
+						}
+
+						if (threads.intValue() == baseThreads) {
+							baseWallTime = mean;
+							baseCivicBucks = civicBucks;
+						} else if (!weak && civicBucks != baseCivicBucks) {
+							System.out.println("Warning: " + civicBucks + " CivicBucks with " + threads
+									+ " threads, " + baseCivicBucks + " with " + baseThreads);
+						}
+						final double efficiency = weak ? baseWallTime / mean
+								: baseThreads * baseWallTime / mean / threads.intValue();
+						final double speedup = efficiency * threads.intValue();
+
+						final String[] row = { scaling, nameOf(mode), String.valueOf(threads), String.valueOf(size),
+								String.format("%.3f", mean / 1e6), String.format("%.3f", Math.sqrt(variance) / 1e6),
+								String.format("%.0f", size * 1e9 / mean), String.format("%.3f", speedup),
+								String.format("%.3f", efficiency), String.format("%.1f", collectionMillis),
+								String.valueOf(civicBucks) };
+						rows.add(row);
+						System.out.printf(ROW_FORMAT, (Object[]) row);
+					}
+				}
+			}
+		}
+
+		if (mCsvFile != null) {
+			try (final PrintWriter csv = new PrintWriter(
+					Files.newBufferedWriter(Paths.get(mCsvFile), StandardCharsets.US_ASCII))) {
+				csv.println("scaling,mode,threads,block_size,wall_millis,wall_millis_sd,numbers_per_second,speedup,"
+						+ "efficiency,gc_millis,civicbucks");
+				for (final String[] row : rows) {
+					final StringBuilder line = new StringBuilder();
+					for (int cell = 0; cell < row.length; cell++) {
+						line.append(cell == 0 ? "" : ",").append(row[cell]);
+					}
+					csv.println(line);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the fastest {@link MiningAlgorithm} for a block on this machine (see
+ * {@link MiningMode#AUTO}), so that the same build tunes itself for every
+ * hardware configuration it is deployed on.
+ *
+ * Every candidate mines the same sample of the block: a few windows spread
+ * evenly over the part of the block within the limit of type long, since the
+ * cost of the generating algorithms depends on the magnitude of the numbers
+ * and the cost of scanning does not. The windows start small and grow in
+ * rounds, until the fastest candidate takes long enough to be measured
+ * reliably (which also warms up the compiled code of every candidate), the
+ * windows cover the whole block, or the calibration budget runs out.
+ * Candidates that fall far behind are dropped after each round, so the
+ * calibration never waits for a scan of large windows.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class AlgorithmCalibrator {
+
+	/**
+	 * The maximum time (in nanos) spent calibrating.
+	 */
+	static final long CALIBRATION_BUDGET_NANOS = 100000000L;
+
+	/**
+	 * The number of windows in the sample.
+	 */
+	private static final int SAMPLE_WINDOWS = 4;
+
+	/**
+	 * The size of every window in the first round.
+	 */
+	private static final long INITIAL_WINDOW_SIZE = 1024;
+
+	/**
+	 * The factor by which the windows grow after every round.
+	 */
+	private static final long WINDOW_GROWTH = 4;
+
+	/**
+	 * The minimum number of rounds, so that every candidate is warmed up.
+	 */
+	private static final int MIN_ROUNDS = 3;
+
+	/**
+	 * The time (in nanos) the fastest candidate must take on the sample for
+	 * the measurement to be reliable.
+	 */
+	private static final long RELIABLE_NANOS = 2000000L;
+
+	/**
+	 * How many times slower than the fastest one a candidate may be before it
+	 * is dropped.
+	 */
+	private static final long DROP_FACTOR = 8;
+
+	/**
+	 * This class only has static methods.
+	 */
+	private AlgorithmCalibrator() {
+	}
+
+	/**
+	 * Picks the fastest algorithm of every {@link MiningMode} for the
+	 * specified block.
+	 *
+	 * @param blockStart
+	 *            the start of the block.
+	 * @param blockEnd
+	 *            the end of the block (inclusive).
+	 * @return the fastest algorithm.
+	 */
+	static MiningAlgorithm calibrate(final BigInteger blockStart, final BigInteger blockEnd) {
+		final List<MiningAlgorithm> candidates = new ArrayList<MiningAlgorithm>();
+		for (final MiningMode mode : MiningMode.values()) {
+			if (mode.getAlgorithm() != null) {
+				candidates.add(mode.getAlgorithm());
+			}
+		}
+
+		return calibrate(candidates, blockStart, blockEnd, CALIBRATION_BUDGET_NANOS);
+	}
+
+	/**
+	 * Picks the fastest of the specified algorithms for the specified block.
+	 *
+	 * @param candidates
+	 *            the algorithms to measure, at least one.
+	 * @param blockStart
+	 *            the start of the block.
+	 * @param blockEnd
+	 *            the end of the block (inclusive).
+	 * @param budgetNanos
+	 *            the maximum time (in nanos) to spend calibrating, which may be
+	 *            exceeded by the last round.
+	 * @return the fastest algorithm, or the first candidate if the block has
+	 *         no non-negative part within the limit of type long (where the
+	 *         choice does not matter).
+	 */
+	static MiningAlgorithm calibrate(final List<MiningAlgorithm> candidates, final BigInteger blockStart,
+			final BigInteger blockEnd, final long budgetNanos) {
+		/*
+		 * Negative numbers are never CivicBucks and every candidate skips
+		 * them, so only the non-negative part of the block within the limit of
+		 * type long is sampled.
+		 */
+		final BigInteger longMax = BigInteger.valueOf(Long.MAX_VALUE);
+		if (blockEnd.signum() < 0 || blockStart.compareTo(longMax) > 0) {
+			return candidates.get(0);
+		}
+		final long low = blockStart.max(BigInteger.ZERO).longValue();
+		final long high = blockEnd.min(longMax).longValue();
+
+		final long deadline = System.nanoTime() + budgetNanos;
+		List<MiningAlgorithm> remaining = new ArrayList<MiningAlgorithm>(candidates);
+		MiningAlgorithm best;
+		long windowSize = INITIAL_WINDOW_SIZE;
+		for (int round = 1;; round++) {
+			final long[] times = new long[remaining.size()];
+			for (int candidate = 0; candidate < remaining.size(); candidate++) {
+				times[candidate] = measure(remaining.get(candidate), low, high, windowSize);
+			}
+
+			final int fastest = indexOfFastest(times);
+			best = remaining.get(fastest);
+
+			final List<MiningAlgorithm> kept = new ArrayList<MiningAlgorithm>(remaining.size());
+			for (int candidate = 0; candidate < remaining.size(); candidate++) {
+				if (times[candidate] <= Math.max(times[fastest], 1) * DROP_FACTOR) {
+					kept.add(remaining.get(candidate));
+				}
+			}
+			remaining = kept;
+
+			final boolean coversBlock = windowSize > (high - low) / SAMPLE_WINDOWS;
+			if (remaining.size() == 1 || System.nanoTime() > deadline
+					|| (round >= MIN_ROUNDS && (times[fastest] >= RELIABLE_NANOS || coversBlock))) {
+				break;
+			}
+
+			if (!coversBlock) {
+				windowSize = (windowSize > Long.MAX_VALUE / WINDOW_GROWTH) ? Long.MAX_VALUE
+						: windowSize * WINDOW_GROWTH;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Returns the index of the lowest of the specified times.
+	 *
+	 * @param times
+	 *            the times, at least one.
+	 * @return the index of the lowest time (the first one on ties).
+	 */
+	private static int indexOfFastest(final long[] times) {
+		int fastest = 0;
+		for (int index = 1; index < times.length; index++) {
+			if (times[index] < times[fastest]) {
+				fastest = index;
+			}
+		}
+
+		return fastest;
+	}
+
+	/**
+	 * Measures the time an algorithm takes to mine the windows of a sample.
+	 *
+	 * @param algorithm
+	 *            the algorithm to measure.
+	 * @param low
+	 *            the lowest number of the sampled range, non-negative.
+	 * @param high
+	 *            the highest number of the sampled range.
+	 * @param windowSize
+	 *            the size of every window.
+	 * @return the time (in nanos) taken by all the windows.
+	 */
+	private static long measure(final MiningAlgorithm algorithm, final long low, final long high,
+			final long windowSize) {
+		/*
+		 * The windows end at evenly spaced points, the last one at the end of
+		 * the range; they may overlap when they are large.
+		 */
+		final long spacing = (high - low) / SAMPLE_WINDOWS;
+		final long start = System.nanoTime();
+		for (int window = 0; window < SAMPLE_WINDOWS; window++) {
+			final long windowEnd = high - window * spacing;
+			final long windowStart = (windowEnd - low < windowSize) ? low : windowEnd - windowSize + 1;
+			algorithm.mine(windowStart, windowEnd);
+		}
+
+		return System.nanoTime() - start;
+	}
+}
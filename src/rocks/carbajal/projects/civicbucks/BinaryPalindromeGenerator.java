@@ -0,0 +1,200 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Generates, in ascending order, all the binary palindromes that lie within a
+ * range of non-negative numbers.
+ *
+ * This is the binary counterpart of {@link PalindromeGenerator}: each
+ * palindrome is built by taking the left half of its bits and mirroring them
+ * onto the right side (e.g. the half 101 yields 10101 for an odd number of
+ * bits and 101101 for an even number of bits). A range of up to N holds
+ * roughly 2 * sqrt(N) binary palindromes, slightly fewer than decimal ones for
+ * most ranges.
+ *
+ * The generator works with primitive values only and does not allocate while
+ * iterating.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class BinaryPalindromeGenerator {
+
+	/**
+	 * The maximum number of bits of a (positive) long value.
+	 */
+	private static final int MAX_BITS = Long.SIZE - 1;
+
+	/**
+	 * The end of the range to generate (inclusive).
+	 */
+	private final long mEnd;
+
+	/**
+	 * The number of bits of the palindromes currently being generated.
+	 */
+	private int mBits;
+
+	/**
+	 * The left half (including the middle bit for an odd number of bits) of
+	 * the next palindrome to build.
+	 */
+	private long mHalf;
+
+	/**
+	 * The first value that no longer fits in the left half for the current
+	 * number of bits (i.e. 2^halfLength).
+	 */
+	private long mHalfLimit;
+
+	/**
+	 * The next palindrome to return, only meaningful if {@link #mHasNext} is
+	 * <code>true</code>.
+	 */
+	private long mNext;
+
+	/**
+	 * Whether there is a next palindrome within the range.
+	 */
+	private boolean mHasNext;
+
+	/**
+	 * Creates a generator for all the binary palindromes from {@code start}
+	 * to {@code end} (inclusive). Negative numbers are not considered
+	 * palindromes (just like for {@link PalindromeGenerator}), so the range is
+	 * clamped at zero.
+	 *
+	 * @param start
+	 *            the start of the range.
+	 * @param end
+	 *            the end of the range (inclusive).
+	 */
+	public BinaryPalindromeGenerator(final long start, final long end) {
+		mEnd = end;
+
+		final long from = Math.max(start, 0);
+		if (from > end) {
+			mHasNext = false;
+			return;
+		}
+
+		if (from == 0) {
+			// "0" is a palindrome, followed by the palindromes of a single bit
+			setBits(1);
+			mHalf = 1;
+			mNext = 0;
+			mHasNext = true;
+			return;
+		}
+
+		/*
+		 * Position the generator on the left half of the first number in the
+		 * range: the mirror of that half may still be lower than the start of
+		 * the range, in which case it is skipped.
+		 */
+		setBits(Long.SIZE - Long.numberOfLeadingZeros(from));
+		mHalf = from >>> (mBits - halfLength(mBits));
+
+		advance();
+		while (mHasNext && mNext < from) {
+			advance();
+		}
+	}
+
+	/**
+	 * Returns the length of the left half (including the middle bit) of a
+	 * palindrome with the specified number of bits.
+	 */
+	private static int halfLength(final int bits) {
+		return (bits + 1) / 2;
+	}
+
+	/**
+	 * Builds the next palindrome from the current left half and moves to the
+	 * following half, updating {@link #mNext} and {@link #mHasNext}.
+	 */
+	private void advance() {
+		if (mHalf == mHalfLimit) {
+			// all the halves of this length were used, add one more bit
+			if (mBits == MAX_BITS) {
+				mHasNext = false;
+				return;
+			}
+			setBits(mBits + 1);
+			mHalf = mHalfLimit >>> 1;
+		}
+
+		/*
+		 * Mirror the half: the right side is the half reversed, leaving out
+		 * the middle bit when the number of bits is odd (which is the highest
+		 * bit of the reversed half).
+		 */
+		final int halfLength = halfLength(mBits);
+		final int mirroredBits = mBits - halfLength;
+		final long reversedHalf = Long.reverse(mHalf) >>> (Long.SIZE - halfLength);
+
+		mNext = (mHalf << mirroredBits) | (reversedHalf & ((1L << mirroredBits) - 1));
+		mHasNext = mNext <= mEnd;
+		mHalf++;
+	}
+
+	/**
+	 * Returns <code>true</code> if there are more palindromes in the range.
+	 */
+	public boolean hasNext() {
+		return mHasNext;
+	}
+
+	/**
+	 * Returns the next palindrome in the range, in ascending order.
+	 *
+	 * @return the next palindrome.
+	 * @throws NoSuchElementException
+	 *             if there are no more palindromes in the range.
+	 */
+	public long next() {
+		if (!mHasNext) {
+			throw new NoSuchElementException();
+		}
+
+		final long palindrome = mNext;
+		advance();
+		return palindrome;
+	}
+
+	/**
+	 * Sets the number of bits of the palindromes to generate and the limit of
+	 * their left halves.
+	 *
+	 * @param bits
+	 *            the number of bits.
+	 */
+	private void setBits(final int bits) {
+		mBits = bits;
+		mHalfLimit = 1L << halfLength(bits);
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+
+/**
+ * An immutable range of numbers within a block to mine, from a start to an end
+ * (both inclusive).
+ *
+ * Ranges may go beyond the limit of type long (see {@link NumericTier}); the
+ * long accessors are only available for ranges that fit in type long.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class BlockRange {
+
+	/**
+	 * The lowest value of type long, as a {@link BigInteger}.
+	 */
+	private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+
+	/**
+	 * The highest value of type long, as a {@link BigInteger}.
+	 */
+	private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+	/**
+	 * The start of the range.
+	 */
+	private final BigInteger mStart;
+
+	/**
+	 * The end of the range (inclusive).
+	 */
+	private final BigInteger mEnd;
+
+	/**
+	 * Whether both ends of the range fit in type long.
+	 */
+	private final boolean mFitsLong;
+
+	/**
+	 * Creates a new range from {@code start} to {@code end} (inclusive).
+	 *
+	 * @param start
+	 *            the start of the range.
+	 * @param end
+	 *            the end of the range (inclusive).
+	 * @throws IllegalArgumentException
+	 *             if {@code start} is greater than {@code end}.
+	 */
+	public BlockRange(final BigInteger start, final BigInteger end) {
+		if (start.compareTo(end) > 0) {
+			throw new IllegalArgumentException("Invalid range: " + start + " to " + end);
+		}
+
+		mStart = start;
+		mEnd = end;
+		mFitsLong = start.compareTo(LONG_MIN) >= 0 && end.compareTo(LONG_MAX) <= 0;
+	}
+
+	/**
+	 * Creates a new range from {@code start} to {@code end} (inclusive).
+	 *
+	 * @param start
+	 *            the start of the range.
+	 * @param end
+	 *            the end of the range (inclusive).
+	 * @throws IllegalArgumentException
+	 *             if {@code start} is greater than {@code end}.
+	 */
+	public BlockRange(final long start, final long end) {
+		this(BigInteger.valueOf(start), BigInteger.valueOf(end));
+	}
+
+	/**
+	 * Returns <code>true</code> if both ends of the range fit in type long.
+	 */
+	public boolean fitsLong() {
+		return mFitsLong;
+	}
+
+	/**
+	 * Returns the end of the range (inclusive).
+	 *
+	 * @throws ArithmeticException
+	 *             if the range does not fit in type long.
+	 */
+	public long getEnd() {
+		checkFitsLong();
+		return mEnd.longValue();
+	}
+
+	/**
+	 * Returns the end of the range (inclusive), of any size.
+	 */
+	public BigInteger getEndValue() {
+		return mEnd;
+	}
+
+	/**
+	 * Returns the start of the range.
+	 *
+	 * @throws ArithmeticException
+	 *             if the range does not fit in type long.
+	 */
+	public long getStart() {
+		checkFitsLong();
+		return mStart.longValue();
+	}
+
+	/**
+	 * Returns the start of the range, of any size.
+	 */
+	public BigInteger getStartValue() {
+		return mStart;
+	}
+
+	/**
+	 * Returns the cheapest {@link NumericTier} that can hold every number in
+	 * the range.
+	 */
+	public NumericTier getTier() {
+		if (mFitsLong) {
+			return NumericTier.LONG;
+		}
+
+		// only arbitrary precision can hold values below the limit of type long
+		return mStart.compareTo(LONG_MIN) < 0 ? NumericTier.BIG_INTEGER : NumericTier.forValue(mEnd);
+	}
+
+	/**
+	 * Throws an {@link ArithmeticException} if the range does not fit in type
+	 * long.
+	 */
+	private void checkFitsLong() {
+		if (!mFitsLong) {
+			throw new ArithmeticException("Range exceeds the limit of type long: " + this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[" + mStart + ", " + mEnd + "]";
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of the interleaved shards of a block, mined by an independent
+ * {@link CivicBucksMiner} process (see the <code>--shard=i/N</code> option)
+ * and merged with the others by {@link ShardMerger}.
+ *
+ * The block is split into stripes just like a {@link RangePartitioner} splits
+ * it into chunks for N threads, and the i-th shard gets every N-th stripe
+ * starting with the i-th one. Interleaving the stripes spreads the cost of the
+ * block evenly between the shards, since the density of palindromes (and so
+ * the cost of mining them) changes along the block. The stripes only depend on
+ * the block and the number of shards, so every process computes the same ones
+ * without talking to the others.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class BlockShard {
+
+	/**
+	 * The minimum number of values of a stripe.
+	 */
+	static final long MIN_STRIPE_SIZE = 1000000;
+
+	/**
+	 * The position of the shard, from 1 to {@link #mCount}.
+	 */
+	private final int mIndex;
+
+	/**
+	 * The number of shards of the block.
+	 */
+	private final int mCount;
+
+	/**
+	 * Creates the specified shard.
+	 *
+	 * @param index
+	 *            the position of the shard, from 1 to {@code count}.
+	 * @param count
+	 *            the number of shards of the block.
+	 * @throws IllegalArgumentException
+	 *             if the position is not within the shards.
+	 */
+	BlockShard(final int index, final int count) {
+		if (count < 1 || index < 1 || index > count) {
+			throw new IllegalArgumentException("Invalid shard: " + index + "/" + count);
+		}
+
+		mIndex = index;
+		mCount = count;
+	}
+
+	/**
+	 * Parses a shard in the form <code>i/N</code>.
+	 *
+	 * @param value
+	 *            the shard to parse.
+	 * @return the shard.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a valid shard.
+	 */
+	static BlockShard parse(final String value) {
+		final int separator = value.indexOf('/');
+		if (separator < 0) {
+			throw new IllegalArgumentException("Invalid shard: " + value);
+		}
+
+		try {
+			return new BlockShard(Integer.parseInt(value.substring(0, separator)),
+					Integer.parseInt(value.substring(separator + 1)));
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid shard: " + value, e);
+		}
+	}
+
+	/**
+	 * Returns the number of shards of the block.
+	 */
+	int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns the position of the shard, from 1 to {@link #getCount()}.
+	 */
+	int getIndex() {
+		return mIndex;
+	}
+
+	/**
+	 * Returns the stripes of the specified block that belong to this shard.
+	 *
+	 * @param blockStart
+	 *            the start of the block.
+	 * @param blockEnd
+	 *            the end of the block (inclusive).
+	 * @return the stripes of the shard, in ascending order; empty if the block
+	 *         is too small to give this shard a stripe.
+	 */
+	List<BlockRange> stripes(final BigInteger blockStart, final BigInteger blockEnd) {
+		final List<BlockRange> stripes = new RangePartitioner(MIN_STRIPE_SIZE).partition(blockStart, blockEnd, mCount);
+		final List<BlockRange> shardStripes = new ArrayList<BlockRange>();
+		for (int stripe = mIndex - 1; stripe < stripes.size(); stripe += mCount) {
+			shardStripes.add(stripes.get(stripe));
+		}
+
+		return shardStripes;
+	}
+
+	@Override
+	public String toString() {
+		return mIndex + "/" + mCount;
+	}
+}
@@ -0,0 +1,560 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A crash-safe journal of the sub-ranges of a block that were completely
+ * mined, along with their CivicBucks, so that a run that timed out (or was
+ * killed) can be resumed without mining them again.
+ *
+ * The journal is a memory-mapped file: a header followed by one record per
+ * completed task (see {@link #append(TaskResult)}), each made of its length,
+ * a CRC-32 checksum and a payload with the covered range and the words of its
+ * CivicBucks (see {@link ResultBuffer}). Records are written straight into the
+ * mapping, so they reach the operating system as soon as they are appended
+ * and survive the process being killed. Forcing them to the storage device is
+ * left to a thread of the journal, which forces the records appended within a
+ * short interval together (group commit) instead of making every mining
+ * thread wait for a force of its own: a system crash loses at most the
+ * records of the last interval.
+ *
+ * A record that was torn by a crash fails its checksum when it is read back,
+ * and the reading resumes at the next valid record, so a torn record only
+ * costs its own chunk, which is mined again.
+ *
+ * A resumed journal (see {@link #resume(Path)}) keeps its records and appends
+ * the new ones after them.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class CheckpointJournal implements Closeable {
+
+	/**
+	 * The first bytes of every journal ("CBJ1").
+	 */
+	private static final int MAGIC = 0x43424A31;
+
+	/**
+	 * The version of the record format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size (in bytes) of the journal header: magic and version.
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * The size (in bytes) of the header of every record: payload length and
+	 * checksum.
+	 */
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	/**
+	 * The size (in bytes) of the initial mapping, which doubles as needed.
+	 */
+	private static final int INITIAL_MAPPING_SIZE = 1024 * 1024;
+
+	/**
+	 * The time (in millis) the records appended after a force wait for the
+	 * next one, at most.
+	 */
+	private static final long FORCE_INTERVAL_MILLIS = 50;
+
+	/**
+	 * The number of records not forced yet that triggers a force before the
+	 * interval is over.
+	 */
+	private static final int FORCE_BATCH_SIZE = 64;
+
+	/**
+	 * The channel of the journal file.
+	 */
+	private final FileChannel mChannel;
+
+	/**
+	 * The results read back from a resumed journal, in the order they were
+	 * appended.
+	 */
+	private final List<TaskResult> mRecovered = new ArrayList<TaskResult>();
+
+	/**
+	 * The mapping of the journal file, remapped whenever it grows. Guarded by
+	 * this journal's monitor.
+	 */
+	private MappedByteBuffer mMapping;
+
+	/**
+	 * The position where the next record is appended. Guarded by this
+	 * journal's monitor.
+	 */
+	private int mPosition;
+
+	/**
+	 * The number of records appended so far. Guarded by this journal's
+	 * monitor.
+	 */
+	private long mAppended = 0;
+
+	/**
+	 * The number of records appended before the last force. Guarded by this
+	 * journal's monitor.
+	 */
+	private long mForced = 0;
+
+	/**
+	 * Whether the journal is closed. Guarded by this journal's monitor.
+	 */
+	private boolean mClosed = false;
+
+	/**
+	 * The first error that occurred while appending, if any. No more records
+	 * are appended after an error.
+	 */
+	private volatile IOException mError = null;
+
+	/**
+	 * Opens a journal on the specified channel.
+	 *
+	 * @param channel
+	 *            the channel of the journal file.
+	 * @throws IOException
+	 *             if the file cannot be mapped, or if it is not a journal.
+	 */
+	private CheckpointJournal(final FileChannel channel) throws IOException {
+		mChannel = channel;
+
+		final long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Checkpoint journal too large: " + size + " bytes");
+		}
+		if (size == 0) {
+			mMapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_MAPPING_SIZE);
+			mMapping.putInt(0, MAGIC);
+			mMapping.putInt(4, VERSION);
+			mMapping.force();
+			mPosition = HEADER_SIZE;
+		} else {
+			// the mapping grows on the first append, not before the file is known to be a journal
+			mMapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (size < HEADER_SIZE || mMapping.getInt(0) != MAGIC || mMapping.getInt(4) != VERSION) {
+				throw new IOException("Not a checkpoint journal");
+			}
+			mPosition = readRecords();
+		}
+
+		final Thread forceThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				forceRecords();
+			}
+		}, "civicbucks-journal");
+		forceThread.setDaemon(true);
+		forceThread.start();
+	}
+
+	/**
+	 * Computes the checksum of a record payload.
+	 *
+	 * @param payload
+	 *            the payload.
+	 * @return the CRC-32 checksum of the payload.
+	 */
+	private static int checksum(final byte[] payload) {
+		final CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Creates a new, empty journal in the specified file, which is created or
+	 * truncated.
+	 *
+	 * @param path
+	 *            the journal file.
+	 * @return the journal.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public static CheckpointJournal create(final Path path) throws IOException {
+		return open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Decodes a record payload into a task result.
+	 *
+	 * @param payload
+	 *            the payload, as written by {@link #encode(TaskResult)}.
+	 * @return the result, or <code>null</code> if the payload is not valid.
+	 */
+	static TaskResult decode(final ByteBuffer payload) {
+		final BigInteger start = getBigInteger(payload);
+		final BigInteger end = getBigInteger(payload);
+		if (start == null || end == null || start.compareTo(end) > 0 || payload.remaining() < 8) {
+			return null;
+		}
+
+		final int wordsPerNumber = payload.getInt();
+		final int size = payload.getInt();
+		if (wordsPerNumber < 1 || size < 0 || (long) size * wordsPerNumber * 8 != payload.remaining()) {
+			return null;
+		}
+
+		final long[] words = new long[size * wordsPerNumber];
+		payload.asLongBuffer().get(words);
+		return new TaskResult(new BlockRange(start, end), new ResultBuffer(wordsPerNumber, words));
+	}
+
+	/**
+	 * Encodes the covered range and the CivicBucks of a task result into a
+	 * record payload, which is also how results travel over the network (see
+	 * {@link LeaseProtocol}).
+	 *
+	 * @param result
+	 *            the result to encode, with a covered range and CivicBucks.
+	 * @return the payload.
+	 */
+	static byte[] encode(final TaskResult result) {
+		final byte[] start = result.getCoveredRange().getStartValue().toByteArray();
+		final byte[] end = result.getCoveredRange().getEndValue().toByteArray();
+		final ResultBuffer civicBucks = result.getCivicBucks();
+		final int words = civicBucks.size() * civicBucks.getWordsPerNumber();
+
+		final byte[] payload = new byte[4 + start.length + 4 + end.length + 4 + 4 + words * 8];
+		final ByteBuffer buffer = ByteBuffer.wrap(payload);
+		buffer.putInt(start.length).put(start);
+		buffer.putInt(end.length).put(end);
+		buffer.putInt(civicBucks.getWordsPerNumber()).putInt(civicBucks.size());
+		for (int word = 0; word < words; word++) {
+			buffer.putLong(civicBucks.getWord(word));
+		}
+
+		return payload;
+	}
+
+	/**
+	 * Reads a length-prefixed {@link BigInteger} from a payload.
+	 *
+	 * @param payload
+	 *            the payload to read from.
+	 * @return the number, or <code>null</code> if it is not valid.
+	 */
+	private static BigInteger getBigInteger(final ByteBuffer payload) {
+		if (payload.remaining() < 4) {
+			return null;
+		}
+
+		final int length = payload.getInt();
+		if (length < 1 || length > payload.remaining()) {
+			return null;
+		}
+
+		final byte[] bytes = new byte[length];
+		payload.get(bytes);
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Opens the journal file with the specified options.
+	 *
+	 * @param path
+	 *            the journal file.
+	 * @param options
+	 *            the options to open the file with.
+	 * @return the journal.
+	 * @throws IOException
+	 *             if the file cannot be opened, or if it is not a journal.
+	 */
+	private static CheckpointJournal open(final Path path, final StandardOpenOption... options) throws IOException {
+		final FileChannel channel = FileChannel.open(path, options);
+		try {
+			return new CheckpointJournal(channel);
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the journal in the specified file, reading back the records of a
+	 * previous run (see {@link #recover(BigInteger, BigInteger)}). The file is
+	 * created if it does not exist.
+	 *
+	 * @param path
+	 *            the journal file.
+	 * @return the journal.
+	 * @throws IOException
+	 *             if the file cannot be opened, or if it is not a journal.
+	 */
+	public static CheckpointJournal resume(final Path path) throws IOException {
+		return open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Appends a record with the covered range and the CivicBucks of a task
+	 * result, which is forced to the storage device with the next group of
+	 * records. Results that did not cover anything are ignored, as well as any
+	 * result appended after the journal was closed or failed.
+	 *
+	 * Called by the mining threads as their tasks complete, possibly after
+	 * they were interrupted. The record is encoded before taking the monitor
+	 * of the journal, which is only held to copy it into the mapping.
+	 *
+	 * @param result
+	 *            the result of a task, with its CivicBucks.
+	 */
+	void append(final TaskResult result) {
+		if (result.getCoveredRange() == null) {
+			return;
+		}
+
+		final byte[] payload = encode(result);
+		final int checksum = checksum(payload);
+		final int recordSize = RECORD_HEADER_SIZE + payload.length;
+		synchronized (this) {
+			if (mClosed || mError != null) {
+				return;
+			}
+
+			/*
+			 * Growing the mapping is an interruptible channel operation, which
+			 * would close the channel if the thread was interrupted by a
+			 * timeout, so the interruption is held back until the record is
+			 * appended.
+			 */
+			final boolean interrupted = Thread.interrupted();
+			try {
+				ensureCapacity((long) mPosition + recordSize + 4);
+
+				/*
+				 * The payload goes first and its length last, followed by an
+				 * empty length that ends the journal.
+				 */
+				mMapping.putInt(mPosition + 4, checksum);
+				mMapping.position(mPosition + RECORD_HEADER_SIZE);
+				mMapping.put(payload);
+				mMapping.putInt(mPosition + recordSize, 0);
+				mMapping.putInt(mPosition, payload.length);
+
+				mPosition += recordSize;
+				mAppended++;
+				final long pending = mAppended - mForced;
+				if (pending == 1 || pending >= FORCE_BATCH_SIZE) {
+					// the first record of a group starts the interval, a full group ends it
+					notifyAll();
+				}
+			} catch (final IOException e) {
+				mError = e;
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forces the journal to the storage device and closes it. Results appended
+	 * afterwards are ignored.
+	 *
+	 * @throws IOException
+	 *             if closing fails, or if appending failed before.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (mClosed) {
+			return;
+		}
+		mClosed = true;
+		notifyAll();
+
+		try {
+			mMapping.force();
+		} finally {
+			mChannel.close();
+		}
+
+		if (mError != null) {
+			throw mError;
+		}
+	}
+
+	/**
+	 * Makes sure the mapping has room up to the specified position, doubling
+	 * its size if needed.
+	 *
+	 * @param required
+	 *            the required size of the mapping (in bytes).
+	 * @throws IOException
+	 *             if the journal cannot grow.
+	 */
+	private void ensureCapacity(final long required) throws IOException {
+		if (required <= mMapping.capacity()) {
+			return;
+		}
+		if (required > Integer.MAX_VALUE) {
+			throw new IOException("Checkpoint journal too large: " + required + " bytes");
+		}
+
+		final long size = Math.min(Integer.MAX_VALUE, Math.max(required, 2L * mMapping.capacity()));
+		mMapping.force();
+		mMapping = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * The loop of the force thread: waits for records to be appended, lets
+	 * more of them come within {@link #FORCE_INTERVAL_MILLIS} (or until
+	 * {@link #FORCE_BATCH_SIZE} are pending), and forces them all at once,
+	 * without holding the monitor of the journal. Ends once the journal is
+	 * closed, which forces the rest.
+	 */
+	private void forceRecords() {
+		try {
+			while (true) {
+				final MappedByteBuffer mapping;
+				final long appended;
+				synchronized (this) {
+					while (!mClosed && mAppended == mForced) {
+						wait();
+					}
+
+					final long deadline = System.nanoTime() + FORCE_INTERVAL_MILLIS * 1000000;
+					long remaining = FORCE_INTERVAL_MILLIS;
+					while (!mClosed && mAppended - mForced < FORCE_BATCH_SIZE && remaining > 0) {
+						wait(remaining);
+						remaining = (deadline - System.nanoTime()) / 1000000;
+					}
+					if (mClosed) {
+						return;
+					}
+
+					// a grown mapping was forced before it was replaced, this one holds the rest
+					mapping = mMapping;
+					appended = mAppended;
+				}
+
+				mapping.force();
+
+				synchronized (this) {
+					mForced = Math.max(mForced, appended);
+				}
+			}
+		} catch (final InterruptedException e) {
+			// nobody else interrupts this thread, the journal is forced when closed
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of records read back from a resumed journal.
+	 */
+	public int getRecoveredCount() {
+		return mRecovered.size();
+	}
+
+	/**
+	 * Reads back the valid records of the journal. A record that is missing
+	 * or not valid, e.g. torn by a crash before its group was forced, is
+	 * skipped: the reading resumes at the next position that holds a valid
+	 * record, if any.
+	 *
+	 * @return the position after the last valid record.
+	 */
+	private int readRecords() {
+		int end = HEADER_SIZE;
+		int position = HEADER_SIZE;
+		while (position + RECORD_HEADER_SIZE <= mMapping.capacity()) {
+			final TaskResult result = readRecord(position);
+			if (result == null) {
+				// resynchronize on the next valid record
+				position++;
+				continue;
+			}
+
+			mRecovered.add(result);
+			position += RECORD_HEADER_SIZE + mMapping.getInt(position);
+			end = position;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Reads back the record at the specified position.
+	 *
+	 * @param position
+	 *            the position of the record.
+	 * @return the result of the record, or <code>null</code> if there is no
+	 *         valid record at that position.
+	 */
+	private TaskResult readRecord(final int position) {
+		final int length = mMapping.getInt(position);
+		if (length <= 0 || length > mMapping.capacity() - position - RECORD_HEADER_SIZE) {
+			return null;
+		}
+
+		final byte[] payload = new byte[length];
+		mMapping.position(position + RECORD_HEADER_SIZE);
+		mMapping.get(payload);
+		if (checksum(payload) != mMapping.getInt(position + 4)) {
+			return null;
+		}
+
+		return decode(ByteBuffer.wrap(payload));
+	}
+
+	/**
+	 * Returns the results read back from a resumed journal that fall within
+	 * the specified block, in ascending order.
+	 *
+	 * The covered ranges of the returned results do not overlap: results are
+	 * clipped to the block and to each other, keeping only their CivicBucks
+	 * within their clipped ranges (see {@link CoveredResults#merge}). The rest
+	 * of the block is still to be mined.
+	 *
+	 * @param blockStart
+	 *            the start of the block.
+	 * @param blockEnd
+	 *            the end of the block (inclusive).
+	 * @return the recovered results within the block.
+	 */
+	public List<TaskResult> recover(final BigInteger blockStart, final BigInteger blockEnd) {
+		return CoveredResults.merge(mRecovered, blockStart, blockEnd);
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A forward-only cursor over the CivicBucks found by all tasks of a
+ * {@link MiningExecutor}, in ascending order (see
+ * {@link MiningExecutorResults#cursor()}).
+ *
+ * The cursor reads the primitive {@link ResultBuffer}s of the tasks directly,
+ * or the batches merged by a {@link ResultSpillStore}; numbers are only
+ * formatted when they are written out with
+ * {@link #appendTo(Appendable)}.
+ *
+ * <pre>
+ * final CivicBucksCursor cursor = results.cursor();
+ * while (cursor.next()) {
+ * 	cursor.appendTo(writer);
+ * }
+ * </pre>
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class CivicBucksCursor {
+
+	/**
+	 * Constant to the system's line separator.
+	 */
+	final private String END_OF_LINE = System.getProperty("line.separator");
+
+	/**
+	 * The buffers holding the CivicBucks after the current one, in ascending
+	 * order.
+	 */
+	private final Iterator<ResultBuffer> mBuffers;
+
+	/**
+	 * The buffer holding the current CivicBuck, <code>null</code> before the
+	 * first call to {@link #next()}.
+	 */
+	private ResultBuffer mBuffer = null;
+
+	/**
+	 * The position of the current CivicBuck within {@link #mBuffer}.
+	 */
+	private int mIndex = -1;
+
+	/**
+	 * Creates a cursor positioned before the first CivicBuck.
+	 *
+	 * @param taskResults
+	 *            the results of all tasks, in ascending order.
+	 */
+	CivicBucksCursor(final List<TaskResult> taskResults) {
+		this(keptCivicBucks(taskResults).iterator());
+	}
+
+	/**
+	 * Creates a cursor positioned before the first CivicBuck of a sequence of
+	 * buffers.
+	 *
+	 * @param buffers
+	 *            the buffers holding the CivicBucks, in ascending order. They
+	 *            may be produced lazily, e.g. by a merge.
+	 */
+	CivicBucksCursor(final Iterator<ResultBuffer> buffers) {
+		mBuffers = buffers;
+	}
+
+	/**
+	 * Writes the current CivicBuck in the output format of the miner (the
+	 * number and its binary representation, on its own line).
+	 *
+	 * @param output
+	 *            where to write the CivicBuck.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public void appendTo(final Appendable output) throws IOException {
+		checkPosition();
+
+		output.append('\t');
+		if (mBuffer.getWordsPerNumber() == 1) {
+			final long number = mBuffer.getLong(mIndex);
+			output.append(Long.toString(number)).append("\tbinary: ").append(Long.toBinaryString(number));
+		} else {
+			final BigInteger number = mBuffer.getValue(mIndex);
+			output.append(number.toString()).append("\tbinary: ").append(number.toString(2));
+		}
+		output.append(END_OF_LINE);
+	}
+
+	/**
+	 * Throws a {@link NoSuchElementException} if the cursor is not positioned
+	 * on a CivicBuck.
+	 */
+	private void checkPosition() {
+		if (mBuffer == null || mIndex >= mBuffer.size()) {
+			throw new NoSuchElementException();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the current CivicBuck fits in type long
+	 * (see {@link #getLong()}).
+	 */
+	public boolean fitsLong() {
+		checkPosition();
+		return mBuffer.getWordsPerNumber() == 1;
+	}
+
+	/**
+	 * Returns the current CivicBuck as a long, without allocating.
+	 *
+	 * @throws IllegalStateException
+	 *             if the CivicBuck exceeds the limit of type long (see
+	 *             {@link #fitsLong()}).
+	 */
+	public long getLong() {
+		checkPosition();
+		return mBuffer.getLong(mIndex);
+	}
+
+	/**
+	 * Returns the current CivicBuck, of any size.
+	 */
+	public BigInteger getValue() {
+		checkPosition();
+		return mBuffer.getValue(mIndex);
+	}
+
+	/**
+	 * Returns the buffers of the task results that kept their CivicBucks.
+	 *
+	 * @param taskResults
+	 *            the results of all tasks, in ascending order.
+	 * @return the buffers, in ascending order.
+	 */
+	private static List<ResultBuffer> keptCivicBucks(final List<TaskResult> taskResults) {
+		final List<ResultBuffer> buffers = new ArrayList<ResultBuffer>(taskResults.size());
+		for (final TaskResult result : taskResults) {
+			if (result.hasCivicBucks()) {
+				buffers.add(result.getCivicBucks());
+			}
+		}
+
+		return buffers;
+	}
+
+	/**
+	 * Moves to the next CivicBuck.
+	 *
+	 * @return <code>true</code> if the cursor is positioned on a CivicBuck,
+	 *         <code>false</code> if there are no more CivicBucks.
+	 */
+	public boolean next() {
+		if (mBuffer != null && mIndex + 1 < mBuffer.size()) {
+			mIndex++;
+			return true;
+		}
+
+		// move on to the next buffer with any CivicBucks
+		while (mBuffers.hasNext()) {
+			final ResultBuffer buffer = mBuffers.next();
+			if (buffer.size() > 0) {
+				mBuffer = buffer;
+				mIndex = 0;
+				return true;
+			}
+		}
+
+		mIndex = (mBuffer == null) ? -1 : mBuffer.size();
+		return false;
+	}
+}
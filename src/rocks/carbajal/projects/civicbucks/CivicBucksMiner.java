@@ -23,8 +23,19 @@
  */
 package rocks.carbajal.projects.civicbucks;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 /**
  * This is the entry point for the CivicMining LLC. challenge (read the
  * README.txt file for more information.)
@@ -35,17 +46,71 @@ import java.util.concurrent.TimeUnit;
  */
 public final class CivicBucksMiner {
 
+	/**
+	 * The time (in millis) that interrupted tasks are given to stop and hand
+	 * over their partial results after a timeout.
+	 */
+	private static final long INTERRUPTION_GRACE_PERIOD_MILLIS = 500;
+
+	/**
+	 * The time (in millis) that tasks are given to reach their next
+	 * checkpoint and stop after the deadline of a run.
+	 */
+	private static final long DEADLINE_SLACK_MILLIS = 100;
+
+	/**
+	 * The exit status of the command line tools when their arguments are
+	 * invalid.
+	 */
+	static final int EXIT_INVALID_ARGUMENTS = 2;
+
+	/**
+	 * The name the executor is registered with in the platform MBean server.
+	 */
+	private static final String MBEAN_NAME = "rocks.carbajal.projects.civicbucks:type=MiningExecutor";
+
+	/**
+	 * Blocks until all tasks in {@code executor} have completed execution after
+	 * a shutdown request, or shortly after the deadline of the run (see
+	 * {@link MiningExecutor#setDeadline(long, TimeUnit)}), whichever happens
+	 * first. The tasks stop by themselves at the deadline, so this normally
+	 * returns as soon as the last one hands over its partial results.
+	 *
+	 * If some tasks are still running after the slack, an error message is
+	 * printed out to the standard error stream and they are interrupted (see
+	 * {@link MiningExecutor#shutdownNow()}) without waiting for them: their
+	 * chunks are reported as not covered.
+	 *
+	 * @param executor
+	 *            the {@link MiningExecutor} to wait for
+	 * @param deadlineMillis
+	 *            the deadline of the run, as a value of
+	 *            {@link System#currentTimeMillis()}
+	 */
+	private static void awaitDeadline(final MiningExecutor executor, final long deadlineMillis) {
+		try {
+			final long waitMillis = deadlineMillis - System.currentTimeMillis() + DEADLINE_SLACK_MILLIS;
+			if (!executor.awaitTermination(Math.max(0, waitMillis), TimeUnit.MILLISECONDS)) {
+				System.err.println("Tasks still running after the deadline, printing partial results.");
+				executor.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			System.err.println("Thread interrupted (see error below). Printing partial results.");
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Blocks until all tasks in {@code executor} have completed execution after
 	 * a shutdown request, or the timeout occurs, or the current thread is
 	 * interrupted, whichever happens first.
 	 *
 	 * In case of a timeout, an error message is printed out to the standard
-	 * output stream and attempts to stop all actively executing tasks (see
-	 * {@link MiningExecutor#shutdownNow()}).
+	 * error stream and attempts to stop all actively executing tasks (see
+	 * {@link MiningExecutor#shutdownNow()}), waiting briefly for them to stop.
 	 *
 	 * In case of a thread interruption, just an error message is printed out to
-	 * the standard output stream.
+	 * the standard error stream.
 	 *
 	 * @param executor
 	 *            the {@link MiningExecutor} to wait for
@@ -58,68 +123,554 @@ public final class CivicBucksMiner {
 			final TimeUnit units) {
 		try {
 			if (!executor.awaitTermination(timeout, units)) {
-				System.out.println("Execution timed out, printing partial results.");
+				System.err.println("Execution timed out, printing partial results.");
 				executor.shutdownNow();
+
+				// give interrupted tasks a moment to hand over partial results
+				executor.awaitTermination(INTERRUPTION_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
 			}
 		} catch (final InterruptedException e) {
-			System.out.println("Thread interrupted (see error below). Printing partial results.");
+			System.err.println("Thread interrupted (see error below). Printing partial results.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Forces {@code journal} to the storage device and closes it. In case of
+	 * an error, an error message is printed out to the standard error stream.
+	 *
+	 * @param journal
+	 *            the {@link CheckpointJournal} to close
+	 */
+	private static void closeJournal(final CheckpointJournal journal) {
+		try {
+			journal.close();
+		} catch (final IOException e) {
+			System.err.println("Unable to write the checkpoint journal (see error below).");
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Adds the results of the run to {@code store} and closes it. In case of
+	 * an error, an error message is printed out to the standard error stream.
+	 *
+	 * @param store
+	 *            the {@link CivicBucksStore} to close
+	 */
+	private static void closeStore(final CivicBucksStore store) {
+		try {
+			store.close();
+		} catch (final IOException e) {
+			System.err.println("Unable to update the CivicBucks store (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Deletes the spilled runs of {@code spillStore} and closes it. In case of
+	 * an error, an error message is printed out to the standard error stream.
+	 *
+	 * @param spillStore
+	 *            the {@link ResultSpillStore} to close
+	 */
+	private static void closeSpillStore(final ResultSpillStore spillStore) {
+		try {
+			spillStore.close();
+		} catch (final IOException e) {
+			System.err.println("Unable to spill the CivicBucks (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes out the remaining results of {@code writer} and closes it. In
+	 * case of an error, an error message is printed out to the standard error
+	 * stream.
+	 *
+	 * @param writer
+	 *            the {@link OrderedResultWriter} to close
+	 */
+	private static void closeResultWriter(final OrderedResultWriter writer) {
+		try {
+			writer.close();
+		} catch (final IOException e) {
+			System.err.println("Unable to write the results (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Hands out the block in leases to {@link MiningWorker} nodes (see
+	 * {@link MiningCoordinator}) until they are all done or the timeout
+	 * occurs, streaming the CivicBucks to {@code writer}, which is closed
+	 * afterwards.
+	 *
+	 * @param arguments
+	 *            the program arguments
+	 * @param writer
+	 *            the writer to stream the CivicBucks to
+	 */
+	private static void coordinate(final MinerArguments arguments, final OrderedResultWriter writer) {
+		final BlockRange block = new BlockRange(arguments.getBlockStart(), arguments.getBlockEnd());
+		final MiningCoordinator coordinator = new MiningCoordinator(block, arguments.getMode(),
+				arguments.getNumberOfThreads(), arguments.getLeaseTimeout(), TimeUnit.SECONDS);
+
+		System.out.println("Mining CivicBucks");
+		System.out.println("block to mine:  " + block.getStartValue() + " to " + block.getEndValue());
+		System.out.println("mode: " + arguments.getMode());
+		System.out.println("timeout: " + arguments.getTimeout() + " " + TimeUnit.SECONDS);
+		try {
+			coordinator.start(arguments.getCoordinatorPort(), writer);
+		} catch (final IOException e) {
+			System.err.println("Unable to listen for mining workers (see error below).");
+			e.printStackTrace();
+			closeResultWriter(writer);
+			return;
+		}
+		System.out.println("coordinator: listening on port " + coordinator.getPort() + ", "
+				+ coordinator.getLeaseCount() + " leases");
+		System.out.println((arguments.getOutputFile() == null) ? "Palindromes:"
+				: "Palindromes: written to " + arguments.getOutputFile());
+
+		final long executionStartTime = System.currentTimeMillis();
+		try {
+			if (!coordinator.awaitCompletion(arguments.getTimeout(), TimeUnit.SECONDS)) {
+				System.err.println("Execution timed out, printing partial results.");
+			}
+		} catch (final InterruptedException e) {
+			System.err.println("Thread interrupted (see error below). Printing partial results.");
+			e.printStackTrace();
+		}
+		final int workers = coordinator.getWorkerCount();
+		coordinator.close();
+		final long executionEndTime = System.currentTimeMillis();
+
+		closeResultWriter(writer);
+
+		final MiningExecutorResults results = coordinator.calculateMiningResults();
+		System.out.println("Palindromes computed: " + results.getTotalCivicBucks());
+		System.out.println("Leases mined: " + results.getTasksRun() + " of " + coordinator.getLeaseCount() + " ("
+				+ coordinator.getLeasesReassigned() + " reassigned, " + workers + " workers connected at the end)");
+		System.out.println("Duration: " + (executionEndTime - executionStartTime) + " millis.");
+		printCoverage("block", results.getCoveredRanges(), results.getUncoveredRanges());
+	}
+
+	/**
+	 * Joins a list of ranges for printing, e.g. "[0, 9], [20, 29]".
+	 *
+	 * @param ranges
+	 *            the ranges to join
+	 * @return the ranges, separated by commas
+	 */
+	static String joinRanges(final List<BlockRange> ranges) {
+		final StringBuilder joined = new StringBuilder();
+		for (final BlockRange range : ranges) {
+			if (joined.length() > 0) {
+				joined.append(", ");
+			}
+			joined.append(range);
+		}
+
+		return joined.toString();
+	}
+
 	/**
 	 * Launches the program for mining CivicBucks with the following 4 mandatory
-	 * arguments:
+	 * arguments, optionally followed by options:
 	 *
 	 * <pre>
-	 * java CivicBucksMiner [start] [end] [numberOfThreads] [timeout]
+	 * java CivicBucksMiner [start] [end] [numberOfThreads] [timeout] [options]
 	 *
 	 * Where:
 	 *    start            - the start of the block to mine
 	 *    end              - the end of the block to mine (inclusive)
 	 *    numberOfThreads  - the number of concurrent threads to execute
 	 *    timeout          - the timeout (in seconds) for long executions
+	 *
+	 * Options:
+	 *    --mode=auto|scan|scan-scalar|generate|binary-generate|table-driven
+	 *                          - the strategy for finding CivicBucks (see
+	 *                            {@link MiningMode}, default: auto)
+	 *    --chunk=size          - the minimum number of values mined by a
+	 *                            single task (default: 10000)
+	 *    --output=file         - write the CivicBucks to a file instead of the
+	 *                            standard output stream
+	 *    --journal=file        - record the completed parts of the block (and
+	 *                            their CivicBucks) in a checkpoint journal
+	 *    --resume              - read the journal back and mine only the parts
+	 *                            of the block missing from it
+	 *    --store=directory     - take the parts of the block already mined by
+	 *                            previous runs from a store, and add the
+	 *                            results of this run to it
+	 *    --progress=seconds    - report the progress of the run to the
+	 *                            standard error stream every few seconds
+	 *    --jmx                 - register the executor with the platform
+	 *                            MBean server (see {@link MiningExecutorMXBean})
+	 *    --deadline            - make the timeout a deadline for the whole run:
+	 *                            tasks stop by themselves in time to write out
+	 *                            the results, and the parts of the block left
+	 *                            uncovered are reported
+	 *    --assembly-budget=millis
+	 *                          - the time reserved for writing out the results
+	 *                            with --deadline (default: 500)
+	 *    --coordinator=port    - hand out the block in leases to
+	 *                            {@link MiningWorker} nodes connecting to this
+	 *                            port instead of mining it; the number of
+	 *                            threads is then the total number of threads
+	 *                            of the workers, used for sizing the leases
+	 *    --lease-timeout=seconds
+	 *                          - the time before a lease is handed out again
+	 *                            in case its worker is stuck (default: 60)
+	 *    --shard=i/N           - mine only the i-th of N interleaved shards of
+	 *                            the block (see {@link BlockShard}), writing
+	 *                            its CivicBucks to the --output file in binary,
+	 *                            for {@link ShardMerger} to merge
+	 *    --pipeline=generators:filters
+	 *                          - mine in a pipeline of stages (see
+	 *                            {@link MiningPipeline}) with the specified
+	 *                            number of generator and filter threads,
+	 *                            instead of one thread per chunk
+	 *    --bases=b1,b2,...     - mine the numbers that are palindromes in all
+	 *                            these bases instead of CivicBucks (see
+	 *                            {@link MultiRadixAlgorithm}, default: 10,2)
+	 *    --count               - only count the CivicBucks, without listing
+	 *                            them (see {@link CountingAlgorithm})
 	 * </pre>
 	 *
 	 * @param args
 	 *            the program arguments as described above.
 	 */
 	public static void main(final String[] args) {
-		// TODO implement more robust handling of arguments
-
-		// TODO scale beyond limit of type long
-		final long blockStart = Long.parseLong(args[0]);
-		// TODO scale beyond limit of type long
-		final long blockEnd = Long.parseLong(args[1]);
-		final int numberOfThreads = Integer.parseInt(args[2]);
-		final int timeout = Integer.parseInt(args[3]);
+		// with --deadline, the timeout runs from here: calibration and setup count against it
+		final long launchTime = System.currentTimeMillis();
+
+		final MinerArguments arguments;
+		try {
+			arguments = new MinerArguments(args);
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(MinerArguments.USAGE);
+			System.exit(EXIT_INVALID_ARGUMENTS);
+			return;
+		}
+
+		final String outputFile = arguments.getOutputFile();
+		final BlockShard shard = arguments.getShard();
+		final OrderedResultWriter writer;
+		if (shard != null) {
+			// the CivicBucks of a shard are written to a shard file once it is mined
+			writer = null;
+		} else if (arguments.isCountOnly()) {
+			// nothing to write out but the total
+			writer = null;
+		} else {
+			try {
+				writer = (outputFile == null) ? OrderedResultWriter.toStandardOutput()
+						: OrderedResultWriter.toFile(Paths.get(outputFile));
+			} catch (final IOException e) {
+				System.err.println("Unable to open the output file (see error below).");
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		if (arguments.getCoordinatorPort() >= 0) {
+			coordinate(arguments, writer);
+			return;
+		}
+
+		final String journalFile = arguments.getJournalFile();
+		CheckpointJournal journal = null;
+		if (journalFile != null) {
+			try {
+				journal = arguments.isResume() ? CheckpointJournal.resume(Paths.get(journalFile))
+						: CheckpointJournal.create(Paths.get(journalFile));
+			} catch (final IOException e) {
+				System.err.println("Unable to open the checkpoint journal (see error below).");
+				e.printStackTrace();
+				if (writer != null) {
+					closeResultWriter(writer);
+				}
+				return;
+			}
+		}
+
+		final String storeDirectory = arguments.getStoreDirectory();
+		CivicBucksStore store = null;
+		if (storeDirectory != null) {
+			try {
+				store = CivicBucksStore.open(Paths.get(storeDirectory));
+			} catch (final IOException e) {
+				System.err.println("Unable to open the CivicBucks store (see error below).");
+				e.printStackTrace();
+				if (journal != null) {
+					closeJournal(journal);
+				}
+				if (writer != null) {
+					closeResultWriter(writer);
+				}
+				return;
+			}
+		}
+
+		final BigInteger blockStart = arguments.getBlockStart();
+		final BigInteger blockEnd = arguments.getBlockEnd();
+		final int numberOfThreads = arguments.getNumberOfThreads();
+		final int timeout = arguments.getTimeout();
 		final TimeUnit timeoutUnits = TimeUnit.SECONDS;
 
 		// TODO Add more configuration parameters (e.g. poolSize, keepAliveTime)
-		final MiningExecutor executor = new MiningExecutor(numberOfThreads, blockStart, blockEnd);
+		final MiningExecutor executor = new MiningExecutor(numberOfThreads, blockStart, blockEnd,
+				arguments.getMode(), arguments.getMinChunkSize());
+
+		final ObjectName mbeanName = arguments.isJmx() ? registerMBean(executor) : null;
 
 		System.out.println("Mining CivicBucks");
 		System.out.println("block to mine:  " + blockStart + " to " + blockEnd);
+		if (arguments.isCountOnly()) {
+			executor.setAlgorithm(new CountingAlgorithm());
+			System.out.println("mode: count only");
+		} else if (arguments.getBases() != null) {
+			executor.setAlgorithm(arguments.getBases());
+			System.out.println("rule: palindromes in every base of " + arguments.getBases().getName());
+		} else if (arguments.getMode() == MiningMode.AUTO) {
+			// calibrate before mining starts (only a deadline counts it against the timeout)
+			final long calibrationStartTime = System.currentTimeMillis();
+			final MiningAlgorithm algorithm = executor.selectAlgorithm();
+			System.out.println("mode: " + arguments.getMode() + " (picked " + algorithm.getName() + " in "
+					+ (System.currentTimeMillis() - calibrationStartTime) + " millis)");
+		} else {
+			System.out.println("mode: " + arguments.getMode());
+		}
 		System.out.println("timeout: " + timeout + " " + timeoutUnits);
+		if (arguments.isDeadline()) {
+			System.out.println("deadline: mining stops " + arguments.getAssemblyBudget()
+					+ " millis before the timeout to write out the results");
+		}
+		if (journal != null) {
+			System.out.println("journal: " + journalFile
+					+ (arguments.isResume() ? " (" + journal.getRecoveredCount() + " records recovered)" : ""));
+		}
+		if (store != null) {
+			System.out.println("store: " + storeDirectory);
+		}
+		if (arguments.getPipelineGenerators() > 0) {
+			executor.setPipeline(arguments.getPipelineGenerators(), arguments.getPipelineFilters());
+			System.out.println("pipeline: " + arguments.getPipelineGenerators() + " generator threads, "
+					+ arguments.getPipelineFilters() + " filter threads");
+		}
+		ResultSpillStore spillStore = null;
+		if (shard != null) {
+			// keep the CivicBucks off the heap until the shard file is written, next to it
+			spillStore = new ResultSpillStore(Paths.get(outputFile).toAbsolutePath().getParent(),
+					ResultBuffer.wordsFor(blockEnd));
+			executor.setShard(shard);
+			executor.setSpillStore(spillStore);
+			System.out.println("shard: " + shard + " (" + shard.stripes(blockStart, blockEnd).size() + " stripes)");
+		}
+
+		if (!arguments.isCountOnly()) {
+			System.out.println((outputFile == null) ? "Palindromes:" : "Palindromes: written to " + outputFile);
+		}
 
 		final long executionStartTime = System.currentTimeMillis();
+		final long timeoutMillis = timeoutUnits.toMillis(timeout);
+		final long setupMillis = arguments.isDeadline() ? executionStartTime - launchTime : 0;
+		final long miningMillis = Math.max(0, timeoutMillis - setupMillis - arguments.getAssemblyBudget());
+		Timer watchdog = null;
+		if (arguments.isDeadline()) {
+			// leave the assembly budget for writing out the results, out of what the setup left
+			executor.setDeadline(miningMillis, TimeUnit.MILLISECONDS);
+			watchdog = startWatchdog(Math.max(0, timeoutMillis - setupMillis));
+		}
+
+		// CivicBucks are written out in order while the block is being mined
+		executor.startMining(writer, journal, store);
 
-		executor.startMining();
+		// keep the standard output stream for the CivicBucks
+		ProgressReporter reporter = null;
+		if (arguments.getProgressInterval() > 0) {
+			reporter = new ProgressReporter(executor, arguments.getProgressInterval(), TimeUnit.SECONDS, System.err);
+			reporter.start();
+		}
 
 		// wait until all threads are finished
-		awaitExecutorTermination(executor, timeout, timeoutUnits);
+		if (arguments.isDeadline()) {
+			awaitDeadline(executor, executionStartTime + miningMillis);
+		} else {
+			awaitExecutorTermination(executor, timeout, timeoutUnits);
+		}
+
+		if (reporter != null) {
+			reporter.close();
+		}
+		if (mbeanName != null) {
+			unregisterMBean(mbeanName);
+		}
 
 		final long executionEndTime = System.currentTimeMillis();
 		final String duration = String.valueOf(executionEndTime - executionStartTime);
 
+		/*
+		 * Take the results before closing the writer: a chunk completes after
+		 * it was committed to the writer, so every chunk reported is written
+		 * out, even those that complete late after a timeout.
+		 */
 		final MiningExecutorResults results = executor.calculateMiningResults();
 
-		System.out.println("Palindromes:");
-		System.out.print(results.getOutput());
-		System.out.println("Performance (millis): max: " + results.getMaxPerformance() + ", mean: "
-				+ results.getMeanPerformance());
+		// write out whatever completed after the lowest unfinished chunk
+		if (writer != null) {
+			closeResultWriter(writer);
+		}
+		if (journal != null) {
+			closeJournal(journal);
+		}
+		if (store != null) {
+			closeStore(store);
+		}
+
+		if (shard != null) {
+			writeShardFile(Paths.get(outputFile), shard, new BlockRange(blockStart, blockEnd), results);
+			closeSpillStore(spillStore);
+		}
+
+		// the README format, in whole millis; the sub-millisecond figures go on the next line
+		System.out.println("Performance (millis): max: " + TimeUnit.NANOSECONDS.toMillis(results.getMaxPerformance())
+				+ ", mean: " + TimeUnit.NANOSECONDS.toMillis(results.getMeanPerformance()));
+		System.out.println(String.format("Percentiles (millis): p50: %.3f, p90: %.3f, p99: %.3f, max: %.3f, mean: %.3f",
+				toMillis(results.getMedianPerformance()), toMillis(results.get90thPercentilePerformance()),
+				toMillis(results.get99thPercentilePerformance()), toMillis(results.getMaxPerformance()),
+				toMillis(results.getMeanPerformance())));
+		System.out.println(String.format("Throughput: %.0f numbers/s over %d tasks (%d incomplete)",
+				results.getThroughput(), results.getTasksTimed(), results.getTasksIncomplete()));
 		System.out.println("Palindromes computed: " + results.getTotalCivicBucks());
-		System.out.println("Tasks run: " + numberOfThreads);
+		System.out.println("Tasks run: " + results.getTasksRun());
 		System.out.println("Duration: " + duration + " millis.");
+		printCoverage((shard != null) ? "shard" : "block", results.getCoveredRanges(), results.getUncoveredRanges());
+
+		if (watchdog != null) {
+			watchdog.cancel();
+		}
+	}
+
+	/**
+	 * Prints out the parts of the block that were covered by the run and the
+	 * ones that were not, if any.
+	 *
+	 * @param scope
+	 *            what the run meant to cover, e.g. "block"
+	 * @param coveredRanges
+	 *            the parts that were covered, in ascending order
+	 * @param uncoveredRanges
+	 *            the parts that were not covered, in ascending order
+	 */
+	static void printCoverage(final String scope, final List<BlockRange> coveredRanges,
+			final List<BlockRange> uncoveredRanges) {
+		if (uncoveredRanges.isEmpty()) {
+			System.out.println("Coverage: the whole " + scope);
+			return;
+		}
+
+		System.out.println("Covered: " + (coveredRanges.isEmpty() ? "nothing" : joinRanges(coveredRanges)));
+		System.out.println("Not covered: " + joinRanges(uncoveredRanges));
+	}
+
+	/**
+	 * Registers {@code executor} with the platform MBean server (see
+	 * {@link MiningExecutorMXBean}). In case of an error, an error message is
+	 * printed out to the standard error stream.
+	 *
+	 * @param executor
+	 *            the {@link MiningExecutor} to register
+	 * @return the name of the MBean, or <code>null</code> if it was not
+	 *         registered
+	 */
+	private static ObjectName registerMBean(final MiningExecutor executor) {
+		try {
+			final ObjectName name = new ObjectName(MBEAN_NAME);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(executor, name);
+			System.out.println("jmx: " + name);
+			return name;
+		} catch (final JMException e) {
+			System.err.println("Unable to register the executor with the MBean server (see error below).");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Starts a watchdog that exits the program if it is still running at the
+	 * specified time after now, e.g. because writing out the results took
+	 * longer than its budget. An error message is printed out to the standard
+	 * error stream before exiting.
+	 *
+	 * @param limitMillis
+	 *            the time (in millis) the program may run from now
+	 * @return the timer of the watchdog, to cancel it once the program is done
+	 */
+	private static Timer startWatchdog(final long limitMillis) {
+		final Timer watchdog = new Timer("deadline-watchdog", true);
+		watchdog.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				System.err.println("Unable to write out the results within the timeout, exiting.");
+				System.exit(1);
+			}
+		}, limitMillis);
+
+		return watchdog;
+	}
+
+	/**
+	 * Converts a duration from nanos to millis, keeping the fraction.
+	 *
+	 * @param nanos
+	 *            the duration in nanos
+	 * @return the duration in millis
+	 */
+	private static double toMillis(final long nanos) {
+		return nanos / 1e6;
+	}
+
+	/**
+	 * Unregisters the MBean of the executor from the platform MBean server. In
+	 * case of an error, an error message is printed out to the standard error
+	 * stream.
+	 *
+	 * @param name
+	 *            the name of the MBean (see {@link #registerMBean})
+	 */
+	private static void unregisterMBean(final ObjectName name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (final JMException e) {
+			System.err.println("Unable to unregister the executor from the MBean server (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the CivicBucks of a shard to a shard file (see {@link ShardFile}),
+	 * for {@link ShardMerger} to merge with the other shards. In case of an
+	 * error, an error message is printed out to the standard error stream.
+	 *
+	 * @param path
+	 *            the shard file
+	 * @param shard
+	 *            the shard that was mined
+	 * @param block
+	 *            the block the shard belongs to
+	 * @param results
+	 *            the results of the run, with their CivicBucks
+	 */
+	private static void writeShardFile(final Path path, final BlockShard shard, final BlockRange block,
+			final MiningExecutorResults results) {
+		try {
+			ShardFile.write(path, shard, block, results.getCoveredRanges(), results.cursor());
+		} catch (final IOException e) {
+			System.err.println("Unable to write the shard file (see error below).");
+			e.printStackTrace();
+		}
 	}
 }
@@ -0,0 +1,484 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An on-disk store of all the CivicBucks mined so far, so that blocks that
+ * were already mined are never mined again.
+ *
+ * The store is a directory with a catalog and any number of segment files
+ * (see {@link StoreSegment}). The catalog lists the ranges already covered,
+ * in ascending order and without overlaps, each with the segment that holds
+ * its CivicBucks. Looking up a block (see
+ * {@link #lookup(BigInteger, BigInteger)}) binary searches the catalog for the
+ * covered ranges within the block and the sparse index of their segments for
+ * their CivicBucks, so the executor only mines the gaps.
+ *
+ * The results of a run are staged as its tasks complete (see
+ * {@link #stage(TaskResult)}) and added to the store as a new segment when it
+ * is closed. The segment is written out before the catalog, which is replaced
+ * atomically, so a crash never leaves the catalog pointing to a missing or
+ * partial segment.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class CivicBucksStore implements Closeable {
+
+	/**
+	 * A range covered by the store and the segment that holds its CivicBucks.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class CatalogEntry {
+
+		/**
+		 * The covered range.
+		 */
+		private final BlockRange mRange;
+
+		/**
+		 * The file name of the segment.
+		 */
+		private final String mSegment;
+
+		/**
+		 * Creates an entry of the catalog.
+		 *
+		 * @param range
+		 *            the covered range.
+		 * @param segment
+		 *            the file name of the segment.
+		 */
+		CatalogEntry(final BlockRange range, final String segment) {
+			mRange = range;
+			mSegment = segment;
+		}
+
+		@Override
+		public String toString() {
+			return mRange.getStartValue() + " " + mRange.getEndValue() + " " + mSegment;
+		}
+	}
+
+	/**
+	 * The file name of the catalog.
+	 */
+	private static final String CATALOG_FILE = "catalog";
+
+	/**
+	 * The file name of a catalog being written.
+	 */
+	private static final String CATALOG_TEMPORARY_FILE = "catalog.tmp";
+
+	/**
+	 * The first line of the catalog.
+	 */
+	private static final String CATALOG_HEADER = "# start end segment";
+
+	/**
+	 * The prefix of the file names of segments.
+	 */
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	/**
+	 * The suffix of the file names of segments.
+	 */
+	private static final String SEGMENT_SUFFIX = ".cbs";
+
+	/**
+	 * The directory of the store.
+	 */
+	private final Path mDirectory;
+
+	/**
+	 * The segments of the store, by file name.
+	 */
+	private final Map<String, StoreSegment> mSegments;
+
+	/**
+	 * The results staged for the next segment. Guarded by this store's
+	 * monitor.
+	 */
+	private final List<TaskResult> mStaged = new ArrayList<TaskResult>();
+
+	/**
+	 * The catalog, in ascending order and without overlaps. Guarded by this
+	 * store's monitor.
+	 */
+	private List<CatalogEntry> mCatalog;
+
+	/**
+	 * The number of the next segment. Guarded by this store's monitor.
+	 */
+	private int mNextSegment;
+
+	/**
+	 * Whether the store is closed. Guarded by this store's monitor.
+	 */
+	private boolean mClosed = false;
+
+	/**
+	 * Creates a store for the specified directory, catalog and segments.
+	 *
+	 * @param directory
+	 *            the directory of the store.
+	 * @param catalog
+	 *            the catalog, in ascending order and without overlaps.
+	 * @param segments
+	 *            the segments of the store, by file name.
+	 * @param nextSegment
+	 *            the number of the next segment.
+	 */
+	private CivicBucksStore(final Path directory, final List<CatalogEntry> catalog,
+			final Map<String, StoreSegment> segments, final int nextSegment) {
+		mDirectory = directory;
+		mCatalog = catalog;
+		mSegments = segments;
+		mNextSegment = nextSegment;
+	}
+
+	/**
+	 * Adds the entries for the ranges of a new segment to a catalog, keeping
+	 * it in ascending order and joining contiguous ranges of the same segment.
+	 *
+	 * @param catalog
+	 *            the catalog, in ascending order and without overlaps.
+	 * @param results
+	 *            the results in the new segment, in ascending order and
+	 *            without overlaps with each other or with the catalog.
+	 * @param segment
+	 *            the file name of the new segment.
+	 * @return the new catalog.
+	 */
+	private static List<CatalogEntry> addEntries(final List<CatalogEntry> catalog, final List<TaskResult> results,
+			final String segment) {
+		final List<CatalogEntry> added = new ArrayList<CatalogEntry>(catalog.size() + results.size());
+		int existing = 0;
+		for (final TaskResult result : results) {
+			final BlockRange range = result.getCoveredRange();
+			while (existing < catalog.size()
+					&& catalog.get(existing).mRange.getStartValue().compareTo(range.getStartValue()) < 0) {
+				addEntry(added, catalog.get(existing++));
+			}
+			addEntry(added, new CatalogEntry(range, segment));
+		}
+		while (existing < catalog.size()) {
+			addEntry(added, catalog.get(existing++));
+		}
+
+		return added;
+	}
+
+	/**
+	 * Appends an entry to a catalog, joining it with the last entry if they
+	 * are contiguous and in the same segment.
+	 *
+	 * @param catalog
+	 *            the catalog to append to.
+	 * @param entry
+	 *            the entry, after all the entries of the catalog.
+	 */
+	private static void addEntry(final List<CatalogEntry> catalog, final CatalogEntry entry) {
+		if (!catalog.isEmpty()) {
+			final CatalogEntry last = catalog.get(catalog.size() - 1);
+			if (last.mSegment.equals(entry.mSegment)
+					&& last.mRange.getEndValue().add(BigInteger.ONE).equals(entry.mRange.getStartValue())) {
+				catalog.set(catalog.size() - 1, new CatalogEntry(
+						new BlockRange(last.mRange.getStartValue(), entry.mRange.getEndValue()), entry.mSegment));
+				return;
+			}
+		}
+
+		catalog.add(entry);
+	}
+
+	/**
+	 * Opens the store in the specified directory, which is created if it does
+	 * not exist.
+	 *
+	 * @param directory
+	 *            the directory of the store.
+	 * @return the store.
+	 * @throws IOException
+	 *             if the directory cannot be created, or if the catalog or any
+	 *             of its segments cannot be read.
+	 */
+	public static CivicBucksStore open(final Path directory) throws IOException {
+		Files.createDirectories(directory);
+
+		final List<CatalogEntry> catalog = new ArrayList<CatalogEntry>();
+		final Map<String, StoreSegment> segments = new HashMap<String, StoreSegment>();
+		int nextSegment = 0;
+
+		final Path catalogFile = directory.resolve(CATALOG_FILE);
+		if (Files.exists(catalogFile)) {
+			for (final String line : Files.readAllLines(catalogFile, StandardCharsets.US_ASCII)) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				final String[] fields = line.split(" ");
+				final String segment = (fields.length == 3) ? fields[2] : "";
+				if (!segment.startsWith(SEGMENT_PREFIX) || !segment.endsWith(SEGMENT_SUFFIX)) {
+					throw new IOException("Corrupt CivicBucks store catalog: " + line);
+				}
+
+				try {
+					catalog.add(new CatalogEntry(new BlockRange(new BigInteger(fields[0]), new BigInteger(fields[1])),
+							segment));
+					nextSegment = Math.max(nextSegment, 1 + Integer.parseInt(
+							segment.substring(SEGMENT_PREFIX.length(), segment.length() - SEGMENT_SUFFIX.length())));
+				} catch (final IllegalArgumentException e) {
+					throw new IOException("Corrupt CivicBucks store catalog: " + line, e);
+				}
+
+				if (!segments.containsKey(segment)) {
+					segments.put(segment, StoreSegment.open(directory.resolve(segment)));
+				}
+			}
+		}
+
+		return new CivicBucksStore(directory, catalog, segments, nextSegment);
+	}
+
+	/**
+	 * Adds the staged results to the store as a new segment, leaving out the
+	 * parts of them that are already covered. Results staged afterwards are
+	 * ignored.
+	 *
+	 * @throws IOException
+	 *             if the segment or the catalog cannot be written.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (mClosed) {
+			return;
+		}
+		mClosed = true;
+
+		final List<TaskResult> fresh = new ArrayList<TaskResult>();
+		for (final TaskResult result : CoveredResults.merge(mStaged, stagedStart(), stagedEnd())) {
+			fresh.addAll(uncovered(result));
+		}
+		mStaged.clear();
+		if (fresh.isEmpty()) {
+			return;
+		}
+
+		int wordsPerNumber = 1;
+		for (final TaskResult result : fresh) {
+			wordsPerNumber = Math.max(wordsPerNumber, result.getCivicBucks().getWordsPerNumber());
+		}
+		final ResultBuffer civicBucks = new ResultBuffer(wordsPerNumber);
+		for (final TaskResult result : fresh) {
+			final ResultBuffer numbers = result.getCivicBucks();
+			for (int index = 0; index < numbers.size(); index++) {
+				if (wordsPerNumber == 1) {
+					civicBucks.add(numbers.getLong(index));
+				} else {
+					civicBucks.add(numbers.getValue(index));
+				}
+			}
+		}
+
+		final String segment = SEGMENT_PREFIX + mNextSegment + SEGMENT_SUFFIX;
+		StoreSegment.write(mDirectory.resolve(segment), civicBucks);
+		mSegments.put(segment, StoreSegment.open(mDirectory.resolve(segment)));
+		mNextSegment++;
+
+		mCatalog = addEntries(mCatalog, fresh, segment);
+		writeCatalog();
+	}
+
+	/**
+	 * Returns the position of the first catalog entry that ends at or after
+	 * the specified number.
+	 *
+	 * @param number
+	 *            the number.
+	 * @return the position of the entry, or the size of the catalog if none.
+	 */
+	private int firstEntryEndingFrom(final BigInteger number) {
+		int low = 0;
+		int high = mCatalog.size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (mCatalog.get(middle).mRange.getEndValue().compareTo(number) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the CivicBucks of the parts of the specified block already
+	 * covered by the store, as results in ascending order and without
+	 * overlaps. The rest of the block is still to be mined.
+	 *
+	 * @param blockStart
+	 *            the start of the block.
+	 * @param blockEnd
+	 *            the end of the block (inclusive).
+	 * @return the covered parts of the block.
+	 */
+	public synchronized List<TaskResult> lookup(final BigInteger blockStart, final BigInteger blockEnd) {
+		final List<TaskResult> covered = new ArrayList<TaskResult>();
+		for (int position = firstEntryEndingFrom(blockStart); position < mCatalog.size(); position++) {
+			final CatalogEntry entry = mCatalog.get(position);
+			if (entry.mRange.getStartValue().compareTo(blockEnd) > 0) {
+				break;
+			}
+
+			final BigInteger from = entry.mRange.getStartValue().max(blockStart);
+			final BigInteger to = entry.mRange.getEndValue().min(blockEnd);
+			final StoreSegment segment = mSegments.get(entry.mSegment);
+			final ResultBuffer civicBucks = new ResultBuffer(segment.getWordsPerNumber());
+			segment.read(from, to, civicBucks);
+			covered.add(new TaskResult(new BlockRange(from, to), civicBucks));
+		}
+
+		return covered;
+	}
+
+	/**
+	 * Stages the result of a task to be added to the store when it is closed.
+	 * Results that did not cover anything are ignored, as well as any result
+	 * staged after the store was closed.
+	 *
+	 * Called by the mining threads as their tasks complete.
+	 *
+	 * @param result
+	 *            the result of a task, with its CivicBucks.
+	 */
+	synchronized void stage(final TaskResult result) {
+		if (!mClosed && result.getCoveredRange() != null) {
+			mStaged.add(result);
+		}
+	}
+
+	/**
+	 * Returns the highest end of the staged results, or zero if none.
+	 */
+	private BigInteger stagedEnd() {
+		BigInteger end = null;
+		for (final TaskResult result : mStaged) {
+			final BigInteger value = result.getCoveredRange().getEndValue();
+			end = (end == null) ? value : end.max(value);
+		}
+		if (end == null) {
+			return BigInteger.ZERO;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Returns the lowest start of the staged results, or zero if none.
+	 */
+	private BigInteger stagedStart() {
+		BigInteger start = null;
+		for (final TaskResult result : mStaged) {
+			final BigInteger value = result.getCoveredRange().getStartValue();
+			start = (start == null) ? value : start.min(value);
+		}
+		if (start == null) {
+			return BigInteger.ZERO;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Returns the parts of a result that are not covered by the catalog yet.
+	 *
+	 * @param result
+	 *            the result, with its CivicBucks.
+	 * @return the uncovered parts of the result, in ascending order.
+	 */
+	private List<TaskResult> uncovered(final TaskResult result) {
+		final BigInteger start = result.getCoveredRange().getStartValue();
+		final BigInteger end = result.getCoveredRange().getEndValue();
+
+		final List<TaskResult> uncovered = new ArrayList<TaskResult>();
+		BigInteger next = start;
+		for (int position = firstEntryEndingFrom(start); position < mCatalog.size(); position++) {
+			final BlockRange covered = mCatalog.get(position).mRange;
+			if (covered.getStartValue().compareTo(end) > 0) {
+				break;
+			}
+
+			if (covered.getStartValue().compareTo(next) > 0) {
+				uncovered.add(CoveredResults.clip(result, next, covered.getStartValue().subtract(BigInteger.ONE)));
+			}
+			next = next.max(covered.getEndValue().add(BigInteger.ONE));
+		}
+		if (next.compareTo(end) <= 0) {
+			uncovered.add(CoveredResults.clip(result, next, end));
+		}
+
+		return uncovered;
+	}
+
+	/**
+	 * Writes out the catalog to a temporary file, forces it to the storage
+	 * device and replaces the catalog with it.
+	 *
+	 * @throws IOException
+	 *             if the catalog cannot be written.
+	 */
+	private void writeCatalog() throws IOException {
+		final List<String> lines = new ArrayList<String>(mCatalog.size() + 1);
+		lines.add(CATALOG_HEADER);
+		for (final CatalogEntry entry : mCatalog) {
+			lines.add(entry.toString());
+		}
+
+		final Path temporary = mDirectory.resolve(CATALOG_TEMPORARY_FILE);
+		Files.write(temporary, lines, StandardCharsets.US_ASCII);
+		try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(temporary, mDirectory.resolve(CATALOG_FILE), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+}
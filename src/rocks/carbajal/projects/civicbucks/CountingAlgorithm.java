@@ -0,0 +1,222 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * Counts the CivicBucks of a block without keeping them (see
+ * {@link TaskResult#hasCivicBucks()}), for when only their number is needed.
+ *
+ * Instead of generating every decimal palindrome, the decimal palindromes of
+ * every length are walked as a tree of their left halves, one digit at a time.
+ * The numbers below a prefix of p digits form a range whose last p decimal
+ * digits are the reversed prefix, which fixes their lowest p bits (10^p is a
+ * multiple of 2^p), and whose highest bits are shared by all of them. A
+ * binary palindrome mirrors its highest bits in its lowest ones, so when they
+ * do not match, the count of the whole range is zero and it is skipped
+ * without enumerating it (this rules out every even leading digit right
+ * away). About half of the ranges are left at every digit, so only a small
+ * fraction of the decimal palindromes is ever built and tested, in constant
+ * memory.
+ *
+ * Use it with {@link MiningExecutor#setAlgorithm(MiningAlgorithm)}.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class CountingAlgorithm implements MiningAlgorithm {
+
+	/**
+	 * The state of a single count, as the algorithm itself is shared.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class Count {
+
+		/**
+		 * The start of the block.
+		 */
+		private final long mStartBlock;
+
+		/**
+		 * The end of the block (inclusive).
+		 */
+		private final long mEndBlock;
+
+		/**
+		 * The number of CivicBucks counted so far.
+		 */
+		private int mCivicBucks = 0;
+
+		/**
+		 * The number of prefixes visited, for the checkpoints.
+		 */
+		private long mIterations = 0;
+
+		/**
+		 * The number everything below which was counted when the count had to
+		 * stop, valid if {@link #walk(long, int, int)} returned
+		 * <code>false</code>.
+		 */
+		private long mStoppedAt;
+
+		/**
+		 * Creates the count of a block.
+		 *
+		 * @param startBlock
+		 *            the start of the block.
+		 * @param endBlock
+		 *            the end of the block (inclusive).
+		 */
+		Count(final long startBlock, final long endBlock) {
+			mStartBlock = startBlock;
+			mEndBlock = endBlock;
+		}
+
+		/**
+		 * Counts the CivicBucks of the block among the decimal palindromes of
+		 * the specified length that start with a prefix, in ascending order.
+		 *
+		 * @param prefix
+		 *            the leading digits of the palindromes.
+		 * @param prefixDigits
+		 *            the number of digits of the prefix, up to half the
+		 *            length (rounded up).
+		 * @param digits
+		 *            the length of the palindromes.
+		 * @return <code>true</code> if the count went on, <code>false</code>
+		 *         if it had to stop (see {@link #mStoppedAt}).
+		 */
+		boolean walk(final long prefix, final int prefixDigits, final int digits) {
+			final long scale = PalindromeKernels.POWERS_OF_TEN[digits - prefixDigits];
+			if (prefix > Long.MAX_VALUE / scale) {
+				// beyond the limit of type long, and so beyond the block
+				return true;
+			}
+			final long low = prefix * scale;
+			final long high = (low > Long.MAX_VALUE - (scale - 1)) ? Long.MAX_VALUE : low + scale - 1;
+			if (low > mEndBlock || high < mStartBlock) {
+				return true;
+			}
+
+			final long first = Math.max(low, mStartBlock);
+			if ((mIterations++ & MiningProgress.CHECKPOINT_MASK) == 0 && MiningProgress.checkpoint(first - mStartBlock)) {
+				mStoppedAt = first;
+				return false;
+			}
+
+			if (!mayHoldBinaryPalindromes(PalindromeKernels.reverseDigits(prefix, prefixDigits), prefixDigits, low,
+					high)) {
+				return true;
+			}
+
+			if (2 * prefixDigits >= digits) {
+				// the prefix is the whole left half, mirror it
+				final long right = PalindromeKernels
+						.reverseDigits(prefix / PalindromeKernels.POWERS_OF_TEN[2 * prefixDigits - digits], digits
+								- prefixDigits);
+				if (right <= Long.MAX_VALUE - low) {
+					final long palindrome = low + right;
+					if (palindrome >= mStartBlock && palindrome <= mEndBlock
+							&& PalindromeKernels.isBinaryPalindrome(palindrome)) {
+						mCivicBucks++;
+					}
+				}
+				return true;
+			}
+
+			for (int digit = 0; digit < 10; digit++) {
+				if (!walk(prefix * 10 + digit, prefixDigits + 1, digits)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Finds out whether a range of numbers sharing their lowest bits may hold
+	 * binary palindromes: the bits shared by the highest end of all of them,
+	 * read backwards, must match the shared lowest bits.
+	 *
+	 * @param lowBits
+	 *            a number with the lowest bits shared by the whole range.
+	 * @param lowBitCount
+	 *            the number of lowest bits shared by the whole range.
+	 * @param low
+	 *            the start of the range, positive.
+	 * @param high
+	 *            the end of the range (inclusive).
+	 * @return <code>false</code> if the range holds no binary palindrome.
+	 */
+	static boolean mayHoldBinaryPalindromes(final long lowBits, final int lowBitCount, final long low,
+			final long high) {
+		final int length = Long.SIZE - Long.numberOfLeadingZeros(high);
+		if (Long.SIZE - Long.numberOfLeadingZeros(low) != length) {
+			// the range spans binary lengths, its highest bits are not shared
+			return true;
+		}
+
+		final int highBitCount = (low == high) ? length : Long.numberOfLeadingZeros(low ^ high) - (Long.SIZE - length);
+		final int bits = Math.min(lowBitCount, highBitCount);
+		final long highBits = (high >>> (length - bits)) & ((1L << bits) - 1);
+
+		return (Long.reverse(lowBits) >>> (Long.SIZE - bits)) == highBits;
+	}
+
+	@Override
+	public String getName() {
+		return "count";
+	}
+
+	@Override
+	public TaskResult mine(final long startBlock, final long endBlock) {
+		final Count count = new Count(startBlock, endBlock);
+
+		// single digits are all decimal palindromes, zero included
+		for (long number = Math.max(startBlock, 0); number <= Math.min(endBlock, 9); number++) {
+			if (PalindromeKernels.isBinaryPalindrome(number)) {
+				count.mCivicBucks++;
+			}
+		}
+
+		for (int digits = 2; digits <= PalindromeKernels.MAX_DECIMAL_DIGITS
+				&& PalindromeKernels.POWERS_OF_TEN[digits - 1] <= endBlock; digits++) {
+			for (int digit = 1; digit < 10; digit++) {
+				if (!count.walk(digit, 1, digits)) {
+					// Interruptions or past the deadline? return with partial results
+					return new TaskResult(MiningTask.coveredBefore(startBlock, count.mStoppedAt), count.mCivicBucks);
+				}
+			}
+		}
+
+		return new TaskResult(new BlockRange(startBlock, endBlock), count.mCivicBucks);
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Helper methods for task results that cover known parts of a block, e.g.
+ * recovered from a {@link CheckpointJournal} or looked up in a
+ * {@link CivicBucksStore}.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class CoveredResults {
+
+	/**
+	 * Orders results by the start of their covered ranges.
+	 */
+	private static final Comparator<TaskResult> BY_RANGE_START = new Comparator<TaskResult>() {
+
+		@Override
+		public int compare(final TaskResult first, final TaskResult second) {
+			return first.getCoveredRange().getStartValue().compareTo(second.getCoveredRange().getStartValue());
+		}
+	};
+
+	/**
+	 * This class only has static methods.
+	 */
+	private CoveredResults() {
+	}
+
+	/**
+	 * Returns the part of a result within the specified range, keeping only
+	 * its CivicBucks within that range.
+	 *
+	 * @param result
+	 *            the result, whose covered range contains the range, with its
+	 *            CivicBucks.
+	 * @param from
+	 *            the start of the range.
+	 * @param to
+	 *            the end of the range (inclusive).
+	 * @return the clipped result.
+	 */
+	static TaskResult clip(final TaskResult result, final BigInteger from, final BigInteger to) {
+		final BlockRange covered = result.getCoveredRange();
+		if (covered.getStartValue().equals(from) && covered.getEndValue().equals(to)) {
+			return result;
+		}
+
+		final ResultBuffer civicBucks = result.getCivicBucks();
+		final ResultBuffer clipped = new ResultBuffer(civicBucks.getWordsPerNumber());
+		for (int index = 0; index < civicBucks.size(); index++) {
+			final BigInteger number = civicBucks.getValue(index);
+			if (number.compareTo(from) >= 0 && number.compareTo(to) <= 0) {
+				clipped.add(number);
+			}
+		}
+
+		return new TaskResult(new BlockRange(from, to), clipped);
+	}
+
+	/**
+	 * Returns the results that fall within the specified block, in ascending
+	 * order and without overlaps: results are clipped to the block and to the
+	 * results before them (see {@link #clip(TaskResult, BigInteger, BigInteger)}).
+	 *
+	 * @param results
+	 *            the results, in any order, with covered ranges and
+	 *            CivicBucks. The list is not modified.
+	 * @param blockStart
+	 *            the start of the block.
+	 * @param blockEnd
+	 *            the end of the block (inclusive).
+	 * @return the results within the block.
+	 */
+	static List<TaskResult> merge(final List<TaskResult> results, final BigInteger blockStart,
+			final BigInteger blockEnd) {
+		final List<TaskResult> sorted = new ArrayList<TaskResult>(results);
+		Collections.sort(sorted, BY_RANGE_START);
+
+		final List<TaskResult> merged = new ArrayList<TaskResult>();
+		BigInteger next = blockStart;
+		for (final TaskResult result : sorted) {
+			final BlockRange covered = result.getCoveredRange();
+			final BigInteger from = covered.getStartValue().max(next);
+			final BigInteger to = covered.getEndValue().min(blockEnd);
+			if (from.compareTo(to) > 0) {
+				continue;
+			}
+
+			merged.add(clip(result, from, to));
+			next = to.add(BigInteger.ONE);
+		}
+
+		return merged;
+	}
+}
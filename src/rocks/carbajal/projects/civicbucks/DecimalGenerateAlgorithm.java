@@ -0,0 +1,75 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * Mines a block by generating its decimal palindromes (see
+ * {@link PalindromeGenerator}) instead of testing every number, and testing
+ * only those candidates for a binary palindrome. The work is proportional to
+ * the square root of the block's upper bound.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class DecimalGenerateAlgorithm implements MiningAlgorithm {
+
+	@Override
+	public String getName() {
+		return "decimal-generate";
+	}
+
+	@Override
+	public TaskResult mine(final long startBlock, final long endBlock) {
+		final ResultBuffer civicBucks = new ResultBuffer(1);
+
+		/*
+		 * Every number produced by the generator is already a decimal
+		 * palindrome, so only its binary equivalent needs to be checked.
+		 *
+		 * Every few thousand palindromes, publish how far the block has been
+		 * mined and, if the thread got interrupted or the deadline of the run
+		 * passed, just return partial results.
+		 */
+		final PalindromeGenerator generator = new PalindromeGenerator(startBlock, endBlock);
+		long iterations = 0;
+		while (generator.hasNext()) {
+			final long number = generator.next();
+			if ((iterations++ & MiningProgress.CHECKPOINT_MASK) == 0 && MiningProgress.checkpoint(number - startBlock)) {
+				// Interruptions or past the deadline? return with partial results
+				return new TaskResult(MiningTask.coveredBefore(startBlock, number), civicBucks);
+			}
+
+			if (PalindromeKernels.isBinaryPalindrome(number)) {
+				civicBucks.add(number);
+			}
+		}
+
+		return new TaskResult(new BlockRange(startBlock, endBlock), civicBucks);
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.NoSuchElementException;
+
+/**
+ * Generates, in ascending order, all the decimal palindromes that lie within a
+ * range of non-negative numbers of any size, as arrays of decimal digits.
+ *
+ * This is the counterpart of {@link PalindromeGenerator} for numbers beyond
+ * the limit of type long: the left half of the next palindrome is kept as an
+ * array of digits that is incremented in place and mirrored onto the right
+ * side, so iterating does not allocate (except when the number of digits
+ * grows beyond the capacity of the buffers).
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class DigitPalindromeGenerator {
+
+	/**
+	 * The decimal digits of the end of the range, most significant first.
+	 */
+	private final byte[] mEndDigits;
+
+	/**
+	 * The digits of the palindrome returned by the last call to
+	 * {@link #next()}, most significant first.
+	 */
+	private byte[] mCurrent;
+
+	/**
+	 * The digits of the next palindrome to return, most significant first.
+	 */
+	private byte[] mNext;
+
+	/**
+	 * The number of digits of the next palindrome.
+	 */
+	private int mLength;
+
+	/**
+	 * Whether there is a next palindrome within the range.
+	 */
+	private boolean mHasNext;
+
+	/**
+	 * Creates a generator for all the decimal palindromes from {@code start}
+	 * to {@code end} (inclusive). Negative numbers are never palindromes, so
+	 * the range is clamped at zero.
+	 *
+	 * @param start
+	 *            the start of the range.
+	 * @param end
+	 *            the end of the range (inclusive).
+	 */
+	public DigitPalindromeGenerator(final BigInteger start, final BigInteger end) {
+		final BigInteger from = start.max(BigInteger.ZERO);
+		if (from.compareTo(end) > 0) {
+			mEndDigits = new byte[0];
+			mHasNext = false;
+			return;
+		}
+
+		mEndDigits = toDigits(end);
+
+		/*
+		 * Start with the left half of the first number in the range: its
+		 * mirror may still be lower than the start of the range, in which case
+		 * the next half gives the first palindrome in the range.
+		 */
+		final byte[] fromDigits = toDigits(from);
+		mLength = fromDigits.length;
+		mNext = new byte[mEndDigits.length];
+		mCurrent = new byte[mEndDigits.length];
+		System.arraycopy(fromDigits, 0, mNext, 0, mLength);
+		mirror();
+
+		if (compare(mNext, mLength, fromDigits, fromDigits.length) < 0) {
+			advance();
+		} else {
+			mHasNext = compare(mNext, mLength, mEndDigits, mEndDigits.length) <= 0;
+		}
+	}
+
+	/**
+	 * Compares two non-negative numbers given as decimal digits without
+	 * leading zeros.
+	 *
+	 * @return a negative value, zero or a positive value if the first number
+	 *         is lower than, equal to or greater than the second one.
+	 */
+	private static int compare(final byte[] digits, final int length, final byte[] otherDigits,
+			final int otherLength) {
+		if (length != otherLength) {
+			return length - otherLength;
+		}
+
+		for (int index = 0; index < length; index++) {
+			if (digits[index] != otherDigits[index]) {
+				return digits[index] - otherDigits[index];
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns the decimal digits of a non-negative number, most significant
+	 * first.
+	 */
+	private static byte[] toDigits(final BigInteger number) {
+		final String string = number.toString();
+		final byte[] digits = new byte[string.length()];
+		for (int index = 0; index < digits.length; index++) {
+			digits[index] = (byte) (string.charAt(index) - '0');
+		}
+
+		return digits;
+	}
+
+	/**
+	 * Increments the left half of the next palindrome and mirrors it, updating
+	 * {@link #mHasNext}.
+	 */
+	private void advance() {
+		// increment the half like an odometer, from its last digit
+		int index = (mLength + 1) / 2 - 1;
+		while (index >= 0 && mNext[index] == 9) {
+			mNext[index] = 0;
+			index--;
+		}
+
+		if (index >= 0) {
+			mNext[index]++;
+		} else {
+			// all the halves of this length were used, add one more digit
+			mLength++;
+			if (mLength > mNext.length) {
+				mHasNext = false;
+				return;
+			}
+			mNext[0] = 1;
+			for (int digit = 1; digit < mLength; digit++) {
+				mNext[digit] = 0;
+			}
+		}
+
+		mirror();
+		mHasNext = compare(mNext, mLength, mEndDigits, mEndDigits.length) <= 0;
+	}
+
+	/**
+	 * Returns the digits of the palindrome returned by the last call to
+	 * {@link #next()}, most significant first. The array is reused by the
+	 * generator and may be longer than the palindrome.
+	 */
+	public byte[] getDigits() {
+		return mCurrent;
+	}
+
+	/**
+	 * Returns <code>true</code> if there are more palindromes in the range.
+	 */
+	public boolean hasNext() {
+		return mHasNext;
+	}
+
+	/**
+	 * Copies the left half of the next palindrome onto its right side.
+	 */
+	private void mirror() {
+		for (int left = 0, right = mLength - 1; left < right; left++, right--) {
+			mNext[right] = mNext[left];
+		}
+	}
+
+	/**
+	 * Moves to the next palindrome in the range, in ascending order. Its
+	 * digits are available through {@link #getDigits()}.
+	 *
+	 * @return the number of digits of the palindrome.
+	 * @throws NoSuchElementException
+	 *             if there are no more palindromes in the range.
+	 */
+	public int next() {
+		if (!mHasNext) {
+			throw new NoSuchElementException();
+		}
+
+		final int length = mLength;
+		System.arraycopy(mNext, 0, mCurrent, 0, length);
+		advance();
+		return length;
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * The protocol spoken between a {@link MiningCoordinator} and its
+ * {@link MiningWorker} nodes over TCP.
+ *
+ * A worker opens the connection with {@link #MAGIC} and {@link #VERSION},
+ * followed by its name. From then on, the worker sends requests and the
+ * coordinator replies to {@link #REQUEST_LEASE} only:
+ *
+ * <pre>
+ * worker:      REQUEST_LEASE
+ * coordinator: LEASE id start end mode | WAIT millis | FINISHED
+ * worker:      LEASE_DONE id length payload
+ * worker:      LEASE_FAILED id
+ * </pre>
+ *
+ * Numbers are length-prefixed two's-complement bytes (see
+ * {@link BigInteger#toByteArray()}), and the result of a lease is sent as a
+ * record payload of the {@link CheckpointJournal}: the covered range and the
+ * words of the CivicBucks, 8 bytes per number within the limit of type long.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class LeaseProtocol {
+
+	/**
+	 * The first bytes sent by every worker ("CBL1").
+	 */
+	static final int MAGIC = 0x43424C31;
+
+	/**
+	 * The version of the protocol.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Worker request for a lease.
+	 */
+	static final byte REQUEST_LEASE = 1;
+
+	/**
+	 * Worker report of a lease mined completely, with its result.
+	 */
+	static final byte LEASE_DONE = 2;
+
+	/**
+	 * Worker report of a lease it could not mine completely.
+	 */
+	static final byte LEASE_FAILED = 3;
+
+	/**
+	 * Coordinator reply with a lease to mine.
+	 */
+	static final byte LEASE = 1;
+
+	/**
+	 * Coordinator reply when every lease is taken but some are not done yet.
+	 */
+	static final byte WAIT = 2;
+
+	/**
+	 * Coordinator reply when there is nothing left to mine.
+	 */
+	static final byte FINISHED = 3;
+
+	/**
+	 * The largest payload accepted, to fail fast on a broken stream.
+	 */
+	private static final int MAX_PAYLOAD_LENGTH = 1 << 30;
+
+	/**
+	 * This class only has static methods.
+	 */
+	private LeaseProtocol() {
+	}
+
+	/**
+	 * Reads a length-prefixed number.
+	 *
+	 * @param input
+	 *            the stream to read from.
+	 * @return the number.
+	 * @throws IOException
+	 *             if reading fails or the number is not valid.
+	 */
+	static BigInteger readBigInteger(final DataInputStream input) throws IOException {
+		final int length = input.readInt();
+		if (length < 1 || length > MAX_PAYLOAD_LENGTH) {
+			throw new IOException("Invalid number length: " + length);
+		}
+
+		final byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Reads the result of a lease.
+	 *
+	 * @param input
+	 *            the stream to read from.
+	 * @return the result, with its covered range and CivicBucks.
+	 * @throws IOException
+	 *             if reading fails or the result is not valid.
+	 */
+	static TaskResult readResult(final DataInputStream input) throws IOException {
+		final int length = input.readInt();
+		if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+			throw new IOException("Invalid result length: " + length);
+		}
+
+		final byte[] payload = new byte[length];
+		input.readFully(payload);
+		final TaskResult result = CheckpointJournal.decode(ByteBuffer.wrap(payload));
+		if (result == null) {
+			throw new IOException("Invalid result");
+		}
+
+		return result;
+	}
+
+	/**
+	 * Writes a length-prefixed number.
+	 *
+	 * @param output
+	 *            the stream to write to.
+	 * @param number
+	 *            the number.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	static void writeBigInteger(final DataOutputStream output, final BigInteger number) throws IOException {
+		final byte[] bytes = number.toByteArray();
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Writes the result of a lease.
+	 *
+	 * @param output
+	 *            the stream to write to.
+	 * @param result
+	 *            the result, with its covered range and CivicBucks.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	static void writeResult(final DataOutputStream output, final TaskResult result) throws IOException {
+		final byte[] payload = CheckpointJournal.encode(result);
+		output.writeInt(payload.length);
+		output.write(payload);
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free ring buffer of longs for a single producer thread and
+ * a single consumer thread, connecting two stages of a {@link MiningPipeline}.
+ *
+ * Longs travel in batches: a batch is written behind a length word and only
+ * becomes visible to the consumer once all its words are written, with a
+ * single ordered write of the tail position. Each side keeps a cached copy of
+ * the position of the other one and only reads the real one when the cached
+ * copy says the buffer is full (or empty), so that the two threads do not
+ * keep pulling each other's cache lines back and forth.
+ *
+ * Neither side ever waits: {@link #offer(long[], int)} and
+ * {@link #poll(long[])} fail right away on a full or empty buffer, and the
+ * caller decides how to back off. A full buffer is how backpressure reaches
+ * the producer.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class LongRingBuffer {
+
+	/**
+	 * The slots of the buffer.
+	 */
+	private final long[] mSlots;
+
+	/**
+	 * The mask of the position of a slot (the capacity minus 1).
+	 */
+	private final int mMask;
+
+	/**
+	 * The position of the next slot to read, only written by the consumer.
+	 */
+	private final AtomicLong mHead = new AtomicLong();
+
+	/**
+	 * The position of the next slot to write, only written by the producer.
+	 */
+	private final AtomicLong mTail = new AtomicLong();
+
+	/**
+	 * The last head read by the producer.
+	 */
+	private long mCachedHead = 0;
+
+	/**
+	 * The last tail read by the consumer.
+	 */
+	private long mCachedTail = 0;
+
+	/**
+	 * Creates an empty ring buffer.
+	 *
+	 * @param capacity
+	 *            the number of longs the buffer holds, including one length
+	 *            word per batch; a power of two.
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not a power of two.
+	 */
+	LongRingBuffer(final int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+		}
+
+		mSlots = new long[capacity];
+		mMask = capacity - 1;
+	}
+
+	/**
+	 * Writes a batch of longs to the buffer, if there is room for it. Only
+	 * called by the producer thread.
+	 *
+	 * @param batch
+	 *            the longs to write, from the first one on.
+	 * @param length
+	 *            the number of longs to write, lower than the capacity.
+	 * @return <code>true</code> if the batch was written, <code>false</code>
+	 *         if the buffer is too full for it.
+	 */
+	boolean offer(final long[] batch, final int length) {
+		final long tail = mTail.get();
+		final long end = tail + 1 + length;
+		if (end - mCachedHead > mSlots.length) {
+			mCachedHead = mHead.get();
+			if (end - mCachedHead > mSlots.length) {
+				return false;
+			}
+		}
+
+		mSlots[(int) tail & mMask] = length;
+		for (int index = 0; index < length; index++) {
+			mSlots[(int) (tail + 1 + index) & mMask] = batch[index];
+		}
+
+		// publishes the batch: the consumer reads the tail before the slots
+		mTail.lazySet(end);
+		return true;
+	}
+
+	/**
+	 * Reads the next batch of longs from the buffer, if there is one. Only
+	 * called by the consumer thread.
+	 *
+	 * @param batch
+	 *            where to copy the longs of the batch to, large enough for any
+	 *            batch.
+	 * @return the number of longs read, or -1 if the buffer is empty.
+	 */
+	int poll(final long[] batch) {
+		final long head = mHead.get();
+		if (head == mCachedTail) {
+			mCachedTail = mTail.get();
+			if (head == mCachedTail) {
+				return -1;
+			}
+		}
+
+		final int length = (int) mSlots[(int) head & mMask];
+		for (int index = 0; index < length; index++) {
+			batch[index] = mSlots[(int) (head + 1 + index) & mMask];
+		}
+
+		// frees the slots: the producer reads the head before overwriting them
+		mHead.lazySet(head + 1 + length);
+		return length;
+	}
+}
@@ -0,0 +1,597 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses and holds the program arguments of {@link CivicBucksMiner}.
+ *
+ * The 4 mandatory arguments are positional and may be followed by any number
+ * of options in the form <code>--name=value</code>, or <code>--name</code> for
+ * flags.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class MinerArguments {
+
+	/**
+	 * The default time (in millis) reserved for writing out the results of a
+	 * run with a deadline.
+	 */
+	static final long DEFAULT_ASSEMBLY_BUDGET_MILLIS = 500;
+
+	/**
+	 * The default time (in seconds) before a lease is handed out again, in
+	 * coordinator mode.
+	 */
+	static final int DEFAULT_LEASE_TIMEOUT_SECONDS = 60;
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	static final String USAGE = "Usage: java CivicBucksMiner [start] [end] [numberOfThreads] [timeout] [options]"
+			+ System.getProperty("line.separator") + "Options:" + System.getProperty("line.separator")
+			+ "    --mode=auto|scan|scan-scalar|generate|binary-generate|table-driven" + System.getProperty("line.separator")
+			+ "                           the strategy for finding CivicBucks (default: auto)"
+			+ System.getProperty("line.separator")
+			+ "    --chunk=size           the minimum number of values mined by a single task (default: "
+			+ RangePartitioner.DEFAULT_MIN_CHUNK_SIZE + ")" + System.getProperty("line.separator")
+			+ "    --output=file          write the CivicBucks to a file instead of the standard output"
+			+ System.getProperty("line.separator")
+			+ "    --journal=file         record the completed parts of the block in a checkpoint journal"
+			+ System.getProperty("line.separator")
+			+ "    --resume               mine only the parts of the block missing from the journal"
+			+ System.getProperty("line.separator")
+			+ "    --store=directory      reuse and keep the CivicBucks of every run in a store"
+			+ System.getProperty("line.separator")
+			+ "    --progress=seconds     report the progress of the run to the standard error stream"
+			+ System.getProperty("line.separator")
+			+ "    --jmx                  expose the progress of the run as a platform MBean"
+			+ System.getProperty("line.separator")
+			+ "    --deadline             stop mining in time to exit within the timeout, reporting the coverage"
+			+ System.getProperty("line.separator")
+			+ "    --assembly-budget=millis" + System.getProperty("line.separator")
+			+ "                           the time reserved for writing out the results with --deadline (default: "
+			+ DEFAULT_ASSEMBLY_BUDGET_MILLIS + ")" + System.getProperty("line.separator")
+			+ "    --coordinator=port     hand out the block in leases to MiningWorker nodes instead of mining it"
+			+ System.getProperty("line.separator")
+			+ "    --lease-timeout=seconds" + System.getProperty("line.separator")
+			+ "                           the time before a lease is handed out again (default: "
+			+ DEFAULT_LEASE_TIMEOUT_SECONDS + ")" + System.getProperty("line.separator")
+			+ "    --shard=i/N            mine only the i-th of N interleaved shards into a binary --output file"
+			+ System.getProperty("line.separator")
+			+ "                           (merge the shard files with ShardMerger)" + System.getProperty("line.separator")
+			+ "    --pipeline=generators:filters" + System.getProperty("line.separator")
+			+ "                           mine in stages connected by ring buffers, with the threads of each stage"
+			+ System.getProperty("line.separator")
+			+ "    --bases=b1,b2,...      mine the numbers that are palindromes in all these bases (default: 10,2)"
+			+ System.getProperty("line.separator")
+			+ "    --count                only count the CivicBucks, without listing them";
+
+	/**
+	 * The prefix of every option.
+	 */
+	private static final String OPTION_PREFIX = "--";
+
+	/**
+	 * The start of the block to mine.
+	 */
+	private final BigInteger mBlockStart;
+
+	/**
+	 * The end of the block to mine (inclusive).
+	 */
+	private final BigInteger mBlockEnd;
+
+	/**
+	 * The number of concurrent threads to execute.
+	 */
+	private final int mNumberOfThreads;
+
+	/**
+	 * The timeout (in seconds) for long executions.
+	 */
+	private final int mTimeout;
+
+	/**
+	 * The strategy for finding CivicBucks.
+	 */
+	private MiningMode mMode = MiningMode.AUTO;
+
+	/**
+	 * The minimum number of values mined by a single task.
+	 */
+	private long mMinChunkSize = RangePartitioner.DEFAULT_MIN_CHUNK_SIZE;
+
+	/**
+	 * The file to write the CivicBucks to, or <code>null</code> for the
+	 * standard output stream.
+	 */
+	private String mOutputFile = null;
+
+	/**
+	 * The checkpoint journal file, or <code>null</code> for no journal.
+	 */
+	private String mJournalFile = null;
+
+	/**
+	 * Whether to resume from the checkpoint journal.
+	 */
+	private boolean mResume = false;
+
+	/**
+	 * The directory of the CivicBucks store, or <code>null</code> for no
+	 * store.
+	 */
+	private String mStoreDirectory = null;
+
+	/**
+	 * The interval (in seconds) between progress reports, or 0 for no
+	 * reports.
+	 */
+	private int mProgressInterval = 0;
+
+	/**
+	 * Whether to register the executor with the platform MBean server.
+	 */
+	private boolean mJmx = false;
+
+	/**
+	 * Whether the timeout is a deadline for the whole run.
+	 */
+	private boolean mDeadline = false;
+
+	/**
+	 * Whether the CivicBucks are only counted, not listed.
+	 */
+	private boolean mCountOnly = false;
+
+	/**
+	 * The time (in millis) reserved for writing out the results of a run with
+	 * a deadline.
+	 */
+	private long mAssemblyBudget = DEFAULT_ASSEMBLY_BUDGET_MILLIS;
+
+	/**
+	 * The port to coordinate workers on, or -1 for mining in this process.
+	 */
+	private int mCoordinatorPort = -1;
+
+	/**
+	 * The time (in seconds) before a lease is handed out again, in
+	 * coordinator mode.
+	 */
+	private int mLeaseTimeout = DEFAULT_LEASE_TIMEOUT_SECONDS;
+
+	/**
+	 * The shard of the block to mine, or <code>null</code> for the whole
+	 * block.
+	 */
+	private BlockShard mShard = null;
+
+	/**
+	 * The number of generator threads of the pipeline, or 0 for no pipeline.
+	 */
+	private int mPipelineGenerators = 0;
+
+	/**
+	 * The number of filter threads of the pipeline, or 0 for no pipeline.
+	 */
+	private int mPipelineFilters = 0;
+
+	/**
+	 * The algorithm for the numbers that are palindromes in other bases than
+	 * 10 and 2, or <code>null</code> for CivicBucks.
+	 */
+	private MultiRadixAlgorithm mBases = null;
+
+	/**
+	 * Parses the specified program arguments.
+	 *
+	 * @param args
+	 *            the program arguments (see {@link CivicBucksMiner#main}).
+	 * @throws IllegalArgumentException
+	 *             if any argument is missing or not valid.
+	 */
+	MinerArguments(final String[] args) {
+		if (args.length < 4) {
+			throw new IllegalArgumentException("Missing mandatory arguments.");
+		}
+
+		mBlockStart = parseBigInteger("start", args[0]);
+		mBlockEnd = parseBigInteger("end", args[1]);
+		mNumberOfThreads = parseInt("numberOfThreads", args[2]);
+		mTimeout = parseInt("timeout", args[3]);
+
+		if (mBlockStart.compareTo(mBlockEnd) > 0) {
+			throw new IllegalArgumentException("The start of the block must not exceed its end.");
+		}
+		if (mBlockStart.compareTo(BigInteger.valueOf(Long.MIN_VALUE)) < 0) {
+			throw new IllegalArgumentException("The start of the block must not be lower than " + Long.MIN_VALUE + ".");
+		}
+		if (mNumberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1.");
+		}
+		if (mTimeout < 1) {
+			throw new IllegalArgumentException("The timeout must be at least 1 second.");
+		}
+
+		for (int index = 4; index < args.length; index++) {
+			parseOption(args[index]);
+		}
+
+		if (mResume && mJournalFile == null) {
+			throw new IllegalArgumentException("The --resume option requires a --journal file.");
+		}
+		if (mCoordinatorPort >= 0 && (mJournalFile != null || mStoreDirectory != null || mDeadline)) {
+			throw new IllegalArgumentException(
+					"The --coordinator option cannot be combined with --journal, --store or --deadline.");
+		}
+		if (mShard != null && mOutputFile == null) {
+			throw new IllegalArgumentException("The --shard option requires an --output file.");
+		}
+		if (mShard != null && mCoordinatorPort >= 0) {
+			throw new IllegalArgumentException("The --shard option cannot be combined with --coordinator.");
+		}
+		if (mPipelineGenerators > 0 && mCoordinatorPort >= 0) {
+			throw new IllegalArgumentException("The --pipeline option cannot be combined with --coordinator.");
+		}
+		if (mPipelineGenerators > 0 && mBlockEnd.compareTo(BigInteger.valueOf(Long.MAX_VALUE)) > 0) {
+			throw new IllegalArgumentException("The --pipeline option requires a block within " + Long.MAX_VALUE + ".");
+		}
+		if (mBases != null && mMode != MiningMode.AUTO) {
+			throw new IllegalArgumentException("The --bases option cannot be combined with --mode.");
+		}
+		if (mBases != null && (mCoordinatorPort >= 0 || mStoreDirectory != null || mPipelineGenerators > 0)) {
+			throw new IllegalArgumentException(
+					"The --bases option cannot be combined with --coordinator, --store or --pipeline.");
+		}
+		if (mBases != null && mBlockEnd.compareTo(BigInteger.valueOf(Long.MAX_VALUE)) > 0) {
+			throw new IllegalArgumentException("The --bases option requires a block within " + Long.MAX_VALUE + ".");
+		}
+		if (mCountOnly && (mMode != MiningMode.AUTO || mBases != null)) {
+			throw new IllegalArgumentException("The --count option cannot be combined with --mode or --bases.");
+		}
+		if (mCountOnly && (mOutputFile != null || mJournalFile != null || mStoreDirectory != null
+				|| mCoordinatorPort >= 0 || mPipelineGenerators > 0)) {
+			throw new IllegalArgumentException("The --count option cannot be combined with --output, --journal, "
+					+ "--store, --coordinator, --shard or --pipeline.");
+		}
+		if (mCountOnly && mBlockEnd.compareTo(BigInteger.valueOf(Long.MAX_VALUE)) > 0) {
+			throw new IllegalArgumentException("The --count option requires a block within " + Long.MAX_VALUE + ".");
+		}
+		if (mDeadline && mAssemblyBudget >= TimeUnit.SECONDS.toMillis(mTimeout)) {
+			throw new IllegalArgumentException("The assembly budget must be shorter than the timeout.");
+		}
+	}
+
+	/**
+	 * Parses a numeric argument of any size.
+	 *
+	 * @param name
+	 *            the name of the argument, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number.
+	 */
+	private static BigInteger parseBigInteger(final String name, final String value) {
+		try {
+			return new BigInteger(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Parses a numeric argument of type int.
+	 *
+	 * @param name
+	 *            the name of the argument, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number.
+	 */
+	private static int parseInt(final String name, final String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Parses a numeric argument of type long.
+	 *
+	 * @param name
+	 *            the name of the argument, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number.
+	 */
+	private static long parseLong(final String name, final String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Returns the time (in millis) reserved for writing out the results of a
+	 * run with a deadline.
+	 */
+	long getAssemblyBudget() {
+		return mAssemblyBudget;
+	}
+
+	/**
+	 * Returns the algorithm for the numbers that are palindromes in other
+	 * bases than 10 and 2, or <code>null</code> for CivicBucks.
+	 */
+	MultiRadixAlgorithm getBases() {
+		return mBases;
+	}
+
+	/**
+	 * Returns the end of the block to mine (inclusive).
+	 */
+	BigInteger getBlockEnd() {
+		return mBlockEnd;
+	}
+
+	/**
+	 * Returns the start of the block to mine.
+	 */
+	BigInteger getBlockStart() {
+		return mBlockStart;
+	}
+
+	/**
+	 * Returns the port to coordinate workers on, or -1 for mining in this
+	 * process.
+	 */
+	int getCoordinatorPort() {
+		return mCoordinatorPort;
+	}
+
+	/**
+	 * Returns the checkpoint journal file, or <code>null</code> for no
+	 * journal.
+	 */
+	String getJournalFile() {
+		return mJournalFile;
+	}
+
+	/**
+	 * Returns the time (in seconds) before a lease is handed out again, in
+	 * coordinator mode.
+	 */
+	int getLeaseTimeout() {
+		return mLeaseTimeout;
+	}
+
+	/**
+	 * Returns the minimum number of values mined by a single task.
+	 */
+	long getMinChunkSize() {
+		return mMinChunkSize;
+	}
+
+	/**
+	 * Returns the strategy for finding CivicBucks.
+	 */
+	MiningMode getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Returns the number of concurrent threads to execute.
+	 */
+	int getNumberOfThreads() {
+		return mNumberOfThreads;
+	}
+
+	/**
+	 * Returns the file to write the CivicBucks to, or <code>null</code> for
+	 * the standard output stream.
+	 */
+	String getOutputFile() {
+		return mOutputFile;
+	}
+
+	/**
+	 * Returns the number of filter threads of the pipeline, or 0 for no
+	 * pipeline.
+	 */
+	int getPipelineFilters() {
+		return mPipelineFilters;
+	}
+
+	/**
+	 * Returns the number of generator threads of the pipeline, or 0 for no
+	 * pipeline.
+	 */
+	int getPipelineGenerators() {
+		return mPipelineGenerators;
+	}
+
+	/**
+	 * Returns the interval (in seconds) between progress reports, or 0 for no
+	 * reports.
+	 */
+	int getProgressInterval() {
+		return mProgressInterval;
+	}
+
+	/**
+	 * Returns the shard of the block to mine, or <code>null</code> for the
+	 * whole block.
+	 */
+	BlockShard getShard() {
+		return mShard;
+	}
+
+	/**
+	 * Returns the directory of the CivicBucks store, or <code>null</code> for
+	 * no store.
+	 */
+	String getStoreDirectory() {
+		return mStoreDirectory;
+	}
+
+	/**
+	 * Returns the timeout (in seconds) for long executions.
+	 */
+	int getTimeout() {
+		return mTimeout;
+	}
+
+	/**
+	 * Returns <code>true</code> if the CivicBucks are only counted, not
+	 * listed (see {@link CountingAlgorithm}).
+	 */
+	boolean isCountOnly() {
+		return mCountOnly;
+	}
+
+	/**
+	 * Returns <code>true</code> if the timeout is a deadline for the whole
+	 * run: mining stops in time to write out the results before it, and the
+	 * parts of the block left uncovered are reported.
+	 */
+	boolean isDeadline() {
+		return mDeadline;
+	}
+
+	/**
+	 * Returns <code>true</code> if the executor is registered with the
+	 * platform MBean server (see {@link MiningExecutorMXBean}).
+	 */
+	boolean isJmx() {
+		return mJmx;
+	}
+
+	/**
+	 * Returns <code>true</code> if the run resumes from the checkpoint
+	 * journal, mining only the parts of the block missing from it.
+	 */
+	boolean isResume() {
+		return mResume;
+	}
+
+	/**
+	 * Parses a single option in the form <code>--name=value</code>, or
+	 * <code>--name</code> for flags.
+	 *
+	 * @param option
+	 *            the option to parse.
+	 * @throws IllegalArgumentException
+	 *             if the option is unknown or its value is not valid.
+	 */
+	private void parseOption(final String option) {
+		if (!option.startsWith(OPTION_PREFIX)) {
+			throw new IllegalArgumentException("Invalid option: " + option);
+		}
+
+		final int separator = option.indexOf('=');
+		if (separator < 0) {
+			final String flag = option.substring(OPTION_PREFIX.length());
+			if ("resume".equals(flag)) {
+				mResume = true;
+			} else if ("jmx".equals(flag)) {
+				mJmx = true;
+			} else if ("deadline".equals(flag)) {
+				mDeadline = true;
+			} else if ("count".equals(flag)) {
+				mCountOnly = true;
+			} else {
+				throw new IllegalArgumentException("Invalid option: " + option);
+			}
+			return;
+		}
+
+		final String name = option.substring(OPTION_PREFIX.length(), separator);
+		final String value = option.substring(separator + 1);
+
+		if ("mode".equals(name)) {
+			mMode = MiningMode.fromName(value);
+		} else if ("chunk".equals(name)) {
+			mMinChunkSize = parseLong(name, value);
+			if (mMinChunkSize < 1) {
+				throw new IllegalArgumentException("The chunk size must be at least 1.");
+			}
+		} else if ("output".equals(name)) {
+			mOutputFile = value;
+		} else if ("journal".equals(name)) {
+			mJournalFile = value;
+		} else if ("store".equals(name)) {
+			mStoreDirectory = value;
+		} else if ("assembly-budget".equals(name)) {
+			mAssemblyBudget = parseLong(name, value);
+			if (mAssemblyBudget < 0) {
+				throw new IllegalArgumentException("The assembly budget must not be negative.");
+			}
+		} else if ("coordinator".equals(name)) {
+			mCoordinatorPort = parseInt(name, value);
+			if (mCoordinatorPort < 0 || mCoordinatorPort > 65535) {
+				throw new IllegalArgumentException("Invalid coordinator port: " + value);
+			}
+		} else if ("lease-timeout".equals(name)) {
+			mLeaseTimeout = parseInt(name, value);
+			if (mLeaseTimeout < 1) {
+				throw new IllegalArgumentException("The lease timeout must be at least 1 second.");
+			}
+		} else if ("shard".equals(name)) {
+			mShard = BlockShard.parse(value);
+		} else if ("pipeline".equals(name)) {
+			final int colon = value.indexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Invalid pipeline: " + value);
+			}
+			mPipelineGenerators = parseInt(name, value.substring(0, colon));
+			mPipelineFilters = parseInt(name, value.substring(colon + 1));
+			if (mPipelineGenerators < 1 || mPipelineFilters < 1) {
+				throw new IllegalArgumentException("Every stage of the pipeline needs at least 1 thread.");
+			}
+		} else if ("bases".equals(name)) {
+			mBases = MultiRadixAlgorithm.parse(value);
+		} else if ("progress".equals(name)) {
+			mProgressInterval = parseInt(name, value);
+			if (mProgressInterval < 1) {
+				throw new IllegalArgumentException("The progress interval must be at least 1 second.");
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown option: " + option);
+		}
+	}
+}
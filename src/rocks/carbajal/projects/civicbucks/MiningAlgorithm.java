@@ -0,0 +1,59 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * An algorithm for finding the CivicBucks (numbers that are palindromes in
+ * both decimal and binary) of a block within the limit of type long. A
+ * {@link MiningTask} adapts an algorithm to the executor.
+ *
+ * Implementations must be stateless (a single instance is shared by all the
+ * tasks of a run) and must call {@link MiningProgress#checkpoint(long)} every
+ * few thousand iterations of their hot loop: it publishes their progress and
+ * tells them when to stop, because the thread was interrupted or the deadline
+ * of the run passed. They must then stop with partial results, reporting the
+ * part of the block they fully mined (see {@link TaskResult#getCoveredRange()}).
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public interface MiningAlgorithm {
+
+	/**
+	 * Returns the name of the algorithm, for reports (e.g. "scan").
+	 */
+	String getName();
+
+	/**
+	 * Mines the CivicBucks of the specified block.
+	 *
+	 * @param startBlock
+	 *            the starting point of the block to mine.
+	 * @param endBlock
+	 *            the ending point of the block to mine (inclusive).
+	 * @return a {@link TaskResult} with the CivicBucks found, in ascending
+	 *         order, and the part of the block that was mined.
+	 */
+	TaskResult mine(long startBlock, long endBlock);
+}
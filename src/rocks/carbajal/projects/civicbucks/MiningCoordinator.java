@@ -0,0 +1,607 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mines a block with many {@link MiningWorker} nodes, e.g. a rack of boxes,
+ * each one running its own {@link MiningExecutor}.
+ *
+ * The block is split into leases (see {@link RangePartitioner}), several per
+ * worker thread, which workers request over TCP (see {@link LeaseProtocol}),
+ * mine and send back along with their CivicBucks. A lease is taken back when
+ * the connection of its worker is lost, and it is handed out again once it
+ * expires, in case its worker is stuck: whichever worker reports it first
+ * wins. The results are streamed to an {@link OrderedResultWriter} in
+ * ascending order as leases complete.
+ *
+ * Workers pull leases as fast as they mine them, so faster nodes get more of
+ * them, and the coordinator only handles a couple of small messages per lease,
+ * so adding nodes scales the throughput almost linearly.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class MiningCoordinator implements Closeable {
+
+	/**
+	 * The state of a single lease. Guarded by the coordinator's monitor.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class Lease {
+
+		/**
+		 * The index of the lease, in ascending order of their ranges.
+		 */
+		final int mIndex;
+
+		/**
+		 * The range of the lease.
+		 */
+		final BlockRange mRange;
+
+		/**
+		 * The worker currently holding the lease, or <code>null</code> if it
+		 * is not leased.
+		 */
+		WorkerConnection mHolder = null;
+
+		/**
+		 * The time the current lease expires at (in nanos).
+		 */
+		long mExpiryTime;
+
+		/**
+		 * The result of the lease, or <code>null</code> until it is done.
+		 */
+		TaskResult mResult = null;
+
+		/**
+		 * Creates a lease that is neither leased nor done.
+		 *
+		 * @param index
+		 *            the index of the lease.
+		 * @param range
+		 *            the range of the lease.
+		 */
+		Lease(final int index, final BlockRange range) {
+			mIndex = index;
+			mRange = range;
+		}
+	}
+
+	/**
+	 * The connection with a single worker, served by its own thread.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private class WorkerConnection implements Runnable {
+
+		/**
+		 * The socket of the connection.
+		 */
+		private final Socket mSocket;
+
+		/**
+		 * The name of the worker, once it has introduced itself.
+		 */
+		private String mName;
+
+		/**
+		 * Creates the connection with a worker.
+		 *
+		 * @param socket
+		 *            the socket of the connection.
+		 */
+		WorkerConnection(final Socket socket) {
+			mSocket = socket;
+			mName = String.valueOf(socket.getRemoteSocketAddress());
+		}
+
+		/**
+		 * Closes the connection, ignoring errors.
+		 */
+		void close() {
+			try {
+				mSocket.close();
+			} catch (final IOException e) {
+				// nothing else to do
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				final DataInputStream input = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+				final DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(mSocket.getOutputStream()));
+
+				if (input.readInt() != LeaseProtocol.MAGIC || input.readInt() != LeaseProtocol.VERSION) {
+					throw new IOException("Not a mining worker: " + mName);
+				}
+				mName = input.readUTF() + " (" + mName + ")";
+
+				while (true) {
+					final byte request = input.readByte();
+					if (request == LeaseProtocol.REQUEST_LEASE) {
+						reply(output);
+					} else if (request == LeaseProtocol.LEASE_DONE) {
+						final int index = input.readInt();
+						complete(this, index, LeaseProtocol.readResult(input));
+					} else if (request == LeaseProtocol.LEASE_FAILED) {
+						release(this, input.readInt());
+					} else {
+						throw new IOException("Unknown request " + request + " from " + mName);
+					}
+				}
+			} catch (final EOFException | SocketException e) {
+				// the worker is gone
+			} catch (final IOException e) {
+				if (!mClosed) {
+					System.out.println("Unable to serve a mining worker (see error below).");
+					e.printStackTrace();
+				}
+			} finally {
+				close();
+				mConnections.remove(this);
+				releaseAll(this);
+			}
+		}
+
+		/**
+		 * Replies to a request for a lease.
+		 *
+		 * @param output
+		 *            the stream to reply to.
+		 * @throws IOException
+		 *             if writing fails.
+		 */
+		private void reply(final DataOutputStream output) throws IOException {
+			final Lease lease = acquire(this);
+			if (lease != null) {
+				output.writeByte(LeaseProtocol.LEASE);
+				output.writeInt(lease.mIndex);
+				LeaseProtocol.writeBigInteger(output, lease.mRange.getStartValue());
+				LeaseProtocol.writeBigInteger(output, lease.mRange.getEndValue());
+				output.writeUTF(mMode.name());
+			} else if (isCompleted()) {
+				output.writeByte(LeaseProtocol.FINISHED);
+			} else {
+				output.writeByte(LeaseProtocol.WAIT);
+				output.writeLong(WAIT_MILLIS);
+			}
+			output.flush();
+		}
+
+		@Override
+		public String toString() {
+			return mName;
+		}
+	}
+
+	/**
+	 * The time (in millis) a worker waits before asking again when every
+	 * lease is taken.
+	 */
+	static final long WAIT_MILLIS = 100;
+
+	/**
+	 * The minimum number of values in a lease, so that workers spend their
+	 * time mining rather than talking.
+	 */
+	static final long MIN_LEASE_SIZE = 1000000;
+
+	/**
+	 * The block to mine.
+	 */
+	private final BlockRange mBlock;
+
+	/**
+	 * The strategy the workers use for finding CivicBucks.
+	 */
+	private final MiningMode mMode;
+
+	/**
+	 * The time (in nanos) a lease is held before it can be handed out again.
+	 */
+	private final long mLeaseTimeout;
+
+	/**
+	 * The leases, in ascending order of their ranges.
+	 */
+	private final List<Lease> mLeases = new ArrayList<Lease>();
+
+	/**
+	 * The connections with the workers.
+	 */
+	private final List<WorkerConnection> mConnections = new CopyOnWriteArrayList<WorkerConnection>();
+
+	/**
+	 * The number of leases done. Guarded by this coordinator's monitor.
+	 */
+	private int mLeasesDone = 0;
+
+	/**
+	 * The number of times a lease was taken back from a worker. Guarded by
+	 * this coordinator's monitor.
+	 */
+	private int mLeasesReassigned = 0;
+
+	/**
+	 * The writer to stream the results to, once started.
+	 */
+	private OrderedResultWriter mWriter;
+
+	/**
+	 * The server socket, once started.
+	 */
+	private ServerSocket mServerSocket;
+
+	/**
+	 * Whether the coordinator is closed.
+	 */
+	private volatile boolean mClosed = false;
+
+	/**
+	 * Creates a coordinator for the specified block.
+	 *
+	 * @param block
+	 *            the block to mine.
+	 * @param mode
+	 *            the strategy the workers use for finding CivicBucks;
+	 *            {@link MiningMode#AUTO} lets every worker calibrate on its
+	 *            own hardware.
+	 * @param numberOfThreads
+	 *            the total number of threads of all the workers expected,
+	 *            used for sizing the leases.
+	 * @param leaseTimeout
+	 *            the time a lease is held before it can be handed out again.
+	 * @param units
+	 *            the time unit of the lease timeout argument.
+	 */
+	public MiningCoordinator(final BlockRange block, final MiningMode mode, final int numberOfThreads,
+			final long leaseTimeout, final TimeUnit units) {
+		mBlock = block;
+		mMode = mode;
+		mLeaseTimeout = units.toNanos(leaseTimeout);
+
+		final List<BlockRange> ranges = new RangePartitioner(MIN_LEASE_SIZE).partition(block.getStartValue(),
+				block.getEndValue(), numberOfThreads);
+		for (final BlockRange range : ranges) {
+			mLeases.add(new Lease(mLeases.size(), range));
+		}
+	}
+
+	/**
+	 * Accepts worker connections until the coordinator is closed, serving
+	 * each one from its own thread.
+	 */
+	private void acceptWorkers() {
+		while (!mClosed) {
+			try {
+				final Socket socket = mServerSocket.accept();
+				socket.setTcpNoDelay(true);
+				final WorkerConnection connection = new WorkerConnection(socket);
+				mConnections.add(connection);
+				if (mClosed) {
+					connection.close();
+					return;
+				}
+
+				final Thread thread = new Thread(connection, "coordinator-" + connection);
+				thread.setDaemon(true);
+				thread.start();
+			} catch (final IOException e) {
+				if (!mClosed) {
+					System.out.println("Unable to accept a mining worker (see error below).");
+					e.printStackTrace();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns a lease for the specified worker: a lease that is not leased,
+	 * or else an expired one.
+	 *
+	 * @param worker
+	 *            the worker.
+	 * @return the lease, or <code>null</code> if there is none.
+	 */
+	private synchronized Lease acquire(final WorkerConnection worker) {
+		if (mClosed) {
+			return null;
+		}
+
+		final long now = System.nanoTime();
+		Lease expired = null;
+		for (final Lease lease : mLeases) {
+			if (lease.mResult != null) {
+				continue;
+			}
+			if (lease.mHolder == null) {
+				return lease(lease, worker, now);
+			}
+			if (expired == null && now - lease.mExpiryTime >= 0) {
+				expired = lease;
+			}
+		}
+
+		if (expired != null) {
+			mLeasesReassigned++;
+			return lease(expired, worker, now);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Blocks until every lease is done, or the timeout occurs, or the current
+	 * thread is interrupted, whichever happens first.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait.
+	 * @param units
+	 *            the time unit of the timeout argument.
+	 * @return <code>true</code> if every lease is done.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public synchronized boolean awaitCompletion(final long timeout, final TimeUnit units)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + units.toNanos(timeout);
+		while (!isCompleted()) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Collects the results of the leases done so far, for the coverage and the
+	 * count of CivicBucks (which were streamed to the writer).
+	 *
+	 * @return the results, without performance statistics (the tasks ran on
+	 *         the workers).
+	 */
+	public synchronized MiningExecutorResults calculateMiningResults() {
+		final List<TaskResult> results = new ArrayList<TaskResult>();
+		for (final Lease lease : mLeases) {
+			if (lease.mResult != null) {
+				results.add(lease.mResult);
+			}
+		}
+
+		return new MiningExecutorResults(mBlock, results, new MiningStatistics());
+	}
+
+	/**
+	 * Stops handing out leases and closes the connections with the workers.
+	 * The writer is left open.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			mClosed = true;
+			notifyAll();
+		}
+
+		if (mServerSocket != null) {
+			try {
+				mServerSocket.close();
+			} catch (final IOException e) {
+				// nothing else to do
+			}
+		}
+		for (final WorkerConnection connection : mConnections) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Records the result of a lease reported by a worker, and streams it to
+	 * the writer, unless another worker reported it first.
+	 *
+	 * @param worker
+	 *            the worker.
+	 * @param index
+	 *            the index of the lease.
+	 * @param result
+	 *            the result of the lease.
+	 * @throws IOException
+	 *             if the lease does not exist, or the result does not cover
+	 *             it.
+	 */
+	private synchronized void complete(final WorkerConnection worker, final int index, final TaskResult result)
+			throws IOException {
+		final Lease lease = getLease(index);
+		if (!result.getCoveredRange().getStartValue().equals(lease.mRange.getStartValue())
+				|| !result.getCoveredRange().getEndValue().equals(lease.mRange.getEndValue())) {
+			throw new IOException("Result " + result.getCoveredRange() + " does not cover lease " + lease.mRange);
+		}
+		if (lease.mResult != null || mClosed) {
+			return;
+		}
+
+		mWriter.commit(index, result);
+		lease.mResult = new TaskResult(result.getCoveredRange(), result.getCivicBucksTotal());
+		lease.mHolder = null;
+		mLeasesDone++;
+		if (isCompleted()) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the specified lease.
+	 *
+	 * @param index
+	 *            the index of the lease.
+	 * @return the lease.
+	 * @throws IOException
+	 *             if the lease does not exist.
+	 */
+	private Lease getLease(final int index) throws IOException {
+		if (index < 0 || index >= mLeases.size()) {
+			throw new IOException("Unknown lease: " + index);
+		}
+
+		return mLeases.get(index);
+	}
+
+	/**
+	 * Returns the number of leases the block was split into.
+	 */
+	public int getLeaseCount() {
+		return mLeases.size();
+	}
+
+	/**
+	 * Returns the number of times a lease was taken back from a worker, e.g.
+	 * because its connection was lost.
+	 */
+	public synchronized int getLeasesReassigned() {
+		return mLeasesReassigned;
+	}
+
+	/**
+	 * Returns the local port the coordinator listens on, once started.
+	 */
+	public int getPort() {
+		return mServerSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns the number of workers connected.
+	 */
+	public int getWorkerCount() {
+		return mConnections.size();
+	}
+
+	/**
+	 * Returns <code>true</code> if every lease is done.
+	 */
+	private synchronized boolean isCompleted() {
+		return mLeasesDone == mLeases.size();
+	}
+
+	/**
+	 * Leases the specified lease to a worker.
+	 *
+	 * @param lease
+	 *            the lease.
+	 * @param worker
+	 *            the worker.
+	 * @param now
+	 *            the current time (in nanos).
+	 * @return the lease.
+	 */
+	private Lease lease(final Lease lease, final WorkerConnection worker, final long now) {
+		lease.mHolder = worker;
+		lease.mExpiryTime = now + mLeaseTimeout;
+		return lease;
+	}
+
+	/**
+	 * Takes back a lease that a worker could not mine completely.
+	 *
+	 * @param worker
+	 *            the worker.
+	 * @param index
+	 *            the index of the lease.
+	 * @throws IOException
+	 *             if the lease does not exist.
+	 */
+	private synchronized void release(final WorkerConnection worker, final int index) throws IOException {
+		final Lease lease = getLease(index);
+		if (lease.mHolder == worker) {
+			lease.mHolder = null;
+			mLeasesReassigned++;
+		}
+	}
+
+	/**
+	 * Takes back all the leases of a worker whose connection was lost.
+	 *
+	 * @param worker
+	 *            the worker.
+	 */
+	private synchronized void releaseAll(final WorkerConnection worker) {
+		for (final Lease lease : mLeases) {
+			if (lease.mHolder == worker) {
+				lease.mHolder = null;
+				mLeasesReassigned++;
+			}
+		}
+	}
+
+	/**
+	 * Starts listening for workers on the specified port, streaming the
+	 * results of the leases to the specified writer in ascending order.
+	 *
+	 * @param port
+	 *            the port to listen on, or 0 for any free port (see
+	 *            {@link #getPort()}).
+	 * @param writer
+	 *            the writer to stream the CivicBucks to.
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	public void start(final int port, final OrderedResultWriter writer) throws IOException {
+		mWriter = writer;
+		writer.start(mLeases.size());
+		mServerSocket = new ServerSocket(port);
+
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptWorkers();
+			}
+		}, "coordinator-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+}
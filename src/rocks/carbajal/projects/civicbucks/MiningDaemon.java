@@ -0,0 +1,583 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-lived mining engine that runs block jobs (see {@link MiningJob}) on a
+ * single pool of warm threads, instead of starting a new JVM and a new
+ * {@link MiningExecutor} for every block: follow-on blocks are often small,
+ * and the start of a JVM, the JIT warm-up of the kernels and the start of the
+ * threads would otherwise dominate them.
+ *
+ * The daemon mines a sample of every strategy once before taking jobs, so
+ * that the kernels are compiled and the threads started when the first job
+ * comes in, and for {@link MiningMode#AUTO} calibrates once per magnitude of
+ * the blocks (see {@link AlgorithmCalibrator}) rather than once per job. Every
+ * job is split into chunks, and gets its own results and statistics.
+ *
+ * Jobs are read one per line from the standard input stream, a jobs file or
+ * local socket connections, and run at the same time on the pool by their
+ * priority and share (see {@link MiningScheduler}), so that a small urgent job
+ * does not wait behind a large one. Their results are written back to where
+ * they came from as soon as they are done:
+ *
+ * <pre>
+ * java MiningDaemon [numberOfThreads] [--jobs=file | --port=port]
+ * </pre>
+ *
+ * A line reading <code>cancel id</code> cancels the job with that id. The
+ * daemon stops at the end of the standard input stream or the jobs file, or
+ * when a line reads <code>shutdown</code>, once the jobs before it are done.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class MiningDaemon {
+
+	/**
+	 * A source of jobs: where to write their results, and how many of them
+	 * are not written back yet. Only used by the thread that serves the
+	 * requests.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class Client {
+
+		/**
+		 * Where to write the results of the jobs.
+		 */
+		final PrintWriter mOutput;
+
+		/**
+		 * The connection to close once all its jobs are written back, or
+		 * <code>null</code>.
+		 */
+		final Closeable mConnection;
+
+		/**
+		 * The number of jobs whose results are not written back yet.
+		 */
+		int mPending = 0;
+
+		/**
+		 * Whether the source ended.
+		 */
+		boolean mEnded = false;
+
+		/**
+		 * Creates a client.
+		 *
+		 * @param output
+		 *            where to write the results of the jobs.
+		 * @param connection
+		 *            the connection to close once all its jobs are written
+		 *            back, or <code>null</code>.
+		 */
+		Client(final PrintWriter output, final Closeable connection) {
+			mOutput = output;
+			mConnection = connection;
+		}
+
+		/**
+		 * Closes the connection once the source ended and all its jobs are
+		 * written back.
+		 */
+		void closeIfDone() {
+			if (mEnded && mPending == 0 && mConnection != null) {
+				try {
+					mConnection.close();
+				} catch (final IOException e) {
+					// nothing left to write to it anyway
+				}
+			}
+		}
+	}
+
+	/**
+	 * A line read from a source of jobs, or a job of it that is done and
+	 * whose results are to be written back.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private class Request implements Runnable {
+
+		/**
+		 * The line, or <code>null</code> at the end of a connection.
+		 */
+		final String mLine;
+
+		/**
+		 * The source of the line.
+		 */
+		final Client mClient;
+
+		/**
+		 * The job of the line once submitted, or <code>null</code>. Only set
+		 * and read by the thread that serves the requests, so it is set by
+		 * the time the request is queued again.
+		 */
+		ScheduledJob mJob = null;
+
+		/**
+		 * Creates a request.
+		 *
+		 * @param line
+		 *            the line, or <code>null</code> at the end of a
+		 *            connection.
+		 * @param client
+		 *            the source of the line.
+		 */
+		Request(final String line, final Client client) {
+			mLine = line;
+			mClient = client;
+		}
+
+		/**
+		 * Queues the request again once its job is done, so that its results
+		 * are written back by the thread that serves the requests.
+		 */
+		@Override
+		public void run() {
+			mRequests.add(this);
+		}
+	}
+
+	/**
+	 * The line that stops the daemon once the jobs queued before it are done.
+	 */
+	static final String SHUTDOWN = "shutdown";
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	static final String USAGE = "Usage: java MiningDaemon [numberOfThreads] [--jobs=file | --port=port]";
+
+	/**
+	 * The end of the sample mined with every strategy before taking jobs.
+	 */
+	private static final long WARM_UP_END = 2000000;
+
+	/**
+	 * The line prefix that cancels a job.
+	 */
+	static final String CANCEL = "cancel ";
+
+	/**
+	 * The requests to serve, in order of arrival.
+	 */
+	private final BlockingQueue<Request> mRequests = new LinkedBlockingQueue<Request>();
+
+	/**
+	 * The scheduler running the jobs.
+	 */
+	private final MiningScheduler mScheduler;
+
+	/**
+	 * The number of jobs mined so far.
+	 */
+	private final AtomicLong mJobsRun = new AtomicLong();
+
+	/**
+	 * Creates a daemon with a fixed number of threads. The threads in the pool
+	 * will exist until it is explicitly {@link #shutdown shutdown}.
+	 *
+	 * @param numberOfThreads
+	 *            the number of threads in the pool.
+	 */
+	public MiningDaemon(final int numberOfThreads) {
+		mScheduler = new MiningScheduler(numberOfThreads);
+	}
+
+	/**
+	 * Launches a daemon (see the class description for the arguments).
+	 *
+	 * @param args
+	 *            the program arguments.
+	 */
+	public static void main(final String[] args) {
+		int numberOfThreads;
+		String jobsFile = null;
+		int port = -1;
+		try {
+			if (args.length < 1) {
+				throw new IllegalArgumentException("Missing mandatory arguments.");
+			}
+			numberOfThreads = parseInt("numberOfThreads", args[0]);
+			for (int index = 1; index < args.length; index++) {
+				if (args[index].startsWith("--jobs=")) {
+					jobsFile = args[index].substring("--jobs=".length());
+				} else if (args[index].startsWith("--port=")) {
+					port = parseInt("port", args[index].substring("--port=".length()));
+				} else {
+					throw new IllegalArgumentException("Unknown option: " + args[index]);
+				}
+			}
+			if (numberOfThreads < 1) {
+				throw new IllegalArgumentException("The number of threads must be at least 1.");
+			}
+			if (jobsFile != null && port >= 0) {
+				throw new IllegalArgumentException("The --jobs option cannot be combined with --port.");
+			}
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(CivicBucksMiner.EXIT_INVALID_ARGUMENTS);
+			return;
+		}
+
+		final MiningDaemon daemon = new MiningDaemon(numberOfThreads);
+		try {
+			final long warmUpStartTime = System.currentTimeMillis();
+			daemon.warmUp();
+			System.out.println("Mining daemon: " + numberOfThreads + " threads, warmed up in "
+					+ (System.currentTimeMillis() - warmUpStartTime) + " millis");
+
+			if (port >= 0) {
+				final ServerSocket serverSocket = daemon.listen(port);
+				System.out.println("Mining daemon: listening on " + serverSocket.getLocalSocketAddress());
+			} else {
+				final InputStream input = (jobsFile == null) ? System.in : new FileInputStream(jobsFile);
+				daemon.read(input, new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+			}
+			System.out.flush();
+
+			daemon.serve();
+			System.out.println("Mining daemon: " + daemon.getJobsRun() + " jobs run");
+		} catch (final IOException e) {
+			System.out.println("Unable to take jobs (see error below).");
+			e.printStackTrace();
+		} catch (final InterruptedException e) {
+			System.out.println("Thread interrupted (see error below).");
+			e.printStackTrace();
+		} finally {
+			daemon.shutdown();
+		}
+	}
+
+	/**
+	 * Parses a numeric argument of type int.
+	 *
+	 * @param name
+	 *            the name of the argument, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number.
+	 */
+	private static int parseInt(final String name, final String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Starts a thread that reads the lines of a source of jobs and queues
+	 * them, writing their results to {@code output}. If the source is not a
+	 * connection, the daemon stops once it ends.
+	 *
+	 * @param input
+	 *            the source of jobs.
+	 * @param output
+	 *            where to write the results of the jobs.
+	 * @param connection
+	 *            the connection of the source, to close once its jobs are
+	 *            done, or <code>null</code> if it is not a connection.
+	 */
+	private void startReader(final InputStream input, final PrintWriter output, final Closeable connection) {
+		final Client client = new Client(output, connection);
+		final Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// closing the input of a connection would close it before its results are written back
+				final BufferedReader lines = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+				try {
+					String line;
+					while ((line = lines.readLine()) != null) {
+						mRequests.add(new Request(line, client));
+					}
+					if (connection == null) {
+						lines.close();
+					}
+				} catch (final IOException e) {
+					if (connection == null) {
+						System.out.println("Unable to read the jobs (see error below).");
+						e.printStackTrace();
+					}
+				}
+				mRequests.add(new Request((connection == null) ? SHUTDOWN : null, client));
+			}
+		}, "daemon-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Returns the number of jobs mined so far.
+	 */
+	public long getJobsRun() {
+		return mJobsRun.get();
+	}
+
+	/**
+	 * Starts accepting local connections on the specified port, each one a
+	 * source of jobs whose results are written back to it.
+	 *
+	 * @param port
+	 *            the port to listen on, or 0 for any free port.
+	 * @return the server socket, bound to the loopback address.
+	 * @throws IOException
+	 *             if the port cannot be bound.
+	 */
+	ServerSocket listen(final int port) throws IOException {
+		final ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						final Socket socket = serverSocket.accept();
+						socket.setTcpNoDelay(true);
+						startReader(socket.getInputStream(), new PrintWriter(
+								new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)), socket);
+					} catch (final IOException e) {
+						System.out.println("Unable to accept a connection (see error below).");
+						e.printStackTrace();
+						return;
+					}
+				}
+			}
+		}, "daemon-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		return serverSocket;
+	}
+
+	/**
+	 * Mines a job on the threads of this daemon, along with the other jobs,
+	 * blocking until it is done or its timeout elapses: tasks then stop at
+	 * their next checkpoint, and the results tell which parts of the job were
+	 * covered. If the current thread is interrupted, the job is cancelled.
+	 *
+	 * @param job
+	 *            the job to mine.
+	 * @return the results of the job, with their CivicBucks.
+	 */
+	public MiningExecutorResults mine(final MiningJob job) {
+		final ScheduledJob scheduledJob = mScheduler.submit(job);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return scheduledJob.await();
+				} catch (final InterruptedException e) {
+					// stop mining for nobody, then wait for the chunks to stop
+					interrupted = true;
+					scheduledJob.cancel();
+				}
+			}
+		} finally {
+			mJobsRun.incrementAndGet();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Starts a thread that reads jobs from a stream and queues them, writing
+	 * their results to {@code output}; the daemon stops once the stream ends.
+	 *
+	 * @param input
+	 *            the stream to read jobs from.
+	 * @param output
+	 *            where to write the results of the jobs.
+	 */
+	void read(final InputStream input, final PrintWriter output) {
+		startReader(input, output, null);
+	}
+
+	/**
+	 * Writes out the results of a job that is done: its CivicBucks, statistics
+	 * and coverage, followed by a line that ends them.
+	 *
+	 * @param scheduledJob
+	 *            the job, done.
+	 * @param output
+	 *            where to write the results.
+	 */
+	private void report(final ScheduledJob scheduledJob, final PrintWriter output) {
+		final MiningExecutorResults results;
+		try {
+			results = scheduledJob.await();
+		} catch (final InterruptedException e) {
+			// the job is done, this does not wait
+			Thread.currentThread().interrupt();
+			return;
+		}
+		mJobsRun.incrementAndGet();
+
+		output.println("Job " + scheduledJob);
+		if (scheduledJob.isCancelled()) {
+			output.println("Cancelled");
+		}
+		output.println("Palindromes:");
+		try {
+			results.writeOutput(output);
+		} catch (final IOException e) {
+			// a PrintWriter does not throw, it keeps the error for checkError
+		}
+		output.println("Performance (millis): max: " + TimeUnit.NANOSECONDS.toMillis(results.getMaxPerformance())
+				+ ", mean: " + TimeUnit.NANOSECONDS.toMillis(results.getMeanPerformance()));
+		output.println(String.format("Percentiles (millis): p50: %.3f, p90: %.3f, p99: %.3f, max: %.3f, mean: %.3f",
+				results.getMedianPerformance() / 1e6, results.get90thPercentilePerformance() / 1e6,
+				results.get99thPercentilePerformance() / 1e6, results.getMaxPerformance() / 1e6,
+				results.getMeanPerformance() / 1e6));
+		output.println(String.format("Throughput: %.0f numbers/s over %d tasks (%d incomplete)",
+				results.getThroughput(), results.getTasksTimed(), results.getTasksIncomplete()));
+		output.println("Palindromes computed: " + results.getTotalCivicBucks());
+		output.println("Tasks run: " + results.getTasksRun());
+		output.println("Queued: " + scheduledJob.getQueuedMillis() + " millis.");
+		output.println("Duration: " + scheduledJob.getDurationMillis() + " millis.");
+		if (results.getUncoveredRanges().isEmpty()) {
+			output.println("Coverage: the whole job");
+		} else {
+			output.println("Covered: " + (results.getCoveredRanges().isEmpty() ? "nothing"
+					: CivicBucksMiner.joinRanges(results.getCoveredRanges())));
+			output.println("Not covered: " + CivicBucksMiner.joinRanges(results.getUncoveredRanges()));
+		}
+		output.println("End of job " + scheduledJob.getId());
+		output.flush();
+	}
+
+	/**
+	 * Serves the queued requests until a line reads {@link #SHUTDOWN}: jobs
+	 * are submitted in order of arrival and their results written back as
+	 * soon as they are done. Blank lines and lines starting with
+	 * <code>#</code> are ignored.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a request.
+	 */
+	public void serve() throws InterruptedException {
+		int pending = 0;
+		Request shutdown = null;
+		while (shutdown == null || pending > 0) {
+			final Request request = mRequests.take();
+			final Client client = request.mClient;
+			if (request.mJob != null) {
+				// a job that is done
+				report(request.mJob, client.mOutput);
+				pending--;
+				client.mPending--;
+				client.closeIfDone();
+				continue;
+			}
+			if (request.mLine == null) {
+				// the end of a connection, closed once all its jobs are written back
+				client.mEnded = true;
+				client.closeIfDone();
+				continue;
+			}
+
+			final String line = request.mLine.trim();
+			if (line.isEmpty() || line.startsWith("#") || shutdown != null) {
+				continue;
+			}
+			if (SHUTDOWN.equals(line)) {
+				shutdown = request;
+				continue;
+			}
+			if (line.startsWith(CANCEL)) {
+				final String id = line.substring(CANCEL.length()).trim();
+				final ScheduledJob job = mScheduler.getJob(id);
+				if (job == null || !job.cancel()) {
+					client.mOutput.println("No job to cancel: " + id);
+					client.mOutput.flush();
+				}
+				continue;
+			}
+
+			final MiningJob job;
+			try {
+				job = MiningJob.parse(line);
+			} catch (final IllegalArgumentException e) {
+				client.mOutput.println("Invalid job: " + e.getMessage());
+				client.mOutput.flush();
+				continue;
+			}
+			// the request queues itself again once the job is done
+			request.mJob = mScheduler.submit(job, request);
+			pending++;
+			client.mPending++;
+		}
+		shutdown.mClient.mOutput.flush();
+	}
+
+	/**
+	 * Stops the threads of this daemon once the jobs submitted so far are
+	 * done.
+	 */
+	public void shutdown() {
+		mScheduler.shutdown();
+	}
+
+	/**
+	 * Mines a sample with every strategy, so that their kernels are compiled
+	 * and the threads of the pool started before the first job comes in.
+	 */
+	public void warmUp() {
+		final List<BlockRange> sample = Collections.singletonList(new BlockRange(0, WARM_UP_END));
+		for (final MiningMode mode : MiningMode.values()) {
+			if (mode.getAlgorithm() != null) {
+				mine(new MiningJob("warm-up", sample, mode, RangePartitioner.DEFAULT_MIN_CHUNK_SIZE, 0));
+			}
+		}
+		mJobsRun.set(0);
+	}
+}
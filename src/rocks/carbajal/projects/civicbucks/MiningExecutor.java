@@ -23,34 +23,426 @@
  */
 package rocks.carbajal.projects.civicbucks;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * This is a custom {@link ThreadPoolExecutor} for the CivicMining LLC.
- * challenge (read the README.txt file for more information.)
+ * This is a custom {@link ForkJoinPool} for the CivicMining LLC. challenge
+ * (read the README.txt file for more information.)
  *
  * This executor provides convenience methods for initiating the mining
  * computation based on arguments passed in the constructor and for retrieving
  * the mining results.
  *
+ * The block to mine is split into many small chunks (see
+ * {@link RangePartitioner}), each one mined by its own {@link MiningTask}. The
+ * chunks are distributed by recursively splitting the list of chunks in halves:
+ * idle threads steal the halves that busy threads have not started yet, so all
+ * the threads stay busy until the end of the run, even if some chunks take
+ * longer than others.
+ *
+ * If there is a {@link CheckpointJournal}, every completed chunk is appended
+ * to it, and the parts of the block recovered from a resumed journal are not
+ * mined again: only the gaps between them are split into chunks. The same
+ * goes for the parts of the block already covered by a
+ * {@link CivicBucksStore}, which keeps the results of every run.
+ *
+ * The chunks may instead go through a pipeline of stages (see
+ * {@link #setPipeline(int, int)}), which splits the mining of every chunk
+ * between threads dedicated to each stage.
+ *
+ * The live progress of a run is available through the
+ * {@link MiningExecutorMXBean} interface. Its results can be received as they
+ * come, without waiting for the executor to terminate, through a
+ * {@link MiningListener} or {@link #getFutureResults()}.
+ *
  * @author Pablo A. Carbajal
  *
  */
-public class MiningExecutor extends ThreadPoolExecutor {
+public class MiningExecutor extends ForkJoinPool implements MiningExecutorMXBean {
 
 	/**
-	 * This list holds the future results of asynchronous mining computations.
-	 * It is used for retrieving task information upon completion.
+	 * A {@link RecursiveAction} that mines a contiguous slice of the list of
+	 * chunks. Slices of more than one chunk are split in two halves that are
+	 * mined in parallel (and may be stolen by idle threads); a slice of a
+	 * single chunk runs its mining task.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
 	 */
-	final private List<Future<TaskResult>> mListOfFutureTaskResults;
+	private class MiningAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The index of the first chunk of the slice.
+		 */
+		private final int mFrom;
+
+		/**
+		 * The index after the last chunk of the slice (exclusive).
+		 */
+		private final int mTo;
+
+		/**
+		 * Creates an action for mining the chunks from index {@code from} to
+		 * index {@code to} (exclusive).
+		 *
+		 * @param from
+		 *            the index of the first chunk.
+		 * @param to
+		 *            the index after the last chunk (exclusive).
+		 */
+		MiningAction(final int from, final int to) {
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (mTo - mFrom == 1) {
+				runTask(mTasksToRun.get(mFrom));
+				return;
+			}
+
+			final int middle = (mFrom + mTo) >>> 1;
+			invokeAll(new MiningAction(mFrom, middle), new MiningAction(middle, mTo));
+		}
+	}
+
+	/**
+	 * The {@link RecursiveAction} that mines all the chunks to run, either
+	 * with a {@link MiningAction} or in a pipeline. The results of the run are
+	 * completed by the last task that is done (see
+	 * {@link #getFutureResults()}), not by this action: stolen tasks may still
+	 * be running when it ends, e.g. after {@link #shutdownNow()}.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private class RunAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The pipeline to run, or <code>null</code> to split the chunks
+		 * between the threads.
+		 */
+		private final MiningPipeline mPipeline;
+
+		/**
+		 * Creates the action of a run.
+		 *
+		 * @param pipeline
+		 *            the pipeline to run, or <code>null</code> to split the
+		 *            chunks between the threads.
+		 */
+		RunAction(final MiningPipeline pipeline) {
+			mPipeline = pipeline;
+		}
+
+		@Override
+		protected void compute() {
+			if (mPipeline == null) {
+				new MiningAction(0, mTasksToRun.size()).invoke();
+				return;
+			}
+
+			// the pipeline completes the tasks itself, none of them may be left out from now on
+			for (final MiningFutureTask task : mTasksToRun) {
+				task.claim();
+			}
+			try {
+				mPipeline.run();
+			} finally {
+				// the chunks the pipeline never started
+				for (final MiningFutureTask task : mTasksToRun) {
+					task.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A {@link FutureTask} that runs a single mining task (see
+	 * {@link MiningTask} and {@link WideMiningTask}) and is named after it, so
+	 * that statistics can be collected by task name.
+	 *
+	 * If there is a {@link CheckpointJournal}, the result of the task is
+	 * appended to it as soon as the task completes. If there is an
+	 * {@link OrderedResultWriter}, the result is then committed to it, and the
+	 * future only keeps the number of CivicBucks found; otherwise, if there is
+	 * a {@link ResultSpillStore}, the CivicBucks are copied into it and the
+	 * future also keeps just their number. If there is a
+	 * {@link CivicBucksStore}, the result is also staged to be added to it.
+	 * Finally, if there is a {@link MiningListener}, what the future keeps is
+	 * published to it.
+	 *
+	 * A task is claimed by the thread that runs it, so that a task that was
+	 * not claimed yet can be left out instead (cancelled) past the deadline of
+	 * the run or after {@link #shutdownNow()}. Every task ends up done either
+	 * way, and the last one completes the results of the run.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private class MiningFutureTask extends FutureTask<TaskResult> {
+
+		/**
+		 * The mining task.
+		 */
+		private final Callable<TaskResult> mTask;
+
+		/**
+		 * The name of the task (see {@link MiningTask#toString()}).
+		 */
+		private final String mName;
+
+		/**
+		 * The index of the chunk mined by the task.
+		 */
+		private final int mIndex;
+
+		/**
+		 * The writer to commit the result to, or <code>null</code>.
+		 */
+		private final OrderedResultWriter mWriter;
+
+		/**
+		 * The journal to append the result to, or <code>null</code>.
+		 */
+		private final CheckpointJournal mJournal;
+
+		/**
+		 * The store to stage the result for, or <code>null</code>.
+		 */
+		private final CivicBucksStore mStore;
+
+		/**
+		 * The spill store to copy the CivicBucks into if there is no writer,
+		 * or <code>null</code>.
+		 */
+		private final ResultSpillStore mSpillStore;
+
+		/**
+		 * The feed of the listener to publish the result to, or
+		 * <code>null</code>.
+		 */
+		private final ResultFeed mFeed;
+
+		/**
+		 * Whether the task was claimed by a thread to run it, or to leave it
+		 * out.
+		 */
+		private final AtomicBoolean mClaimed = new AtomicBoolean();
+
+		/**
+		 * Creates a {@link FutureTask} for the specified mining task.
+		 *
+		 * @param task
+		 *            the mining task to run.
+		 * @param index
+		 *            the index of the chunk mined by the task.
+		 * @param writer
+		 *            the writer to commit the result to, or <code>null</code>
+		 *            to keep the result in the future.
+		 * @param journal
+		 *            the journal to append the result to, or <code>null</code>.
+		 * @param store
+		 *            the store to stage the result for, or <code>null</code>.
+		 * @param spillStore
+		 *            the spill store to copy the CivicBucks into if there is no
+		 *            writer, or <code>null</code> to keep them in the future.
+		 * @param feed
+		 *            the feed of the listener to publish the result to, or
+		 *            <code>null</code>.
+		 */
+		MiningFutureTask(final Callable<TaskResult> task, final int index, final OrderedResultWriter writer,
+				final CheckpointJournal journal, final CivicBucksStore store, final ResultSpillStore spillStore,
+				final ResultFeed feed) {
+			super(task);
+			mTask = task;
+			mName = task.toString();
+			mIndex = index;
+			mWriter = writer;
+			mJournal = journal;
+			mStore = store;
+			mSpillStore = spillStore;
+			mFeed = feed;
+		}
+
+		/**
+		 * Leaves the task out of the run if no thread claimed it yet.
+		 */
+		void abandon() {
+			if (claim()) {
+				cancel(false);
+			}
+		}
+
+		/**
+		 * Claims the task for the current thread.
+		 *
+		 * @return <code>false</code> if it was already claimed, to run it or
+		 *         to leave it out.
+		 */
+		boolean claim() {
+			return mClaimed.compareAndSet(false, true);
+		}
+
+		/**
+		 * Completes the future with a result computed outside of the mining
+		 * task, e.g. by a {@link MiningPipeline}.
+		 *
+		 * @param result
+		 *            the result of the chunk of the task.
+		 */
+		void complete(final TaskResult result) {
+			set(result);
+		}
+
+		/**
+		 * Fails the future with an error raised outside of the mining task,
+		 * e.g. by a stage of a {@link MiningPipeline}, unless it is done
+		 * already.
+		 *
+		 * @param failure
+		 *            the error.
+		 */
+		void fail(final Throwable failure) {
+			setException(failure);
+		}
+
+		/**
+		 * Returns the planned chunk of the mining task, or <code>null</code>
+		 * if it is not a mining task.
+		 */
+		BlockRange getChunk() {
+			if (mTask instanceof MiningTask) {
+				return ((MiningTask) mTask).getChunk();
+			}
+			if (mTask instanceof WideMiningTask) {
+				return ((WideMiningTask) mTask).getChunk();
+			}
+
+			return null;
+		}
+
+		/**
+		 * Returns the mining task.
+		 */
+		Callable<TaskResult> getTask() {
+			return mTask;
+		}
+
+		@Override
+		protected void done() {
+			if (mTasksOutstanding.decrementAndGet() == 0) {
+				completeRun();
+			}
+		}
+
+		@Override
+		protected void set(final TaskResult result) {
+			if (isDone()) {
+				// left out while its chunk was being mined, e.g. by a pipeline
+				return;
+			}
+			if (mJournal != null) {
+				mJournal.append(result);
+			}
+			if (mStore != null) {
+				mStore.stage(result);
+			}
+			TaskResult kept = result;
+			if (mWriter != null || mSpillStore != null) {
+				if (mWriter != null) {
+					mWriter.commit(mIndex, result);
+				} else if (result.hasCivicBucks()) {
+					mSpillStore.add(result.getCivicBucks());
+				}
+				kept = new TaskResult(result.getCoveredRange(), result.getCivicBucksTotal());
+			}
+			if (mFeed != null && kept.getCoveredRange() != null) {
+				mFeed.publish(kept);
+			}
+			super.set(kept);
+		}
+
+		@Override
+		public String toString() {
+			return mName;
+		}
+	}
+
+	/**
+	 * A task that hands over a result recovered from a
+	 * {@link CheckpointJournal} or looked up in a {@link CivicBucksStore}
+	 * instead of mining its range again.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class RecoveredTask implements Callable<TaskResult> {
+
+		/**
+		 * The recovered result.
+		 */
+		private final TaskResult mResult;
+
+		/**
+		 * Creates a task for the specified recovered result.
+		 *
+		 * @param result
+		 *            the recovered result.
+		 */
+		RecoveredTask(final TaskResult result) {
+			mResult = result;
+		}
+
+		@Override
+		public TaskResult call() {
+			return mResult;
+		}
+
+		@Override
+		public String toString() {
+			return "RecoveredTask " + mResult.getCoveredRange();
+		}
+	}
+
+	/**
+	 * This list holds the future results of asynchronous mining computations,
+	 * one per chunk in ascending order. It is used for retrieving task
+	 * information upon completion.
+	 */
+	final private List<FutureTask<TaskResult>> mListOfFutureTaskResults;
+
+	/**
+	 * The tasks that actually mine their chunks, in ascending order: those in
+	 * {@link #mListOfFutureTaskResults} but the recovered ones.
+	 */
+	final private List<MiningFutureTask> mTasksToRun;
+
+	/**
+	 * The number of tasks that are not done yet. The last one to be done
+	 * completes the results of the run.
+	 */
+	private final AtomicInteger mTasksOutstanding = new AtomicInteger();
 
 	/**
 	 * A {@link MiningStatistics} object for holding performance statistics
@@ -58,23 +450,99 @@ public class MiningExecutor extends ThreadPoolExecutor {
 	 */
 	final private MiningStatistics mStatistics = new MiningStatistics();
 
+	/**
+	 * The live progress of the run (see {@link MiningExecutorMXBean}).
+	 */
+	final private MiningProgress mProgress = new MiningProgress();
+
 	/**
 	 * The starting range of the block to mine.
 	 */
-	private final long mBlockStart;
+	private final BigInteger mBlockStart;
 
 	/**
 	 * The ending range of the block to mine (inclusive).
 	 */
-	private final long mBlockEnd;
+	private final BigInteger mBlockEnd;
+
+	/**
+	 * The strategy used by every task for finding CivicBucks.
+	 */
+	private final MiningMode mMode;
+
+	/**
+	 * The algorithm used by the tasks of chunks within the limit of type long,
+	 * or <code>null</code> until it is selected (see
+	 * {@link #selectAlgorithm()}). Guarded by this executor's monitor.
+	 */
+	private MiningAlgorithm mAlgorithm = null;
+
+	/**
+	 * The store to copy the CivicBucks of the tasks into when they are not
+	 * streamed to a writer, or <code>null</code> to keep them in the results.
+	 */
+	private ResultSpillStore mSpillStore = null;
+
+	/**
+	 * The listener to publish the results to as they come, or
+	 * <code>null</code> (see {@link #setListener(MiningListener, int)}).
+	 */
+	private MiningListener mListener = null;
+
+	/**
+	 * The maximum number of results not delivered to the listener yet.
+	 */
+	private int mListenerCapacity = 0;
+
+	/**
+	 * The feed of the listener while mining, or <code>null</code>.
+	 */
+	private ResultFeed mFeed = null;
+
+	/**
+	 * The combined results of the run, completed once every task has (see
+	 * {@link #getFutureResults()}).
+	 */
+	private final FutureTask<MiningExecutorResults> mFutureResults = new FutureTask<MiningExecutorResults>(
+			new Callable<MiningExecutorResults>() {
+
+				@Override
+				public MiningExecutorResults call() {
+					return calculateMiningResults();
+				}
+			});
+
+	/**
+	 * The planner that splits the block into chunks.
+	 */
+	private final RangePartitioner mPartitioner;
 
 	/**
-	 * Creates a {@link MiningExecutor} that reuses a fixed number of threads
-	 * operating off a shared unbounded queue. At any point, at most
+	 * The shard of the block to mine, or <code>null</code> to mine the whole
+	 * block (see {@link #setShard(BlockShard)}).
+	 */
+	private BlockShard mShard = null;
+
+	/**
+	 * The number of generator threads of the pipeline, or 0 for running every
+	 * chunk on a single thread (see {@link #setPipeline(int, int)}).
+	 */
+	private int mPipelineGenerators = 0;
+
+	/**
+	 * The number of filter threads of the pipeline.
+	 */
+	private int mPipelineFilters = 0;
+
+	/**
+	 * Creates a {@link MiningExecutor} with a fixed number of threads that
+	 * steal work from each other. At any point, at most
 	 * <tt>numberOfThreads</tt> threads will be active processing tasks.
 	 *
 	 * The threads in the pool will exist until it is explicitly
-	 * {@link ExecutorService#shutdown shutdown}.
+	 * {@link #shutdown shutdown}.
+	 *
+	 * Tasks scan every number of the block (see {@link MiningMode#SCAN}).
 	 *
 	 * @param numberOfThreads
 	 *            the number of threads in the pool
@@ -84,27 +552,175 @@ public class MiningExecutor extends ThreadPoolExecutor {
 	 *            the ending range of the block to mine (inclusive).
 	 */
 	public MiningExecutor(final int numberOfThreads, final long blockStart, final long blockEnd) {
-		super(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		this(numberOfThreads, blockStart, blockEnd, MiningMode.SCAN);
+	}
+
+	/**
+	 * Creates a {@link MiningExecutor} with a fixed number of threads that
+	 * steal work from each other. At any point, at most
+	 * <tt>numberOfThreads</tt> threads will be active processing tasks.
+	 *
+	 * The threads in the pool will exist until it is explicitly
+	 * {@link #shutdown shutdown}.
+	 *
+	 * The block is split into chunks of at least
+	 * {@link RangePartitioner#DEFAULT_MIN_CHUNK_SIZE} values.
+	 *
+	 * @param numberOfThreads
+	 *            the number of threads in the pool
+	 * @param blockStart
+	 *            the starting range of the block to mine.
+	 * @param blockEnd
+	 *            the ending range of the block to mine (inclusive).
+	 * @param mode
+	 *            the strategy used by every task for finding CivicBucks.
+	 */
+	public MiningExecutor(final int numberOfThreads, final long blockStart, final long blockEnd,
+			final MiningMode mode) {
+		this(numberOfThreads, blockStart, blockEnd, mode, RangePartitioner.DEFAULT_MIN_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a {@link MiningExecutor} with a fixed number of threads that
+	 * steal work from each other. At any point, at most
+	 * <tt>numberOfThreads</tt> threads will be active processing tasks.
+	 *
+	 * The threads in the pool will exist until it is explicitly
+	 * {@link #shutdown shutdown}.
+	 *
+	 * @param numberOfThreads
+	 *            the number of threads in the pool
+	 * @param blockStart
+	 *            the starting range of the block to mine.
+	 * @param blockEnd
+	 *            the ending range of the block to mine (inclusive).
+	 * @param mode
+	 *            the strategy used by every task for finding CivicBucks.
+	 * @param minChunkSize
+	 *            the minimum number of values mined by a single task.
+	 */
+	public MiningExecutor(final int numberOfThreads, final long blockStart, final long blockEnd,
+			final MiningMode mode, final long minChunkSize) {
+		this(numberOfThreads, BigInteger.valueOf(blockStart), BigInteger.valueOf(blockEnd), mode, minChunkSize);
+	}
+
+	/**
+	 * Creates a {@link MiningExecutor} with a fixed number of threads that
+	 * steal work from each other, for a block of any size. At any point, at
+	 * most <tt>numberOfThreads</tt> threads will be active processing tasks.
+	 *
+	 * The threads in the pool will exist until it is explicitly
+	 * {@link #shutdown shutdown}.
+	 *
+	 * Every chunk of the block is mined with the cheapest {@link NumericTier}
+	 * that can hold it, so the part of the block within the limit of type long
+	 * is mined as fast as if the block did not go beyond it.
+	 *
+	 * @param numberOfThreads
+	 *            the number of threads in the pool
+	 * @param blockStart
+	 *            the starting range of the block to mine, not lower than
+	 *            {@link Long#MIN_VALUE}.
+	 * @param blockEnd
+	 *            the ending range of the block to mine (inclusive).
+	 * @param mode
+	 *            the strategy used by every task for finding CivicBucks.
+	 * @param minChunkSize
+	 *            the minimum number of values mined by a single task.
+	 * @throws IllegalArgumentException
+	 *             if the block is not valid.
+	 */
+	public MiningExecutor(final int numberOfThreads, final BigInteger blockStart, final BigInteger blockEnd,
+			final MiningMode mode, final long minChunkSize) {
+		super(numberOfThreads);
+
+		if (blockStart.compareTo(blockEnd) > 0) {
+			throw new IllegalArgumentException("Invalid block: " + blockStart + " to " + blockEnd);
+		}
+		if (blockStart.compareTo(BigInteger.valueOf(Long.MIN_VALUE)) < 0) {
+			throw new IllegalArgumentException("The start of the block must not be lower than " + Long.MIN_VALUE);
+		}
 
 		mBlockStart = blockStart;
 		mBlockEnd = blockEnd;
+		mMode = mode;
+		mPartitioner = new RangePartitioner(minChunkSize);
 
-		mListOfFutureTaskResults = new ArrayList<Future<TaskResult>>(numberOfThreads);
+		mListOfFutureTaskResults = new ArrayList<FutureTask<TaskResult>>();
+		mTasksToRun = new ArrayList<MiningFutureTask>();
 	}
 
-	@Override
-	protected void afterExecute(final Runnable r, final Throwable t) {
-		super.afterExecute(r, t);
+	/**
+	 * Returns the result of a task that has completed, if it mined its whole
+	 * chunk: a task interrupted by a timeout, cancelled or that failed did
+	 * not.
+	 *
+	 * @param r
+	 *            the task that has completed
+	 * @param t
+	 *            the exception that caused termination, or null if execution
+	 *            completed normally
+	 * @return the result of the task, or <code>null</code> if it did not mine
+	 *         its whole chunk.
+	 */
+	private static TaskResult completedResult(final Runnable r, final Throwable t) {
+		if (t != null || !(r instanceof Future) || Thread.currentThread().isInterrupted()) {
+			// an interrupted task may have handed over partial results
+			return null;
+		}
+
+		final Future<?> future = (Future<?>) r;
+		if (!future.isDone() || future.isCancelled()) {
+			return null;
+		}
 
-		if (r != null) {
-			mStatistics.end(r.toString());
+		try {
+			final TaskResult result = (TaskResult) future.get();
+			return (result.getCoveredRange() != null) ? result : null;
+		} catch (InterruptedException | ExecutionException e) {
+			return null;
 		}
 	}
 
-	@Override
+	/**
+	 * Method invoked upon completion of execution of the given task, by the
+	 * thread that executed the task.
+	 *
+	 * @param r
+	 *            the task that has completed
+	 * @param t
+	 *            the exception that caused termination, or null if execution
+	 *            completed normally
+	 */
+	protected void afterExecute(final Runnable r, final Throwable t) {
+		// a task that ends past the deadline may have stopped with partial results
+		final TaskResult result = mProgress.isPastDeadline() ? null : completedResult(r, t);
+		if (result != null) {
+			mStatistics.end(result.getCoveredRange());
+		} else {
+			mStatistics.endIncomplete();
+		}
+		mProgress.end(result);
+		if (MiningRecorder.CHUNK_ENABLED) {
+			MiningRecorder.chunkEnded((r instanceof MiningFutureTask) ? ((MiningFutureTask) r).getChunk() : null,
+					result);
+		}
+	}
+
+	/**
+	 * Method invoked prior to executing the given task in the given thread.
+	 *
+	 * @param t
+	 *            the thread that will run task {@code r}
+	 * @param r
+	 *            the task that will be executed
+	 */
 	protected void beforeExecute(final Thread t, final Runnable r) {
-		mStatistics.start(r.toString());
-		super.beforeExecute(t, r);
+		mStatistics.start();
+		mProgress.begin();
+		if (MiningRecorder.CHUNK_ENABLED) {
+			MiningRecorder.chunkStarted();
+		}
 	}
 
 	/**
@@ -112,26 +728,32 @@ public class MiningExecutor extends ThreadPoolExecutor {
 	 * {@link #startMining()} to obtain the combined results of all executed
 	 * tasks.
 	 *
+	 * Tasks that did not complete (e.g. because the execution timed out before
+	 * they started) are left out of the results.
+	 *
 	 * @return An instance of {@link MiningExecutorResults} for accessing the
 	 *         combined results of all executed tasks.
 	 */
 	public MiningExecutorResults calculateMiningResults() {
-		int totalCivicBucks = 0;
-		final StringBuilder miningOutput = new StringBuilder();
+		final List<TaskResult> taskResults = new ArrayList<TaskResult>(mListOfFutureTaskResults.size());
 
 		/*
 		 * Iterate over all future results of asynchronous mining computations,
-		 * then add up the total number of CivicBucks each computation
-		 * calculated and accumulate the mining output.
+		 * in ascending order of their chunks, and collect the results of the
+		 * completed ones. Their CivicBucks stay in the primitive buffers of
+		 * each task, nothing is formatted here.
 		 *
 		 */
-		for (final Iterator<Future<TaskResult>> iterator = mListOfFutureTaskResults.iterator(); iterator.hasNext();) {
+		for (final Iterator<FutureTask<TaskResult>> iterator = mListOfFutureTaskResults.iterator(); iterator
+				.hasNext();) {
 			final Future<TaskResult> future = iterator.next();
-			try {
-				final TaskResult result = future.get();
+			if (!future.isDone() || future.isCancelled()) {
+				// never started or left out, nothing to collect
+				continue;
+			}
 
-				totalCivicBucks += result.getCivicBucksTotal();
-				miningOutput.append(result.getMiningOutput());
+			try {
+				taskResults.add(future.get());
 
 			} catch (InterruptedException | ExecutionException e) {
 				System.out.println(
@@ -140,14 +762,402 @@ public class MiningExecutor extends ThreadPoolExecutor {
 			}
 		}
 
-		return new MiningExecutorResults(totalCivicBucks, mStatistics, miningOutput.toString());
+		return new MiningExecutorResults(getMinedRanges(), taskResults, mStatistics, mSpillStore);
+	}
+
+	/**
+	 * Completes the results of the run once every task has completed or was
+	 * left out, and hands them over to the listener, if any. Called by the
+	 * last task to be done.
+	 */
+	private void completeRun() {
+		mFutureResults.run();
+		if (mFeed != null) {
+			try {
+				mFeed.finish(mFutureResults.get());
+			} catch (InterruptedException | ExecutionException e) {
+				// the future ran in this thread, it does not wait
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Creates the tasks for mining a range of the block, one per chunk in
+	 * ascending order (see {@link #planChunks(BigInteger, BigInteger)}).
+	 * Chunks within the limit of type long get a {@link MiningTask} with the
+	 * selected algorithm (see {@link #selectAlgorithm()}), the rest a
+	 * {@link WideMiningTask}.
+	 *
+	 * @param rangeStart
+	 *            the start of the range.
+	 * @param rangeEnd
+	 *            the end of the range (inclusive).
+	 * @return the tasks, in ascending order of their chunks.
+	 */
+	private List<Callable<TaskResult>> createMiningTasks(final BigInteger rangeStart, final BigInteger rangeEnd) {
+		final List<BlockRange> chunks = planChunks(rangeStart, rangeEnd);
+		final List<Callable<TaskResult>> tasks = new ArrayList<Callable<TaskResult>>(chunks.size());
+		final MiningAlgorithm algorithm = selectAlgorithm();
+		for (final BlockRange chunk : chunks) {
+			tasks.add(createMiningTask(chunk, algorithm, mMode));
+		}
+
+		return tasks;
 	}
 
 	/**
-	 * This method executes the mining computation of CivicBucks. It
-	 * automatically creates the specified number of threads and submits the
-	 * mining tasks. After submitting all tasks, this method calls
-	 * {@link #shutdown()}.
+	 * Creates the task for mining a single chunk: a {@link MiningTask} with
+	 * the specified algorithm for a chunk within the limit of type long, or a
+	 * {@link WideMiningTask} with the specified mode otherwise.
+	 *
+	 * @param chunk
+	 *            the chunk to mine.
+	 * @param algorithm
+	 *            the algorithm for the chunks within the limit of type long.
+	 * @param mode
+	 *            the strategy for the chunks beyond it.
+	 * @return the task.
+	 */
+	static Callable<TaskResult> createMiningTask(final BlockRange chunk, final MiningAlgorithm algorithm,
+			final MiningMode mode) {
+		if (chunk.fitsLong()) {
+			return new MiningTask(chunk.getStart(), chunk.getEnd(), algorithm);
+		}
+
+		return new WideMiningTask(chunk, mode);
+	}
+
+	/**
+	 * Creates the pipeline that mines all the chunks to run in stages (see
+	 * {@link #setPipeline(int, int)}), completing their futures as it goes.
+	 *
+	 * @return the pipeline, to run in a thread of this executor.
+	 */
+	private MiningPipeline createPipeline() {
+		final List<BlockRange> chunks = new ArrayList<BlockRange>(mTasksToRun.size());
+		for (final MiningFutureTask future : mTasksToRun) {
+			chunks.add(((MiningTask) future.getTask()).getChunk());
+		}
+
+		return new MiningPipeline(chunks, selectAlgorithm(), mPipelineGenerators, mPipelineFilters, mProgress) {
+
+			@Override
+			protected void complete(final int chunk, final TaskResult result, final long startTime,
+					final boolean complete) {
+				// past the deadline, even whole chunks may have been assembled from stopped stages
+				if (complete && !mProgress.isPastDeadline()) {
+					mStatistics.end(startTime, result.getCoveredRange());
+				} else {
+					mStatistics.endIncomplete();
+				}
+				mTasksToRun.get(chunk).complete(result);
+			}
+
+			@Override
+			protected void fail(final Throwable failure) {
+				for (final MiningFutureTask future : mTasksToRun) {
+					future.fail(failure);
+				}
+			}
+		};
+	}
+
+	@Override
+	public String getBlock() {
+		return "[" + mBlockStart + ", " + mBlockEnd + "]";
+	}
+
+	@Override
+	public long getChunksDone() {
+		return mProgress.getChunksDone();
+	}
+
+	/**
+	 * Returns the combined results of the run, completed as soon as every
+	 * task has completed (or was left out past the deadline of the run),
+	 * without waiting for the executor to terminate. Unlike
+	 * {@link #awaitTermination(long, TimeUnit)}, a caller may also just poll
+	 * it (see {@link Future#isDone()}) or get the results along with the
+	 * result of every chunk through a {@link MiningListener}.
+	 *
+	 * @return the future results of the run, as
+	 *         {@link #calculateMiningResults()} would return them.
+	 */
+	public Future<MiningExecutorResults> getFutureResults() {
+		return mFutureResults;
+	}
+
+	@Override
+	public long getChunksRemaining() {
+		return mProgress.getChunksToMine() - mProgress.getChunksDone();
+	}
+
+	@Override
+	public long getCivicBucksFound() {
+		return mProgress.getCivicBucksFound();
+	}
+
+	/**
+	 * Returns the parts of the block to mine: the stripes of its shard, or the
+	 * whole block.
+	 *
+	 * @return the parts of the block to mine, in ascending order.
+	 */
+	private List<BlockRange> getMinedRanges() {
+		if (mShard == null) {
+			return Collections.singletonList(new BlockRange(mBlockStart, mBlockEnd));
+		}
+
+		return mShard.stripes(mBlockStart, mBlockEnd);
+	}
+
+	@Override
+	public Date getProjectedCompletionTime() {
+		final double valuesPerSecond = getValuesPerSecond();
+		if (valuesPerSecond <= 0) {
+			return null;
+		}
+
+		final double remainingSeconds = getValuesRemaining() / valuesPerSecond;
+		return new Date(System.currentTimeMillis() + (long) (remainingSeconds * TimeUnit.SECONDS.toMillis(1)));
+	}
+
+	@Override
+	public double getValuesMined() {
+		return mProgress.getValuesMined();
+	}
+
+	@Override
+	public double getValuesPerSecond() {
+		final long elapsedTime = mProgress.getElapsedTime();
+		return (elapsedTime <= 0) ? 0 : mProgress.getValuesMined() * TimeUnit.SECONDS.toNanos(1) / elapsedTime;
+	}
+
+	@Override
+	public double getValuesRemaining() {
+		return Math.max(0, mProgress.getValuesToMine() - mProgress.getValuesMined());
+	}
+
+	@Override
+	public Map<String, Double> getWorkerRates() {
+		return mProgress.getWorkerRates();
+	}
+
+	/**
+	 * Runs the specified task in the current thread, surrounded by calls to
+	 * {@link #beforeExecute(Thread, Runnable)} and
+	 * {@link #afterExecute(Runnable, Throwable)}, unless the deadline of the
+	 * run has passed (see {@link #setDeadline(long, TimeUnit)}) or the task
+	 * was left out by {@link #shutdownNow()}.
+	 *
+	 * @param task
+	 *            the task to run.
+	 */
+	private void runTask(final MiningFutureTask task) {
+		/*
+		 * Just like a ThreadPoolExecutor, exceptions thrown by the mining task
+		 * are captured by the future, so no exception is passed to
+		 * afterExecute.
+		 */
+		if (!task.claim()) {
+			// left out by shutdownNow
+			return;
+		}
+		if (mProgress.isPastDeadline()) {
+			// too late to start, the chunk is left uncovered
+			task.cancel(false);
+			return;
+		}
+
+		beforeExecute(Thread.currentThread(), task);
+		try {
+			task.run();
+		} finally {
+			afterExecute(task, null);
+		}
+	}
+
+	/**
+	 * Splits a range of the block into chunks, in ascending order.
+	 *
+	 * The partitioner covers exactly the range to mine, with several chunks
+	 * per thread. The range is first split at the upper bounds of the numeric
+	 * tiers, so that every chunk gets the cheapest tier that can hold it.
+	 *
+	 * @param rangeStart
+	 *            the start of the range.
+	 * @param rangeEnd
+	 *            the end of the range (inclusive).
+	 * @return the chunks that cover the range, in ascending order.
+	 */
+	private List<BlockRange> planChunks(final BigInteger rangeStart, final BigInteger rangeEnd) {
+		return mPartitioner.partitionByTier(rangeStart, rangeEnd, getParallelism());
+	}
+
+	/**
+	 * Returns the algorithm used for mining the chunks within the limit of
+	 * type long: the algorithm of the mode of this executor, or the fastest
+	 * one on a sample of the block for {@link MiningMode#AUTO} (see
+	 * {@link AlgorithmCalibrator}). The calibration runs in the current thread
+	 * on the first call only, which is otherwise made when mining starts.
+	 *
+	 * @return the algorithm for the chunks within the limit of type long.
+	 */
+	public synchronized MiningAlgorithm selectAlgorithm() {
+		if (mAlgorithm == null) {
+			mAlgorithm = (mMode == MiningMode.AUTO) ? AlgorithmCalibrator.calibrate(mBlockStart, mBlockEnd)
+					: mMode.getAlgorithm();
+		}
+
+		return mAlgorithm;
+	}
+
+	/**
+	 * Mines the chunks of the block with the specified algorithm instead of
+	 * the one of the mode of this executor, e.g. a {@link MultiRadixAlgorithm}
+	 * for another rule than that of CivicBucks. Chunks beyond the limit of
+	 * type long are still mined for CivicBucks, so the block should not reach
+	 * them.
+	 *
+	 * Call this method before {@link #startMining()}.
+	 *
+	 * @param algorithm
+	 *            the algorithm for every chunk of the block.
+	 */
+	public synchronized void setAlgorithm(final MiningAlgorithm algorithm) {
+		mAlgorithm = algorithm;
+	}
+
+	/**
+	 * Publishes the result of every chunk to the specified listener as soon as
+	 * it completes, and then the combined results of the run, so that a caller
+	 * does not need to park a thread on the executor (see
+	 * {@link MiningListener}). The listener runs on a thread of its own; once
+	 * {@code capacity} results are waiting for it, the mining threads wait for
+	 * it to catch up.
+	 *
+	 * Call this method before {@link #startMining()}.
+	 *
+	 * @param listener
+	 *            the listener, or <code>null</code> for none.
+	 * @param capacity
+	 *            the maximum number of results waiting for the listener.
+	 * @throws IllegalArgumentException
+	 *             if the capacity is lower than 1.
+	 */
+	public synchronized void setListener(final MiningListener listener, final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity of the listener must be at least 1.");
+		}
+
+		mListener = listener;
+		mListenerCapacity = capacity;
+	}
+
+	/**
+	 * Hands the CivicBucks of every task over to the specified store as soon
+	 * as the task completes, instead of keeping them in the results, so that
+	 * mining a large block without a {@link OrderedResultWriter} does not
+	 * fill the heap. The results collected by
+	 * {@link #calculateMiningResults()} then read the CivicBucks back from the
+	 * store; close it once they were read.
+	 *
+	 * Call this method before {@link #startMining()}. It has no effect if the
+	 * CivicBucks are streamed to a writer.
+	 *
+	 * @param spillStore
+	 *            the store for the CivicBucks of the tasks.
+	 */
+	public synchronized void setSpillStore(final ResultSpillStore spillStore) {
+		mSpillStore = spillStore;
+	}
+
+	/**
+	 * Sets a deadline for the run: once the specified time has elapsed, the
+	 * running tasks stop at their next checkpoint (see
+	 * {@link MiningProgress#checkpoint(long)}) with partial results, and the
+	 * tasks that have not started yet are not started, so the executor
+	 * terminates shortly after the deadline without being interrupted. The
+	 * results then tell exactly which parts of the block were covered (see
+	 * {@link MiningExecutorResults#getCoveredRanges()}).
+	 *
+	 * Call this method before {@link #startMining()}.
+	 *
+	 * @param timeout
+	 *            the time from now until the deadline.
+	 * @param units
+	 *            the time unit of the timeout argument.
+	 */
+	public void setDeadline(final long timeout, final TimeUnit units) {
+		mProgress.setDeadline(System.nanoTime() + units.toNanos(timeout));
+	}
+
+	/**
+	 * Mines the chunks in a pipeline of stages instead of running every chunk
+	 * on a single thread (see {@link MiningPipeline}): generator threads
+	 * produce the candidates of the chunks, filter threads test them, and a
+	 * single thread of this executor collects the hits. The threads of each
+	 * stage are set separately, so that more of them can go to the stage that
+	 * limits the throughput of the algorithm of the run.
+	 *
+	 * Call this method before {@link #startMining()}.
+	 *
+	 * @param generators
+	 *            the number of generator threads.
+	 * @param filters
+	 *            the number of filter threads.
+	 * @throws IllegalArgumentException
+	 *             if a stage has no threads, or if the block exceeds the limit
+	 *             of type long.
+	 */
+	public void setPipeline(final int generators, final int filters) {
+		if (generators < 1 || filters < 1) {
+			throw new IllegalArgumentException("Every stage of the pipeline needs at least 1 thread.");
+		}
+		if (!new BlockRange(mBlockStart, mBlockEnd).fitsLong()) {
+			throw new IllegalArgumentException("The pipeline only mines blocks within the limit of type long.");
+		}
+
+		mPipelineGenerators = generators;
+		mPipelineFilters = filters;
+	}
+
+	/**
+	 * Restricts mining to a shard of the block, so that several processes can
+	 * mine the whole block without talking to each other (see
+	 * {@link ShardMerger}): only its stripes are split into chunks, and the
+	 * results only report the stripes that were not covered.
+	 *
+	 * Call this method before {@link #startMining()}.
+	 *
+	 * @param shard
+	 *            the shard to mine, or <code>null</code> to mine the whole
+	 *            block.
+	 */
+	void setShard(final BlockShard shard) {
+		mShard = shard;
+	}
+
+	/**
+	 * Stops mining as {@link ForkJoinPool#shutdownNow()} does, and leaves out
+	 * the tasks that have not started, so that the results of the run are
+	 * completed as soon as the running ones are done (see
+	 * {@link #getFutureResults()}).
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		final List<Runnable> tasks = super.shutdownNow();
+		for (final MiningFutureTask task : mTasksToRun) {
+			task.abandon();
+		}
+		return tasks;
+	}
+
+	/**
+	 * This method executes the mining computation of CivicBucks. It splits the
+	 * block into chunks, creates a task for each chunk and submits them all.
+	 * After submitting all tasks, this method calls {@link #shutdown()}.
 	 *
 	 * After calling this method, you may call
 	 * {@link #awaitTermination(long, TimeUnit)} or {@link #isTerminated()} to
@@ -155,34 +1165,143 @@ public class MiningExecutor extends ThreadPoolExecutor {
 	 * by invoking {@link #calculateMiningResults()}.
 	 */
 	public void startMining() {
+		startMining(null);
+	}
+
+	/**
+	 * This method executes the mining computation of CivicBucks, just like
+	 * {@link #startMining()}, streaming the CivicBucks to the specified writer
+	 * in ascending order as chunks complete.
+	 *
+	 * The results collected by {@link #calculateMiningResults()} then only
+	 * hold the number of CivicBucks found; close the writer once the executor
+	 * terminates (or times out) to write out the remaining results.
+	 *
+	 * @param writer
+	 *            the writer to stream the CivicBucks to, or <code>null</code>
+	 *            to keep them in the results.
+	 */
+	public void startMining(final OrderedResultWriter writer) {
+		startMining(writer, null);
+	}
+
+	/**
+	 * This method executes the mining computation of CivicBucks, just like
+	 * {@link #startMining(OrderedResultWriter)}, recording every completed
+	 * chunk in the specified journal.
+	 *
+	 * The parts of the block recovered from the journal (see
+	 * {@link CheckpointJournal#recover(BigInteger, BigInteger)}) are not mined
+	 * again, their results are handed over right away; only the gaps between
+	 * them are split into chunks and mined.
+	 *
+	 * @param writer
+	 *            the writer to stream the CivicBucks to, or <code>null</code>
+	 *            to keep them in the results.
+	 * @param journal
+	 *            the journal to record the completed chunks in, or
+	 *            <code>null</code>.
+	 */
+	public void startMining(final OrderedResultWriter writer, final CheckpointJournal journal) {
+		startMining(writer, journal, null);
+	}
+
+	/**
+	 * This method executes the mining computation of CivicBucks, just like
+	 * {@link #startMining(OrderedResultWriter, CheckpointJournal)}, skipping
+	 * the parts of the block already covered by the specified store as well.
+	 *
+	 * The covered parts are looked up in the store (see
+	 * {@link CivicBucksStore#lookup(BigInteger, BigInteger)}) and handed over
+	 * right away; the results of every other chunk (including the ones
+	 * recovered from the journal) are staged to be added to the store when it
+	 * is closed.
+	 *
+	 * @param writer
+	 *            the writer to stream the CivicBucks to, or <code>null</code>
+	 *            to keep them in the results.
+	 * @param journal
+	 *            the journal to record the completed chunks in, or
+	 *            <code>null</code>.
+	 * @param store
+	 *            the store of previous runs to skip the covered parts of the
+	 *            block, or <code>null</code>.
+	 */
+	public void startMining(final OrderedResultWriter writer, final CheckpointJournal journal,
+			final CivicBucksStore store) {
 		/*
-		 * The block to mine has to be split equally among all threads.
-		 * Therefore, divide the total block size (mBlockEnd) by the number of
-		 * threads and round up the value (Math.ceil()), the result will be the
-		 * task size.
-		 *
-		 * The first task will mine from the start of the block to the end of
-		 * the start plus the task size. All subsequent tasks will mine from
-		 * where the previous task ended plus one until the task size.
+		 * Walk the recovered parts of every range to mine in ascending order,
+		 * planning chunks for the gaps before each of them and after the last
+		 * one, so that the list of tasks stays in ascending order for the
+		 * writer.
 		 */
-		final int numberOfThreads = getMaximumPoolSize();
-		final long taskSize = (long) Math.ceil((double) mBlockEnd / numberOfThreads);
+		final List<TaskResult> known = new ArrayList<TaskResult>();
+		if (store != null) {
+			known.addAll(store.lookup(mBlockStart, mBlockEnd));
+		}
+		if (journal != null) {
+			known.addAll(journal.recover(mBlockStart, mBlockEnd));
+		}
+		final List<Callable<TaskResult>> tasks = new ArrayList<Callable<TaskResult>>();
+		double valuesToMine = 0;
+		for (final BlockRange range : getMinedRanges()) {
+			final BigInteger rangeStart = range.getStartValue();
+			final BigInteger rangeEnd = range.getEndValue();
+			valuesToMine += MiningProgress.sizeOf(range);
 
-		// set pointers for first task
-		long taskStart = mBlockStart;
-		long taskEnd = mBlockStart + taskSize;
+			BigInteger next = rangeStart;
+			for (final TaskResult result : CoveredResults.merge(known, rangeStart, rangeEnd)) {
+				final BlockRange covered = result.getCoveredRange();
+				if (covered.getStartValue().compareTo(next) > 0) {
+					tasks.addAll(createMiningTasks(next, covered.getStartValue().subtract(BigInteger.ONE)));
+				}
+				tasks.add(new RecoveredTask(result));
+				valuesToMine -= MiningProgress.sizeOf(covered);
+				next = covered.getEndValue().add(BigInteger.ONE);
+			}
+			if (next.compareTo(rangeEnd) <= 0) {
+				tasks.addAll(createMiningTasks(next, rangeEnd));
+			}
+		}
 
-		// create as many tasks as number of threads specified
-		for (int threads = 0; threads < numberOfThreads; threads++) {
-			final MiningTask minerTask = new MiningTask(taskStart, taskEnd);
+		if (writer != null) {
+			writer.start(tasks.size());
+		}
+		synchronized (this) {
+			if (mListener != null) {
+				mFeed = new ResultFeed(mListener, mListenerCapacity);
+			}
+		}
+
+		// recovered tasks are done right away, the last one completes the run if there is nothing to mine
+		mTasksOutstanding.set(tasks.size());
+		for (int index = 0; index < tasks.size(); index++) {
+			final Callable<TaskResult> task = tasks.get(index);
+			if (task instanceof RecoveredTask) {
+				// nothing to mine, nor to append to the journal again (the store skips what it covers)
+				final MiningFutureTask future = new MiningFutureTask(task, index, writer, null, store,
+						mSpillStore, mFeed);
+				mListOfFutureTaskResults.add(future);
+				future.run();
+			} else {
+				// keep a reference of the future result
+				final MiningFutureTask future = new MiningFutureTask(task, index, writer, journal, store,
+						mSpillStore, mFeed);
+				mListOfFutureTaskResults.add(future);
+				mTasksToRun.add(future);
+			}
+		}
 
-			// submit the task and keep a reference of the future result
-			final Future<TaskResult> futureResult = submit(minerTask);
-			mListOfFutureTaskResults.add(futureResult);
+		mProgress.start(mTasksToRun.size(), valuesToMine);
 
-			// update the starting and ending pointers for next task
-			taskStart = taskEnd + 1;
-			taskEnd = taskStart + taskSize;
+		/*
+		 * A single action splits the list of tasks recursively so that
+		 * threads can steal the chunks they have not started yet; a pipeline
+		 * takes them all and only uses one thread of this executor. Either
+		 * way, the results of the run are completed once they are done.
+		 */
+		if (!mTasksToRun.isEmpty()) {
+			execute(new RunAction((mPipelineGenerators > 0) ? createPipeline() : null));
 		}
 
 		// all tasks submitted, so shutdown orderly
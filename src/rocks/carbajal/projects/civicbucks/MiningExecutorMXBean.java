@@ -0,0 +1,92 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The management interface of a {@link MiningExecutor}, with the live progress
+ * of its run (see {@link MiningProgress}). Register the executor with the
+ * platform MBean server to watch a run with any JMX console, e.g. for tuning
+ * the number of threads on new hardware.
+ *
+ * The values of the block that were recovered from a journal or looked up in
+ * a store are not mined, so they are neither counted as mined nor as
+ * remaining.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public interface MiningExecutorMXBean {
+
+	/**
+	 * Returns the block to mine, e.g. "[0, 100000000]".
+	 */
+	String getBlock();
+
+	/**
+	 * Returns the number of chunks mined so far.
+	 */
+	long getChunksDone();
+
+	/**
+	 * Returns the number of chunks not mined yet, including the ones being
+	 * mined.
+	 */
+	long getChunksRemaining();
+
+	/**
+	 * Returns the number of CivicBucks found by the chunks mined so far.
+	 */
+	long getCivicBucksFound();
+
+	/**
+	 * Returns the time mining is projected to complete at the current rate,
+	 * or <code>null</code> if nothing has been mined yet.
+	 */
+	Date getProjectedCompletionTime();
+
+	/**
+	 * Returns the number of values (the candidates to CivicBucks) mined so
+	 * far.
+	 */
+	double getValuesMined();
+
+	/**
+	 * Returns the number of values mined per second since mining started.
+	 */
+	double getValuesPerSecond();
+
+	/**
+	 * Returns the number of values not mined yet.
+	 */
+	double getValuesRemaining();
+
+	/**
+	 * Returns the number of values mined per second by each worker thread
+	 * since mining started, by thread name.
+	 */
+	Map<String, Double> getWorkerRates();
+}
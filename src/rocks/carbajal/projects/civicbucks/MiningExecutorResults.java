@@ -23,9 +23,19 @@
  */
 package rocks.carbajal.projects.civicbucks;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Instances of this class hold the results of a {@link MiningExecutor}.
  *
+ * The CivicBucks are kept as primitive numbers (see {@link ResultBuffer}) and
+ * are only formatted when they are written out (see
+ * {@link #writeOutput(Appendable)}).
+ *
  * @author Pablo A. Carbajal
  *
  */
@@ -38,59 +48,300 @@ public class MiningExecutorResults {
 	private final int mTotalCivicBucks;
 
 	/**
-	 * The max time taken by a single task (in millis).
+	 * The number of tasks completed by the {@link MiningExecutor}.
+	 */
+	private final int mTasksRun;
+
+	/**
+	 * The number of tasks that mined their whole chunk, the ones the
+	 * performance statistics are about.
+	 */
+	private final long mTasksTimed;
+
+	/**
+	 * The number of tasks that ended without mining their whole chunk.
+	 */
+	private final long mTasksIncomplete;
+
+	/**
+	 * The max time taken by a single task (in nanos).
 	 */
 	private final long mMaxPerformance;
 
 	/**
-	 * The mean computation time of all tasks (in millis).
+	 * The mean computation time of all tasks (in nanos).
 	 */
 	private final long mMeanPerformance;
 
 	/**
-	 * The output generated by all tasks.
+	 * The median computation time of all tasks (in nanos).
+	 */
+	private final long mMedianPerformance;
+
+	/**
+	 * The computation time not exceeded by 90% of the tasks (in nanos).
 	 */
-	private final String mOutput;
+	private final long m90thPercentilePerformance;
+
+	/**
+	 * The computation time not exceeded by 99% of the tasks (in nanos).
+	 */
+	private final long m99thPercentilePerformance;
+
+	/**
+	 * The number of values mined per second.
+	 */
+	private final double mThroughput;
+
+	/**
+	 * The parts of the block covered by the completed tasks, in ascending
+	 * order.
+	 */
+	private final List<BlockRange> mCoveredRanges;
+
+	/**
+	 * The parts of the block not covered by any task, in ascending order.
+	 */
+	private final List<BlockRange> mUncoveredRanges;
+
+	/**
+	 * The results of all completed tasks, in ascending order.
+	 */
+	private final List<TaskResult> mTaskResults;
+
+	/**
+	 * The store holding the CivicBucks of the tasks off the heap, or
+	 * <code>null</code> if the tasks kept them.
+	 */
+	private final ResultSpillStore mSpillStore;
 
 	/**
 	 * Creates a new instance of class that holds the results of a
 	 * {@link MiningExecutor}.
 	 *
-	 * @param totalCivicBucks
-	 *            The total number of CivicBucks computed by all tasks
+	 * @param block
+	 *            The block mined by the {@link MiningExecutor}
+	 * @param taskResults
+	 *            The results of all the tasks completed by the
+	 *            {@link MiningExecutor}, in ascending order
+	 * @param statistics
+	 *            The statistics generated by the {@link MiningExecutor}
+	 */
+	public MiningExecutorResults(final BlockRange block, final List<TaskResult> taskResults,
+			final MiningStatistics statistics) {
+		this(Collections.singletonList(block), taskResults, statistics);
+	}
+
+	/**
+	 * Creates a new instance of class that holds the results of a
+	 * {@link MiningExecutor} that mined only some parts of its block, e.g. the
+	 * stripes of a {@link BlockShard}.
+	 *
+	 * @param ranges
+	 *            The parts of the block mined by the {@link MiningExecutor},
+	 *            in ascending order and without overlaps
+	 * @param taskResults
+	 *            The results of all the tasks completed by the
+	 *            {@link MiningExecutor}, in ascending order
 	 * @param statistics
 	 *            The statistics generated by the {@link MiningExecutor}
-	 * @param output
-	 *            The output generated by all the task completed by the
-	 *            {@link MiningExecutor}
 	 */
-	public MiningExecutorResults(final int totalCivicBucks, final MiningStatistics statistics, final String output) {
+	public MiningExecutorResults(final List<BlockRange> ranges, final List<TaskResult> taskResults,
+			final MiningStatistics statistics) {
+		this(ranges, taskResults, statistics, null);
+	}
+
+	/**
+	 * Creates a new instance of class that holds the results of a
+	 * {@link MiningExecutor} whose tasks handed their CivicBucks over to a
+	 * {@link ResultSpillStore}.
+	 *
+	 * @param ranges
+	 *            The parts of the block mined by the {@link MiningExecutor},
+	 *            in ascending order and without overlaps
+	 * @param taskResults
+	 *            The results of all the tasks completed by the
+	 *            {@link MiningExecutor}, in ascending order
+	 * @param statistics
+	 *            The statistics generated by the {@link MiningExecutor}
+	 * @param spillStore
+	 *            The store holding the CivicBucks of the tasks, or
+	 *            <code>null</code> if the tasks kept them
+	 */
+	public MiningExecutorResults(final List<BlockRange> ranges, final List<TaskResult> taskResults,
+			final MiningStatistics statistics, final ResultSpillStore spillStore) {
+		int totalCivicBucks = 0;
+		final List<BlockRange> coveredRanges = new ArrayList<BlockRange>();
+		for (final TaskResult result : taskResults) {
+			totalCivicBucks += result.getCivicBucksTotal();
+			addCoveredRange(coveredRanges, result.getCoveredRange());
+		}
+
+		mTaskResults = taskResults;
+		mSpillStore = spillStore;
 		mTotalCivicBucks = totalCivicBucks;
+		mCoveredRanges = Collections.unmodifiableList(coveredRanges);
+		mUncoveredRanges = Collections.unmodifiableList(uncoveredRanges(ranges, coveredRanges));
+		mTasksRun = taskResults.size();
+		mTasksTimed = statistics.getCompletedTasks();
+		mTasksIncomplete = statistics.getIncompleteTasks();
 		mMaxPerformance = statistics.getMaxTime();
 		mMeanPerformance = statistics.getMeanTime();
-		mOutput = output;
+		mMedianPerformance = statistics.getPercentileTime(50);
+		m90thPercentilePerformance = statistics.getPercentileTime(90);
+		m99thPercentilePerformance = statistics.getPercentileTime(99);
+		mThroughput = statistics.getThroughput();
 	}
 
 	/**
-	 * Returns the time taken by the longest running task (in millis).
+	 * Adds a range covered by a task to the covered ranges, joining it with
+	 * the last one if they are contiguous.
+	 *
+	 * @param coveredRanges
+	 *            the covered ranges so far, in ascending order.
+	 * @param range
+	 *            the range covered by the next task, or <code>null</code> if
+	 *            it covered nothing.
+	 */
+	private static void addCoveredRange(final List<BlockRange> coveredRanges, final BlockRange range) {
+		if (range == null) {
+			return;
+		}
+
+		final int last = coveredRanges.size() - 1;
+		if (last >= 0 && coveredRanges.get(last).getEndValue().add(BigInteger.ONE).equals(range.getStartValue())) {
+			coveredRanges.set(last, new BlockRange(coveredRanges.get(last).getStartValue(), range.getEndValue()));
+		} else {
+			coveredRanges.add(range);
+		}
+	}
+
+	/**
+	 * Returns the gaps of the mined parts of a block between its covered
+	 * ranges.
+	 *
+	 * @param ranges
+	 *            the mined parts of the block, in ascending order.
+	 * @param coveredRanges
+	 *            the covered ranges, in ascending order, all within the mined
+	 *            parts.
+	 * @return the gaps, in ascending order.
+	 */
+	static List<BlockRange> uncoveredRanges(final List<BlockRange> ranges, final List<BlockRange> coveredRanges) {
+		final List<BlockRange> uncoveredRanges = new ArrayList<BlockRange>();
+		int nextCovered = 0;
+		for (final BlockRange range : ranges) {
+			BigInteger next = range.getStartValue();
+			while (nextCovered < coveredRanges.size()
+					&& coveredRanges.get(nextCovered).getStartValue().compareTo(range.getEndValue()) <= 0) {
+				final BlockRange covered = coveredRanges.get(nextCovered);
+				if (covered.getStartValue().compareTo(next) > 0) {
+					uncoveredRanges.add(new BlockRange(next, covered.getStartValue().subtract(BigInteger.ONE)));
+				}
+				next = covered.getEndValue().add(BigInteger.ONE);
+				if (covered.getEndValue().compareTo(range.getEndValue()) > 0) {
+					// joined with the next part of the block, which it reaches into
+					break;
+				}
+				nextCovered++;
+			}
+			if (next.compareTo(range.getEndValue()) <= 0) {
+				uncoveredRanges.add(new BlockRange(next, range.getEndValue()));
+			}
+		}
+
+		return uncoveredRanges;
+	}
+
+	/**
+	 * Returns a new cursor over all CivicBucks, in ascending order, merged
+	 * from the {@link ResultSpillStore} if the tasks handed them over to one.
+	 */
+	public CivicBucksCursor cursor() {
+		if (mSpillStore != null) {
+			return mSpillStore.cursor();
+		}
+
+		return new CivicBucksCursor(mTaskResults);
+	}
+
+	/**
+	 * Returns the computation time not exceeded by 90% of the tasks (in
+	 * nanos), within 1/{@value MiningStatistics#SUB_BUCKETS} of its value.
+	 */
+	public long get90thPercentilePerformance() {
+		return m90thPercentilePerformance;
+	}
+
+	/**
+	 * Returns the computation time not exceeded by 99% of the tasks (in
+	 * nanos), within 1/{@value MiningStatistics#SUB_BUCKETS} of its value.
+	 */
+	public long get99thPercentilePerformance() {
+		return m99thPercentilePerformance;
+	}
+
+	/**
+	 * Returns the parts of the block that were mined, in ascending order,
+	 * with contiguous parts joined. Tasks interrupted by a timeout or stopped
+	 * by a deadline count for the part of their chunk they fully mined.
+	 */
+	public List<BlockRange> getCoveredRanges() {
+		return mCoveredRanges;
+	}
+
+	/**
+	 * Returns the time taken by the longest running task (in nanos).
 	 */
 	public long getMaxPerformance() {
 		return mMaxPerformance;
 	}
 
 	/**
-	 * Returns the mean computation time of all tasks (in millis).
+	 * Returns the mean computation time of all tasks (in nanos).
 	 */
 	public long getMeanPerformance() {
 		return mMeanPerformance;
 	}
 
 	/**
-	 * Returns the output generated by all the task completed by the
-	 * {@link MiningExecutor}
+	 * Returns the median computation time of all tasks (in nanos), within 1/
+	 * {@value MiningStatistics#SUB_BUCKETS} of its value.
 	 */
-	public String getOutput() {
-		return mOutput;
+	public long getMedianPerformance() {
+		return mMedianPerformance;
+	}
+
+	/**
+	 * Returns the number of tasks that ended without mining their whole chunk
+	 * (e.g. interrupted by a timeout), which are left out of the performance
+	 * statistics.
+	 */
+	public long getTasksIncomplete() {
+		return mTasksIncomplete;
+	}
+
+	/**
+	 * Returns the number of tasks completed by the {@link MiningExecutor}.
+	 */
+	public int getTasksRun() {
+		return mTasksRun;
+	}
+
+	/**
+	 * Returns the number of tasks that mined their whole chunk, the ones the
+	 * performance statistics are about.
+	 */
+	public long getTasksTimed() {
+		return mTasksTimed;
+	}
+
+	/**
+	 * Returns the number of values mined per second, from the start of the
+	 * first task to the end of the last one.
+	 */
+	public double getThroughput() {
+		return mThroughput;
 	}
 
 	/**
@@ -100,4 +351,28 @@ public class MiningExecutorResults {
 		return mTotalCivicBucks;
 	}
 
+	/**
+	 * Returns the parts of the block that were not mined, in ascending order:
+	 * empty if the whole block was mined.
+	 */
+	public List<BlockRange> getUncoveredRanges() {
+		return mUncoveredRanges;
+	}
+
+	/**
+	 * Writes out all CivicBucks in ascending order, one per line, formatting
+	 * them one at a time.
+	 *
+	 * @param output
+	 *            where to write the CivicBucks.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public void writeOutput(final Appendable output) throws IOException {
+		final CivicBucksCursor cursor = cursor();
+		while (cursor.next()) {
+			cursor.appendTo(output);
+		}
+	}
+
 }
@@ -0,0 +1,368 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A block job for a {@link MiningDaemon}: one or more disjoint ranges to mine
+ * with the same strategy, under an identifier that the daemon reports its
+ * results with.
+ *
+ * Jobs are submitted to a daemon one per line, in the form:
+ *
+ * <pre>
+ * [id] [start..end[,start..end...]] [--mode=name] [--chunk=size] [--timeout=seconds]
+ *     [--priority=level] [--share=weight]
+ * </pre>
+ *
+ * e.g. <code>block-42 0..99999,200000..299999 --mode=generate</code>. Jobs of a
+ * higher priority run before the others, and jobs of the same priority split
+ * the threads in proportion to their share (see {@link MiningScheduler}).
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class MiningJob {
+
+	/**
+	 * The priority of a job unless specified.
+	 */
+	static final int DEFAULT_PRIORITY = 0;
+
+	/**
+	 * The share of a job unless specified.
+	 */
+	static final int DEFAULT_SHARE = 1;
+
+	/**
+	 * Orders ranges by their start.
+	 */
+	private static final Comparator<BlockRange> BY_START = new Comparator<BlockRange>() {
+
+		@Override
+		public int compare(final BlockRange first, final BlockRange second) {
+			return first.getStartValue().compareTo(second.getStartValue());
+		}
+	};
+
+	/**
+	 * The prefix of every option.
+	 */
+	private static final String OPTION_PREFIX = "--";
+
+	/**
+	 * The separator of the start and the end of a range.
+	 */
+	private static final String RANGE_SEPARATOR = "..";
+
+	/**
+	 * The identifier of the job.
+	 */
+	private final String mId;
+
+	/**
+	 * The ranges to mine, in ascending order and without overlaps.
+	 */
+	private final List<BlockRange> mRanges;
+
+	/**
+	 * The strategy for finding CivicBucks.
+	 */
+	private final MiningMode mMode;
+
+	/**
+	 * The minimum number of values mined by a single task.
+	 */
+	private final long mMinChunkSize;
+
+	/**
+	 * The time (in millis) the job may mine for, or 0 for no limit.
+	 */
+	private final long mTimeout;
+
+	/**
+	 * The priority of the job, higher first.
+	 */
+	private final int mPriority;
+
+	/**
+	 * The share of the threads the job gets among the jobs of its priority.
+	 */
+	private final int mShare;
+
+	/**
+	 * Creates a job for the specified ranges, with the default priority and
+	 * share.
+	 *
+	 * @param id
+	 *            the identifier of the job.
+	 * @param ranges
+	 *            the ranges to mine, in any order but without overlaps.
+	 * @param mode
+	 *            the strategy for finding CivicBucks.
+	 * @param minChunkSize
+	 *            the minimum number of values mined by a single task.
+	 * @param timeout
+	 *            the time (in millis) the job may mine for, or 0 for no limit.
+	 * @throws IllegalArgumentException
+	 *             if the job is not valid (see
+	 *             {@link #MiningJob(String, List, MiningMode, long, long, int, int)}).
+	 */
+	MiningJob(final String id, final List<BlockRange> ranges, final MiningMode mode, final long minChunkSize,
+			final long timeout) {
+		this(id, ranges, mode, minChunkSize, timeout, DEFAULT_PRIORITY, DEFAULT_SHARE);
+	}
+
+	/**
+	 * Creates a job for the specified ranges.
+	 *
+	 * @param id
+	 *            the identifier of the job.
+	 * @param ranges
+	 *            the ranges to mine, in any order but without overlaps.
+	 * @param mode
+	 *            the strategy for finding CivicBucks.
+	 * @param minChunkSize
+	 *            the minimum number of values mined by a single task.
+	 * @param timeout
+	 *            the time (in millis) the job may mine for, or 0 for no limit.
+	 * @param priority
+	 *            the priority of the job, higher first.
+	 * @param share
+	 *            the share of the threads the job gets among the jobs of its
+	 *            priority, at least 1.
+	 * @throws IllegalArgumentException
+	 *             if there are no ranges, some of them overlap or start below
+	 *             {@link Long#MIN_VALUE}, or the chunk size, the timeout or
+	 *             the share are not valid.
+	 */
+	MiningJob(final String id, final List<BlockRange> ranges, final MiningMode mode, final long minChunkSize,
+			final long timeout, final int priority, final int share) {
+		if (ranges.isEmpty()) {
+			throw new IllegalArgumentException("A job needs at least one range to mine.");
+		}
+		if (minChunkSize < 1) {
+			throw new IllegalArgumentException("The chunk size must be at least 1.");
+		}
+		if (timeout < 0) {
+			throw new IllegalArgumentException("The timeout must not be negative.");
+		}
+		if (share < 1) {
+			throw new IllegalArgumentException("The share must be at least 1.");
+		}
+
+		final List<BlockRange> sorted = new ArrayList<BlockRange>(ranges);
+		Collections.sort(sorted, BY_START);
+		if (sorted.get(0).getStartValue().compareTo(BigInteger.valueOf(Long.MIN_VALUE)) < 0) {
+			throw new IllegalArgumentException("The start of a range must not be lower than " + Long.MIN_VALUE + ".");
+		}
+		for (int index = 1; index < sorted.size(); index++) {
+			if (sorted.get(index).getStartValue().compareTo(sorted.get(index - 1).getEndValue()) <= 0) {
+				throw new IllegalArgumentException(
+						"The ranges " + sorted.get(index - 1) + " and " + sorted.get(index) + " overlap.");
+			}
+		}
+
+		mId = id;
+		mRanges = Collections.unmodifiableList(sorted);
+		mMode = mode;
+		mMinChunkSize = minChunkSize;
+		mTimeout = timeout;
+		mPriority = priority;
+		mShare = share;
+	}
+
+	/**
+	 * Parses a job from a line (see the class description for its form).
+	 *
+	 * @param line
+	 *            the line to parse.
+	 * @return the job.
+	 * @throws IllegalArgumentException
+	 *             if the line is not a valid job.
+	 */
+	static MiningJob parse(final String line) {
+		final String[] tokens = line.trim().split("\\s+");
+		if (tokens.length < 2) {
+			throw new IllegalArgumentException("A job needs an id and the ranges to mine: " + line);
+		}
+
+		final List<BlockRange> ranges = new ArrayList<BlockRange>();
+		for (final String range : tokens[1].split(",")) {
+			ranges.add(parseRange(range));
+		}
+
+		MiningMode mode = MiningMode.AUTO;
+		long minChunkSize = RangePartitioner.DEFAULT_MIN_CHUNK_SIZE;
+		long timeout = 0;
+		int priority = DEFAULT_PRIORITY;
+		int share = DEFAULT_SHARE;
+		for (int index = 2; index < tokens.length; index++) {
+			final String option = tokens[index];
+			final int separator = option.indexOf('=');
+			if (!option.startsWith(OPTION_PREFIX) || separator < 0) {
+				throw new IllegalArgumentException("Invalid option: " + option);
+			}
+
+			final String name = option.substring(OPTION_PREFIX.length(), separator);
+			final String value = option.substring(separator + 1);
+			if ("mode".equals(name)) {
+				mode = MiningMode.fromName(value);
+			} else if ("chunk".equals(name)) {
+				minChunkSize = parseLong(name, value);
+			} else if ("timeout".equals(name)) {
+				timeout = parseLong(name, value) * 1000;
+			} else if ("priority".equals(name)) {
+				priority = parseInt(name, value);
+			} else if ("share".equals(name)) {
+				share = parseInt(name, value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		}
+
+		return new MiningJob(tokens[0], ranges, mode, minChunkSize, timeout, priority, share);
+	}
+
+	/**
+	 * Parses a numeric value of type int.
+	 *
+	 * @param name
+	 *            the name of the value, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number.
+	 */
+	private static int parseInt(final String name, final String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Parses a numeric value of type long.
+	 *
+	 * @param name
+	 *            the name of the value, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number.
+	 */
+	private static long parseLong(final String name, final String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Parses a range in the form <code>start..end</code>.
+	 *
+	 * @param range
+	 *            the range to parse.
+	 * @return the parsed range.
+	 * @throws IllegalArgumentException
+	 *             if the range is not valid.
+	 */
+	private static BlockRange parseRange(final String range) {
+		final int separator = range.indexOf(RANGE_SEPARATOR);
+		if (separator < 0) {
+			throw new IllegalArgumentException("Invalid range: " + range);
+		}
+
+		try {
+			return new BlockRange(new BigInteger(range.substring(0, separator)),
+					new BigInteger(range.substring(separator + RANGE_SEPARATOR.length())));
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid range: " + range, e);
+		}
+	}
+
+	/**
+	 * Returns the identifier of the job.
+	 */
+	String getId() {
+		return mId;
+	}
+
+	/**
+	 * Returns the minimum number of values mined by a single task.
+	 */
+	long getMinChunkSize() {
+		return mMinChunkSize;
+	}
+
+	/**
+	 * Returns the strategy for finding CivicBucks.
+	 */
+	MiningMode getMode() {
+		return mMode;
+	}
+
+	/**
+	 * Returns the priority of the job, higher first.
+	 */
+	int getPriority() {
+		return mPriority;
+	}
+
+	/**
+	 * Returns the ranges to mine, in ascending order and without overlaps.
+	 */
+	List<BlockRange> getRanges() {
+		return mRanges;
+	}
+
+	/**
+	 * Returns the share of the threads the job gets among the jobs of its
+	 * priority.
+	 */
+	int getShare() {
+		return mShare;
+	}
+
+	/**
+	 * Returns the time (in millis) the job may mine for, or 0 for no limit.
+	 */
+	long getTimeout() {
+		return mTimeout;
+	}
+
+	@Override
+	public String toString() {
+		return mId + " " + CivicBucksMiner.joinRanges(mRanges);
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * Receives the results of a run as they come, instead of waiting for the
+ * executor to terminate (see
+ * {@link MiningExecutor#setListener(MiningListener, int)}): the result of
+ * every chunk as soon as it completes, in any order, and then the combined
+ * results of the run.
+ *
+ * Calls are made one at a time from a single thread of the executor, so an
+ * implementation needs no locking of its own. A listener that falls behind
+ * slows mining down rather than letting the results pile up.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public interface MiningListener {
+
+	/**
+	 * Called with the result of every chunk that completes, in the order they
+	 * complete. Chunks left out of the run (e.g. past its deadline) are not
+	 * reported; a chunk stopped early reports the part of it that was covered.
+	 *
+	 * @param result
+	 *            the result of the chunk. If the CivicBucks are streamed to a
+	 *            writer or a spill store, it only holds their number.
+	 */
+	void rangeMined(TaskResult result);
+
+	/**
+	 * Called once, after every chunk was reported, with the combined results
+	 * of the run, as {@link MiningExecutor#calculateMiningResults()} would
+	 * return them.
+	 *
+	 * @param results
+	 *            the results of the run.
+	 */
+	void miningDone(MiningExecutorResults results);
+}
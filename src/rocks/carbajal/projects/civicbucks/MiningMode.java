@@ -0,0 +1,133 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * The strategies available to a {@link MiningTask} for finding CivicBucks
+ * within a block, each one backed by a {@link MiningAlgorithm} (except for
+ * {@link #AUTO}, which picks one of them).
+ *
+ * Blocks beyond the limit of type long (see {@link WideMiningTask}) are
+ * scanned in the scan modes (see {@link #isScan()}) and mined by generating their decimal
+ * palindromes in every other mode.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public enum MiningMode {
+
+	/**
+	 * Measures every other strategy on a sample of the block at startup and
+	 * picks the fastest one on this machine (see {@link AlgorithmCalibrator}).
+	 */
+	AUTO(null),
+
+	/**
+	 * Tests every single number in the block, first for a decimal palindrome
+	 * and then for a binary palindrome. The work is proportional to the size of
+	 * the block, but only the numbers left by a mask computed for a batch of
+	 * them at once are tested (see {@link ScanAlgorithm}).
+	 */
+	SCAN(new ScanAlgorithm()),
+
+	/**
+	 * Like {@link #SCAN}, but testing every single number of the block one by
+	 * one, as a fallback for the batched walk.
+	 */
+	SCAN_SCALAR(new ScanAlgorithm(false)),
+
+	/**
+	 * Builds the decimal palindromes of the block directly by mirroring their
+	 * left halves (see {@link PalindromeGenerator}) and tests only those
+	 * candidates for a binary palindrome. The work is proportional to the
+	 * square root of the block's upper bound (see
+	 * {@link DecimalGenerateAlgorithm}).
+	 */
+	GENERATE(new DecimalGenerateAlgorithm()),
+
+	/**
+	 * Builds the binary palindromes of the block (see
+	 * {@link BinaryPalindromeGenerator}) and tests only those candidates for a
+	 * decimal palindrome (see {@link BinaryGenerateAlgorithm}).
+	 */
+	BINARY_GENERATE(new BinaryGenerateAlgorithm()),
+
+	/**
+	 * Builds the decimal palindromes of the block and tests them with
+	 * table-driven kernels (see {@link TableDrivenAlgorithm}).
+	 */
+	TABLE_DRIVEN(new TableDrivenAlgorithm());
+
+	/**
+	 * The algorithm of the strategy, or <code>null</code> for {@link #AUTO}.
+	 */
+	private final MiningAlgorithm mAlgorithm;
+
+	/**
+	 * Creates a strategy backed by the specified algorithm.
+	 *
+	 * @param algorithm
+	 *            the algorithm, or <code>null</code> for {@link #AUTO}.
+	 */
+	private MiningMode(final MiningAlgorithm algorithm) {
+		mAlgorithm = algorithm;
+	}
+
+	/**
+	 * Returns the {@link MiningMode} with the specified name, ignoring case
+	 * and accepting dashes for underscores.
+	 *
+	 * @param name
+	 *            the name of the mode (e.g. "scan" or "binary-generate")
+	 * @return the matching {@link MiningMode}
+	 * @throws IllegalArgumentException
+	 *             if there is no mode with the specified name
+	 */
+	public static MiningMode fromName(final String name) {
+		final String constant = name.replace('-', '_');
+		for (final MiningMode mode : values()) {
+			if (mode.name().equalsIgnoreCase(constant)) {
+				return mode;
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown mining mode: " + name);
+	}
+
+	/**
+	 * Returns the algorithm of the strategy, or <code>null</code> for
+	 * {@link #AUTO}.
+	 */
+	public MiningAlgorithm getAlgorithm() {
+		return mAlgorithm;
+	}
+
+	/**
+	 * Returns <code>true</code> if the strategy tests every number of the
+	 * block, that is {@link #SCAN} or {@link #SCAN_SCALAR}.
+	 */
+	public boolean isScan() {
+		return this == SCAN || this == SCAN_SCALAR;
+	}
+}
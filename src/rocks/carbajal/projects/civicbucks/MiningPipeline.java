@@ -0,0 +1,1004 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mines the chunks of a block in stages that run on their own threads,
+ * instead of running every chunk from start to end on a single thread (see
+ * {@link MiningExecutor#setPipeline(int, int)}):
+ *
+ * <ol>
+ * <li>generator threads take the chunks one at a time and produce their
+ * candidates: the decimal (or binary) palindromes of the chunk, built by a
+ * generator or, in scan mode, found by testing the numbers left by the
+ * batched mask of {@link ScanAlgorithm} (or every number, in scalar scan
+ * mode);</li>
+ * <li>filter threads test the candidates for the other palindrome;</li>
+ * <li>the collector (the thread running this pipeline) assembles the hits of
+ * every chunk and hands over its result, which the executor commits to the
+ * writer, the journal and the store as usual.</li>
+ * </ol>
+ *
+ * The stages are connected by single-producer, single-consumer ring buffers
+ * (see {@link LongRingBuffer}) that carry primitive longs in batches: one
+ * from every generator to every filter, and one from every filter to the
+ * collector. A batch holds the candidates (or hits) of a contiguous part of a
+ * chunk behind a header that tells which part. A stage whose output buffers
+ * are full waits for the next stage to catch up, so the stages never get
+ * further ahead of each other than the buffers allow, and the number of
+ * threads of each stage can be set after the one that limits the throughput.
+ *
+ * Batches of the same chunk may reach the collector out of order through
+ * different filters, so a chunk is complete once all its batches arrived, and
+ * a chunk stopped early (by an interruption or the deadline of the run) only
+ * covers its batches up to the first one missing. The collector folds the
+ * batches that arrive in order into the result of their chunk right away and
+ * only holds on to the others until their turn, so the memory it holds
+ * depends on the hits and on how far the filters get out of order, not on the
+ * size of the chunks.
+ *
+ * If a stage fails, the whole pipeline stops and the failure is handed over
+ * instead of the results of the chunks not complete (see
+ * {@link #fail(Throwable)}).
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+abstract class MiningPipeline implements Runnable {
+
+	/**
+	 * The candidate generation and filtering of a {@link MiningAlgorithm}.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private enum Kernel {
+
+		/**
+		 * Candidates are the decimal palindromes found by testing the numbers
+		 * that may be binary palindromes, walked in batches (see
+		 * {@link ScanAlgorithm}).
+		 */
+		SCAN {
+			@Override
+			boolean accept(final long candidate) {
+				return PalindromeKernels.isBinaryPalindrome(candidate);
+			}
+		},
+
+		/**
+		 * Candidates are the decimal palindromes found by testing every number
+		 * (see {@link MiningMode#SCAN_SCALAR}).
+		 */
+		SCAN_SCALAR {
+			@Override
+			boolean accept(final long candidate) {
+				return PalindromeKernels.isBinaryPalindrome(candidate);
+			}
+		},
+
+		/**
+		 * Candidates are generated decimal palindromes (see
+		 * {@link DecimalGenerateAlgorithm}).
+		 */
+		DECIMAL_GENERATE {
+			@Override
+			boolean accept(final long candidate) {
+				return PalindromeKernels.isBinaryPalindrome(candidate);
+			}
+		},
+
+		/**
+		 * Candidates are generated decimal palindromes, tested with tables
+		 * (see {@link TableDrivenAlgorithm}).
+		 */
+		TABLE_DRIVEN {
+			@Override
+			boolean accept(final long candidate) {
+				return candidate == 0
+						|| ((candidate & 1) != 0 && PalindromeKernels.isBinaryPalindromeByTable(candidate));
+			}
+		},
+
+		/**
+		 * Candidates are generated binary palindromes (see
+		 * {@link BinaryGenerateAlgorithm}).
+		 */
+		BINARY_GENERATE {
+			@Override
+			boolean accept(final long candidate) {
+				return PalindromeKernels.isDecimalPalindrome(candidate);
+			}
+		};
+
+		/**
+		 * Returns the kernel of the specified algorithm.
+		 *
+		 * @param algorithm
+		 *            one of the algorithms of the {@link MiningMode}s.
+		 * @return the kernel.
+		 * @throws IllegalArgumentException
+		 *             if the algorithm has no pipeline kernel.
+		 */
+		static Kernel of(final MiningAlgorithm algorithm) {
+			if (algorithm instanceof ScanAlgorithm) {
+				return ((ScanAlgorithm) algorithm).isBatched() ? SCAN : SCAN_SCALAR;
+			} else if (algorithm instanceof DecimalGenerateAlgorithm) {
+				return DECIMAL_GENERATE;
+			} else if (algorithm instanceof TableDrivenAlgorithm) {
+				return TABLE_DRIVEN;
+			} else if (algorithm instanceof BinaryGenerateAlgorithm) {
+				return BINARY_GENERATE;
+			}
+
+			throw new IllegalArgumentException("No pipeline for the " + algorithm.getName() + " algorithm.");
+		}
+
+		/**
+		 * Tests a candidate for the palindrome its generation does not
+		 * guarantee.
+		 *
+		 * @param candidate
+		 *            the candidate.
+		 * @return <code>true</code> if the candidate is a CivicBuck.
+		 */
+		abstract boolean accept(long candidate);
+	}
+
+	/**
+	 * The first stage: takes chunks and produces their candidates.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private class Generator implements Runnable {
+
+		/**
+		 * The buffers to the filters.
+		 */
+		private final LongRingBuffer[] mOutputs;
+
+		/**
+		 * The batch being filled, behind its header.
+		 */
+		private final long[] mBatch = new long[HEADER_SIZE + BATCH_SIZE];
+
+		/**
+		 * The buffer to try first for the next batch.
+		 */
+		private int mNextOutput = 0;
+
+		/**
+		 * Creates a generator.
+		 *
+		 * @param outputs
+		 *            the buffers to the filters.
+		 */
+		Generator(final LongRingBuffer[] outputs) {
+			mOutputs = outputs;
+		}
+
+		/**
+		 * Produces the candidates of a chunk from a generator of binary
+		 * palindromes, in batches of {@link MiningPipeline#BATCH_SIZE}.
+		 *
+		 * @param chunk
+		 *            the index of the chunk.
+		 * @param start
+		 *            the start of the chunk.
+		 * @param end
+		 *            the end of the chunk (inclusive).
+		 * @return <code>false</code> if the pipeline stopped.
+		 */
+		private boolean generateBinary(final int chunk, final long start, final long end) {
+			final BinaryPalindromeGenerator generator = new BinaryPalindromeGenerator(start, end);
+			int sequence = 0;
+			long from = start;
+			int count = 0;
+			while (generator.hasNext()) {
+				final long candidate = generator.next();
+				mBatch[HEADER_SIZE + count++] = candidate;
+				if (count == BATCH_SIZE) {
+					final boolean last = !generator.hasNext();
+					if (!send(chunk, sequence++, from, last ? end : candidate, count)) {
+						return false;
+					}
+					if (last) {
+						return true;
+					}
+					from = candidate + 1;
+					count = 0;
+				}
+			}
+
+			return send(chunk, sequence, from, end, count);
+		}
+
+		/**
+		 * Produces the candidates of a chunk from a generator of decimal
+		 * palindromes, in batches of {@link MiningPipeline#BATCH_SIZE}.
+		 *
+		 * @param chunk
+		 *            the index of the chunk.
+		 * @param start
+		 *            the start of the chunk.
+		 * @param end
+		 *            the end of the chunk (inclusive).
+		 * @return <code>false</code> if the pipeline stopped.
+		 */
+		private boolean generateDecimal(final int chunk, final long start, final long end) {
+			final PalindromeGenerator generator = new PalindromeGenerator(start, end);
+			int sequence = 0;
+			long from = start;
+			int count = 0;
+			while (generator.hasNext()) {
+				final long candidate = generator.next();
+				mBatch[HEADER_SIZE + count++] = candidate;
+				if (count == BATCH_SIZE) {
+					final boolean last = !generator.hasNext();
+					if (!send(chunk, sequence++, from, last ? end : candidate, count)) {
+						return false;
+					}
+					if (last) {
+						return true;
+					}
+					from = candidate + 1;
+					count = 0;
+				}
+			}
+
+			return send(chunk, sequence, from, end, count);
+		}
+
+		/**
+		 * Produces the candidates of a chunk by walking it in batches of
+		 * {@value PalindromeKernels#LANES} numbers, as {@link ScanAlgorithm}
+		 * does: only the numbers left in the mask of the batch (see
+		 * {@link PalindromeKernels#binaryCandidates(long)}) are tested for a
+		 * decimal palindrome. A batch of candidates covers up to
+		 * {@link MiningPipeline#SCAN_SLICE_SIZE} numbers, or less if it fills
+		 * up.
+		 *
+		 * @param chunk
+		 *            the index of the chunk.
+		 * @param start
+		 *            the start of the chunk.
+		 * @param end
+		 *            the end of the chunk (inclusive).
+		 * @return <code>false</code> if the pipeline stopped.
+		 */
+		private boolean generateScanBatches(final int chunk, final long start, final long end) {
+			int sequence = 0;
+			long from = start;
+			long lanesStart = start;
+			int count = 0;
+			while (true) {
+				long lanes = PalindromeKernels.binaryCandidates(lanesStart);
+
+				// the last lanes of the chunk may be fewer, drop the ones past its end
+				final long remaining = end - lanesStart;
+				if (remaining < PalindromeKernels.LANES - 1) {
+					lanes &= (1L << (remaining + 1)) - 1;
+				}
+
+				while (lanes != 0) {
+					final long number = lanesStart + Long.numberOfTrailingZeros(lanes);
+					if (PalindromeKernels.isDecimalPalindrome(number)) {
+						mBatch[HEADER_SIZE + count++] = number;
+					}
+					lanes &= lanes - 1;
+				}
+
+				// stop at the end without incrementing, it may be near Long.MAX_VALUE
+				final boolean last = remaining < PalindromeKernels.LANES;
+				final long lanesEnd = last ? end : lanesStart + (PalindromeKernels.LANES - 1);
+				if (last || count > BATCH_SIZE - PalindromeKernels.LANES || lanesEnd - from >= SCAN_SLICE_SIZE - 1) {
+					if (!send(chunk, sequence++, from, lanesEnd, count)) {
+						return false;
+					}
+					if (last) {
+						return true;
+					}
+					from = lanesEnd + 1;
+					count = 0;
+				}
+				lanesStart += PalindromeKernels.LANES;
+			}
+		}
+
+		/**
+		 * Produces the candidates of a chunk by testing every number for a
+		 * decimal palindrome, in slices of {@link MiningPipeline#BATCH_SIZE}
+		 * numbers.
+		 *
+		 * @param chunk
+		 *            the index of the chunk.
+		 * @param start
+		 *            the start of the chunk.
+		 * @param end
+		 *            the end of the chunk (inclusive).
+		 * @return <code>false</code> if the pipeline stopped.
+		 */
+		private boolean generateScan(final int chunk, final long start, final long end) {
+			int sequence = 0;
+			long sliceStart = start;
+			while (true) {
+				// the end of the slice, without overflowing near the limits of type long
+				final long sliceEnd = (end >= Long.MIN_VALUE + BATCH_SIZE - 1 && sliceStart <= end - (BATCH_SIZE - 1))
+						? sliceStart + (BATCH_SIZE - 1) : end;
+
+				int count = 0;
+				for (long number = sliceStart; number <= sliceEnd; number++) {
+					if (PalindromeKernels.isDecimalPalindrome(number)) {
+						mBatch[HEADER_SIZE + count++] = number;
+					}
+
+					// stop at the end without incrementing, it may be Long.MAX_VALUE
+					if (number == sliceEnd) {
+						break;
+					}
+				}
+
+				if (!send(chunk, sequence++, sliceStart, sliceEnd, count)) {
+					return false;
+				}
+				if (sliceEnd == end) {
+					return true;
+				}
+				sliceStart = sliceEnd + 1;
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				generate();
+			} catch (final Throwable t) {
+				stop(t);
+			}
+		}
+
+		/**
+		 * Takes chunks and produces their candidates until there are no
+		 * chunks left or the pipeline stopped.
+		 */
+		private void generate() {
+			while (!mStopped) {
+				final int chunk = mNextChunk.getAndIncrement();
+				if (chunk >= mChunks.size()) {
+					return;
+				}
+
+				final long start = mChunks.get(chunk).getStart();
+				final long end = mChunks.get(chunk).getEnd();
+				final boolean generated;
+				if (mKernel == Kernel.SCAN) {
+					generated = generateScanBatches(chunk, start, end);
+				} else if (mKernel == Kernel.SCAN_SCALAR) {
+					generated = generateScan(chunk, start, end);
+				} else if (mKernel == Kernel.BINARY_GENERATE) {
+					generated = generateBinary(chunk, start, end);
+				} else {
+					generated = generateDecimal(chunk, start, end);
+				}
+				if (!generated) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Sends the current batch to the first filter with room for it,
+		 * waiting for one if they are all full.
+		 *
+		 * @param chunk
+		 *            the index of the chunk.
+		 * @param sequence
+		 *            the position of the batch within the chunk.
+		 * @param from
+		 *            the first number of the chunk covered by the batch.
+		 * @param to
+		 *            the last number of the chunk covered by the batch.
+		 * @param count
+		 *            the number of candidates in the batch.
+		 * @return <code>false</code> if the pipeline stopped.
+		 */
+		private boolean send(final int chunk, final int sequence, final long from, final long to, final int count) {
+			mBatch[CHUNK] = chunk;
+			mBatch[SEQUENCE] = sequence;
+			mBatch[FROM] = from;
+			mBatch[TO] = to;
+			mBatch[COUNT] = count;
+
+			int attempt = 0;
+			while (!mStopped) {
+				for (int output = 0; output < mOutputs.length; output++) {
+					final int index = (mNextOutput + output) % mOutputs.length;
+					if (mOutputs[index].offer(mBatch, HEADER_SIZE + count)) {
+						mNextOutput = (index + 1) % mOutputs.length;
+						return true;
+					}
+				}
+				backOff(attempt++);
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * The second stage: tests the candidates of the generators and passes on
+	 * the hits to the collector.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private class Filter implements Runnable {
+
+		/**
+		 * The buffers from the generators.
+		 */
+		private final LongRingBuffer[] mInputs;
+
+		/**
+		 * The buffer to the collector.
+		 */
+		private final LongRingBuffer mOutput;
+
+		/**
+		 * Creates a filter.
+		 *
+		 * @param inputs
+		 *            the buffers from the generators.
+		 * @param output
+		 *            the buffer to the collector.
+		 */
+		Filter(final LongRingBuffer[] inputs, final LongRingBuffer output) {
+			mInputs = inputs;
+			mOutput = output;
+		}
+
+		@Override
+		public void run() {
+			try {
+				filter();
+			} catch (final Throwable t) {
+				stop(t);
+			}
+		}
+
+		/**
+		 * Tests the candidates of the generators until the pipeline stopped.
+		 */
+		private void filter() {
+			final long[] candidates = new long[HEADER_SIZE + BATCH_SIZE];
+			final long[] hits = new long[HEADER_SIZE + BATCH_SIZE];
+			int nextInput = 0;
+			int attempt = 0;
+			while (!mStopped) {
+				int length = -1;
+				for (int input = 0; input < mInputs.length && length < 0; input++) {
+					final int index = (nextInput + input) % mInputs.length;
+					length = mInputs[index].poll(candidates);
+					if (length >= 0) {
+						nextInput = (index + 1) % mInputs.length;
+					}
+				}
+				if (length < 0) {
+					backOff(attempt++);
+					continue;
+				}
+				attempt = 0;
+
+				System.arraycopy(candidates, 0, hits, 0, HEADER_SIZE);
+				int count = 0;
+				for (int index = HEADER_SIZE; index < length; index++) {
+					final long candidate = candidates[index];
+					if (mKernel.accept(candidate)) {
+						hits[HEADER_SIZE + count++] = candidate;
+					}
+				}
+				hits[COUNT] = count;
+
+				int waits = 0;
+				while (!mOutput.offer(hits, HEADER_SIZE + count)) {
+					if (mStopped) {
+						return;
+					}
+					backOff(waits++);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The hits of a chunk received by the collector so far: the batches
+	 * received in order are folded into its CivicBucks, the others wait for
+	 * the batches before them.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class Assembly {
+
+		/**
+		 * The time the first batch of the chunk was received (in nanos).
+		 */
+		final long mStartTime = System.nanoTime();
+
+		/**
+		 * The CivicBucks of the batches folded so far, in ascending order.
+		 */
+		private final ResultBuffer mCivicBucks = new ResultBuffer(1);
+
+		/**
+		 * The batches received ahead of the next one to fold, by sequence.
+		 * Batches without hits only keep their header.
+		 */
+		private final Map<Integer, long[]> mPending = new HashMap<Integer, long[]>();
+
+		/**
+		 * The sequence of the next batch to fold, which is also the number of
+		 * batches folded so far.
+		 */
+		private int mNextSequence = 0;
+
+		/**
+		 * The last number covered by the batches folded so far, valid once
+		 * one was folded.
+		 */
+		private long mCoveredTo;
+
+		/**
+		 * The number of batches of the chunk, or -1 until its last batch is
+		 * received.
+		 */
+		int mBatchCount = -1;
+
+		/**
+		 * The number of values covered by the batches received.
+		 */
+		double mValuesCovered = 0;
+
+		/**
+		 * Adds a batch received by the collector, folding it (and the pending
+		 * batches it was holding back) if it is the next one in sequence.
+		 *
+		 * @param batch
+		 *            the batch, with its header and hits; reused by the
+		 *            collector afterwards.
+		 * @param length
+		 *            the number of longs of the batch.
+		 */
+		void add(final long[] batch, final int length) {
+			if (batch[SEQUENCE] != mNextSequence) {
+				mPending.put((int) batch[SEQUENCE], Arrays.copyOf(batch, (batch[COUNT] > 0) ? length : HEADER_SIZE));
+				return;
+			}
+
+			fold(batch);
+			long[] pending;
+			while ((pending = mPending.remove(mNextSequence)) != null) {
+				fold(pending);
+			}
+		}
+
+		/**
+		 * Folds the next batch in sequence into the result of the chunk.
+		 *
+		 * @param batch
+		 *            the batch, with its header and hits.
+		 */
+		private void fold(final long[] batch) {
+			for (int index = HEADER_SIZE; index < HEADER_SIZE + batch[COUNT]; index++) {
+				mCivicBucks.add(batch[index]);
+			}
+			mCoveredTo = batch[TO];
+			mNextSequence++;
+		}
+
+		/**
+		 * Returns <code>true</code> if all the batches of the chunk were
+		 * received.
+		 */
+		boolean isComplete() {
+			return mNextSequence == mBatchCount;
+		}
+
+		/**
+		 * Returns the result of the chunk: its CivicBucks and the part of it
+		 * covered by its batches, up to the first one missing.
+		 *
+		 * @param start
+		 *            the start of the chunk.
+		 * @return the result, with no covered range if the first batch is
+		 *         missing.
+		 */
+		TaskResult toResult(final long start) {
+			return new TaskResult((mNextSequence > 0) ? new BlockRange(start, mCoveredTo) : null, mCivicBucks);
+		}
+	}
+
+	/**
+	 * The position of the index of the chunk in the header of a batch.
+	 */
+	private static final int CHUNK = 0;
+
+	/**
+	 * The position of the sequence of the batch within its chunk in the
+	 * header of a batch.
+	 */
+	private static final int SEQUENCE = 1;
+
+	/**
+	 * The position of the first number covered by the batch in the header of a
+	 * batch.
+	 */
+	private static final int FROM = 2;
+
+	/**
+	 * The position of the last number covered by the batch in the header of a
+	 * batch.
+	 */
+	private static final int TO = 3;
+
+	/**
+	 * The position of the number of candidates (or hits) in the header of a
+	 * batch.
+	 */
+	private static final int COUNT = 4;
+
+	/**
+	 * The number of longs of the header of a batch.
+	 */
+	private static final int HEADER_SIZE = 5;
+
+	/**
+	 * The maximum number of candidates of a batch, and the number of values
+	 * tested by a generator per batch in scalar scan mode.
+	 */
+	static final int BATCH_SIZE = 1024;
+
+	/**
+	 * The maximum number of values covered by a batch in scan mode, whose
+	 * mask leaves few numbers to test: large enough to keep the buffers out of
+	 * the way, small enough for the generators to notice a stop soon.
+	 */
+	static final int SCAN_SLICE_SIZE = 1 << 16;
+
+	/**
+	 * The number of longs every ring buffer holds.
+	 */
+	static final int BUFFER_CAPACITY = 1 << 14;
+
+	/**
+	 * The number of times a stage polls again right away before yielding,
+	 * when its buffers are full or empty.
+	 */
+	private static final int SPINS = 64;
+
+	/**
+	 * The number of times a stage yields before sleeping, when its buffers are
+	 * full or empty.
+	 */
+	private static final int YIELDS = 64;
+
+	/**
+	 * The time (in nanos) a stage sleeps when its buffers stay full or empty.
+	 */
+	private static final long PARK_NANOS = 50000;
+
+	/**
+	 * The chunks to mine, in ascending order.
+	 */
+	private final List<BlockRange> mChunks;
+
+	/**
+	 * The candidate generation and filtering of the algorithm of the run.
+	 */
+	private final Kernel mKernel;
+
+	/**
+	 * The live progress of the run.
+	 */
+	private final MiningProgress mProgress;
+
+	/**
+	 * The buffer from every generator to every filter, by generator and then
+	 * by filter.
+	 */
+	private final LongRingBuffer[][] mCandidates;
+
+	/**
+	 * The buffer from every filter to the collector.
+	 */
+	private final LongRingBuffer[] mHits;
+
+	/**
+	 * The index of the next chunk for a generator to take.
+	 */
+	private final AtomicInteger mNextChunk = new AtomicInteger();
+
+	/**
+	 * Whether the stages must stop, set by the collector when it is done.
+	 */
+	private volatile boolean mStopped = false;
+
+	/**
+	 * The first failure of a stage, if any.
+	 */
+	private volatile Throwable mFailure = null;
+
+	/**
+	 * Creates a pipeline for the specified chunks.
+	 *
+	 * @param chunks
+	 *            the chunks to mine, in ascending order, all within the limit
+	 *            of type long.
+	 * @param algorithm
+	 *            the algorithm of the run, whose candidate generation and
+	 *            filtering the stages split.
+	 * @param generators
+	 *            the number of generator threads.
+	 * @param filters
+	 *            the number of filter threads.
+	 * @param progress
+	 *            the live progress of the run, updated by the collector.
+	 * @throws IllegalArgumentException
+	 *             if there is no pipeline for the algorithm.
+	 */
+	MiningPipeline(final List<BlockRange> chunks, final MiningAlgorithm algorithm, final int generators,
+			final int filters, final MiningProgress progress) {
+		mChunks = chunks;
+		mKernel = Kernel.of(algorithm);
+		mProgress = progress;
+
+		mCandidates = new LongRingBuffer[generators][filters];
+		for (int generator = 0; generator < generators; generator++) {
+			for (int filter = 0; filter < filters; filter++) {
+				mCandidates[generator][filter] = new LongRingBuffer(BUFFER_CAPACITY);
+			}
+		}
+		mHits = new LongRingBuffer[filters];
+		for (int filter = 0; filter < filters; filter++) {
+			mHits[filter] = new LongRingBuffer(BUFFER_CAPACITY);
+		}
+	}
+
+	/**
+	 * Waits a little before polling a buffer again: spins at first, then
+	 * yields, then sleeps, so that an idle stage soon stops using its core.
+	 *
+	 * @param attempt
+	 *            the number of times the buffers were polled in vain.
+	 */
+	private static void backOff(final int attempt) {
+		if (attempt < SPINS) {
+			return;
+		}
+		if (attempt < SPINS + YIELDS) {
+			Thread.yield();
+			return;
+		}
+
+		LockSupport.parkNanos(PARK_NANOS);
+	}
+
+	/**
+	 * Returns the number of values from one number to another one.
+	 *
+	 * @param from
+	 *            the first number.
+	 * @param to
+	 *            the last number (inclusive), not lower than the first one.
+	 * @return the number of values.
+	 */
+	private static double valuesBetween(final long from, final long to) {
+		// the distance may exceed the limit of type long, then it reads as a negative number
+		final long distance = to - from;
+		return ((distance >= 0) ? distance : distance + 0x1p64) + 1;
+	}
+
+	/**
+	 * Receives the batches of hits from the filters and assembles the results
+	 * of the chunks, until all of them are complete or the run must stop.
+	 *
+	 * @param assemblies
+	 *            the hits received so far of every chunk, by index;
+	 *            <code>null</code> for the chunks not started, or handed over.
+	 */
+	private void collect(final Assembly[] assemblies) {
+		final long[] batch = new long[HEADER_SIZE + BATCH_SIZE];
+		int chunksLeft = mChunks.size();
+		double valuesInFlight = 0;
+		int nextInput = 0;
+		int attempt = 0;
+		while (chunksLeft > 0) {
+			if (mFailure != null) {
+				// a stage failed, nothing more will come
+				return;
+			}
+			if (MiningProgress.checkpoint((long) valuesInFlight)) {
+				// interrupted or past the deadline, the chunks not complete are handed over as they are
+				return;
+			}
+
+			int length = -1;
+			for (int input = 0; input < mHits.length && length < 0; input++) {
+				final int index = (nextInput + input) % mHits.length;
+				length = mHits[index].poll(batch);
+				if (length >= 0) {
+					nextInput = (index + 1) % mHits.length;
+				}
+			}
+			if (length < 0) {
+				backOff(attempt++);
+				continue;
+			}
+			attempt = 0;
+
+			final int chunk = (int) batch[CHUNK];
+			final BlockRange range = mChunks.get(chunk);
+			if (assemblies[chunk] == null) {
+				assemblies[chunk] = new Assembly();
+			}
+			final Assembly assembly = assemblies[chunk];
+			assembly.add(batch, length);
+			if (batch[TO] == range.getEnd()) {
+				assembly.mBatchCount = (int) batch[SEQUENCE] + 1;
+			}
+			final double values = valuesBetween(batch[FROM], batch[TO]);
+			assembly.mValuesCovered += values;
+			valuesInFlight += values;
+
+			if (assembly.isComplete()) {
+				final TaskResult result = assembly.toResult(range.getStart());
+				assemblies[chunk] = null;
+				chunksLeft--;
+				valuesInFlight -= assembly.mValuesCovered;
+				complete(chunk, result, assembly.mStartTime, true);
+				mProgress.record(result);
+			}
+		}
+	}
+
+	/**
+	 * Called by the collector thread for every chunk it is done with, in any
+	 * order: chunks that were completely mined, and chunks stopped early with
+	 * partial results. Chunks the generators never took are left out.
+	 *
+	 * @param chunk
+	 *            the index of the chunk.
+	 * @param result
+	 *            the result of the chunk.
+	 * @param startTime
+	 *            the time the collector received the first batch of the chunk
+	 *            (in nanos).
+	 * @param complete
+	 *            <code>true</code> if the whole chunk was mined.
+	 */
+	protected abstract void complete(int chunk, TaskResult result, long startTime, boolean complete);
+
+	/**
+	 * Called by the collector thread once, instead of {@link #complete} for
+	 * the chunks not complete, if a stage (the collector included) failed.
+	 *
+	 * @param failure
+	 *            the first failure of a stage.
+	 */
+	protected abstract void fail(Throwable failure);
+
+	/**
+	 * Waits for the stage threads to stop, holding back an interruption of
+	 * the current thread until they did.
+	 *
+	 * @param stages
+	 *            the stage threads.
+	 */
+	private void joinStages(final List<Thread> stages) {
+		final boolean interrupted = Thread.interrupted();
+		for (final Thread stage : stages) {
+			while (stage.isAlive()) {
+				try {
+					stage.join();
+				} catch (final InterruptedException e) {
+					// keep waiting, the stages stop by themselves
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the collector in the current thread, after starting the generator
+	 * and filter threads, until all the chunks are complete, or until the
+	 * current thread is interrupted or the deadline of the run passes.
+	 */
+	@Override
+	public void run() {
+		final List<Thread> stages = new ArrayList<Thread>();
+		for (int generator = 0; generator < mCandidates.length; generator++) {
+			stages.add(new Thread(new Generator(mCandidates[generator]), "civicbucks-generator-" + (generator + 1)));
+		}
+		for (int filter = 0; filter < mHits.length; filter++) {
+			final LongRingBuffer[] inputs = new LongRingBuffer[mCandidates.length];
+			for (int generator = 0; generator < mCandidates.length; generator++) {
+				inputs[generator] = mCandidates[generator][filter];
+			}
+			stages.add(new Thread(new Filter(inputs, mHits[filter]), "civicbucks-filter-" + (filter + 1)));
+		}
+		for (final Thread stage : stages) {
+			stage.setDaemon(true);
+			stage.start();
+		}
+
+		final Assembly[] assemblies = new Assembly[mChunks.size()];
+		mProgress.begin();
+		try {
+			collect(assemblies);
+		} catch (final Throwable t) {
+			stop(t);
+		} finally {
+			mStopped = true;
+			joinStages(stages);
+
+			if (mFailure != null) {
+				fail(mFailure);
+			} else {
+				// hand over the chunks stopped early with what they covered
+				for (int chunk = 0; chunk < assemblies.length; chunk++) {
+					if (assemblies[chunk] != null) {
+						final TaskResult result = assemblies[chunk].toResult(mChunks.get(chunk).getStart());
+						complete(chunk, result, assemblies[chunk].mStartTime, false);
+					}
+				}
+			}
+			mProgress.end(null);
+		}
+	}
+
+	/**
+	 * Stops the pipeline because of the failure of a stage, keeping the first
+	 * one.
+	 *
+	 * @param failure
+	 *            the failure.
+	 */
+	private synchronized void stop(final Throwable failure) {
+		if (mFailure == null) {
+			mFailure = failure;
+		}
+		mStopped = true;
+	}
+}
@@ -0,0 +1,424 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instances of this class keep track of the live progress of a
+ * {@link MiningExecutor}, for monitoring a run while it goes (see
+ * {@link MiningExecutorMXBean}).
+ *
+ * Every worker thread counts its own progress in a cell that only that thread
+ * writes to, so counting takes no lock and no atomic instruction; the cells
+ * are added up when the progress is read. The values of a chunk are counted
+ * when its task completes, and {@link MiningAlgorithm} implementations also
+ * publish the values mined so far from their hot loop (see
+ * {@link #checkpoint(long)}), so that long chunks show progress too.
+ *
+ * The same checkpoints tell the tasks when to stop: when their thread is
+ * interrupted, when the deadline of the run has passed (see
+ * {@link #setDeadline(long)}), or when the tasks running were asked to yield
+ * their threads to more urgent work (see {@link #requestYield()}). Checking
+ * every few thousand iterations instead of every single one keeps the hot
+ * loops tight, and a deadline stops all the tasks at once without
+ * interrupting anything.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class MiningProgress {
+
+	/**
+	 * The progress of a single worker thread. Only the owner thread writes to
+	 * it.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private class Cell {
+
+		/**
+		 * The name of the worker thread.
+		 */
+		final String mWorker;
+
+		/**
+		 * The number of values mined by the completed tasks.
+		 */
+		volatile double mValuesDone = 0;
+
+		/**
+		 * The number of values of the current task mined so far, as last
+		 * published by its algorithm.
+		 */
+		volatile long mValuesInFlight = 0;
+
+		/**
+		 * The number of CivicBucks found by the completed tasks.
+		 */
+		volatile long mCivicBucksFound = 0;
+
+		/**
+		 * The number of tasks completed.
+		 */
+		volatile long mChunksDone = 0;
+
+		/**
+		 * The number of yield requests made before the current task started.
+		 */
+		volatile int mYieldRequestsSeen = 0;
+
+		/**
+		 * Creates the cell of the specified worker thread.
+		 *
+		 * @param worker
+		 *            the name of the worker thread.
+		 */
+		Cell(final String worker) {
+			mWorker = worker;
+		}
+
+		/**
+		 * Returns <code>true</code> if the current task must stop: the
+		 * deadline of the run has passed, or it was asked to yield its thread.
+		 */
+		boolean mustStop() {
+			return MiningProgress.this.isPastDeadline() || mYieldRequestsSeen != mYieldRequests;
+		}
+
+		/**
+		 * Returns the number of values mined so far.
+		 */
+		double getValuesMined() {
+			return mValuesDone + mValuesInFlight;
+		}
+	}
+
+	/**
+	 * The mask of the number of iterations between two checkpoints of a hot
+	 * loop (see {@link #checkpoint(long)}): an algorithm checks whether to
+	 * stop whenever the number of iterations so far has none of these bits
+	 * set.
+	 */
+	public static final long CHECKPOINT_MASK = (1 << 14) - 1;
+
+	/**
+	 * The cell of the task run by the current thread, or <code>null</code> if
+	 * the thread is not running a task of a {@link MiningExecutor}.
+	 */
+	private static final ThreadLocal<Cell> CURRENT_CELL = new ThreadLocal<Cell>();
+
+	/**
+	 * The cell of every worker thread that ran a task, in order of their first
+	 * task.
+	 */
+	private final List<Cell> mCells = new CopyOnWriteArrayList<Cell>();
+
+	/**
+	 * The cell of the current thread.
+	 */
+	private final ThreadLocal<Cell> mCell = new ThreadLocal<Cell>() {
+		@Override
+		protected Cell initialValue() {
+			final Cell cell = new Cell(Thread.currentThread().getName());
+			mCells.add(cell);
+			return cell;
+		}
+	};
+
+	/**
+	 * The time mining started (in nanos), valid once {@link #mStarted} is set.
+	 */
+	private volatile long mStartTime;
+
+	/**
+	 * Whether mining has started.
+	 */
+	private volatile boolean mStarted = false;
+
+	/**
+	 * The number of values to mine.
+	 */
+	private volatile double mValuesToMine = 0;
+
+	/**
+	 * The number of tasks to run.
+	 */
+	private volatile long mChunksToMine = 0;
+
+	/**
+	 * The deadline of the run (in nanos), valid once {@link #mHasDeadline} is
+	 * set.
+	 */
+	private volatile long mDeadline;
+
+	/**
+	 * Whether the run has a deadline.
+	 */
+	private volatile boolean mHasDeadline = false;
+
+	/**
+	 * The number of times the tasks running were asked to yield their
+	 * threads. Only written by one thread at a time.
+	 */
+	private volatile int mYieldRequests = 0;
+
+	/**
+	 * Checks whether the task run by the current thread must stop, without
+	 * publishing its progress (see {@link #checkpoint(long)}).
+	 *
+	 * @return <code>true</code> if the task must stop and return its partial
+	 *         results.
+	 */
+	public static boolean checkpoint() {
+		if (Thread.currentThread().isInterrupted()) {
+			return true;
+		}
+
+		final Cell cell = CURRENT_CELL.get();
+		return cell != null && cell.mustStop();
+	}
+
+	/**
+	 * Publishes the number of values mined so far by the task run by the
+	 * current thread, and checks whether it must stop: because the thread is
+	 * interrupted, or the deadline of the run has passed. Meant to be called
+	 * by a {@link MiningAlgorithm} from its hot loop, every
+	 * {@link #CHECKPOINT_MASK} + 1 iterations: it only writes a field of the
+	 * current worker thread. Outside of a task of a {@link MiningExecutor},
+	 * it only checks for interruptions.
+	 *
+	 * @param valuesMined
+	 *            the number of values of the current task mined so far.
+	 * @return <code>true</code> if the task must stop and return its partial
+	 *         results.
+	 */
+	public static boolean checkpoint(final long valuesMined) {
+		if (Thread.currentThread().isInterrupted()) {
+			return true;
+		}
+
+		final Cell cell = CURRENT_CELL.get();
+		if (cell == null) {
+			return false;
+		}
+		if (valuesMined > 0) {
+			cell.mValuesInFlight = valuesMined;
+		}
+
+		return cell.mustStop();
+	}
+
+	/**
+	 * Returns the number of values in the specified range.
+	 *
+	 * @param range
+	 *            a range of values.
+	 * @return the number of values.
+	 */
+	static double sizeOf(final BlockRange range) {
+		return range.getEndValue().subtract(range.getStartValue()).doubleValue() + 1;
+	}
+
+	/**
+	 * Marks the start of the task run by the current thread, so that its
+	 * algorithm can publish its progress (see {@link #checkpoint(long)}).
+	 */
+	void begin() {
+		final Cell cell = mCell.get();
+		cell.mValuesInFlight = 0;
+		cell.mYieldRequestsSeen = mYieldRequests;
+		CURRENT_CELL.set(cell);
+	}
+
+	/**
+	 * Marks the end of the task run by the current thread.
+	 *
+	 * @param result
+	 *            the result of the task, or <code>null</code> if it did not
+	 *            mine its whole chunk.
+	 */
+	void end(final TaskResult result) {
+		CURRENT_CELL.remove();
+		record(result);
+	}
+
+	/**
+	 * Returns the number of tasks completed.
+	 */
+	long getChunksDone() {
+		long chunksDone = 0;
+		for (final Cell cell : mCells) {
+			chunksDone += cell.mChunksDone;
+		}
+
+		return chunksDone;
+	}
+
+	/**
+	 * Returns the number of tasks to run.
+	 */
+	long getChunksToMine() {
+		return mChunksToMine;
+	}
+
+	/**
+	 * Returns the number of CivicBucks found by the tasks completed.
+	 */
+	long getCivicBucksFound() {
+		long civicBucksFound = 0;
+		for (final Cell cell : mCells) {
+			civicBucksFound += cell.mCivicBucksFound;
+		}
+
+		return civicBucksFound;
+	}
+
+	/**
+	 * Returns the time elapsed since mining started (in nanos), or 0 if it has
+	 * not started.
+	 */
+	long getElapsedTime() {
+		return mStarted ? System.nanoTime() - mStartTime : 0;
+	}
+
+	/**
+	 * Returns the number of values mined so far.
+	 */
+	double getValuesMined() {
+		double valuesMined = 0;
+		for (final Cell cell : mCells) {
+			valuesMined += cell.getValuesMined();
+		}
+
+		return valuesMined;
+	}
+
+	/**
+	 * Returns the number of values to mine.
+	 */
+	double getValuesToMine() {
+		return mValuesToMine;
+	}
+
+	/**
+	 * Returns the number of values mined per second by each worker thread
+	 * since mining started, by thread name.
+	 */
+	Map<String, Double> getWorkerRates() {
+		final double elapsedSeconds = getElapsedTime() / (double) TimeUnit.SECONDS.toNanos(1);
+		final Map<String, Double> rates = new LinkedHashMap<String, Double>();
+		for (final Cell cell : mCells) {
+			rates.put(cell.mWorker, (elapsedSeconds > 0) ? cell.getValuesMined() / elapsedSeconds : 0.0);
+		}
+
+		return Collections.unmodifiableMap(rates);
+	}
+
+	/**
+	 * Returns <code>true</code> if the deadline of the run has passed.
+	 */
+	boolean isPastDeadline() {
+		return mHasDeadline && System.nanoTime() - mDeadline >= 0;
+	}
+
+	/**
+	 * Counts a chunk completed by the current thread, which may go on with
+	 * other chunks (e.g. the collector of a {@link MiningPipeline}), and
+	 * clears the values it published as in flight.
+	 *
+	 * @param result
+	 *            the result of the chunk, or <code>null</code> if it did not
+	 *            mine its whole chunk.
+	 */
+	void record(final TaskResult result) {
+		final Cell cell = mCell.get();
+		if (result != null) {
+			final BlockRange mined = result.getCoveredRange();
+			cell.mValuesDone = cell.mValuesDone + sizeOf(mined);
+			cell.mCivicBucksFound = cell.mCivicBucksFound + result.getCivicBucksTotal();
+			cell.mChunksDone = cell.mChunksDone + 1;
+		}
+		cell.mValuesInFlight = 0;
+	}
+
+	/**
+	 * Asks the tasks running to stop at their next checkpoint with partial
+	 * results, so that their threads can take more urgent work; the tasks
+	 * started afterwards are not affected. Called by one thread at a time,
+	 * e.g. holding the monitor of a {@link MiningScheduler}.
+	 */
+	void requestYield() {
+		mYieldRequests = mYieldRequests + 1;
+	}
+
+	/**
+	 * Returns <code>true</code> if the task run by the current thread was
+	 * asked to yield its thread since it started (see {@link #requestYield()}).
+	 */
+	boolean isYieldRequested() {
+		return mCell.get().mYieldRequestsSeen != mYieldRequests;
+	}
+
+	/**
+	 * Counts one more chunk to mine, e.g. the rest of a chunk that yielded its
+	 * thread. Called by one thread at a time.
+	 */
+	void addChunk() {
+		mChunksToMine = mChunksToMine + 1;
+	}
+
+	/**
+	 * Sets the deadline of the run: tasks stop at their next checkpoint once
+	 * it has passed, and tasks that have not started by then do not start.
+	 *
+	 * @param deadline
+	 *            the deadline, as a value of {@link System#nanoTime()}.
+	 */
+	void setDeadline(final long deadline) {
+		mDeadline = deadline;
+		mHasDeadline = true;
+	}
+
+	/**
+	 * Marks the start of mining.
+	 *
+	 * @param chunksToMine
+	 *            the number of tasks to run.
+	 * @param valuesToMine
+	 *            the number of values to mine.
+	 */
+	void start(final long chunksToMine, final double valuesToMine) {
+		mChunksToMine = chunksToMine;
+		mValuesToMine = valuesToMine;
+		mStartTime = System.nanoTime();
+		mStarted = true;
+	}
+}
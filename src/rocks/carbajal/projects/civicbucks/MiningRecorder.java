@@ -0,0 +1,345 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records timed events of a run for profiling it in production: the chunks
+ * run by the executor, the time spent in the kernels of the algorithms, the
+ * time spent formatting results and the time spent waiting for them.
+ *
+ * Every type of event is enabled on its own with a system property, read
+ * once, so that a disabled event costs a single constant check:
+ *
+ * <pre>
+ * -Dcivicbucks.events=chunk,kernel,format,wait (or all)
+ * -Dcivicbucks.events.file=civicbucks-events.csv
+ * </pre>
+ *
+ * The events are kept in memory (up to {@link #MAX_EVENTS} of them) and
+ * written out as CSV when the JVM exits, one line per event with its type,
+ * thread, start time, duration, range, values covered and CivicBucks found.
+ * Start times are the uptime of the JVM, just like the timestamps of its GC
+ * log (<code>-Xlog:gc</code> or <code>-XX:+PrintGCTimeStamps</code>), so
+ * that stragglers can be told apart from the chunks that ran into a GC pause.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class MiningRecorder {
+
+	/**
+	 * A recorded event.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class Event {
+
+		/**
+		 * The type of the event.
+		 */
+		final String mType;
+
+		/**
+		 * The name of the thread that recorded the event.
+		 */
+		final String mThread;
+
+		/**
+		 * The start of the event (in nanos, see {@link System#nanoTime()}).
+		 */
+		final long mStartTime;
+
+		/**
+		 * The duration of the event (in nanos).
+		 */
+		final long mDuration;
+
+		/**
+		 * The range of the event, or <code>null</code>.
+		 */
+		final BlockRange mRange;
+
+		/**
+		 * The number of values covered.
+		 */
+		final double mValues;
+
+		/**
+		 * The number of CivicBucks found or handled.
+		 */
+		final long mCivicBucks;
+
+		/**
+		 * Creates an event.
+		 *
+		 * @param type
+		 *            the type of the event.
+		 * @param startTime
+		 *            the start of the event (in nanos).
+		 * @param duration
+		 *            the duration of the event (in nanos).
+		 * @param range
+		 *            the range of the event, or <code>null</code>.
+		 * @param values
+		 *            the number of values covered.
+		 * @param civicBucks
+		 *            the number of CivicBucks found or handled.
+		 */
+		Event(final String type, final long startTime, final long duration, final BlockRange range,
+				final double values, final long civicBucks) {
+			mType = type;
+			mThread = Thread.currentThread().getName();
+			mStartTime = startTime;
+			mDuration = duration;
+			mRange = range;
+			mValues = values;
+			mCivicBucks = civicBucks;
+		}
+	}
+
+	/**
+	 * A chunk run by the executor, from its start to the end of its result
+	 * handling (journal, store, writer), with its planned range.
+	 */
+	static final String CHUNK = "chunk";
+
+	/**
+	 * The run of an algorithm over a chunk, with the range it covered.
+	 */
+	static final String KERNEL = "kernel";
+
+	/**
+	 * The formatting of the CivicBucks of a chunk by the writer.
+	 */
+	static final String FORMAT = "format";
+
+	/**
+	 * A wait for results: of the writer for the next chunk in order, or of a
+	 * mining thread for a listener to catch up.
+	 */
+	static final String WAIT = "wait";
+
+	/**
+	 * The maximum number of events kept; further events are dropped and only
+	 * counted.
+	 */
+	static final int MAX_EVENTS = 1000000;
+
+	/**
+	 * The types of events enabled by the system property.
+	 */
+	private static final List<String> ENABLED = Arrays
+			.asList(System.getProperty("civicbucks.events", "").toLowerCase().split("\\s*,\\s*"));
+
+	/**
+	 * Whether chunk events are recorded.
+	 */
+	static final boolean CHUNK_ENABLED = isEnabled(CHUNK);
+
+	/**
+	 * Whether kernel events are recorded.
+	 */
+	static final boolean KERNEL_ENABLED = isEnabled(KERNEL);
+
+	/**
+	 * Whether format events are recorded.
+	 */
+	static final boolean FORMAT_ENABLED = isEnabled(FORMAT);
+
+	/**
+	 * Whether wait events are recorded.
+	 */
+	static final boolean WAIT_ENABLED = isEnabled(WAIT);
+
+	/**
+	 * The uptime of the JVM (in millis) at {@link #START_NANOS}.
+	 */
+	private static final long START_UPTIME = ManagementFactory.getRuntimeMXBean().getUptime();
+
+	/**
+	 * The time this class was loaded (in nanos), to turn event times into
+	 * uptime.
+	 */
+	private static final long START_NANOS = System.nanoTime();
+
+	/**
+	 * The events recorded so far.
+	 */
+	private static final Queue<Event> EVENTS = new ConcurrentLinkedQueue<Event>();
+
+	/**
+	 * The number of events recorded so far, including dropped ones.
+	 */
+	private static final AtomicInteger COUNT = new AtomicInteger();
+
+	/**
+	 * The start of the chunk run by the current thread (in nanos).
+	 */
+	private static final ThreadLocal<long[]> CHUNK_START = new ThreadLocal<long[]>() {
+
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	static {
+		if (CHUNK_ENABLED || KERNEL_ENABLED || FORMAT_ENABLED || WAIT_ENABLED) {
+			final String file = System.getProperty("civicbucks.events.file", "civicbucks-events.csv");
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					dump(file);
+				}
+			}, "civicbucks-recorder"));
+		}
+	}
+
+	/**
+	 * This class is not meant to be instantiated.
+	 */
+	private MiningRecorder() {
+	}
+
+	/**
+	 * Records the end of the chunk run by the current thread (see
+	 * {@link #chunkStarted()}). Only call it if {@link #CHUNK_ENABLED}.
+	 *
+	 * @param chunk
+	 *            the planned range of the chunk, or <code>null</code>.
+	 * @param result
+	 *            the result of the chunk, or <code>null</code> if it did not
+	 *            complete.
+	 */
+	static void chunkEnded(final BlockRange chunk, final TaskResult result) {
+		final long startTime = CHUNK_START.get()[0];
+		record(CHUNK, startTime, chunk, result);
+	}
+
+	/**
+	 * Records the start of the chunk run by the current thread. Only call it
+	 * if {@link #CHUNK_ENABLED}.
+	 */
+	static void chunkStarted() {
+		CHUNK_START.get()[0] = System.nanoTime();
+	}
+
+	/**
+	 * Writes out the events recorded so far as CSV.
+	 *
+	 * @param file
+	 *            the file to write to.
+	 */
+	static void dump(final String file) {
+		try (final PrintWriter output = new PrintWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			output.println("event,thread,start_millis,duration_micros,range_start,range_end,values,civicbucks");
+			for (final Event event : EVENTS) {
+				output.println(event.mType + "," + event.mThread + ","
+						+ String.format("%.3f,%.3f", START_UPTIME + (event.mStartTime - START_NANOS) / 1e6,
+								event.mDuration / 1e3)
+						+ "," + ((event.mRange == null) ? "," : event.mRange.getStartValue() + ","
+								+ event.mRange.getEndValue())
+						+ "," + String.format("%.0f", event.mValues) + "," + event.mCivicBucks);
+			}
+			final int dropped = COUNT.get() - MAX_EVENTS;
+			if (dropped > 0) {
+				output.println("# " + dropped + " events dropped");
+			}
+		} catch (final IOException e) {
+			System.err.println("Unable to write the events to " + file + " (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Tells whether a type of events is enabled by the system property.
+	 *
+	 * @param type
+	 *            the type of events.
+	 * @return <code>true</code> if it is enabled.
+	 */
+	private static boolean isEnabled(final String type) {
+		return ENABLED.contains(type) || ENABLED.contains("all");
+	}
+
+	/**
+	 * Records an event that ends now.
+	 *
+	 * @param type
+	 *            the type of the event.
+	 * @param startTime
+	 *            the start of the event (in nanos, see
+	 *            {@link System#nanoTime()}).
+	 * @param range
+	 *            the range of the event, or <code>null</code>.
+	 * @param values
+	 *            the number of values covered.
+	 * @param civicBucks
+	 *            the number of CivicBucks found or handled.
+	 */
+	static void record(final String type, final long startTime, final BlockRange range, final double values,
+			final long civicBucks) {
+		final long duration = System.nanoTime() - startTime;
+		if (COUNT.incrementAndGet() <= MAX_EVENTS) {
+			EVENTS.add(new Event(type, startTime, duration, range, values, civicBucks));
+		}
+	}
+
+	/**
+	 * Records an event that ends now with the result of a chunk.
+	 *
+	 * @param type
+	 *            the type of the event.
+	 * @param startTime
+	 *            the start of the event (in nanos, see
+	 *            {@link System#nanoTime()}).
+	 * @param range
+	 *            the range of the event, or <code>null</code> for the range
+	 *            covered by the result.
+	 * @param result
+	 *            the result of the chunk, or <code>null</code> if there is
+	 *            none.
+	 */
+	static void record(final String type, final long startTime, final BlockRange range, final TaskResult result) {
+		final BlockRange covered = (result == null) ? null : result.getCoveredRange();
+		record(type, startTime, (range == null) ? covered : range,
+				(covered == null) ? 0 : MiningProgress.sizeOf(covered),
+				(result == null) ? 0 : result.getCivicBucksTotal());
+	}
+}
@@ -0,0 +1,468 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several block jobs (see {@link MiningJob}) at once on a fixed pool of
+ * threads, handing out their chunks one at a time so that a small job does
+ * not wait behind a large one for longer than a chunk. A job of a higher
+ * priority does not even wait for that: if all the threads are busy when it
+ * is submitted, the running chunks of the job of the lowest priority yield
+ * their threads at their next checkpoint, and the rest of every one of them is
+ * queued again (see {@link ScheduledJob#preempt()}).
+ *
+ * Every time a thread is free, it takes the next chunk of the job that comes
+ * first:
+ * <ul>
+ * <li>jobs of a higher priority come before all the others;</li>
+ * <li>among the jobs of the same priority, the one that used the least time
+ * for its share comes first (stride scheduling): a job with a share of 2 gets
+ * about twice the time of a job with a share of 1, and a new job starts level
+ * with the others rather than catching up with the time they already used.</li>
+ * </ul>
+ *
+ * A job whose deadline passes, or that is cancelled (see
+ * {@link ScheduledJob#cancel()}), gives up its chunks that have not started,
+ * and its running ones stop at their next checkpoint (see
+ * {@link MiningProgress#checkpoint(long)}), so its threads are free for the
+ * other jobs right away. Its results then tell which parts of it were covered.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class MiningScheduler {
+
+	/**
+	 * The time charged for a chunk of a job before any of them completes (in
+	 * nanos).
+	 */
+	private static final long INITIAL_CHUNK_ESTIMATE = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * The number of threads in the pool.
+	 */
+	private final int mParallelism;
+
+	/**
+	 * The jobs that are not done yet, in order of submission.
+	 */
+	private final List<ScheduledJob> mJobs = new ArrayList<ScheduledJob>();
+
+	/**
+	 * The jobs that are done but whose completion was not run yet.
+	 */
+	private final List<ScheduledJob> mFinished = new ArrayList<ScheduledJob>();
+
+	/**
+	 * The algorithm picked for {@link MiningMode#AUTO} by the number of
+	 * decimal digits of the end of a job. Guarded by its own monitor, so that
+	 * calibrating does not hold up the threads.
+	 */
+	private final Map<Integer, MiningAlgorithm> mCalibrated = new HashMap<Integer, MiningAlgorithm>();
+
+	/**
+	 * Whether the scheduler was shut down.
+	 */
+	private boolean mShutdown = false;
+
+	/**
+	 * The number of threads mining a chunk.
+	 */
+	private int mBusy = 0;
+
+	/**
+	 * Creates a scheduler with a fixed number of threads. The threads will
+	 * exist until the scheduler is explicitly {@link #shutdown shutdown}.
+	 *
+	 * @param numberOfThreads
+	 *            the number of threads in the pool.
+	 * @throws IllegalArgumentException
+	 *             if the number of threads is lower than 1.
+	 */
+	public MiningScheduler(final int numberOfThreads) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least 1.");
+		}
+
+		mParallelism = numberOfThreads;
+		for (int index = 0; index < numberOfThreads; index++) {
+			final Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "scheduler-worker-" + index);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Waits until every job submitted so far is done.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (!mJobs.isEmpty()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Cancels a job (see {@link ScheduledJob#cancel()}).
+	 *
+	 * @param job
+	 *            the job to cancel.
+	 * @return <code>false</code> if the job was already done.
+	 */
+	boolean cancel(final ScheduledJob job) {
+		final List<ScheduledJob> finished;
+		synchronized (this) {
+			if (!mJobs.contains(job)) {
+				return false;
+			}
+
+			job.markCancelled();
+			if (job.mRunning == 0) {
+				finish(job);
+			}
+			finished = drainFinished();
+		}
+		runCompletions(finished);
+
+		return true;
+	}
+
+	/**
+	 * Takes the jobs that are done but whose completion was not run yet.
+	 * Called holding the monitor of this scheduler.
+	 *
+	 * @return the jobs.
+	 */
+	private List<ScheduledJob> drainFinished() {
+		if (mFinished.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		final List<ScheduledJob> finished = new ArrayList<ScheduledJob>(mFinished);
+		mFinished.clear();
+
+		return finished;
+	}
+
+	/**
+	 * Marks a job as done, once none of its chunks is left to run or running.
+	 * Called holding the monitor of this scheduler.
+	 *
+	 * @param job
+	 *            the job.
+	 */
+	private void finish(final ScheduledJob job) {
+		job.markDone();
+		mJobs.remove(job);
+		mFinished.add(job);
+		notifyAll();
+	}
+
+	/**
+	 * Returns the job with the specified id that is not done yet, or
+	 * <code>null</code> if there is none.
+	 *
+	 * @param id
+	 *            the id of the job.
+	 * @return the job, or <code>null</code>.
+	 */
+	public synchronized ScheduledJob getJob(final String id) {
+		for (final ScheduledJob job : mJobs) {
+			if (job.getId().equals(id)) {
+				return job;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the number of jobs that are not done yet.
+	 */
+	public synchronized int getJobsPending() {
+		return mJobs.size();
+	}
+
+	/**
+	 * Returns the number of threads in the pool.
+	 */
+	public int getParallelism() {
+		return mParallelism;
+	}
+
+	/**
+	 * Picks the job to take the next chunk from, and gives up the remaining
+	 * chunks of the jobs whose deadline passed. Called holding the monitor of
+	 * this scheduler.
+	 *
+	 * @return the job, or <code>null</code> if no job has chunks left.
+	 */
+	private ScheduledJob nextJob() {
+		ScheduledJob next = null;
+		for (int index = 0; index < mJobs.size(); index++) {
+			final ScheduledJob job = mJobs.get(index);
+			if (!job.hasTasksLeft()) {
+				continue;
+			}
+			if (job.isPastDeadline()) {
+				job.mNextTask = job.getTaskCount();
+				if (job.mRunning == 0) {
+					finish(job);
+					index--;
+				}
+				continue;
+			}
+
+			final int priority = job.getJob().getPriority();
+			if (next == null || priority > next.getJob().getPriority()
+					|| (priority == next.getJob().getPriority() && job.mPass < next.mPass)) {
+				next = job;
+			}
+		}
+
+		return next;
+	}
+
+	/**
+	 * Makes room for a job just submitted if all the threads are busy: the job
+	 * of the lowest priority below its own that has chunks running yields
+	 * their threads. Called holding the monitor of this scheduler.
+	 *
+	 * @param job
+	 *            the job just submitted.
+	 */
+	private void preemptFor(final ScheduledJob job) {
+		if (mBusy < mParallelism) {
+			// a free thread takes it right away
+			return;
+		}
+
+		ScheduledJob lowest = null;
+		for (final ScheduledJob other : mJobs) {
+			if (other.mRunning > 0 && other.getJob().getPriority() < job.getJob().getPriority()
+					&& (lowest == null || other.getJob().getPriority() < lowest.getJob().getPriority())) {
+				lowest = other;
+			}
+		}
+		if (lowest != null) {
+			lowest.preempt();
+		}
+	}
+
+	/**
+	 * Runs the completion of the jobs that are done, without holding the
+	 * monitor of this scheduler.
+	 *
+	 * @param finished
+	 *            the jobs.
+	 */
+	private void runCompletions(final List<ScheduledJob> finished) {
+		for (final ScheduledJob job : finished) {
+			try {
+				job.whenDone();
+			} catch (final RuntimeException e) {
+				// a failed completion must not take the thread down
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Returns the algorithm for mining the chunks of a job within the limit of
+	 * type long: the algorithm of its mode, or for {@link MiningMode#AUTO},
+	 * the fastest one on this machine for blocks with as many decimal digits
+	 * as the end of the job, calibrated on the first such job.
+	 *
+	 * @param job
+	 *            the job to mine.
+	 * @return the algorithm.
+	 */
+	private MiningAlgorithm selectAlgorithm(final MiningJob job) {
+		if (job.getMode() != MiningMode.AUTO) {
+			return job.getMode().getAlgorithm();
+		}
+
+		final List<BlockRange> ranges = job.getRanges();
+		final BigInteger start = ranges.get(0).getStartValue();
+		final BigInteger end = ranges.get(ranges.size() - 1).getEndValue();
+		final Integer digits = Integer.valueOf(end.abs().toString().length());
+		synchronized (mCalibrated) {
+			MiningAlgorithm algorithm = mCalibrated.get(digits);
+			if (algorithm == null) {
+				algorithm = AlgorithmCalibrator.calibrate(start, end);
+				mCalibrated.put(digits, algorithm);
+			}
+
+			return algorithm;
+		}
+	}
+
+	/**
+	 * Stops taking jobs. The jobs submitted so far are still run, and the
+	 * threads end once they are done.
+	 */
+	public synchronized void shutdown() {
+		mShutdown = true;
+		notifyAll();
+	}
+
+	/**
+	 * Submits a job, to be mined along with the other jobs (see the class
+	 * description).
+	 *
+	 * @param job
+	 *            the job to mine.
+	 * @return the job as scheduled, to wait for or cancel.
+	 * @throws RejectedExecutionException
+	 *             if the scheduler was shut down.
+	 */
+	public ScheduledJob submit(final MiningJob job) {
+		return submit(job, null);
+	}
+
+	/**
+	 * Submits a job, to be mined along with the other jobs (see the class
+	 * description), and runs something once it is done.
+	 *
+	 * @param job
+	 *            the job to mine.
+	 * @param whenDone
+	 *            what to run once the job is done, in one of the threads of
+	 *            the pool or in the thread that cancels it, or
+	 *            <code>null</code>.
+	 * @return the job as scheduled, to wait for or cancel.
+	 * @throws RejectedExecutionException
+	 *             if the scheduler was shut down.
+	 */
+	public ScheduledJob submit(final MiningJob job, final Runnable whenDone) {
+		final RangePartitioner partitioner = new RangePartitioner(job.getMinChunkSize());
+		final MiningAlgorithm algorithm = selectAlgorithm(job);
+		final List<Callable<TaskResult>> tasks = new ArrayList<Callable<TaskResult>>();
+		for (final BlockRange range : job.getRanges()) {
+			for (final BlockRange chunk : partitioner.partitionByTier(range.getStartValue(), range.getEndValue(),
+					mParallelism)) {
+				tasks.add(MiningExecutor.createMiningTask(chunk, algorithm, job.getMode()));
+			}
+		}
+
+		synchronized (this) {
+			if (mShutdown) {
+				throw new RejectedExecutionException("The scheduler was shut down.");
+			}
+
+			final ScheduledJob scheduledJob = new ScheduledJob(this, job, tasks, algorithm, INITIAL_CHUNK_ESTIMATE,
+					whenDone);
+			// start level with the jobs of the same priority
+			boolean first = true;
+			for (final ScheduledJob other : mJobs) {
+				if (other.getJob().getPriority() == job.getPriority() && (first || other.mPass < scheduledJob.mPass)) {
+					scheduledJob.mPass = other.mPass;
+					first = false;
+				}
+			}
+			mJobs.add(scheduledJob);
+			preemptFor(scheduledJob);
+			notifyAll();
+
+			return scheduledJob;
+		}
+	}
+
+	/**
+	 * Takes chunks and mines them until the scheduler is shut down and all its
+	 * jobs are done.
+	 */
+	private void work() {
+		while (true) {
+			ScheduledJob job;
+			final int index;
+			final long charge;
+			List<ScheduledJob> finished;
+			synchronized (this) {
+				job = nextJob();
+				while (job == null && mFinished.isEmpty()) {
+					if (mShutdown && mJobs.isEmpty()) {
+						return;
+					}
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						// only the scheduler itself stops its threads
+					}
+					job = nextJob();
+				}
+				finished = drainFinished();
+				if (job == null) {
+					index = -1;
+					charge = 0;
+				} else {
+					index = job.mNextTask++;
+					job.mRunning++;
+					mBusy++;
+					// charge the chunk up front, so that the next thread does not pick the same job blindly
+					charge = job.mChunkEstimate / job.getJob().getShare();
+					job.mPass += charge;
+					job.recordStart();
+				}
+			}
+			runCompletions(finished);
+			if (job == null) {
+				continue;
+			}
+
+			final long startTime = System.nanoTime();
+			job.runTask(index);
+			final long elapsedTime = System.nanoTime() - startTime;
+
+			synchronized (this) {
+				job.mRunning--;
+				mBusy--;
+				job.mPass += elapsedTime / job.getJob().getShare() - charge;
+				job.recordChunkTime(elapsedTime);
+				if (!job.hasTasksLeft() && job.mRunning == 0) {
+					finish(job);
+				}
+				finished = drainFinished();
+			}
+			runCompletions(finished);
+		}
+	}
+}
@@ -23,139 +23,356 @@
  */
 package rocks.carbajal.projects.civicbucks;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Instances of this class represent statistics generated by the
  * {@link MiningExecutor}.
  *
+ * The duration of every task is measured with {@link System#nanoTime()} and
+ * recorded in a histogram with logarithmic buckets: each power of two is split
+ * in {@value #SUB_BUCKETS} buckets, so any percentile is known within 1/
+ * {@value #SUB_BUCKETS} of its value, whatever its magnitude. Every thread
+ * records in its own histogram, which only that thread writes to, so no lock
+ * is taken while tasks run; the histograms are merged when the statistics are
+ * read.
+ *
+ * Only the tasks that mined their whole chunk are recorded: tasks that are
+ * interrupted, cancelled or that fail are counted as incomplete, and tasks
+ * that never finish are left out.
+ *
  * @author Pablo A. Carbajal
  *
  */
 public class MiningStatistics {
 
 	/**
-	 * Statistical data unit for holding statistics of a single task.
+	 * The histogram and counters of a single thread. Only the owner thread
+	 * writes to them, so plain volatile writes (and ordered writes for the
+	 * buckets) are enough to publish them to the readers.
 	 *
 	 * @author Pablo A. Carbajal
 	 *
 	 */
-	private class StatisticalData {
+	private static class Recorder {
 
 		/**
-		 * The start time of a single task.
+		 * The number of tasks recorded in each bucket.
 		 */
-		final private long mStartTime;
+		final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
 
 		/**
-		 * The end time of a single task.
+		 * The start time of the current task (in nanos), only read by the
+		 * owner thread.
 		 */
-		private long mEndTime = 0;
+		long mStartTime;
 
 		/**
-		 * Creates a new instance of a statistic data unit for a single task.
-		 *
-		 * @param taskName
-		 *            Name of the task that generated the statistic data.
-		 * @param startTimeMillis
-		 *            Start time of the task in millis.
+		 * The start time of the first task recorded (in nanos).
 		 */
-		StatisticalData(final String taskName, final long startTimeMillis) {
-			mStartTime = startTimeMillis;
-		}
+		volatile long mFirstStartTime;
 
 		/**
-		 * Returns the duration of the a task.
+		 * The end time of the last task recorded (in nanos).
 		 */
-		long getDuration() {
-			// TODO Assumes all tasks are done, need to check for incomplete
-			// cases.
-			return mEndTime - mStartTime;
-		}
+		volatile long mLastEndTime;
 
 		/**
-		 * @param millis
+		 * The number of tasks recorded.
 		 */
-		void setEndTime(final long millis) {
-			mEndTime = millis;
+		volatile long mCompleted = 0;
+
+		/**
+		 * The number of tasks that did not mine their whole chunk.
+		 */
+		volatile long mIncomplete = 0;
+
+		/**
+		 * The sum of the durations of all tasks recorded (in nanos).
+		 */
+		volatile long mTotalTime = 0;
+
+		/**
+		 * The max duration of a task recorded (in nanos).
+		 */
+		volatile long mMaxTime = 0;
+
+		/**
+		 * The number of values mined by all tasks recorded.
+		 */
+		volatile double mValuesMined = 0;
+
+		/**
+		 * Records a task that mined its whole chunk, started at
+		 * {@link #mStartTime}.
+		 *
+		 * @param endTime
+		 *            the end time of the task (in nanos).
+		 * @param valuesMined
+		 *            the number of values mined by the task.
+		 */
+		void record(final long endTime, final double valuesMined) {
+			final long duration = Math.max(0, endTime - mStartTime);
+			final int bucket = bucketOf(duration);
+			mBuckets.lazySet(bucket, mBuckets.get(bucket) + 1);
+
+			if (mCompleted == 0) {
+				mFirstStartTime = mStartTime;
+			}
+			mLastEndTime = endTime;
+			mTotalTime = mTotalTime + duration;
+			if (duration > mMaxTime) {
+				mMaxTime = duration;
+			}
+			mValuesMined = mValuesMined + valuesMined;
+			mCompleted = mCompleted + 1;
 		}
 	}
 
 	/**
-	 * This field holds a map of statistics for each task, where the key is the
-	 * task name and the value is the task's statistical data.
+	 * The number of buckets every power of two is split in (a power of two).
 	 */
-	// The implementation is ConcurrentHashMap for thread-safe operations
-	final Map<String, StatisticalData> mStatisticsCollector = new ConcurrentHashMap<>();
+	static final int SUB_BUCKETS = 16;
 
 	/**
-	 * Calling this method marks the specified task as completed at the time of
-	 * the call.
+	 * The number of bits of a duration that select its bucket within its
+	 * power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+	/**
+	 * The number of buckets of a histogram: durations below
+	 * {@link #SUB_BUCKETS} get a bucket each, and every power of two above
+	 * gets {@link #SUB_BUCKETS} buckets.
+	 */
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/**
+	 * The recorder of every thread that ran a task, for merging their
+	 * histograms. Threads are only added the first time they run a task.
+	 */
+	private final List<Recorder> mRecorders = new CopyOnWriteArrayList<Recorder>();
+
+	/**
+	 * The recorder of the current thread.
+	 */
+	private final ThreadLocal<Recorder> mRecorder = new ThreadLocal<Recorder>() {
+		@Override
+		protected Recorder initialValue() {
+			final Recorder recorder = new Recorder();
+			mRecorders.add(recorder);
+			return recorder;
+		}
+	};
+
+	/**
+	 * Returns the bucket of the specified duration.
 	 *
-	 * @param taskName
-	 *            Name of the task to mark as completed.
+	 * @param duration
+	 *            a duration (in nanos), not negative.
+	 * @return the index of the bucket.
 	 */
-	public void end(final String taskName) {
-		final StatisticalData taskData = mStatisticsCollector.get(taskName);
-		taskData.setEndTime(System.currentTimeMillis());
+	static int bucketOf(final long duration) {
+		if (duration < SUB_BUCKETS) {
+			return (int) duration;
+		}
+
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(duration);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((duration >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the highest duration recorded in the specified bucket.
+	 *
+	 * @param bucket
+	 *            the index of the bucket.
+	 * @return the highest duration of the bucket (in nanos).
+	 */
+	static long highestOf(final int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + ((1L << shift) - 1);
 	}
 
 	/**
-	 * Returns the max time taken by a computation (in millis).
+	 * Calling this method marks the task run by the current thread as
+	 * completed at the time of the call, having mined its whole chunk.
+	 *
+	 * @param minedRange
+	 *            the range mined by the task.
+	 */
+	public void end(final BlockRange minedRange) {
+		final long endTime = System.nanoTime();
+		mRecorder.get().record(endTime, MiningProgress.sizeOf(minedRange));
+	}
+
+	/**
+	 * Calling this method marks a task as completed at the time of the call,
+	 * having mined its whole chunk, for tasks that do not run on a single
+	 * thread from start to end (e.g. the chunks of a {@link MiningPipeline},
+	 * recorded by its collector thread).
+	 *
+	 * @param startTime
+	 *            the start time of the task (in nanos).
+	 * @param minedRange
+	 *            the range mined by the task.
+	 */
+	public void end(final long startTime, final BlockRange minedRange) {
+		final long endTime = System.nanoTime();
+		final Recorder recorder = mRecorder.get();
+		recorder.mStartTime = startTime;
+		recorder.record(endTime, MiningProgress.sizeOf(minedRange));
+	}
+
+	/**
+	 * Calling this method marks the task run by the current thread as
+	 * incomplete, so that it is left out of the statistics.
+	 */
+	public void endIncomplete() {
+		final Recorder recorder = mRecorder.get();
+		recorder.mIncomplete = recorder.mIncomplete + 1;
+	}
+
+	/**
+	 * Returns the number of tasks recorded, i.e. the tasks that mined their
+	 * whole chunk.
+	 */
+	public long getCompletedTasks() {
+		long completed = 0;
+		for (final Recorder recorder : mRecorders) {
+			completed += recorder.mCompleted;
+		}
+
+		return completed;
+	}
+
+	/**
+	 * Returns the number of tasks that ended without mining their whole chunk.
+	 */
+	public long getIncompleteTasks() {
+		long incomplete = 0;
+		for (final Recorder recorder : mRecorders) {
+			incomplete += recorder.mIncomplete;
+		}
+
+		return incomplete;
+	}
+
+	/**
+	 * Returns the max time taken by a computation (in nanos).
 	 */
 	public long getMaxTime() {
-		/*
-		 * The max time is calculated by iterating over the entire statistical
-		 * collection and keeping track of the highest duration value.
-		 */
 		long maxTime = 0;
-		final Iterator<Entry<String, StatisticalData>> iterator = mStatisticsCollector.entrySet().iterator();
-		while (iterator.hasNext()) {
-			final Entry<String, StatisticalData> pair = iterator.next();
-			final StatisticalData data = pair.getValue();
-
-			// if we found a higher value, keep it
-			if (maxTime < data.getDuration()) {
-				maxTime = data.getDuration();
-			}
+		for (final Recorder recorder : mRecorders) {
+			maxTime = Math.max(maxTime, recorder.mMaxTime);
 		}
 
 		return maxTime;
 	}
 
 	/**
-	 * Returns the mean computation time of all computations in millis.
+	 * Returns the mean computation time of all computations in nanos.
 	 */
 	public long getMeanTime() {
 		/*
-		 * Find the mean by adding up the duration from the entire statistical
-		 * collection and, at the end, divide it by the total number of
-		 * computations.
+		 * Nothing may have been computed at all, e.g. if the whole block was
+		 * already covered by a store.
 		 */
+		long completed = 0;
 		long cumulativeTime = 0;
-		final Iterator<Entry<String, StatisticalData>> iterator = mStatisticsCollector.entrySet().iterator();
-		while (iterator.hasNext()) {
-			final Entry<String, StatisticalData> pair = iterator.next();
-			final StatisticalData data = pair.getValue();
-			cumulativeTime += data.getDuration();
+		for (final Recorder recorder : mRecorders) {
+			completed += recorder.mCompleted;
+			cumulativeTime += recorder.mTotalTime;
 		}
 
-		// TODO assumes all tasks have completed... should ignore incomplete
-		// tasks
-		return cumulativeTime / mStatisticsCollector.size();
+		return (completed == 0) ? 0 : cumulativeTime / completed;
 	}
 
 	/**
-	 * Calling this method marks the start of the specified task.
+	 * Returns the computation time (in nanos) that the specified percentage of
+	 * the computations did not exceed, within 1/{@value #SUB_BUCKETS} of its
+	 * value.
 	 *
-	 * @param taskName
-	 *            Name of the task to mark as completed.
+	 * @param percentile
+	 *            the percentage of computations, from 0 to 100.
+	 * @return the computation time at the percentile (in nanos), or 0 if
+	 *         nothing was computed.
+	 * @throws IllegalArgumentException
+	 *             if the percentile is not from 0 to 100.
+	 */
+	public long getPercentileTime(final double percentile) {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+
+		// merge the histograms of all threads
+		final long[] buckets = new long[BUCKETS];
+		long total = 0;
+		for (final Recorder recorder : mRecorders) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				final long count = recorder.mBuckets.get(bucket);
+				buckets[bucket] += count;
+				total += count;
+			}
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		// the rank of the computation at the percentile, starting from 1
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		int bucket = 0;
+		while (seen + buckets[bucket] < rank) {
+			seen += buckets[bucket];
+			bucket++;
+		}
+
+		return Math.min(highestOf(bucket), getMaxTime());
+	}
+
+	/**
+	 * Returns the number of values mined per second, from the start of the
+	 * first computation to the end of the last one.
+	 */
+	public double getThroughput() {
+		long firstStartTime = 0;
+		long lastEndTime = 0;
+		double valuesMined = 0;
+		boolean any = false;
+		for (final Recorder recorder : mRecorders) {
+			if (recorder.mCompleted == 0) {
+				continue;
+			}
+
+			// compare nano times by their difference, they may overflow
+			if (!any || recorder.mFirstStartTime - firstStartTime < 0) {
+				firstStartTime = recorder.mFirstStartTime;
+			}
+			if (!any || recorder.mLastEndTime - lastEndTime > 0) {
+				lastEndTime = recorder.mLastEndTime;
+			}
+			valuesMined += recorder.mValuesMined;
+			any = true;
+		}
+
+		final long elapsedTime = lastEndTime - firstStartTime;
+		return (elapsedTime <= 0) ? 0 : valuesMined * TimeUnit.SECONDS.toNanos(1) / elapsedTime;
+	}
+
+	/**
+	 * Calling this method marks the start of the task run by the current
+	 * thread.
 	 */
-	public void start(final String taskName) {
-		final StatisticalData taskData = new StatisticalData(taskName, System.currentTimeMillis());
-		mStatisticsCollector.put(taskName, taskData);
+	public void start() {
+		mRecorder.get().mStartTime = System.nanoTime();
 	}
-}
\ No newline at end of file
+}
@@ -27,18 +27,14 @@ import java.util.concurrent.Callable;
 
 /**
  * A {@link Callable} task for performing mining computations. This class
- * executes the algorithm for finding CivicBucks (Palindromes).
+ * adapts a {@link MiningAlgorithm} for finding CivicBucks (Palindromes) to
+ * the executor.
  *
  * @author Pablo A. Carbajal
  *
  */
 public class MiningTask implements Callable<TaskResult> {
 
-	/**
-	 * Constant to the system's line separator.
-	 */
-	final private String END_OF_LINE = System.getProperty("line.separator");
-
 	/**
 	 * The starting range of the block to mine.
 	 */
@@ -50,7 +46,13 @@ public class MiningTask implements Callable<TaskResult> {
 	final private long mEndBlock;
 
 	/**
-	 * Creates a new task for mining CivicBucks from a specified block.
+	 * The algorithm for finding CivicBucks within the block.
+	 */
+	final private MiningAlgorithm mAlgorithm;
+
+	/**
+	 * Creates a new task for mining CivicBucks from a specified block by
+	 * scanning every number in it (see {@link MiningMode#SCAN}).
 	 *
 	 * @param start
 	 *            the starting point of the block to mine.
@@ -58,98 +60,84 @@ public class MiningTask implements Callable<TaskResult> {
 	 *            the ending point of the block to mine (inclusive).
 	 */
 	public MiningTask(final long start, final long end) {
-		mStartBlock = start;
-		mEndBlock = end;
-	}
-
-	@Override
-	public TaskResult call() throws Exception {
-		final TaskResult result = mineBlock(mStartBlock, mEndBlock);
-		return result;
+		this(start, end, MiningMode.SCAN);
 	}
 
 	/**
-	 * Finds out if the specified number is a palindrome.
+	 * Creates a new task for mining CivicBucks from a specified block with the
+	 * specified algorithm.
 	 *
-	 * @param number
-	 *            the number to check
-	 * @return <code>true</code> if the number is a palindrome,
-	 *         <code>false</code> otherwise.
+	 * @param start
+	 *            the starting point of the block to mine.
+	 * @param end
+	 *            the ending point of the block to mine (inclusive).
+	 * @param algorithm
+	 *            the algorithm for finding CivicBucks within the block.
 	 */
-	private boolean isPalindrome(final long number) {
-		/*
-		 * This algorithm for finding if a number is a palindrome converts the
-		 * number into a string, then checks if the "string" is a palindrome.
-		 */
-		// TODO: performance test with Integer.toString()
-		final String stringToCheck = String.valueOf(number);
-		return isPalindrome(stringToCheck);
+	public MiningTask(final long start, final long end, final MiningAlgorithm algorithm) {
+		mStartBlock = start;
+		mEndBlock = end;
+		mAlgorithm = algorithm;
 	}
 
 	/**
-	 * Finds out if the specified {@link String} is a palindrome.
+	 * Creates a new task for mining CivicBucks from a specified block with the
+	 * algorithm of the specified mode.
 	 *
-	 * @param string
-	 *            the string to check
-	 * @return <code>true</code> if the string is a palindrome,
-	 *         <code>false</code> otherwise.
+	 * @param start
+	 *            the starting point of the block to mine.
+	 * @param end
+	 *            the ending point of the block to mine (inclusive).
+	 * @param mode
+	 *            the strategy for finding CivicBucks within the block, other
+	 *            than {@link MiningMode#AUTO}.
+	 * @throws IllegalArgumentException
+	 *             if the mode is {@link MiningMode#AUTO}, which needs to be
+	 *             calibrated first (see {@link AlgorithmCalibrator}).
 	 */
-	private boolean isPalindrome(final String string) {
-		/*
-		 * Finding if a string is a palindrome requires to reverse the string
-		 * and compared both for equality. If both strings (original and
-		 * reversed) are identical, then the string is a palindrome.
-		 */
-		final String reversedString = new StringBuilder(string).reverse().toString();
-
-		if (string.equals(reversedString)) {
-			return true;
+	public MiningTask(final long start, final long end, final MiningMode mode) {
+		this(start, end, mode.getAlgorithm());
+		if (mAlgorithm == null) {
+			throw new IllegalArgumentException("The " + mode + " mode needs to be calibrated first.");
 		}
-
-		return false;
 	}
 
 	/**
-	 * This method initiates the mining computation for the specified block
-	 * range.
+	 * Returns the part of a block that was mined before reaching a number.
+	 * Used by the {@link MiningAlgorithm} implementations when they are
+	 * interrupted.
 	 *
 	 * @param startBlock
-	 *            the starting point of the block to mine.
-	 * @param endBlock
-	 *            the ending point of the block to mine (inclusive).
-	 * @return a {@link TaskResult} with information about the result of the
-	 *         mining computation.
+	 *            the starting point of the block.
+	 * @param number
+	 *            the first number of the block that was not mined.
+	 * @return the range of mined numbers, or <code>null</code> if none.
 	 */
-	private TaskResult mineBlock(final long startBlock, final long endBlock) {
-		int numberOfCivicBucks = 0;
-		// TODO replace StringBuilder by its own data type
-		final StringBuilder output = new StringBuilder();
-
-		/*
-		 * Iterate over each number in the block. First, check if the number in
-		 * turn is a palindrome, if so, then convert the number to its binary
-		 * equivalent and check if the binary equivalent is a palindrome too. If
-		 * both are palindrome, then we got a CivicBucket! Increase the count
-		 * and append the output.
-		 *
-		 * If the thread gets interrupted, then just return partial results.
-		 */
-		for (long number = startBlock; number <= endBlock; number++) {
-			if (Thread.currentThread().isInterrupted()) {
-				// Interruptions? return with partial results
-				return new TaskResult(numberOfCivicBucks, output);
-			}
+	static BlockRange coveredBefore(final long startBlock, final long number) {
+		return (number > startBlock) ? new BlockRange(startBlock, number - 1) : null;
+	}
 
-			if (isPalindrome(number)) {
-				final String binary = Long.toBinaryString(number);
-				if (isPalindrome(binary)) {
-					numberOfCivicBucks++;
-					output.append("\t" + number + "\tbinary: " + binary + END_OF_LINE);
-				}
-			}
+	@Override
+	public TaskResult call() throws Exception {
+		if (!MiningRecorder.KERNEL_ENABLED) {
+			return mAlgorithm.mine(mStartBlock, mEndBlock);
 		}
 
-		return new TaskResult(numberOfCivicBucks, output);
+		final long startTime = System.nanoTime();
+		final TaskResult result = mAlgorithm.mine(mStartBlock, mEndBlock);
+		MiningRecorder.record(MiningRecorder.KERNEL, startTime, null, result);
+		return result;
+	}
+
+	/**
+	 * Returns the chunk of the block mined by this task.
+	 */
+	BlockRange getChunk() {
+		return new BlockRange(mStartBlock, mEndBlock);
 	}
 
+	@Override
+	public String toString() {
+		return "MiningTask [" + mStartBlock + ", " + mEndBlock + "]";
+	}
 }
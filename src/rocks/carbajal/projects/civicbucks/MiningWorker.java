@@ -0,0 +1,320 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+
+/**
+ * A node that mines leases of a block for a {@link MiningCoordinator}: it
+ * connects over TCP (see {@link LeaseProtocol}), requests a lease, mines it
+ * on its pool of warm threads (see {@link MiningDaemon}), sends back the
+ * result and asks for the next one, until the coordinator has nothing left to
+ * mine.
+ *
+ * Start one worker per box (or several on localhost for testing), each with
+ * as many threads as the box has cores:
+ *
+ * <pre>
+ * java MiningWorker [host:port] [numberOfThreads] [--chunk=size]
+ * </pre>
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class MiningWorker {
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	static final String USAGE = "Usage: java MiningWorker [host:port] [numberOfThreads] [--chunk=size]";
+
+	/**
+	 * The host of the coordinator.
+	 */
+	private final String mHost;
+
+	/**
+	 * The port of the coordinator.
+	 */
+	private final int mPort;
+
+	/**
+	 * The number of threads mining every lease.
+	 */
+	private final int mNumberOfThreads;
+
+	/**
+	 * The minimum number of values mined by a single task.
+	 */
+	private final long mMinChunkSize;
+
+	/**
+	 * The strategy for finding CivicBucks, once the coordinator tells it
+	 * (and, for {@link MiningMode#AUTO}, once calibrated on this machine).
+	 */
+	private MiningMode mMode = null;
+
+	/**
+	 * The pool mining every lease, while the worker runs.
+	 */
+	private MiningDaemon mDaemon = null;
+
+	/**
+	 * Creates a worker for the specified coordinator.
+	 *
+	 * @param host
+	 *            the host of the coordinator.
+	 * @param port
+	 *            the port of the coordinator.
+	 * @param numberOfThreads
+	 *            the number of threads mining every lease.
+	 * @param minChunkSize
+	 *            the minimum number of values mined by a single task.
+	 */
+	public MiningWorker(final String host, final int port, final int numberOfThreads, final long minChunkSize) {
+		mHost = host;
+		mPort = port;
+		mNumberOfThreads = numberOfThreads;
+		mMinChunkSize = minChunkSize;
+	}
+
+	/**
+	 * Launches a worker (see the class description for the arguments).
+	 *
+	 * @param args
+	 *            the program arguments.
+	 */
+	public static void main(final String[] args) {
+		final MiningWorker worker;
+		try {
+			worker = parseArguments(args);
+		} catch (final IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(CivicBucksMiner.EXIT_INVALID_ARGUMENTS);
+			return;
+		}
+
+		try {
+			final long startTime = System.currentTimeMillis();
+			final int leases = worker.run();
+			System.out.println("Leases mined: " + leases);
+			System.out.println("Duration: " + (System.currentTimeMillis() - startTime) + " millis.");
+		} catch (final IOException e) {
+			System.out.println("Unable to work for the coordinator (see error below).");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Parses the program arguments of a worker.
+	 *
+	 * @param args
+	 *            the program arguments.
+	 * @return the worker.
+	 * @throws IllegalArgumentException
+	 *             if any argument is missing or not valid.
+	 */
+	private static MiningWorker parseArguments(final String[] args) {
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Missing mandatory arguments.");
+		}
+
+		final int separator = args[0].lastIndexOf(':');
+		if (separator < 0) {
+			throw new IllegalArgumentException("Invalid coordinator address: " + args[0]);
+		}
+
+		long minChunkSize = RangePartitioner.DEFAULT_MIN_CHUNK_SIZE;
+		for (int index = 2; index < args.length; index++) {
+			if (!args[index].startsWith("--chunk=")) {
+				throw new IllegalArgumentException("Unknown option: " + args[index]);
+			}
+			minChunkSize = parseLong("chunk", args[index].substring("--chunk=".length()));
+		}
+
+		final int port = (int) parseLong("port", args[0].substring(separator + 1));
+		final int numberOfThreads = (int) parseLong("numberOfThreads", args[1]);
+		if (numberOfThreads < 1 || minChunkSize < 1) {
+			throw new IllegalArgumentException("The number of threads and the chunk size must be at least 1.");
+		}
+
+		return new MiningWorker(args[0].substring(0, separator), port, numberOfThreads, minChunkSize);
+	}
+
+	/**
+	 * Parses a numeric argument of type long.
+	 *
+	 * @param name
+	 *            the name of the argument, used for error messages.
+	 * @param value
+	 *            the value to parse.
+	 * @return the parsed value.
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number.
+	 */
+	private static long parseLong(final String name, final String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * Mines a lease completely.
+	 *
+	 * @param start
+	 *            the start of the lease.
+	 * @param end
+	 *            the end of the lease (inclusive).
+	 * @return the result of the lease, with all its CivicBucks, or
+	 *         <code>null</code> if it could not be mined completely.
+	 */
+	private TaskResult mine(final BigInteger start, final BigInteger end) {
+		// no timeout, the coordinator decides when a lease takes too long
+		final MiningExecutorResults results = mDaemon.mine(new MiningJob("lease",
+				Collections.singletonList(new BlockRange(start, end)), mMode, mMinChunkSize, 0));
+		if (!results.getUncoveredRanges().isEmpty()) {
+			return null;
+		}
+
+		// join the CivicBucks of all the chunks into a single result
+		final ResultBuffer civicBucks = new ResultBuffer(ResultBuffer.wordsFor(end));
+		final CivicBucksCursor cursor = results.cursor();
+		while (cursor.next()) {
+			if (cursor.fitsLong()) {
+				civicBucks.add(cursor.getLong());
+			} else {
+				civicBucks.add(cursor.getValue());
+			}
+		}
+
+		return new TaskResult(new BlockRange(start, end), civicBucks);
+	}
+
+	/**
+	 * Returns the strategy for mining the specified lease: the one the
+	 * coordinator asked for, or for {@link MiningMode#AUTO}, the fastest one
+	 * on this machine, calibrated on the first lease.
+	 *
+	 * @param requested
+	 *            the strategy the coordinator asked for.
+	 * @param start
+	 *            the start of the lease.
+	 * @param end
+	 *            the end of the lease (inclusive).
+	 * @return the strategy.
+	 */
+	private MiningMode resolveMode(final MiningMode requested, final BigInteger start, final BigInteger end) {
+		if (requested != MiningMode.AUTO) {
+			return requested;
+		}
+		if (mMode != null) {
+			return mMode;
+		}
+
+		final MiningAlgorithm algorithm = AlgorithmCalibrator.calibrate(start, end);
+		for (final MiningMode mode : MiningMode.values()) {
+			if (mode.getAlgorithm() == algorithm) {
+				return mode;
+			}
+		}
+
+		return MiningMode.GENERATE;
+	}
+
+	/**
+	 * Works for the coordinator until it has nothing left to mine, or it
+	 * closes the connection.
+	 *
+	 * @return the number of leases mined.
+	 * @throws IOException
+	 *             if the connection fails.
+	 */
+	public int run() throws IOException {
+		int leasesMined = 0;
+		mDaemon = new MiningDaemon(mNumberOfThreads);
+		try (final Socket socket = new Socket(mHost, mPort)) {
+			socket.setTcpNoDelay(true);
+			final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			output.writeInt(LeaseProtocol.MAGIC);
+			output.writeInt(LeaseProtocol.VERSION);
+			output.writeUTF(InetAddress.getLocalHost().getHostName() + "/" + mNumberOfThreads);
+
+			while (true) {
+				output.writeByte(LeaseProtocol.REQUEST_LEASE);
+				output.flush();
+
+				final byte reply = input.readByte();
+				if (reply == LeaseProtocol.FINISHED) {
+					return leasesMined;
+				}
+				if (reply == LeaseProtocol.WAIT) {
+					Thread.sleep(input.readLong());
+					continue;
+				}
+				if (reply != LeaseProtocol.LEASE) {
+					throw new IOException("Unknown reply from the coordinator: " + reply);
+				}
+
+				final int index = input.readInt();
+				final BigInteger start = LeaseProtocol.readBigInteger(input);
+				final BigInteger end = LeaseProtocol.readBigInteger(input);
+				mMode = resolveMode(MiningMode.fromName(input.readUTF()), start, end);
+
+				final TaskResult result = mine(start, end);
+				if (result != null) {
+					output.writeByte(LeaseProtocol.LEASE_DONE);
+					output.writeInt(index);
+					LeaseProtocol.writeResult(output, result);
+					leasesMined++;
+				} else {
+					output.writeByte(LeaseProtocol.LEASE_FAILED);
+					output.writeInt(index);
+				}
+			}
+		} catch (final EOFException e) {
+			// the coordinator is done (or timed out) and closed the connection
+			return leasesMined;
+		} catch (final InterruptedException e) {
+			// stop working, the coordinator takes the lease back
+			Thread.currentThread().interrupt();
+			return leasesMined;
+		} finally {
+			mDaemon.shutdown();
+		}
+	}
+}
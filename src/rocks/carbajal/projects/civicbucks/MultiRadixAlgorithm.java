@@ -0,0 +1,174 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * Mines a block for the numbers that are palindromes in every one of a set of
+ * bases, e.g. base 10 and base 2 for CivicBucks, or base 3 and base 16 for
+ * another currency.
+ *
+ * For every block, the palindromes of the sparsest base within the block
+ * (counted without enumerating them, see
+ * {@link RadixKernel#countPalindromes(long, long)}) are generated (see
+ * {@link RadixPalindromeGenerator}), and only those candidates are tested in
+ * the other bases, with the kernel of each base (see {@link RadixKernel}).
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class MultiRadixAlgorithm implements MiningAlgorithm {
+
+	/**
+	 * The kernels of the bases, in the order they were given.
+	 */
+	private final RadixKernel[] mKernels;
+
+	/**
+	 * The name of the algorithm, e.g. "radix-3-16".
+	 */
+	private final String mName;
+
+	/**
+	 * Creates an algorithm for the numbers that are palindromes in all the
+	 * specified bases.
+	 *
+	 * @param bases
+	 *            the bases, from 2 to {@link RadixKernel#MAX_BASE}.
+	 * @throws IllegalArgumentException
+	 *             if there are no bases, or some base is not supported or
+	 *             given twice.
+	 */
+	public MultiRadixAlgorithm(final int... bases) {
+		if (bases.length == 0) {
+			throw new IllegalArgumentException("At least one base is required.");
+		}
+
+		mKernels = new RadixKernel[bases.length];
+		final StringBuilder name = new StringBuilder("radix");
+		for (int index = 0; index < bases.length; index++) {
+			for (int previous = 0; previous < index; previous++) {
+				if (bases[previous] == bases[index]) {
+					throw new IllegalArgumentException("The base " + bases[index] + " is given twice.");
+				}
+			}
+			mKernels[index] = RadixKernel.forBase(bases[index]);
+			name.append('-').append(bases[index]);
+		}
+		mName = name.toString();
+	}
+
+	/**
+	 * Parses a list of bases separated by commas, e.g. "3,16".
+	 *
+	 * @param bases
+	 *            the list of bases.
+	 * @return the algorithm for the bases.
+	 * @throws IllegalArgumentException
+	 *             if the list is not valid.
+	 */
+	public static MultiRadixAlgorithm parse(final String bases) {
+		final String[] tokens = bases.split(",");
+		final int[] values = new int[tokens.length];
+		for (int index = 0; index < tokens.length; index++) {
+			try {
+				values[index] = Integer.parseInt(tokens[index].trim());
+			} catch (final NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid base: " + tokens[index], e);
+			}
+		}
+
+		return new MultiRadixAlgorithm(values);
+	}
+
+	/**
+	 * Returns the bases, in the order they were given.
+	 */
+	public int[] getBases() {
+		final int[] bases = new int[mKernels.length];
+		for (int index = 0; index < bases.length; index++) {
+			bases[index] = mKernels[index].getBase();
+		}
+
+		return bases;
+	}
+
+	@Override
+	public String getName() {
+		return mName;
+	}
+
+	@Override
+	public TaskResult mine(final long startBlock, final long endBlock) {
+		final ResultBuffer found = new ResultBuffer(1);
+
+		// generate in the base with the fewest palindromes within the block
+		int sparsest = 0;
+		long fewest = Long.MAX_VALUE;
+		for (int index = 0; index < mKernels.length; index++) {
+			final long count = mKernels[index].countPalindromes(startBlock, endBlock);
+			if (count < fewest) {
+				fewest = count;
+				sparsest = index;
+			}
+		}
+
+		final RadixKernel[] checks = new RadixKernel[mKernels.length - 1];
+		for (int index = 0, check = 0; index < mKernels.length; index++) {
+			if (index != sparsest) {
+				checks[check++] = mKernels[index];
+			}
+		}
+
+		/*
+		 * Every few thousand candidates, publish how far the block has been
+		 * mined and, if the thread got interrupted or the deadline of the run
+		 * passed, just return partial results.
+		 */
+		final RadixPalindromeGenerator generator = new RadixPalindromeGenerator(mKernels[sparsest], startBlock,
+				endBlock);
+		long iterations = 0;
+		while (generator.hasNext()) {
+			final long number = generator.next();
+			if ((iterations++ & MiningProgress.CHECKPOINT_MASK) == 0 && MiningProgress.checkpoint(number - startBlock)) {
+				// Interruptions or past the deadline? return with partial results
+				return new TaskResult(MiningTask.coveredBefore(startBlock, number), found);
+			}
+
+			boolean palindrome = true;
+			for (int check = 0; palindrome && check < checks.length; check++) {
+				palindrome = checks[check].isPalindrome(number);
+			}
+			if (palindrome) {
+				found.add(number);
+			}
+		}
+
+		return new TaskResult(new BlockRange(startBlock, endBlock), found);
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
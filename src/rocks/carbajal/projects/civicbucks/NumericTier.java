@@ -0,0 +1,109 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+
+/**
+ * The numeric backends available for mining CivicBucks, from the cheapest to
+ * the most expensive. Each tier can hold every number up to its upper bound;
+ * the {@link MiningExecutor} mines every chunk of a block with the cheapest
+ * tier that can hold it.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public enum NumericTier {
+
+	/**
+	 * Primitive long values (see {@link MiningTask}), for numbers up to
+	 * {@link Long#MAX_VALUE}.
+	 */
+	LONG(BigInteger.valueOf(Long.MAX_VALUE)),
+
+	/**
+	 * Unsigned 128-bit values built from two longs (see {@link UInt128}), for
+	 * numbers up to 2^128 - 1.
+	 */
+	UINT128(BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE)),
+
+	/**
+	 * Arbitrary-precision {@link BigInteger} values, for any number.
+	 */
+	BIG_INTEGER(null);
+
+	/**
+	 * The highest number the tier can hold, or <code>null</code> if there is
+	 * no limit.
+	 */
+	private final BigInteger mUpperBound;
+
+	/**
+	 * Creates a tier.
+	 *
+	 * @param upperBound
+	 *            the highest number the tier can hold, or <code>null</code> if
+	 *            there is no limit.
+	 */
+	private NumericTier(final BigInteger upperBound) {
+		mUpperBound = upperBound;
+	}
+
+	/**
+	 * Returns the cheapest tier that can hold the specified number.
+	 *
+	 * @param number
+	 *            the number to hold.
+	 * @return the cheapest tier for the number.
+	 */
+	public static NumericTier forValue(final BigInteger number) {
+		for (final NumericTier tier : values()) {
+			if (tier.canHold(number)) {
+				return tier;
+			}
+		}
+
+		return BIG_INTEGER;
+	}
+
+	/**
+	 * Finds out if the tier can hold the specified number.
+	 *
+	 * @param number
+	 *            the number to check
+	 * @return <code>true</code> if the number does not exceed the upper bound
+	 *         of the tier, <code>false</code> otherwise.
+	 */
+	public boolean canHold(final BigInteger number) {
+		return mUpperBound == null || number.compareTo(mUpperBound) <= 0;
+	}
+
+	/**
+	 * Returns the highest number the tier can hold, or <code>null</code> if
+	 * there is no limit.
+	 */
+	public BigInteger getUpperBound() {
+		return mUpperBound;
+	}
+}
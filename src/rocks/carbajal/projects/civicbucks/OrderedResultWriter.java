@@ -0,0 +1,424 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes out the CivicBucks of a {@link MiningExecutor} while it is still
+ * mining, in ascending order.
+ *
+ * Every task hands over its result as soon as it completes (see
+ * {@link #commit(int, TaskResult)}). Results are written out in the order of
+ * their chunks by a dedicated thread: as soon as the lowest outstanding chunk
+ * completes, its CivicBucks (and those of any following chunks that already
+ * completed) are formatted into a buffer and written to the channel, while
+ * later chunks keep computing. Written results are released right away, so
+ * only the results of chunks that completed ahead of a slower one are held in
+ * memory.
+ *
+ * Mining threads never write to the channel themselves: they may be
+ * interrupted when the executor times out, which would close an
+ * interruptible channel (such as a {@link FileChannel}) under them.
+ *
+ * On {@link #close()}, the results of any remaining completed chunks are
+ * written out in order, skipping the chunks that never completed; results
+ * committed after that are discarded.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class OrderedResultWriter implements Closeable {
+
+	/**
+	 * The size of the output buffer (in bytes).
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The label between a CivicBuck and its binary representation.
+	 */
+	private static final byte[] BINARY_LABEL = "\tbinary: ".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Constant to the system's line separator.
+	 */
+	private static final byte[] END_OF_LINE = System.getProperty("line.separator")
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The maximum length (in bytes) of a formatted CivicBuck of type long.
+	 */
+	private static final int MAX_LONG_LINE_LENGTH = 128;
+
+	/**
+	 * The channel to write to.
+	 */
+	private final WritableByteChannel mChannel;
+
+	/**
+	 * Whether the channel is closed along with this writer.
+	 */
+	private final boolean mCloseChannel;
+
+	/**
+	 * The buffer where CivicBucks are formatted before writing them out.
+	 */
+	private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * A scratch buffer for the decimal digits of a number.
+	 */
+	private final byte[] mDigits = new byte[20];
+
+	/**
+	 * The results committed but not written out yet, by chunk index. Guarded
+	 * by this writer's monitor.
+	 */
+	private TaskResult[] mPending = new TaskResult[0];
+
+	/**
+	 * The index of the lowest chunk not written out yet. Guarded by this
+	 * writer's monitor.
+	 */
+	private int mNextToWrite = 0;
+
+	/**
+	 * Whether the writer is being closed. Guarded by this writer's monitor.
+	 */
+	private boolean mClosed = false;
+
+	/**
+	 * The thread that writes out results while mining, or <code>null</code>
+	 * before {@link #start(int)}.
+	 */
+	private Thread mWriterThread = null;
+
+	/**
+	 * The first error that occurred while writing, if any.
+	 */
+	private volatile IOException mError = null;
+
+	/**
+	 * Creates a writer for the specified channel.
+	 *
+	 * @param channel
+	 *            the channel to write to.
+	 * @param closeChannel
+	 *            whether to close the channel along with this writer.
+	 */
+	public OrderedResultWriter(final WritableByteChannel channel, final boolean closeChannel) {
+		mChannel = channel;
+		mCloseChannel = closeChannel;
+	}
+
+	/**
+	 * Creates a writer for the specified file, which is created or truncated.
+	 *
+	 * @param path
+	 *            the file to write to.
+	 * @return the writer.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public static OrderedResultWriter toFile(final Path path) throws IOException {
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		return new OrderedResultWriter(channel, true);
+	}
+
+	/**
+	 * Creates a writer for the standard output stream, which is left open when
+	 * the writer is closed.
+	 *
+	 * @return the writer.
+	 */
+	public static OrderedResultWriter toStandardOutput() {
+		return new OrderedResultWriter(Channels.newChannel(System.out), false);
+	}
+
+	/**
+	 * Writes out the results of any remaining completed chunks (skipping the
+	 * ones that never completed), flushes the buffer and, if requested, closes
+	 * the channel. Results committed afterwards are discarded.
+	 *
+	 * @throws IOException
+	 *             if writing fails, or if it failed before while writing
+	 *             while mining.
+	 */
+	@Override
+	public void close() throws IOException {
+		final TaskResult[] remaining;
+		final int next;
+		synchronized (this) {
+			if (mClosed) {
+				return;
+			}
+			mClosed = true;
+			notifyAll();
+		}
+
+		try {
+			// let the writer thread finish the result it is writing
+			if (mWriterThread != null) {
+				joinWriterThread();
+			}
+
+			synchronized (this) {
+				remaining = mPending;
+				next = mNextToWrite;
+				mPending = new TaskResult[0];
+			}
+
+			if (mError == null) {
+				for (int index = next; index < remaining.length; index++) {
+					if (remaining[index] != null) {
+						write(remaining[index]);
+					}
+				}
+				flush();
+			}
+		} finally {
+			if (mCloseChannel) {
+				mChannel.close();
+			}
+		}
+
+		if (mError != null) {
+			throw mError;
+		}
+	}
+
+	/**
+	 * Hands over the result of a completed chunk, to be written out by the
+	 * writer thread once all the chunks before it were written out.
+	 *
+	 * @param index
+	 *            the index of the chunk, as planned by the executor.
+	 * @param result
+	 *            the result of the chunk.
+	 */
+	synchronized void commit(final int index, final TaskResult result) {
+		if (mClosed) {
+			return;
+		}
+
+		mPending[index] = result;
+		if (index == mNextToWrite) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for the writer thread to stop.
+	 */
+	private void joinWriterThread() {
+		boolean interrupted = false;
+		while (mWriterThread.isAlive()) {
+			try {
+				mWriterThread.join();
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes out the contents of the buffer to the channel.
+	 */
+	private void flush() throws IOException {
+		mBuffer.flip();
+		while (mBuffer.hasRemaining()) {
+			mChannel.write(mBuffer);
+		}
+		mBuffer.clear();
+	}
+
+	/**
+	 * Formats a binary representation into the buffer.
+	 */
+	private void putBinary(final long number) {
+		if (number == 0) {
+			mBuffer.put((byte) '0');
+			return;
+		}
+
+		for (int bit = Long.SIZE - 1 - Long.numberOfLeadingZeros(number); bit >= 0; bit--) {
+			mBuffer.put((byte) ('0' + ((number >>> bit) & 1)));
+		}
+	}
+
+	/**
+	 * Writes bytes into the buffer, flushing it as often as needed.
+	 */
+	private void putBytes(final byte[] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!mBuffer.hasRemaining()) {
+				flush();
+			}
+			final int length = Math.min(mBuffer.remaining(), bytes.length - offset);
+			mBuffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * Formats a non-negative decimal number into the buffer.
+	 */
+	private void putDecimal(final long number) {
+		long value = number;
+		int length = 0;
+		do {
+			mDigits[length++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		while (length > 0) {
+			mBuffer.put(mDigits[--length]);
+		}
+	}
+
+	/**
+	 * Sets the number of chunks whose results are to be written out. Called
+	 * by the executor before any task starts.
+	 *
+	 * @param numberOfTasks
+	 *            the number of chunks.
+	 */
+	void start(final int numberOfTasks) {
+		synchronized (this) {
+			mPending = new TaskResult[numberOfTasks];
+			mNextToWrite = 0;
+		}
+
+		mWriterThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeResultsInOrder();
+			}
+		}, "civicbucks-writer");
+		mWriterThread.setDaemon(true);
+		mWriterThread.start();
+	}
+
+	/**
+	 * Formats the CivicBucks of a result into the buffer, flushing it as often
+	 * as needed.
+	 */
+	private void write(final TaskResult result) throws IOException {
+		final ResultBuffer civicBucks = result.getCivicBucks();
+		if (civicBucks == null) {
+			return;
+		}
+
+		for (int index = 0; index < civicBucks.size(); index++) {
+			if (civicBucks.getWordsPerNumber() == 1) {
+				if (mBuffer.remaining() < MAX_LONG_LINE_LENGTH) {
+					flush();
+				}
+				final long number = civicBucks.getLong(index);
+				mBuffer.put((byte) '\t');
+				putDecimal(number);
+				mBuffer.put(BINARY_LABEL);
+				putBinary(number);
+				mBuffer.put(END_OF_LINE);
+			} else {
+				final BigInteger number = civicBucks.getValue(index);
+				putBytes(("\t" + number + "\tbinary: " + number.toString(2)).getBytes(StandardCharsets.US_ASCII));
+				putBytes(END_OF_LINE);
+			}
+		}
+	}
+
+	/**
+	 * The loop of the writer thread: waits for the lowest chunk not written out
+	 * yet to complete and writes out its result, until the writer is closed.
+	 * The buffer is flushed whenever there is nothing else ready to write, so
+	 * that output is not held back until the buffer is full.
+	 */
+	private void writeResultsInOrder() {
+		try {
+			while (true) {
+				final TaskResult result;
+				long waitStartTime = 0;
+				synchronized (this) {
+					while (!mClosed && (mNextToWrite >= mPending.length || mPending[mNextToWrite] == null)) {
+						if (mBuffer.position() > 0) {
+							break;
+						}
+						if (MiningRecorder.WAIT_ENABLED && waitStartTime == 0) {
+							waitStartTime = System.nanoTime();
+						}
+						wait();
+					}
+					if (mClosed) {
+						return;
+					}
+
+					if (mNextToWrite < mPending.length && mPending[mNextToWrite] != null) {
+						result = mPending[mNextToWrite];
+						mPending[mNextToWrite] = null;
+						mNextToWrite++;
+					} else {
+						result = null;
+					}
+				}
+
+				if (waitStartTime != 0 && result != null) {
+					// held back by the lowest chunk not written out yet
+					MiningRecorder.record(MiningRecorder.WAIT, waitStartTime, null, result);
+				}
+				if (result == null) {
+					flush();
+				} else if (MiningRecorder.FORMAT_ENABLED) {
+					final long startTime = System.nanoTime();
+					write(result);
+					MiningRecorder.record(MiningRecorder.FORMAT, startTime, null, result);
+				} else {
+					write(result);
+				}
+			}
+		} catch (final IOException e) {
+			mError = e;
+		} catch (final InterruptedException e) {
+			// nobody else interrupts this thread, just stop writing
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Generates, in ascending order, all the decimal palindromes that lie within a
+ * range of non-negative numbers.
+ *
+ * Instead of testing every number in the range, each palindrome is built by
+ * taking a left half and mirroring its digits onto the right side (e.g. the
+ * half 123 yields 12321 for an odd number of digits and 123321 for an even
+ * number of digits). A range of up to N holds roughly 2 * sqrt(N) palindromes,
+ * so the work drops from O(N) to O(sqrt(N)).
+ *
+ * The generator works with primitive values only and does not allocate while
+ * iterating.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class PalindromeGenerator {
+
+	/**
+	 * The maximum number of decimal digits of a (positive) long value.
+	 */
+	private static final int MAX_DIGITS = PalindromeKernels.MAX_DECIMAL_DIGITS;
+
+	/**
+	 * Powers of ten from 10^0 up to 10^18, indexed by the exponent.
+	 */
+	private static final long[] POWERS_OF_TEN = PalindromeKernels.POWERS_OF_TEN;
+
+	/**
+	 * The end of the range to generate (inclusive).
+	 */
+	private final long mEnd;
+
+	/**
+	 * The number of digits of the palindromes currently being generated.
+	 */
+	private int mDigits;
+
+	/**
+	 * The left half (including the middle digit for an odd number of digits)
+	 * of the next palindrome to build.
+	 */
+	private long mHalf;
+
+	/**
+	 * The first value that no longer fits in the left half for the current
+	 * number of digits (i.e. 10^halfLength).
+	 */
+	private long mHalfLimit;
+
+	/**
+	 * The next palindrome to return, only meaningful if {@link #mHasNext} is
+	 * <code>true</code>.
+	 */
+	private long mNext;
+
+	/**
+	 * Whether there is a next palindrome within the range.
+	 */
+	private boolean mHasNext;
+
+	/**
+	 * Creates a generator for all the decimal palindromes from {@code start}
+	 * to {@code end} (inclusive). Negative numbers are never palindromes (the
+	 * minus sign cannot be mirrored), so the range is clamped at zero.
+	 *
+	 * @param start
+	 *            the start of the range.
+	 * @param end
+	 *            the end of the range (inclusive).
+	 */
+	public PalindromeGenerator(final long start, final long end) {
+		mEnd = end;
+
+		final long from = Math.max(start, 0);
+		if (from > end) {
+			mHasNext = false;
+			return;
+		}
+
+		/*
+		 * Position the generator on the left half of the first number in the
+		 * range: the mirror of that half may still be lower than the start of
+		 * the range, in which case it is skipped.
+		 */
+		setDigits(PalindromeKernels.decimalLength(from));
+		mHalf = from / POWERS_OF_TEN[mDigits - halfLength(mDigits)];
+
+		advance();
+		while (mHasNext && mNext < from) {
+			advance();
+		}
+	}
+
+	/**
+	 * Returns the length of the left half (including the middle digit) of a
+	 * palindrome with the specified number of digits.
+	 */
+	private static int halfLength(final int digits) {
+		return (digits + 1) / 2;
+	}
+
+	/**
+	 * Builds the next palindrome from the current left half and moves to the
+	 * following half, updating {@link #mNext} and {@link #mHasNext}.
+	 */
+	private void advance() {
+		if (mHalf == mHalfLimit) {
+			// all the halves of this length were used, add one more digit
+			if (mDigits == MAX_DIGITS) {
+				mHasNext = false;
+				return;
+			}
+			setDigits(mDigits + 1);
+			mHalf = mHalfLimit / 10;
+		}
+
+		/*
+		 * Mirror the half: the right side is the half reversed, leaving out
+		 * the middle digit when the number of digits is odd.
+		 */
+		final int mirroredDigits = mDigits - halfLength(mDigits);
+		final long tail = (mDigits % 2 == 0) ? mHalf : mHalf / 10;
+		final long reversedTail = PalindromeKernels.reverseDigits(tail, mirroredDigits);
+
+		// only the longest palindromes can exceed the limit of type long
+		final long multiplier = POWERS_OF_TEN[mirroredDigits];
+		if (mHalf > (Long.MAX_VALUE - reversedTail) / multiplier) {
+			mHasNext = false;
+			return;
+		}
+
+		mNext = mHalf * multiplier + reversedTail;
+		mHasNext = mNext <= mEnd;
+		mHalf++;
+	}
+
+	/**
+	 * Returns <code>true</code> if there are more palindromes in the range.
+	 */
+	public boolean hasNext() {
+		return mHasNext;
+	}
+
+	/**
+	 * Returns the next palindrome in the range, in ascending order.
+	 *
+	 * @return the next palindrome.
+	 * @throws NoSuchElementException
+	 *             if there are no more palindromes in the range.
+	 */
+	public long next() {
+		if (!mHasNext) {
+			throw new NoSuchElementException();
+		}
+
+		final long palindrome = mNext;
+		advance();
+		return palindrome;
+	}
+
+	/**
+	 * Sets the number of digits of the palindromes to generate and the limit
+	 * of their left halves.
+	 *
+	 * @param digits
+	 *            the number of digits.
+	 */
+	private void setDigits(final int digits) {
+		mDigits = digits;
+		mHalfLimit = POWERS_OF_TEN[halfLength(digits)];
+	}
+}
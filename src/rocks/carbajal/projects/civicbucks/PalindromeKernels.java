@@ -0,0 +1,297 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * Arithmetic kernels for finding out if a number is a decimal or a binary
+ * palindrome.
+ *
+ * Every method works on primitive values and precomputed lookup tables only,
+ * so checking a candidate never allocates memory (unlike converting it into a
+ * {@link String} and reversing it). The results are identical to comparing the
+ * decimal or binary string representation of a number with its reverse.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class PalindromeKernels {
+
+	/**
+	 * The maximum number of decimal digits of a (positive) long value.
+	 */
+	public static final int MAX_DECIMAL_DIGITS = 19;
+
+	/**
+	 * The number of consecutive numbers (lanes) covered by a single mask of
+	 * {@link #binaryCandidates(long)}, one per bit of a long.
+	 */
+	public static final int LANES = Long.SIZE;
+
+	/**
+	 * The number of low bits that tell the lanes of a mask apart (i.e.
+	 * log2({@value #LANES})).
+	 */
+	private static final int LANE_BITS = 6;
+
+	/**
+	 * The lowest number whose lanes are told apart by the mirror of its
+	 * highest bits: below it, the {@value #LANE_BITS} highest and lowest bits
+	 * of a number overlap.
+	 */
+	private static final long MIN_MIRRORED = 1L << (2 * LANE_BITS - 1);
+
+	/**
+	 * The mask of the odd lanes of a batch starting at an even number.
+	 */
+	private static final long ODD_LANES_FROM_EVEN = 0xAAAAAAAAAAAAAAAAL;
+
+	/**
+	 * The mask of the odd lanes of a batch starting at an odd number.
+	 */
+	private static final long ODD_LANES_FROM_ODD = 0x5555555555555555L;
+
+	/**
+	 * Powers of ten from 10^0 up to 10^18, indexed by the exponent.
+	 */
+	static final long[] POWERS_OF_TEN = new long[MAX_DECIMAL_DIGITS];
+
+	/**
+	 * The number of decimal digits reversed in a single table lookup.
+	 */
+	private static final int DIGITS_PER_LOOKUP = 4;
+
+	/**
+	 * The number of values covered by {@link #REVERSED_DIGITS} (i.e.
+	 * 10^{@value #DIGITS_PER_LOOKUP}).
+	 */
+	private static final int LOOKUP_SIZE = 10000;
+
+	/**
+	 * The reverse of every group of 4 digits, zero-padded on the left (e.g.
+	 * the entry for 12, read as 0012, holds 2100).
+	 */
+	private static final short[] REVERSED_DIGITS = new short[LOOKUP_SIZE];
+
+	/**
+	 * The number of bits reversed in a single table lookup.
+	 */
+	private static final int BITS_PER_LOOKUP = 16;
+
+	/**
+	 * The reverse of every group of 16 bits (e.g. the entry for 0x0001 holds
+	 * 0x8000).
+	 */
+	private static final char[] REVERSED_BITS = new char[1 << BITS_PER_LOOKUP];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int exponent = 1; exponent < MAX_DECIMAL_DIGITS; exponent++) {
+			POWERS_OF_TEN[exponent] = POWERS_OF_TEN[exponent - 1] * 10;
+		}
+
+		for (int group = 0; group < LOOKUP_SIZE; group++) {
+			int value = group;
+			int reversed = 0;
+			for (int digit = 0; digit < DIGITS_PER_LOOKUP; digit++) {
+				reversed = reversed * 10 + value % 10;
+				value /= 10;
+			}
+			REVERSED_DIGITS[group] = (short) reversed;
+		}
+
+		for (int group = 0; group < REVERSED_BITS.length; group++) {
+			REVERSED_BITS[group] = (char) (Integer.reverse(group) >>> (Integer.SIZE - BITS_PER_LOOKUP));
+		}
+	}
+
+	/**
+	 * This class only has static kernels and cannot be instantiated.
+	 */
+	private PalindromeKernels() {
+	}
+
+	/**
+	 * Returns the mask of the numbers of a batch of {@value #LANES}
+	 * consecutive numbers that may be binary palindromes: bit <i>i</i> is set
+	 * if <code>first + i</code> may be one. A cleared bit always rules the
+	 * number out, so testing only the numbers of the set bits gives the same
+	 * results as testing every number of the batch.
+	 *
+	 * Every lane is checked at once with a handful of long operations: the
+	 * lowest {@value #LANE_BITS} bits of a binary palindrome mirror its
+	 * highest ones, so when every number of the batch shares its highest bits
+	 * at most one lane survives. Otherwise only the odd lanes survive (the
+	 * lowest bit mirrors the highest one), and every lane does for the
+	 * smallest numbers, negative numbers and batches overflowing type long.
+	 *
+	 * @param first
+	 *            the first number of the batch.
+	 * @return the mask of the lanes that may be binary palindromes.
+	 */
+	public static long binaryCandidates(final long first) {
+		if (first < MIN_MIRRORED || first > Long.MAX_VALUE - (LANES - 1)) {
+			return -1L;
+		}
+
+		final int shift = Long.SIZE - Long.numberOfLeadingZeros(first) - LANE_BITS;
+		final long highestBits = first >>> shift;
+		if (highestBits != (first + LANES - 1) >>> shift) {
+			return ((first & 1) == 0) ? ODD_LANES_FROM_EVEN : ODD_LANES_FROM_ODD;
+		}
+
+		final long lowestBits = Long.reverse(highestBits) >>> (Long.SIZE - LANE_BITS);
+		return 1L << ((lowestBits - first) & (LANES - 1));
+	}
+
+	/**
+	 * Returns the number of decimal digits of a non-negative number.
+	 *
+	 * @param number
+	 *            the number to measure.
+	 * @return the number of digits, where zero has one digit.
+	 */
+	public static int decimalLength(final long number) {
+		int digits = 1;
+		while (digits < MAX_DECIMAL_DIGITS && number >= POWERS_OF_TEN[digits]) {
+			digits++;
+		}
+
+		return digits;
+	}
+
+	/**
+	 * Finds out if the binary representation of the specified number (as
+	 * returned by {@link Long#toBinaryString(long)}) is a palindrome.
+	 *
+	 * @param number
+	 *            the number to check
+	 * @return <code>true</code> if the binary representation is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	public static boolean isBinaryPalindrome(final long number) {
+		if (number == 0) {
+			// "0" is a palindrome
+			return true;
+		}
+
+		/*
+		 * Reversing all 64 bits moves the leading zeros to the right, so shift
+		 * them out again: what is left is the significant bits in reverse
+		 * order, which must be the number itself.
+		 */
+		return (Long.reverse(number) >>> Long.numberOfLeadingZeros(number)) == number;
+	}
+
+	/**
+	 * Finds out if the binary representation of the specified number is a
+	 * palindrome, just like {@link #isBinaryPalindrome(long)}, but reversing
+	 * the bits with lookups in a table of 16-bit groups instead of
+	 * {@link Long#reverse(long)}. This pays off on hardware without a fast bit
+	 * reversal instruction.
+	 *
+	 * @param number
+	 *            the number to check
+	 * @return <code>true</code> if the binary representation is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	public static boolean isBinaryPalindromeByTable(final long number) {
+		if (number == 0) {
+			// "0" is a palindrome
+			return true;
+		}
+
+		final long mask = (1L << BITS_PER_LOOKUP) - 1;
+		final long reversed = ((long) REVERSED_BITS[(int) (number & mask)] << 48)
+				| ((long) REVERSED_BITS[(int) ((number >>> 16) & mask)] << 32)
+				| ((long) REVERSED_BITS[(int) ((number >>> 32) & mask)] << 16)
+				| REVERSED_BITS[(int) (number >>> 48)];
+		return reversed >>> Long.numberOfLeadingZeros(number) == number;
+	}
+
+	/**
+	 * Finds out if the decimal representation of the specified number (as
+	 * returned by {@link String#valueOf(long)}) is a palindrome.
+	 *
+	 * @param number
+	 *            the number to check
+	 * @return <code>true</code> if the number is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	public static boolean isDecimalPalindrome(final long number) {
+		if (number < 0) {
+			// the minus sign cannot be mirrored
+			return false;
+		}
+
+		/*
+		 * Split the number into its high and low halves (leaving out the
+		 * middle digit for an odd number of digits) and compare the high half
+		 * with the reversed low half. Only half of the digits are reversed, so
+		 * the computation never exceeds the limit of type long.
+		 */
+		final int digits = decimalLength(number);
+		final int halfDigits = digits / 2;
+		final long low = number % POWERS_OF_TEN[halfDigits];
+		final long high = number / POWERS_OF_TEN[digits - halfDigits];
+
+		return reverseDigits(low, halfDigits) == high;
+	}
+
+	/**
+	 * Reverses the specified number of low decimal digits of a non-negative
+	 * value, treating missing digits as leading zeros (e.g. reversing 3 digits
+	 * of 12, read as 012, yields 210).
+	 *
+	 * @param value
+	 *            the value to reverse, lower than 10^digits.
+	 * @param digits
+	 *            the number of digits to reverse, up to
+	 *            {@value #MAX_DECIMAL_DIGITS} - 1.
+	 * @return the reversed value.
+	 */
+	public static long reverseDigits(final long value, final int digits) {
+		long remainingValue = value;
+		int remainingDigits = digits;
+		long reversed = 0;
+
+		// reverse groups of 4 digits at once, lowest group first
+		while (remainingDigits >= DIGITS_PER_LOOKUP) {
+			reversed = reversed * LOOKUP_SIZE + REVERSED_DIGITS[(int) (remainingValue % LOOKUP_SIZE)];
+			remainingValue /= LOOKUP_SIZE;
+			remainingDigits -= DIGITS_PER_LOOKUP;
+		}
+
+		/*
+		 * The last group has less than 4 digits: its zero-padded reverse ends
+		 * with the padding, which has to be dropped.
+		 */
+		if (remainingDigits > 0) {
+			final long lastGroup = REVERSED_DIGITS[(int) remainingValue]
+					/ POWERS_OF_TEN[DIGITS_PER_LOOKUP - remainingDigits];
+			reversed = reversed * POWERS_OF_TEN[remainingDigits] + lastGroup;
+		}
+
+		return reversed;
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the progress of a {@link MiningExecutor} periodically (see
+ * {@link MiningExecutorMXBean}), from a daemon thread, until it is closed.
+ *
+ * Every report shows the rate since the previous report next to the rate
+ * since mining started, so that a run that slows down is noticed before it
+ * times out.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class ProgressReporter implements AutoCloseable {
+
+	/**
+	 * The executor to report the progress of.
+	 */
+	private final MiningExecutorMXBean mExecutor;
+
+	/**
+	 * Where to print the reports.
+	 */
+	private final PrintStream mOutput;
+
+	/**
+	 * The interval between reports (in millis).
+	 */
+	private final long mIntervalMillis;
+
+	/**
+	 * The thread printing the reports.
+	 */
+	private final Thread mThread;
+
+	/**
+	 * Creates a reporter, which does not report until it is started.
+	 *
+	 * @param executor
+	 *            the executor to report the progress of.
+	 * @param interval
+	 *            the interval between reports.
+	 * @param units
+	 *            the time unit of the interval.
+	 * @param output
+	 *            where to print the reports.
+	 */
+	ProgressReporter(final MiningExecutorMXBean executor, final long interval, final TimeUnit units,
+			final PrintStream output) {
+		mExecutor = executor;
+		mOutput = output;
+		mIntervalMillis = units.toMillis(interval);
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				reportUntilInterrupted();
+			}
+		}, "progress-reporter");
+		mThread.setDaemon(true);
+	}
+
+	/**
+	 * Stops reporting, waiting for the report in progress (if any) to be
+	 * printed.
+	 */
+	@Override
+	public void close() {
+		mThread.interrupt();
+		try {
+			mThread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Prints a single report.
+	 *
+	 * @param valuesMined
+	 *            the number of values mined so far.
+	 * @param recentRate
+	 *            the number of values mined per second since the previous
+	 *            report.
+	 */
+	private void report(final double valuesMined, final double recentRate) {
+		final double valuesRemaining = mExecutor.getValuesRemaining();
+		final double valuesToMine = valuesMined + valuesRemaining;
+		final double rate = mExecutor.getValuesPerSecond();
+		final long chunksDone = mExecutor.getChunksDone();
+
+		final StringBuilder report = new StringBuilder("progress: ");
+		report.append(String.format("%.1f%%", (valuesToMine > 0) ? 100 * valuesMined / valuesToMine : 100.0));
+		report.append(String.format(", %.0f numbers/s (now %.0f/s)", rate, recentRate));
+		report.append(", CivicBucks: ").append(mExecutor.getCivicBucksFound());
+		report.append(", chunks: ").append(chunksDone).append(" of ")
+				.append(chunksDone + mExecutor.getChunksRemaining());
+		if (rate > 0) {
+			report.append(String.format(", ETA: %.1f s", valuesRemaining / rate));
+		}
+		mOutput.println(report);
+	}
+
+	/**
+	 * Prints a report every interval until the current thread is interrupted.
+	 */
+	private void reportUntilInterrupted() {
+		double previousValues = mExecutor.getValuesMined();
+		long previousTime = System.nanoTime();
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(mIntervalMillis);
+			} catch (final InterruptedException e) {
+				return;
+			}
+
+			final double valuesMined = mExecutor.getValuesMined();
+			final long time = System.nanoTime();
+			report(valuesMined, (valuesMined - previousValues) * TimeUnit.SECONDS.toNanos(1) / (time - previousTime));
+			previousValues = valuesMined;
+			previousTime = time;
+		}
+	}
+
+	/**
+	 * Starts reporting.
+	 */
+	void start() {
+		mThread.start();
+	}
+}
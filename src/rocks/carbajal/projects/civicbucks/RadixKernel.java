@@ -0,0 +1,513 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic kernels for the palindromes of a single base (radix), for rules
+ * other than the decimal and binary palindromes of CivicBucks (see
+ * {@link MultiRadixAlgorithm}). The results are identical to comparing the
+ * representation of a number returned by {@link Long#toString(long, int)}
+ * with its reverse.
+ *
+ * Every base gets the cheapest way of splitting off its digits (see
+ * {@link #forBase(int)}):
+ * <ul>
+ * <li>decimal and binary, the kernels of {@link PalindromeKernels};</li>
+ * <li>powers of two, shifts and masks, and for bases whose digits tile a
+ * long evenly, a bit reversal like the binary kernel;</li>
+ * <li>every other base, a division by a constant: a multiplication by a
+ * precomputed reciprocal of the base and a shift, instead of a hardware
+ * division per digit.</li>
+ * </ul>
+ *
+ * Every method works on primitive values only and never allocates memory.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public abstract class RadixKernel {
+
+	/**
+	 * The binary base, backed by the kernel of {@link PalindromeKernels}.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class BinaryKernel extends ShiftKernel {
+
+		/**
+		 * Creates the kernel of the binary base.
+		 */
+		BinaryKernel() {
+			super(2);
+		}
+
+		@Override
+		public boolean isPalindrome(final long number) {
+			return number >= 0 && PalindromeKernels.isBinaryPalindrome(number);
+		}
+	}
+
+	/**
+	 * A base that is not a power of two, whose digits are split off by a
+	 * division by a constant.
+	 *
+	 * For a base <i>d</i> and <i>l</i> = ceil(log2(d)), the reciprocal
+	 * <i>m</i> = ceil(2^(63 + l) / d) fits in 64 bits, and the high 64 bits of
+	 * <i>m</i> * <i>n</i> shifted right by <i>l</i> - 1 are exactly
+	 * <i>n</i> / <i>d</i> for every <i>n</i> from 0 to
+	 * {@link Long#MAX_VALUE}.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class DivisionKernel extends RadixKernel {
+
+		/**
+		 * The reciprocal of the base, as an unsigned value.
+		 */
+		private final long mReciprocal;
+
+		/**
+		 * The shift of the high bits of the product with the reciprocal.
+		 */
+		private final int mShift;
+
+		/**
+		 * Creates the kernel of a base that is not a power of two.
+		 *
+		 * @param base
+		 *            the base, at least 3.
+		 */
+		DivisionKernel(final int base) {
+			super(base);
+
+			final int log = Integer.SIZE - Integer.numberOfLeadingZeros(base - 1);
+			final BigInteger divisor = BigInteger.valueOf(base);
+			mReciprocal = BigInteger.ONE.shiftLeft(Long.SIZE - 1 + log).add(divisor).subtract(BigInteger.ONE)
+					.divide(divisor).longValue();
+			mShift = log - 1;
+		}
+
+		@Override
+		long divide(final long value) {
+			return multiplyHigh(value, mReciprocal) >>> mShift;
+		}
+	}
+
+	/**
+	 * The decimal base, backed by the kernels of {@link PalindromeKernels}.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class DecimalKernel extends RadixKernel {
+
+		/**
+		 * Creates the kernel of the decimal base.
+		 */
+		DecimalKernel() {
+			super(10);
+		}
+
+		@Override
+		long divide(final long value) {
+			return value / 10;
+		}
+
+		@Override
+		public boolean isPalindrome(final long number) {
+			return PalindromeKernels.isDecimalPalindrome(number);
+		}
+
+		@Override
+		public int length(final long number) {
+			return PalindromeKernels.decimalLength(number);
+		}
+
+		@Override
+		public long reverse(final long value, final int digits) {
+			return PalindromeKernels.reverseDigits(value, digits);
+		}
+	}
+
+	/**
+	 * A base that is a power of two, whose digits are split off by shifts and
+	 * masks.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static class ShiftKernel extends RadixKernel {
+
+		/**
+		 * The masks that swap neighboring groups of 1, 2, 4, 8 and 16 bits.
+		 */
+		private static final long[] SWAP_MASKS = { 0x5555555555555555L, 0x3333333333333333L, 0x0F0F0F0F0F0F0F0FL,
+				0x00FF00FF00FF00FFL, 0x0000FFFF0000FFFFL };
+
+		/**
+		 * The number of bits of a digit.
+		 */
+		private final int mBits;
+
+		/**
+		 * The mask of the lowest digit.
+		 */
+		private final long mMask;
+
+		/**
+		 * Whether the digits tile a long evenly, so that a bit reversal
+		 * reverses them.
+		 */
+		private final boolean mTiled;
+
+		/**
+		 * Creates the kernel of a base that is a power of two.
+		 *
+		 * @param base
+		 *            the base, a power of two.
+		 */
+		ShiftKernel(final int base) {
+			super(base);
+			mBits = Integer.numberOfTrailingZeros(base);
+			mMask = base - 1;
+			mTiled = Long.SIZE % mBits == 0;
+		}
+
+		@Override
+		long divide(final long value) {
+			return value >>> mBits;
+		}
+
+		@Override
+		public boolean isPalindrome(final long number) {
+			if (!mTiled) {
+				return super.isPalindrome(number);
+			}
+			if (number <= 0) {
+				// "0" is a palindrome, the minus sign cannot be mirrored
+				return number == 0;
+			}
+
+			// shift out the leading zero digits, just like the binary kernel does
+			return reverseAll(number) >>> (Long.SIZE - length(number) * mBits) == number;
+		}
+
+		@Override
+		public int length(final long number) {
+			return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(number) + mBits - 1) / mBits);
+		}
+
+		/**
+		 * Reverses the order of all the digits of a long, for bases whose
+		 * digits tile it evenly.
+		 *
+		 * Reversing all 64 bits reverses the order of the digits, but also the
+		 * bits within every digit: swapping ever larger groups of bits within
+		 * every digit puts them back in order.
+		 *
+		 * @param value
+		 *            the value to reverse.
+		 * @return the value with its digits in reverse order.
+		 */
+		private long reverseAll(final long value) {
+			long reversed = Long.reverse(value);
+			for (int swap = 0; (1 << swap) < mBits; swap++) {
+				final int width = 1 << swap;
+				final long mask = SWAP_MASKS[swap];
+				reversed = ((reversed >>> width) & mask) | ((reversed & mask) << width);
+			}
+
+			return reversed;
+		}
+
+		@Override
+		public long reverse(final long value, final int digits) {
+			if (mTiled) {
+				return (digits == 0) ? 0 : reverseAll(value) >>> (Long.SIZE - digits * mBits);
+			}
+
+			long remaining = value;
+			long reversed = 0;
+			for (int digit = 0; digit < digits; digit++) {
+				reversed = (reversed << mBits) | (remaining & mMask);
+				remaining >>>= mBits;
+			}
+
+			return reversed;
+		}
+	}
+
+	/**
+	 * The highest base supported, that of {@link Character#MAX_RADIX}.
+	 */
+	public static final int MAX_BASE = Character.MAX_RADIX;
+
+	/**
+	 * The base.
+	 */
+	private final int mBase;
+
+	/**
+	 * The powers of the base within the limit of type long, from base^0.
+	 */
+	private final long[] mPowers;
+
+	/**
+	 * Creates the kernel of a base.
+	 *
+	 * @param base
+	 *            the base, from 2 to {@link #MAX_BASE}.
+	 */
+	RadixKernel(final int base) {
+		mBase = base;
+
+		int count = 1;
+		for (long power = 1; power <= Long.MAX_VALUE / base; power *= base) {
+			count++;
+		}
+		mPowers = new long[count];
+		mPowers[0] = 1;
+		for (int exponent = 1; exponent < count; exponent++) {
+			mPowers[exponent] = mPowers[exponent - 1] * base;
+		}
+	}
+
+	/**
+	 * Returns the kernel of the specified base.
+	 *
+	 * @param base
+	 *            the base, from 2 to {@link #MAX_BASE}.
+	 * @return the kernel.
+	 * @throws IllegalArgumentException
+	 *             if the base is not supported.
+	 */
+	public static RadixKernel forBase(final int base) {
+		if (base < 2 || base > MAX_BASE) {
+			throw new IllegalArgumentException("Invalid base: " + base + " (must be from 2 to " + MAX_BASE + ")");
+		}
+
+		if (base == 10) {
+			return new DecimalKernel();
+		}
+		if (base == 2) {
+			return new BinaryKernel();
+		}
+		if (Integer.bitCount(base) == 1) {
+			return new ShiftKernel(base);
+		}
+
+		return new DivisionKernel(base);
+	}
+
+	/**
+	 * Returns the high 64 bits of the unsigned product of two longs.
+	 *
+	 * @param first
+	 *            the first factor, as an unsigned value.
+	 * @param second
+	 *            the second factor, as an unsigned value.
+	 * @return the high 64 bits of the product.
+	 */
+	static long multiplyHigh(final long first, final long second) {
+		final long firstLow = first & 0xFFFFFFFFL;
+		final long firstHigh = first >>> 32;
+		final long secondLow = second & 0xFFFFFFFFL;
+		final long secondHigh = second >>> 32;
+
+		// none of the partial sums overflows 64 unsigned bits
+		final long lowLow = firstLow * secondLow;
+		final long middle = firstHigh * secondLow + (lowLow >>> 32);
+		final long cross = firstLow * secondHigh + (middle & 0xFFFFFFFFL);
+		return firstHigh * secondHigh + (middle >>> 32) + (cross >>> 32);
+	}
+
+	/**
+	 * Counts the palindromes of this base from {@code start} to {@code end}
+	 * (inclusive) without enumerating them.
+	 *
+	 * @param start
+	 *            the start of the range.
+	 * @param end
+	 *            the end of the range (inclusive).
+	 * @return the number of palindromes.
+	 */
+	public long countPalindromes(final long start, final long end) {
+		if (end < 0 || start > end) {
+			return 0;
+		}
+
+		return (start <= 0) ? countPalindromesUpTo(end) : countPalindromesUpTo(end) - countPalindromesUpTo(start - 1);
+	}
+
+	/**
+	 * Counts the palindromes of this base from 0 to {@code end} (inclusive):
+	 * all the palindromes with less digits than {@code end}, plus those of its
+	 * length whose left half is lower than its own, plus one if the
+	 * palindrome of its own left half does not exceed it.
+	 *
+	 * @param end
+	 *            the end of the range (inclusive), not negative.
+	 * @return the number of palindromes.
+	 */
+	private long countPalindromesUpTo(final long end) {
+		final int digits = length(end);
+		long count = mBase;
+		for (int length = 2; length < digits; length++) {
+			count += (mBase - 1) * mPowers[(length + 1) / 2 - 1];
+		}
+		if (digits == 1) {
+			return end + 1;
+		}
+
+		final int mirroredDigits = digits / 2;
+		final long half = end / mPowers[mirroredDigits];
+		count += half - mPowers[digits - mirroredDigits - 1];
+
+		final long tail = (digits % 2 == 0) ? half : divide(half);
+		final long reversedTail = reverse(tail, mirroredDigits);
+		if (half <= (Long.MAX_VALUE - reversedTail) / mPowers[mirroredDigits]
+				&& half * mPowers[mirroredDigits] + reversedTail <= end) {
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Divides a value by the base.
+	 *
+	 * @param value
+	 *            the value to divide, not negative.
+	 * @return the quotient.
+	 */
+	abstract long divide(long value);
+
+	/**
+	 * Returns the base of this kernel.
+	 */
+	public int getBase() {
+		return mBase;
+	}
+
+	/**
+	 * Returns the highest number of digits of a number within the limit of
+	 * type long.
+	 */
+	public int getMaxDigits() {
+		return mPowers.length;
+	}
+
+	/**
+	 * Finds out if the representation of the specified number in this base is
+	 * a palindrome.
+	 *
+	 * The lowest half of the digits is reversed while it is split off, and
+	 * then compared with the highest half (leaving out the middle digit for an
+	 * odd number of digits), so it never exceeds the limit of type long.
+	 *
+	 * @param number
+	 *            the number to check.
+	 * @return <code>true</code> if the representation is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean isPalindrome(final long number) {
+		if (number <= 0) {
+			// "0" is a palindrome, the minus sign cannot be mirrored
+			return number == 0;
+		}
+
+		final int digits = length(number);
+		long high = number;
+		long reversedLow = 0;
+		for (int digit = digits / 2; digit > 0; digit--) {
+			final long quotient = divide(high);
+			reversedLow = reversedLow * mBase + (high - quotient * mBase);
+			high = quotient;
+		}
+		if (digits % 2 != 0) {
+			high = divide(high);
+		}
+
+		return reversedLow == high;
+	}
+
+	/**
+	 * Returns the number of digits of a non-negative number in this base.
+	 *
+	 * @param number
+	 *            the number to measure.
+	 * @return the number of digits, where zero has one digit.
+	 */
+	public int length(final long number) {
+		int digits = 1;
+		while (digits < mPowers.length && number >= mPowers[digits]) {
+			digits++;
+		}
+
+		return digits;
+	}
+
+	/**
+	 * Returns the base raised to the specified exponent.
+	 *
+	 * @param exponent
+	 *            the exponent, lower than {@link #getMaxDigits()}.
+	 * @return the power of the base.
+	 */
+	public long power(final int exponent) {
+		return mPowers[exponent];
+	}
+
+	/**
+	 * Reverses the specified number of low digits of a non-negative value,
+	 * treating missing digits as leading zeros.
+	 *
+	 * @param value
+	 *            the value to reverse, lower than base^digits.
+	 * @param digits
+	 *            the number of digits to reverse, lower than
+	 *            {@link #getMaxDigits()}.
+	 * @return the reversed value.
+	 */
+	public long reverse(final long value, final int digits) {
+		long remaining = value;
+		long reversed = 0;
+		for (int digit = 0; digit < digits; digit++) {
+			final long quotient = divide(remaining);
+			reversed = reversed * mBase + (remaining - quotient * mBase);
+			remaining = quotient;
+		}
+
+		return reversed;
+	}
+
+	@Override
+	public String toString() {
+		return "base " + mBase;
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Generates, in ascending order, all the palindromes of a base (see
+ * {@link RadixKernel}) that lie within a range of non-negative numbers, by
+ * mirroring their left halves just like {@link PalindromeGenerator} does for
+ * the decimal ones.
+ *
+ * The generator works with primitive values only and does not allocate while
+ * iterating.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class RadixPalindromeGenerator {
+
+	/**
+	 * The kernel of the base of the palindromes.
+	 */
+	private final RadixKernel mKernel;
+
+	/**
+	 * The end of the range to generate (inclusive).
+	 */
+	private final long mEnd;
+
+	/**
+	 * The number of digits of the palindromes currently being generated.
+	 */
+	private int mDigits;
+
+	/**
+	 * The left half (including the middle digit for an odd number of digits)
+	 * of the next palindrome to build.
+	 */
+	private long mHalf;
+
+	/**
+	 * The first value that no longer fits in the left half for the current
+	 * number of digits (i.e. base^halfLength).
+	 */
+	private long mHalfLimit;
+
+	/**
+	 * The next palindrome to return, only meaningful if {@link #mHasNext} is
+	 * <code>true</code>.
+	 */
+	private long mNext;
+
+	/**
+	 * Whether there is a next palindrome within the range.
+	 */
+	private boolean mHasNext;
+
+	/**
+	 * Creates a generator for all the palindromes of the base of
+	 * {@code kernel} from {@code start} to {@code end} (inclusive). Negative
+	 * numbers are never palindromes, so the range is clamped at zero.
+	 *
+	 * @param kernel
+	 *            the kernel of the base.
+	 * @param start
+	 *            the start of the range.
+	 * @param end
+	 *            the end of the range (inclusive).
+	 */
+	public RadixPalindromeGenerator(final RadixKernel kernel, final long start, final long end) {
+		mKernel = kernel;
+		mEnd = end;
+
+		final long from = Math.max(start, 0);
+		if (from > end) {
+			mHasNext = false;
+			return;
+		}
+
+		// skip the mirror of the first half if it is lower than the start
+		setDigits(kernel.length(from));
+		mHalf = from / kernel.power(mDigits - halfLength(mDigits));
+
+		advance();
+		while (mHasNext && mNext < from) {
+			advance();
+		}
+	}
+
+	/**
+	 * Returns the number of digits of the left half of a palindrome, including
+	 * the middle digit for an odd number of digits.
+	 *
+	 * @param digits
+	 *            the number of digits of the palindrome.
+	 * @return the number of digits of its left half.
+	 */
+	private static int halfLength(final int digits) {
+		return (digits + 1) / 2;
+	}
+
+	/**
+	 * Builds the next palindrome from the current left half and moves on to
+	 * the next half, updating {@link #mHasNext}.
+	 */
+	private void advance() {
+		if (mHalf == mHalfLimit) {
+			// all the halves of this length were used, add one more digit
+			if (mDigits == mKernel.getMaxDigits()) {
+				mHasNext = false;
+				return;
+			}
+			setDigits(mDigits + 1);
+			mHalf = mKernel.divide(mHalfLimit);
+		}
+
+		final int mirroredDigits = mDigits - halfLength(mDigits);
+		final long tail = (mDigits % 2 == 0) ? mHalf : mKernel.divide(mHalf);
+		final long reversedTail = mKernel.reverse(tail, mirroredDigits);
+
+		// only the longest palindromes can exceed the limit of type long
+		final long multiplier = mKernel.power(mirroredDigits);
+		if (mDigits == mKernel.getMaxDigits() && mHalf > (Long.MAX_VALUE - reversedTail) / multiplier) {
+			mHasNext = false;
+			return;
+		}
+
+		mNext = mHalf * multiplier + reversedTail;
+		mHasNext = mNext <= mEnd;
+		mHalf++;
+	}
+
+	/**
+	 * Returns <code>true</code> if there are more palindromes in the range.
+	 */
+	public boolean hasNext() {
+		return mHasNext;
+	}
+
+	/**
+	 * Returns the next palindrome in the range, in ascending order.
+	 *
+	 * @return the next palindrome.
+	 * @throws NoSuchElementException
+	 *             if there are no more palindromes in the range.
+	 */
+	public long next() {
+		if (!mHasNext) {
+			throw new NoSuchElementException();
+		}
+
+		final long palindrome = mNext;
+		advance();
+		return palindrome;
+	}
+
+	/**
+	 * Sets the number of digits of the palindromes being generated.
+	 *
+	 * @param digits
+	 *            the number of digits.
+	 */
+	private void setDigits(final int digits) {
+		mDigits = digits;
+		mHalfLimit = mKernel.power(halfLength(digits));
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans how a block is split into contiguous chunks (see {@link BlockRange})
+ * for concurrent mining.
+ *
+ * The plan covers the block exactly: the first chunk starts at the start of the
+ * block, every chunk starts right after the previous one ends and the last
+ * chunk ends at the end of the block. All the arithmetic is safe from overflow,
+ * even for blocks that span the entire range of type long.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class RangePartitioner {
+
+	/**
+	 * The number of chunks planned per thread, so that threads which finish
+	 * early have chunks left to take over from slower threads.
+	 */
+	public static final int CHUNKS_PER_THREAD = 16;
+
+	/**
+	 * The default minimum number of values in a chunk.
+	 */
+	public static final long DEFAULT_MIN_CHUNK_SIZE = 10000;
+
+	/**
+	 * The minimum number of values in a chunk, except for the last chunk of a
+	 * block, which holds whatever is left.
+	 */
+	private final long mMinChunkSize;
+
+	/**
+	 * Creates a partitioner with the default minimum chunk size (see
+	 * {@link #DEFAULT_MIN_CHUNK_SIZE}).
+	 */
+	public RangePartitioner() {
+		this(DEFAULT_MIN_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a partitioner with the specified minimum chunk size.
+	 *
+	 * @param minChunkSize
+	 *            the minimum number of values in a chunk.
+	 * @throws IllegalArgumentException
+	 *             if {@code minChunkSize} is lower than 1.
+	 */
+	public RangePartitioner(final long minChunkSize) {
+		if (minChunkSize < 1) {
+			throw new IllegalArgumentException("The minimum chunk size must be at least 1.");
+		}
+
+		mMinChunkSize = minChunkSize;
+	}
+
+	/**
+	 * Compares two long values as if they were unsigned.
+	 *
+	 * @return <code>true</code> if {@code a} is lower than {@code b}.
+	 */
+	private static boolean isUnsignedLower(final long a, final long b) {
+		return (a + Long.MIN_VALUE) < (b + Long.MIN_VALUE);
+	}
+
+	/**
+	 * Returns the minimum number of values in a chunk.
+	 */
+	public long getMinChunkSize() {
+		return mMinChunkSize;
+	}
+
+	/**
+	 * Splits a block of any size from {@code start} to {@code end} (inclusive)
+	 * into contiguous chunks, in ascending order, just like
+	 * {@link #partition(long, long, int)} does for blocks within the limit of
+	 * type long.
+	 *
+	 * @param start
+	 *            the start of the block.
+	 * @param end
+	 *            the end of the block (inclusive).
+	 * @param numberOfThreads
+	 *            the number of threads that will mine the chunks.
+	 * @return the chunks that cover the block, in ascending order.
+	 * @throws IllegalArgumentException
+	 *             if {@code start} is greater than {@code end}.
+	 */
+	public List<BlockRange> partition(final BigInteger start, final BigInteger end, final int numberOfThreads) {
+		if (start.compareTo(end) > 0) {
+			throw new IllegalArgumentException("Invalid block: " + start + " to " + end);
+		}
+
+		final BigInteger size = end.subtract(start).add(BigInteger.ONE);
+		final BigInteger plannedChunks = BigInteger.valueOf(Math.max(1, (long) numberOfThreads * CHUNKS_PER_THREAD));
+
+		// round up, so that there are never more chunks than planned
+		final BigInteger plannedChunkSize = size.add(plannedChunks).subtract(BigInteger.ONE).divide(plannedChunks);
+		final BigInteger chunkSize = plannedChunkSize.max(BigInteger.valueOf(mMinChunkSize));
+
+		final List<BlockRange> chunks = new ArrayList<BlockRange>();
+		BigInteger chunkStart = start;
+		while (chunkStart.compareTo(end) <= 0) {
+			final BigInteger chunkEnd = chunkStart.add(chunkSize).subtract(BigInteger.ONE).min(end);
+			chunks.add(new BlockRange(chunkStart, chunkEnd));
+			chunkStart = chunkEnd.add(BigInteger.ONE);
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Splits the block from {@code start} to {@code end} (inclusive) into
+	 * contiguous chunks, in ascending order.
+	 *
+	 * The block is split in {@link #CHUNKS_PER_THREAD} chunks per thread,
+	 * unless that makes the chunks smaller than the minimum chunk size.
+	 *
+	 * @param start
+	 *            the start of the block.
+	 * @param end
+	 *            the end of the block (inclusive).
+	 * @param numberOfThreads
+	 *            the number of threads that will mine the chunks.
+	 * @return the chunks that cover the block, in ascending order.
+	 * @throws IllegalArgumentException
+	 *             if {@code start} is greater than {@code end}.
+	 */
+	public List<BlockRange> partition(final long start, final long end, final int numberOfThreads) {
+		if (start > end) {
+			throw new IllegalArgumentException("Invalid block: " + start + " to " + end);
+		}
+
+		/*
+		 * The distance between start and end always fits in 64 bits when
+		 * read as an unsigned value, but the number of values in the block
+		 * (distance + 1) may not. Halving the distance keeps the computation of
+		 * the chunk size within the limit of type long; rounding up makes sure
+		 * there are never more chunks than planned.
+		 */
+		final long distance = end - start;
+		final long plannedChunks = Math.max(1, (long) numberOfThreads * CHUNKS_PER_THREAD);
+		final long halfChunkSize = (distance >>> 1) / plannedChunks + 1;
+		final long plannedChunkSize = (halfChunkSize > Long.MAX_VALUE / 2) ? Long.MAX_VALUE : halfChunkSize * 2;
+		final long chunkSize = Math.max(mMinChunkSize, plannedChunkSize);
+
+		final List<BlockRange> chunks = new ArrayList<BlockRange>();
+		long chunkStart = start;
+		while (true) {
+			// remaining distance to the end, read as an unsigned value
+			final long remaining = end - chunkStart;
+			if (isUnsignedLower(remaining, chunkSize)) {
+				chunks.add(new BlockRange(chunkStart, end));
+				return chunks;
+			}
+
+			final long chunkEnd = chunkStart + (chunkSize - 1);
+			chunks.add(new BlockRange(chunkStart, chunkEnd));
+			chunkStart = chunkEnd + 1;
+		}
+	}
+
+	/**
+	 * Splits a block of any size into chunks, in ascending order, after
+	 * splitting it at the upper bounds of the numeric tiers (see
+	 * {@link NumericTier}), so that every chunk gets the cheapest tier that
+	 * can hold it. Every tier's part of the block is split like
+	 * {@link #partition(long, long, int)} or
+	 * {@link #partition(BigInteger, BigInteger, int)} do.
+	 *
+	 * @param start
+	 *            the start of the block, not lower than {@link Long#MIN_VALUE}.
+	 * @param end
+	 *            the end of the block (inclusive).
+	 * @param numberOfThreads
+	 *            the number of threads that will mine the chunks.
+	 * @return the chunks that cover the block, in ascending order.
+	 */
+	public List<BlockRange> partitionByTier(final BigInteger start, final BigInteger end, final int numberOfThreads) {
+		final List<BlockRange> chunks = new ArrayList<BlockRange>();
+
+		BigInteger segmentStart = start;
+		for (final NumericTier tier : NumericTier.values()) {
+			if (segmentStart.compareTo(end) > 0) {
+				break;
+			}
+			if (!tier.canHold(segmentStart)) {
+				continue;
+			}
+
+			final BigInteger segmentEnd = tier.canHold(end) ? end : tier.getUpperBound();
+			if (tier == NumericTier.LONG) {
+				chunks.addAll(partition(segmentStart.longValue(), segmentEnd.longValue(), numberOfThreads));
+			} else {
+				chunks.addAll(partition(segmentStart, segmentEnd, numberOfThreads));
+			}
+
+			segmentStart = segmentEnd.add(BigInteger.ONE);
+		}
+
+		return chunks;
+	}
+}
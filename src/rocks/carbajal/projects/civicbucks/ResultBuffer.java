@@ -0,0 +1,265 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A compact, growable buffer of the CivicBucks found by a mining task, in
+ * ascending order.
+ *
+ * Numbers are stored as primitive 64-bit words only: a single word per number
+ * for blocks within the limit of type long (8 bytes per CivicBuck), or a fixed
+ * number of words per number (the unsigned magnitude, most significant word
+ * first) for blocks beyond it. Formatting is left to the consumers (see
+ * {@link CivicBucksCursor}).
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class ResultBuffer {
+
+	/**
+	 * The number of CivicBucks the buffer has room for when created.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The number of 64-bit words used by every number.
+	 */
+	private final int mWordsPerNumber;
+
+	/**
+	 * The words of all numbers, one after another.
+	 */
+	private long[] mWords;
+
+	/**
+	 * The number of CivicBucks in the buffer.
+	 */
+	private int mSize;
+
+	/**
+	 * Creates an empty buffer.
+	 *
+	 * @param wordsPerNumber
+	 *            the number of 64-bit words used by every number, 1 for
+	 *            numbers of type long.
+	 * @throws IllegalArgumentException
+	 *             if {@code wordsPerNumber} is lower than 1.
+	 */
+	public ResultBuffer(final int wordsPerNumber) {
+		if (wordsPerNumber < 1) {
+			throw new IllegalArgumentException("A number needs at least one word.");
+		}
+
+		mWordsPerNumber = wordsPerNumber;
+		mWords = new long[INITIAL_CAPACITY * wordsPerNumber];
+	}
+
+	/**
+	 * Creates a buffer holding the specified words, e.g. read back from a
+	 * {@link CheckpointJournal}.
+	 *
+	 * @param wordsPerNumber
+	 *            the number of 64-bit words used by every number.
+	 * @param words
+	 *            the words of all numbers, one after another. The array is
+	 *            not copied.
+	 * @throws IllegalArgumentException
+	 *             if {@code wordsPerNumber} is lower than 1, or if the words
+	 *             are not a whole number of numbers.
+	 */
+	ResultBuffer(final int wordsPerNumber, final long[] words) {
+		if (wordsPerNumber < 1 || words.length % wordsPerNumber != 0) {
+			throw new IllegalArgumentException("Invalid words for " + wordsPerNumber + " words per number.");
+		}
+
+		mWordsPerNumber = wordsPerNumber;
+		mWords = words;
+		mSize = words.length / wordsPerNumber;
+	}
+
+	/**
+	 * Returns the number of 64-bit words needed for every non-negative number
+	 * up to the specified one.
+	 *
+	 * @param highest
+	 *            the highest number to store.
+	 * @return the number of words per number, at least 1.
+	 */
+	public static int wordsFor(final BigInteger highest) {
+		if (highest.bitLength() < Long.SIZE) {
+			return 1;
+		}
+
+		// a single word is read as a signed long, so wider numbers need two
+		return Math.max(2, (highest.bitLength() + Long.SIZE - 1) / Long.SIZE);
+	}
+
+	/**
+	 * Appends a number of any size to the buffer.
+	 *
+	 * @param number
+	 *            the number to append, non-negative if the buffer uses more
+	 *            than one word per number.
+	 * @throws ArithmeticException
+	 *             if the number does not fit in the words of the buffer.
+	 */
+	public void add(final BigInteger number) {
+		if (mWordsPerNumber == 1) {
+			add(number.longValue());
+			return;
+		}
+		if (number.signum() < 0 || number.bitLength() > mWordsPerNumber * Long.SIZE) {
+			throw new ArithmeticException("Number does not fit in the buffer: " + number);
+		}
+
+		ensureCapacity();
+		final int offset = mSize * mWordsPerNumber;
+		for (int word = 0; word < mWordsPerNumber; word++) {
+			mWords[offset + word] = number.shiftRight(Long.SIZE * (mWordsPerNumber - 1 - word)).longValue();
+		}
+		mSize++;
+	}
+
+	/**
+	 * Appends a number of type long to a buffer of one word per number.
+	 *
+	 * @param number
+	 *            the number to append.
+	 */
+	public void add(final long number) {
+		ensureCapacity();
+		mWords[mSize] = number;
+		mSize++;
+	}
+
+	/**
+	 * Appends an unsigned 128-bit number to a buffer of two words per number.
+	 *
+	 * @param high
+	 *            the high 64 bits of the number.
+	 * @param low
+	 *            the low 64 bits of the number.
+	 */
+	public void add(final long high, final long low) {
+		ensureCapacity();
+		final int offset = mSize * mWordsPerNumber;
+		mWords[offset] = high;
+		mWords[offset + 1] = low;
+		mSize++;
+	}
+
+	/**
+	 * Makes sure there is room for one more number, doubling the capacity of
+	 * the buffer if needed.
+	 */
+	private void ensureCapacity() {
+		if ((mSize + 1) * mWordsPerNumber > mWords.length) {
+			mWords = Arrays.copyOf(mWords, Math.max(mWords.length * 2, INITIAL_CAPACITY * mWordsPerNumber));
+		}
+	}
+
+	/**
+	 * Returns the number at the specified position as a long, only available
+	 * for buffers of one word per number.
+	 *
+	 * @param index
+	 *            the position of the number.
+	 * @return the number.
+	 * @throws IllegalStateException
+	 *             if the buffer uses more than one word per number.
+	 */
+	public long getLong(final int index) {
+		if (mWordsPerNumber != 1) {
+			throw new IllegalStateException("Numbers exceed the limit of type long.");
+		}
+
+		return mWords[index];
+	}
+
+	/**
+	 * Returns the number at the specified position, of any size.
+	 *
+	 * @param index
+	 *            the position of the number.
+	 * @return the number.
+	 */
+	public BigInteger getValue(final int index) {
+		if (mWordsPerNumber == 1) {
+			return BigInteger.valueOf(mWords[index]);
+		}
+
+		final byte[] magnitude = new byte[mWordsPerNumber * 8];
+		final int offset = index * mWordsPerNumber;
+		for (int word = 0; word < mWordsPerNumber; word++) {
+			final long value = mWords[offset + word];
+			for (int part = 0; part < 8; part++) {
+				magnitude[word * 8 + part] = (byte) (value >>> (56 - 8 * part));
+			}
+		}
+
+		return new BigInteger(1, magnitude);
+	}
+
+	/**
+	 * Returns a single word of the buffer, e.g. for writing it to a
+	 * {@link CheckpointJournal}.
+	 *
+	 * @param wordIndex
+	 *            the position of the word, counting all the words of all
+	 *            numbers one after another.
+	 * @return the word.
+	 */
+	long getWord(final int wordIndex) {
+		return mWords[wordIndex];
+	}
+
+	/**
+	 * Returns the number of 64-bit words used by every number.
+	 */
+	public int getWordsPerNumber() {
+		return mWordsPerNumber;
+	}
+
+	/**
+	 * Returns the number of CivicBucks in the buffer.
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Releases the unused capacity of the buffer, once no more numbers will be
+	 * appended.
+	 */
+	public void trimToSize() {
+		final int length = mSize * mWordsPerNumber;
+		if (length < mWords.length) {
+			mWords = Arrays.copyOf(mWords, length);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the results of a run over to a {@link MiningListener} on a thread of
+ * its own, so that a listener never runs on a mining thread.
+ *
+ * The results not delivered yet are held in a queue of bounded capacity: once
+ * it is full, the mining threads wait for the listener to catch up, which
+ * keeps the memory held by a slow listener bounded (backpressure). A mining
+ * thread never waits for a feed that cannot drain the queue any more: results
+ * published once the feed was finished, or once its thread died, are dropped.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class ResultFeed {
+
+	/**
+	 * The time (in millis) a mining thread waits for room in the queue before
+	 * it checks whether the feed can still drain it.
+	 */
+	private static final long OFFER_MILLIS = 100;
+
+	/**
+	 * The listener to deliver the results to.
+	 */
+	private final MiningListener mListener;
+
+	/**
+	 * The results not delivered yet, in order of completion.
+	 */
+	private final BlockingQueue<TaskResult> mQueue;
+
+	/**
+	 * The combined results of the run, set once every chunk was published.
+	 */
+	private volatile MiningExecutorResults mResults = null;
+
+	/**
+	 * A marker queued after the last result.
+	 */
+	private final TaskResult mEnd = new TaskResult(null, 0);
+
+	/**
+	 * The thread delivering the results.
+	 */
+	private final Thread mFeedThread;
+
+	/**
+	 * Whether the feed was finished: nothing is published after the end
+	 * marker.
+	 */
+	private volatile boolean mFinished = false;
+
+	/**
+	 * Creates a feed and starts its thread.
+	 *
+	 * @param listener
+	 *            the listener to deliver the results to.
+	 * @param capacity
+	 *            the maximum number of results not delivered yet.
+	 */
+	ResultFeed(final MiningListener listener, final int capacity) {
+		mListener = listener;
+		mQueue = new ArrayBlockingQueue<TaskResult>(capacity);
+
+		mFeedThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				deliverResults();
+			}
+		}, "civicbucks-listener");
+		mFeedThread.setDaemon(true);
+		mFeedThread.start();
+	}
+
+	/**
+	 * The loop of the feed thread: delivers the results in order of
+	 * completion, then the combined results of the run.
+	 */
+	private void deliverResults() {
+		try {
+			while (true) {
+				final TaskResult result = mQueue.take();
+				if (result == mEnd) {
+					mListener.miningDone(mResults);
+					return;
+				}
+
+				try {
+					mListener.rangeMined(result);
+				} catch (final RuntimeException e) {
+					// a failing listener must not hold the mining threads back
+					e.printStackTrace();
+				}
+			}
+		} catch (final InterruptedException e) {
+			// nobody else interrupts this thread, just stop delivering
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Ends the feed with the combined results of the run, once every chunk was
+	 * published.
+	 *
+	 * @param results
+	 *            the results of the run.
+	 */
+	void finish(final MiningExecutorResults results) {
+		mResults = results;
+		mFinished = true;
+		put(mEnd);
+	}
+
+	/**
+	 * Publishes the result of a chunk, waiting for room in the queue if the
+	 * listener is behind. The result is dropped if the feed was already
+	 * finished.
+	 *
+	 * @param result
+	 *            the result of the chunk.
+	 */
+	void publish(final TaskResult result) {
+		if (mFinished) {
+			// too late, the listener was already told about the whole run
+			return;
+		}
+
+		put(result);
+	}
+
+	/**
+	 * Queues a result, waiting for room without giving up on interruptions
+	 * (every published result must be delivered), but only as long as the
+	 * feed thread can drain the queue.
+	 *
+	 * @param result
+	 *            the result to queue.
+	 */
+	private void put(final TaskResult result) {
+		if (mQueue.offer(result)) {
+			return;
+		}
+
+		// the listener is behind
+		final long startTime = MiningRecorder.WAIT_ENABLED ? System.nanoTime() : 0;
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (mQueue.offer(result, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+			if (!mFeedThread.isAlive() || (result != mEnd && mFinished)) {
+				// nobody will ever make room, drop the result
+				break;
+			}
+		}
+
+		if (MiningRecorder.WAIT_ENABLED) {
+			MiningRecorder.record(MiningRecorder.WAIT, startTime, null, result);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
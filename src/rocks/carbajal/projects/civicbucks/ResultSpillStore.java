@@ -0,0 +1,590 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A sink for the CivicBucks of a {@link MiningExecutor} that keeps them off
+ * the heap, so that blocks of any size can be mined without writing out their
+ * CivicBucks while mining (e.g. for a shard file) at a flat heap footprint.
+ *
+ * The CivicBucks of every completed task are copied into direct buffer
+ * segments as soon as the task completes, and its {@link ResultBuffer} is
+ * released. Tasks complete in any order, so the segments hold pieces of
+ * ascending numbers rather than a single sorted sequence. Once the segments
+ * reach a threshold (by default a fraction of the max heap size read from the
+ * {@link java.lang.management.MemoryMXBean}, which is also the default limit
+ * of direct memory), or the heap itself is nearly full, the pieces are merged
+ * into a sorted run in a memory-mapped temporary file and the segments are
+ * reused. The runs and the pieces still in memory are merged again when the
+ * CivicBucks are read back (see {@link #cursor()}).
+ *
+ * If a run cannot be spilled, the CivicBucks stay in the segments, no more
+ * runs are spilled, and the error is reported on {@link #close()}, like a
+ * {@link CheckpointJournal} does.
+ *
+ * Numbers take a fixed number of 64-bit words, the ones of the end of the
+ * block (see {@link ResultBuffer#wordsFor(BigInteger)}); numbers of type long
+ * are widened when the block goes beyond it.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class ResultSpillStore implements Closeable {
+
+	/**
+	 * A sorted sequence of numbers to merge, either a piece of a segment or a
+	 * spilled run, along with the position of the next number to read.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class Source {
+
+		/**
+		 * The words of the numbers.
+		 */
+		private final LongBuffer mWords;
+
+		/**
+		 * The position of the next number to read (in numbers).
+		 */
+		private int mNext;
+
+		/**
+		 * The position after the last number (in numbers).
+		 */
+		private int mEnd;
+
+		/**
+		 * Creates a sequence of numbers.
+		 *
+		 * @param words
+		 *            the words of the numbers.
+		 * @param start
+		 *            the position of the first number.
+		 * @param end
+		 *            the position after the last number.
+		 */
+		Source(final LongBuffer words, final int start, final int end) {
+			mWords = words;
+			mNext = start;
+			mEnd = end;
+		}
+	}
+
+	/**
+	 * A k-way merge of sorted sources, with a binary heap of the sources by
+	 * their next number.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private final class Merge {
+
+		/**
+		 * The sources that still have numbers, the one with the lowest next
+		 * number first.
+		 */
+		private final Source[] mHeap;
+
+		/**
+		 * The number of sources in the heap.
+		 */
+		private int mHeapSize = 0;
+
+		/**
+		 * Creates a merge of the specified sources.
+		 *
+		 * @param sources
+		 *            the sources, each in ascending order.
+		 */
+		Merge(final List<Source> sources) {
+			mHeap = new Source[sources.size()];
+			for (final Source source : sources) {
+				if (source.mNext < source.mEnd) {
+					mHeap[mHeapSize++] = source;
+				}
+			}
+			for (int index = mHeapSize / 2 - 1; index >= 0; index--) {
+				siftDown(index);
+			}
+		}
+
+		/**
+		 * Returns <code>true</code> if there are no more numbers to merge.
+		 */
+		boolean isEmpty() {
+			return mHeapSize == 0;
+		}
+
+		/**
+		 * Returns the source with the lowest next number, which the caller
+		 * reads and then moves past with {@link #advance()}.
+		 */
+		Source peek() {
+			return mHeap[0];
+		}
+
+		/**
+		 * Moves past the lowest next number.
+		 */
+		void advance() {
+			final Source top = mHeap[0];
+			top.mNext++;
+			if (top.mNext == top.mEnd) {
+				mHeapSize--;
+				mHeap[0] = mHeap[mHeapSize];
+				mHeap[mHeapSize] = null;
+			}
+			if (mHeapSize > 1) {
+				siftDown(0);
+			}
+		}
+
+		/**
+		 * Moves a source down the heap to its place.
+		 */
+		private void siftDown(final int index) {
+			final Source source = mHeap[index];
+			int hole = index;
+			while (2 * hole + 1 < mHeapSize) {
+				int child = 2 * hole + 1;
+				if (child + 1 < mHeapSize && compare(mHeap[child + 1], mHeap[child]) < 0) {
+					child++;
+				}
+				if (compare(mHeap[child], source) >= 0) {
+					break;
+				}
+				mHeap[hole] = mHeap[child];
+				hole = child;
+			}
+			mHeap[hole] = source;
+		}
+	}
+
+	/**
+	 * The size of a direct buffer segment (in bytes).
+	 */
+	private static final int SEGMENT_SIZE = 1024 * 1024;
+
+	/**
+	 * The largest threshold, so that a spilled run fits in a single mapping.
+	 */
+	private static final long MAX_THRESHOLD = 1L << 30;
+
+	/**
+	 * The fraction of the max heap size used as the default threshold.
+	 */
+	private static final int HEAP_FRACTION = 8;
+
+	/**
+	 * The percentage of the max heap size above which the segments are
+	 * spilled regardless of the threshold.
+	 */
+	private static final int HEAP_USAGE_LIMIT = 75;
+
+	/**
+	 * The number of CivicBucks read back at a time by a cursor.
+	 */
+	private static final int BATCH_SIZE = 4096;
+
+	/**
+	 * The directory of the temporary files.
+	 */
+	private final Path mDirectory;
+
+	/**
+	 * The number of 64-bit words used by every number.
+	 */
+	private final int mWordsPerNumber;
+
+	/**
+	 * The size of the segments (in bytes) that makes them spill.
+	 */
+	private final long mThreshold;
+
+	/**
+	 * The number of whole numbers that fit in a segment.
+	 */
+	private final int mNumbersPerSegment;
+
+	/**
+	 * The segments holding the CivicBucks not spilled yet.
+	 */
+	private final List<LongBuffer> mSegments = new ArrayList<LongBuffer>();
+
+	/**
+	 * The segments released by the last spill, to be reused.
+	 */
+	private final List<LongBuffer> mFreeSegments = new ArrayList<LongBuffer>();
+
+	/**
+	 * The pieces of ascending numbers in the segments, one per task (or two
+	 * if a task crossed into a new segment).
+	 */
+	private final List<Source> mPieces = new ArrayList<Source>();
+
+	/**
+	 * The spilled runs, each in ascending order.
+	 */
+	private final List<Source> mRuns = new ArrayList<Source>();
+
+	/**
+	 * The temporary files of the spilled runs.
+	 */
+	private final List<Path> mRunFiles = new ArrayList<Path>();
+
+	/**
+	 * The number of numbers in the last segment.
+	 */
+	private int mSegmentSize = 0;
+
+	/**
+	 * The number of CivicBucks in the store.
+	 */
+	private int mSize = 0;
+
+	/**
+	 * The first error that occurred while spilling, if any.
+	 */
+	private IOException mError = null;
+
+	/**
+	 * Whether the CivicBucks are being read back, after which no more can be
+	 * added.
+	 */
+	private boolean mReading = false;
+
+	/**
+	 * Creates a store with a threshold of a fraction of the max heap size.
+	 *
+	 * @param directory
+	 *            the directory of the temporary files of the spilled runs.
+	 * @param wordsPerNumber
+	 *            the number of 64-bit words used by every number (see
+	 *            {@link ResultBuffer#wordsFor(BigInteger)}).
+	 */
+	public ResultSpillStore(final Path directory, final int wordsPerNumber) {
+		this(directory, wordsPerNumber, defaultThreshold());
+	}
+
+	/**
+	 * Creates a store with the specified threshold.
+	 *
+	 * @param directory
+	 *            the directory of the temporary files of the spilled runs.
+	 * @param wordsPerNumber
+	 *            the number of 64-bit words used by every number (see
+	 *            {@link ResultBuffer#wordsFor(BigInteger)}).
+	 * @param threshold
+	 *            the size of the segments (in bytes) that makes them spill,
+	 *            rounded up to a whole segment and capped at 1 GiB.
+	 * @throws IllegalArgumentException
+	 *             if {@code wordsPerNumber} is lower than 1, or if the
+	 *             threshold is not positive.
+	 */
+	public ResultSpillStore(final Path directory, final int wordsPerNumber, final long threshold) {
+		if (wordsPerNumber < 1) {
+			throw new IllegalArgumentException("A number needs at least one word.");
+		}
+		if (threshold <= 0) {
+			throw new IllegalArgumentException("The threshold must be positive.");
+		}
+
+		mDirectory = directory;
+		mWordsPerNumber = wordsPerNumber;
+		mThreshold = Math.min(threshold, MAX_THRESHOLD);
+		mNumbersPerSegment = SEGMENT_SIZE / 8 / wordsPerNumber;
+	}
+
+	/**
+	 * Returns the default threshold: a fraction of the max heap size reported
+	 * by the {@link java.lang.management.MemoryMXBean}, or of the memory
+	 * available to the runtime if it has no max.
+	 */
+	private static long defaultThreshold() {
+		long max = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+		if (max < 0) {
+			max = Runtime.getRuntime().maxMemory();
+		}
+
+		return Math.max(SEGMENT_SIZE, max / HEAP_FRACTION);
+	}
+
+	/**
+	 * Compares the next numbers of two sources, as unsigned magnitudes.
+	 */
+	private int compare(final Source first, final Source second) {
+		final int firstOffset = first.mNext * mWordsPerNumber;
+		final int secondOffset = second.mNext * mWordsPerNumber;
+		for (int word = 0; word < mWordsPerNumber; word++) {
+			// flipping the sign bit orders the words as unsigned numbers
+			final long firstWord = first.mWords.get(firstOffset + word) ^ Long.MIN_VALUE;
+			final long secondWord = second.mWords.get(secondOffset + word) ^ Long.MIN_VALUE;
+			if (firstWord != secondWord) {
+				return (firstWord < secondWord) ? -1 : 1;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Copies the CivicBucks found by a task into the store. The buffer may be
+	 * released afterwards.
+	 *
+	 * @param civicBucks
+	 *            the CivicBucks, in ascending order, with at most as many
+	 *            words per number as the store.
+	 * @throws IllegalStateException
+	 *             if the CivicBucks are already being read back.
+	 */
+	public synchronized void add(final ResultBuffer civicBucks) {
+		if (mReading) {
+			throw new IllegalStateException("The CivicBucks are already being read back.");
+		}
+		if (civicBucks.getWordsPerNumber() > mWordsPerNumber) {
+			throw new IllegalArgumentException("The CivicBucks exceed the words per number of the store.");
+		}
+
+		final int padding = mWordsPerNumber - civicBucks.getWordsPerNumber();
+		Source piece = null;
+		for (int index = 0; index < civicBucks.size(); index++) {
+			if (mSegments.isEmpty() || mSegmentSize == mNumbersPerSegment) {
+				nextSegment();
+				piece = null;
+			}
+			final LongBuffer segment = mSegments.get(mSegments.size() - 1);
+			if (piece == null) {
+				piece = new Source(segment, mSegmentSize, mSegmentSize);
+				mPieces.add(piece);
+			}
+
+			// the words of a number are zero-extended, most significant first
+			int offset = mSegmentSize * mWordsPerNumber;
+			for (int word = 0; word < padding; word++) {
+				segment.put(offset++, 0);
+			}
+			final int wordOffset = index * civicBucks.getWordsPerNumber();
+			for (int word = 0; word < civicBucks.getWordsPerNumber(); word++) {
+				segment.put(offset++, civicBucks.getWord(wordOffset + word));
+			}
+			mSegmentSize++;
+			piece.mEnd++;
+		}
+
+		mSize += civicBucks.size();
+	}
+
+	/**
+	 * Deletes the temporary files of the spilled runs.
+	 *
+	 * @throws IOException
+	 *             if a file cannot be deleted, or if spilling failed before.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		mSegments.clear();
+		mFreeSegments.clear();
+		mPieces.clear();
+		mRuns.clear();
+
+		IOException error = mError;
+		for (final Path file : mRunFiles) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (final IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		mRunFiles.clear();
+
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Returns a new cursor over all CivicBucks in the store, in ascending
+	 * order. No more CivicBucks may be added afterwards.
+	 */
+	public synchronized CivicBucksCursor cursor() {
+		mReading = true;
+
+		final List<Source> sources = new ArrayList<Source>(mRuns.size() + mPieces.size());
+		for (final Source source : mRuns) {
+			sources.add(new Source(source.mWords.duplicate(), source.mNext, source.mEnd));
+		}
+		for (final Source source : mPieces) {
+			sources.add(new Source(source.mWords.duplicate(), source.mNext, source.mEnd));
+		}
+		final Merge merge = new Merge(sources);
+
+		return new CivicBucksCursor(new Iterator<ResultBuffer>() {
+
+			@Override
+			public boolean hasNext() {
+				return !merge.isEmpty();
+			}
+
+			@Override
+			public ResultBuffer next() {
+				if (merge.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+
+				final long[] words = new long[BATCH_SIZE * mWordsPerNumber];
+				int length = 0;
+				while (length < words.length && !merge.isEmpty()) {
+					final Source source = merge.peek();
+					source.mWords.position(source.mNext * mWordsPerNumber);
+					source.mWords.get(words, length, mWordsPerNumber);
+					length += mWordsPerNumber;
+					merge.advance();
+				}
+
+				return new ResultBuffer(mWordsPerNumber, (length == words.length) ? words
+						: Arrays.copyOf(words, length));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of sorted runs spilled to temporary files so far.
+	 */
+	public synchronized int getSpilledRuns() {
+		return mRuns.size();
+	}
+
+	/**
+	 * Returns the size of the segments (in bytes) that makes them spill.
+	 */
+	public long getThreshold() {
+		return mThreshold;
+	}
+
+	/**
+	 * Returns <code>true</code> if the heap is nearly full, according to the
+	 * {@link java.lang.management.MemoryMXBean}.
+	 */
+	private static boolean isHeapNearlyFull() {
+		final MemoryUsage usage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		return usage.getMax() > 0 && usage.getUsed() > usage.getMax() / 100 * HEAP_USAGE_LIMIT;
+	}
+
+	/**
+	 * Starts a new segment, spilling the current ones first if they reached
+	 * the threshold or if the heap is nearly full.
+	 */
+	private void nextSegment() {
+		if (!mSegments.isEmpty() && mError == null
+				&& ((long) mSegments.size() * SEGMENT_SIZE >= mThreshold || isHeapNearlyFull())) {
+			spill();
+		}
+
+		final LongBuffer segment;
+		if (mFreeSegments.isEmpty()) {
+			segment = ByteBuffer.allocateDirect(SEGMENT_SIZE).order(ByteOrder.nativeOrder()).asLongBuffer();
+		} else {
+			segment = mFreeSegments.remove(mFreeSegments.size() - 1);
+		}
+		mSegments.add(segment);
+		mSegmentSize = 0;
+	}
+
+	/**
+	 * Returns the number of CivicBucks in the store.
+	 */
+	public synchronized int size() {
+		return mSize;
+	}
+
+	/**
+	 * Merges the pieces in the segments into a sorted run in a new
+	 * memory-mapped temporary file, and releases the segments for reuse. If
+	 * the run cannot be written, the pieces stay in the segments.
+	 */
+	private void spill() {
+		int numbers = 0;
+		for (final Source piece : mPieces) {
+			numbers += piece.mEnd - piece.mNext;
+		}
+
+		final LongBuffer run;
+		try {
+			final Path file = Files.createTempFile(mDirectory, "civicbucks-", ".run");
+			mRunFiles.add(file);
+			try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				// the mapping stays valid after the channel is closed
+				run = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) numbers * mWordsPerNumber * 8)
+						.order(ByteOrder.nativeOrder()).asLongBuffer();
+			}
+		} catch (final IOException e) {
+			mError = e;
+			return;
+		}
+
+		// the merge moves the pieces past their numbers, which are gone afterwards
+		final Merge merge = new Merge(mPieces);
+		while (!merge.isEmpty()) {
+			final Source source = merge.peek();
+			final int offset = source.mNext * mWordsPerNumber;
+			for (int word = 0; word < mWordsPerNumber; word++) {
+				run.put(source.mWords.get(offset + word));
+			}
+			merge.advance();
+		}
+		mRuns.add(new Source(run, 0, numbers));
+
+		mFreeSegments.addAll(mSegments);
+		mSegments.clear();
+		mPieces.clear();
+	}
+}
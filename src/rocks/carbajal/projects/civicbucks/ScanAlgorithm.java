@@ -0,0 +1,189 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+/**
+ * Mines a block by testing every single number in it, first for a decimal
+ * palindrome and then for a binary palindrome. The work is proportional to
+ * the size of the block, so it only pays off for small blocks of large
+ * numbers.
+ *
+ * By default, the numbers are walked in batches of
+ * {@value PalindromeKernels#LANES}: a mask of the numbers of the batch that may
+ * be binary palindromes is computed for all of them at once (see
+ * {@link PalindromeKernels#binaryCandidates(long)}) and only the numbers left
+ * in it are tested. The scalar walk, testing every number, is kept as a
+ * fallback (see {@link MiningMode#SCAN_SCALAR}); both find the same
+ * CivicBucks.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class ScanAlgorithm implements MiningAlgorithm {
+
+	/**
+	 * Whether the numbers are walked in batches.
+	 */
+	private final boolean mBatched;
+
+	/**
+	 * Creates an algorithm walking the numbers in batches.
+	 */
+	public ScanAlgorithm() {
+		this(true);
+	}
+
+	/**
+	 * Creates an algorithm walking the numbers either in batches or one by one.
+	 *
+	 * @param batched
+	 *            <code>true</code> to walk the numbers in batches,
+	 *            <code>false</code> to test every single number.
+	 */
+	public ScanAlgorithm(final boolean batched) {
+		mBatched = batched;
+	}
+
+	@Override
+	public String getName() {
+		return mBatched ? "scan" : "scan-scalar";
+	}
+
+	/**
+	 * Returns <code>true</code> if the numbers are walked in batches.
+	 */
+	boolean isBatched() {
+		return mBatched;
+	}
+
+	@Override
+	public TaskResult mine(final long startBlock, final long endBlock) {
+		final ResultBuffer civicBucks = new ResultBuffer(1);
+
+		/*
+		 * Iterate over each number in the block. First, check if the number in
+		 * turn is a palindrome, if so, then check if its binary equivalent is
+		 * a palindrome too (see PalindromeKernels, neither check allocates
+		 * memory). If both are palindrome, then we got a CivicBucket! Keep the
+		 * number, formatting is left for the output.
+		 *
+		 * The block is walked in slices of a few thousand numbers, so that the
+		 * inner loop stays as tight as possible. Before each slice, publish
+		 * how far the block has been mined and, if the thread got interrupted
+		 * or the deadline of the run passed, just return partial results.
+		 */
+		long sliceStart = startBlock;
+		while (true) {
+			if (MiningProgress.checkpoint(sliceStart - startBlock)) {
+				// Interruptions or past the deadline? return with partial results
+				return new TaskResult(MiningTask.coveredBefore(startBlock, sliceStart), civicBucks);
+			}
+
+			// the end of the slice, without overflowing near the limits of type long
+			final long sliceEnd = (endBlock >= Long.MIN_VALUE + MiningProgress.CHECKPOINT_MASK
+					&& sliceStart <= endBlock - MiningProgress.CHECKPOINT_MASK)
+							? sliceStart + MiningProgress.CHECKPOINT_MASK : endBlock;
+
+			if (mBatched) {
+				mineBatches(sliceStart, sliceEnd, civicBucks);
+			} else {
+				mineNumbers(sliceStart, sliceEnd, civicBucks);
+			}
+
+			if (sliceEnd == endBlock) {
+				break;
+			}
+			sliceStart = sliceEnd + 1;
+		}
+
+		return new TaskResult(new BlockRange(startBlock, endBlock), civicBucks);
+	}
+
+	/**
+	 * Tests the numbers of a slice in batches, keeping the CivicBucks found.
+	 *
+	 * @param sliceStart
+	 *            the first number of the slice.
+	 * @param sliceEnd
+	 *            the last number of the slice (inclusive), at most a few
+	 *            thousand numbers after the first one.
+	 * @param civicBucks
+	 *            the buffer to add the CivicBucks to.
+	 */
+	private void mineBatches(final long sliceStart, final long sliceEnd, final ResultBuffer civicBucks) {
+		long batchStart = sliceStart;
+		while (true) {
+			long lanes = PalindromeKernels.binaryCandidates(batchStart);
+
+			// the last batch of the slice may be shorter, drop the lanes past its end
+			final long remaining = sliceEnd - batchStart;
+			if (remaining < PalindromeKernels.LANES - 1) {
+				lanes &= (1L << (remaining + 1)) - 1;
+			}
+
+			// only the lanes left in the mask may be CivicBucks
+			while (lanes != 0) {
+				final long number = batchStart + Long.numberOfTrailingZeros(lanes);
+				if (PalindromeKernels.isDecimalPalindrome(number) && PalindromeKernels.isBinaryPalindrome(number)) {
+					civicBucks.add(number);
+				}
+				lanes &= lanes - 1;
+			}
+
+			// stop at the end without incrementing, it may be near Long.MAX_VALUE
+			if (remaining < PalindromeKernels.LANES) {
+				break;
+			}
+			batchStart += PalindromeKernels.LANES;
+		}
+	}
+
+	/**
+	 * Tests every single number of a slice, keeping the CivicBucks found.
+	 *
+	 * @param sliceStart
+	 *            the first number of the slice.
+	 * @param sliceEnd
+	 *            the last number of the slice (inclusive).
+	 * @param civicBucks
+	 *            the buffer to add the CivicBucks to.
+	 */
+	private void mineNumbers(final long sliceStart, final long sliceEnd, final ResultBuffer civicBucks) {
+		for (long number = sliceStart; number <= sliceEnd; number++) {
+			if (PalindromeKernels.isDecimalPalindrome(number) && PalindromeKernels.isBinaryPalindrome(number)) {
+				civicBucks.add(number);
+			}
+
+			// stop at the end without incrementing, it may be Long.MAX_VALUE
+			if (number == sliceEnd) {
+				break;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,480 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link MiningJob} submitted to a {@link MiningScheduler}: its chunks,
+ * their results as they complete, and its place in the schedule.
+ *
+ * A job is done once all its chunks were mined, or once it was cancelled or
+ * its deadline passed and the chunks that were running stopped: the results
+ * then tell which parts of the job were covered (see {@link #await()}).
+ *
+ * A running chunk may also be preempted by a job of a higher priority (see
+ * {@link #preempt()}): it stops at its next checkpoint, keeps what it covered,
+ * and the rest of it is queued as a chunk of its own.
+ *
+ * The state of the schedule is guarded by the monitor of the scheduler.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class ScheduledJob {
+
+	/**
+	 * Orders results by their covered range, those without one first.
+	 */
+	private static final Comparator<TaskResult> BY_COVERED_START = new Comparator<TaskResult>() {
+
+		@Override
+		public int compare(final TaskResult first, final TaskResult second) {
+			if (first.getCoveredRange() == null || second.getCoveredRange() == null) {
+				return (first.getCoveredRange() == null ? 0 : 1) - (second.getCoveredRange() == null ? 0 : 1);
+			}
+
+			return first.getCoveredRange().getStartValue().compareTo(second.getCoveredRange().getStartValue());
+		}
+	};
+
+	/**
+	 * The scheduler running the job.
+	 */
+	private final MiningScheduler mScheduler;
+
+	/**
+	 * The job.
+	 */
+	private final MiningJob mJob;
+
+	/**
+	 * The tasks of the job, one per chunk in ascending order, followed by the
+	 * rests of the chunks that were preempted.
+	 */
+	private final List<Callable<TaskResult>> mTasks;
+
+	/**
+	 * The results of the tasks, by index.
+	 */
+	private final List<TaskResult> mResults;
+
+	/**
+	 * The algorithm for the chunks of the job within the limit of type long.
+	 */
+	private final MiningAlgorithm mAlgorithm;
+
+	/**
+	 * The statistics of the job.
+	 */
+	private final MiningStatistics mStatistics = new MiningStatistics();
+
+	/**
+	 * The progress of the job, holding its deadline.
+	 */
+	private final MiningProgress mProgress = new MiningProgress();
+
+	/**
+	 * What to run once the job is done, or <code>null</code>.
+	 */
+	private final Runnable mWhenDone;
+
+	/**
+	 * The time the job was submitted (in nanos).
+	 */
+	private final long mSubmitTime;
+
+	/**
+	 * The time the first chunk started (in nanos), valid once
+	 * {@link #mStarted} is set.
+	 */
+	private long mFirstStartTime;
+
+	/**
+	 * Whether a chunk of the job started.
+	 */
+	private boolean mStarted = false;
+
+	/**
+	 * The time the job was done (in nanos), valid once {@link #mDone} is set.
+	 */
+	private long mEndTime;
+
+	/**
+	 * The index of the next task to run; all tasks are handed out (or
+	 * skipped) once it reaches their number.
+	 */
+	int mNextTask = 0;
+
+	/**
+	 * The number of tasks running.
+	 */
+	int mRunning = 0;
+
+	/**
+	 * The virtual time of the job: the time its chunks took so far, divided
+	 * by its share. The job with the lowest one runs next among the jobs of
+	 * the same priority.
+	 */
+	long mPass = 0;
+
+	/**
+	 * The time charged for a chunk when it is handed out (in nanos), the mean
+	 * time of its completed chunks.
+	 */
+	long mChunkEstimate;
+
+	/**
+	 * The number of completed chunks, for {@link #mChunkEstimate}.
+	 */
+	private long mChunksTimed = 0;
+
+	/**
+	 * The total time of the completed chunks (in nanos).
+	 */
+	private long mChunkTime = 0;
+
+	/**
+	 * Whether the job was cancelled.
+	 */
+	private boolean mCancelled = false;
+
+	/**
+	 * Whether the job is done.
+	 */
+	private boolean mDone = false;
+
+	/**
+	 * The results of the job, once it is done.
+	 */
+	private MiningExecutorResults mMiningResults = null;
+
+	/**
+	 * Creates a scheduled job.
+	 *
+	 * @param scheduler
+	 *            the scheduler running the job.
+	 * @param job
+	 *            the job.
+	 * @param tasks
+	 *            the tasks of the job, one per chunk in ascending order.
+	 * @param algorithm
+	 *            the algorithm of the tasks for the chunks within the limit of
+	 *            type long.
+	 * @param initialEstimate
+	 *            the time charged for a chunk until one completes (in nanos).
+	 * @param whenDone
+	 *            what to run once the job is done, or <code>null</code>.
+	 */
+	ScheduledJob(final MiningScheduler scheduler, final MiningJob job, final List<Callable<TaskResult>> tasks,
+			final MiningAlgorithm algorithm, final long initialEstimate, final Runnable whenDone) {
+		mScheduler = scheduler;
+		mJob = job;
+		mTasks = new ArrayList<Callable<TaskResult>>(tasks);
+		mResults = new ArrayList<TaskResult>(Collections.<TaskResult> nCopies(tasks.size(), null));
+		mAlgorithm = algorithm;
+		mChunkEstimate = initialEstimate;
+		mWhenDone = whenDone;
+		mSubmitTime = System.nanoTime();
+
+		double valuesToMine = 0;
+		for (final BlockRange range : job.getRanges()) {
+			valuesToMine += MiningProgress.sizeOf(range);
+		}
+		if (job.getTimeout() > 0) {
+			mProgress.setDeadline(mSubmitTime + TimeUnit.MILLISECONDS.toNanos(job.getTimeout()));
+		}
+		mProgress.start(tasks.size(), valuesToMine);
+	}
+
+	/**
+	 * Waits until the job is done and returns its results: the CivicBucks of
+	 * the chunks that completed, and which parts of the job were covered.
+	 *
+	 * @return the results of the job.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public MiningExecutorResults await() throws InterruptedException {
+		synchronized (mScheduler) {
+			while (!mDone) {
+				mScheduler.wait();
+			}
+
+			return mMiningResults;
+		}
+	}
+
+	/**
+	 * Cancels the job: its chunks that have not started are skipped, and the
+	 * running ones stop at their next checkpoint, freeing their threads for
+	 * the other jobs.
+	 *
+	 * @return <code>false</code> if the job was already done.
+	 */
+	public boolean cancel() {
+		return mScheduler.cancel(this);
+	}
+
+	/**
+	 * Marks the job as cancelled and stops its chunks. Called by the
+	 * scheduler, holding its monitor.
+	 */
+	void markCancelled() {
+		mCancelled = true;
+		mNextTask = mTasks.size();
+		// running chunks check the deadline at every checkpoint
+		mProgress.setDeadline(System.nanoTime());
+	}
+
+	/**
+	 * Marks the job as done and collects its results. Called by the
+	 * scheduler, holding its monitor, once no chunk is left to run.
+	 */
+	void markDone() {
+		final List<TaskResult> taskResults = new ArrayList<TaskResult>(mResults.size());
+		for (final TaskResult result : mResults) {
+			if (result != null) {
+				taskResults.add(result);
+			}
+		}
+		// the rests of preempted chunks come after the other chunks
+		Collections.sort(taskResults, BY_COVERED_START);
+
+		mMiningResults = new MiningExecutorResults(mJob.getRanges(), taskResults, mStatistics);
+		mEndTime = System.nanoTime();
+		mDone = true;
+	}
+
+	/**
+	 * Returns the time from the submission of the job until it was done, or
+	 * until now if it is not done yet (in millis).
+	 */
+	public long getDurationMillis() {
+		synchronized (mScheduler) {
+			return TimeUnit.NANOSECONDS.toMillis((mDone ? mEndTime : System.nanoTime()) - mSubmitTime);
+		}
+	}
+
+	/**
+	 * Returns the id of the job.
+	 */
+	public String getId() {
+		return mJob.getId();
+	}
+
+	/**
+	 * Returns the job.
+	 */
+	MiningJob getJob() {
+		return mJob;
+	}
+
+	/**
+	 * Returns the time the job waited for its first chunk to start, or until
+	 * it was done or until now if none started (in millis).
+	 */
+	public long getQueuedMillis() {
+		synchronized (mScheduler) {
+			final long endTime = mStarted ? mFirstStartTime : (mDone ? mEndTime : System.nanoTime());
+			return TimeUnit.NANOSECONDS.toMillis(endTime - mSubmitTime);
+		}
+	}
+
+	/**
+	 * Returns the number of tasks of the job.
+	 */
+	int getTaskCount() {
+		return mTasks.size();
+	}
+
+	/**
+	 * Returns <code>true</code> if the job has chunks left to hand out.
+	 */
+	boolean hasTasksLeft() {
+		return mNextTask < mTasks.size();
+	}
+
+	/**
+	 * Returns <code>true</code> if the job was cancelled.
+	 */
+	public boolean isCancelled() {
+		synchronized (mScheduler) {
+			return mCancelled;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the job is done.
+	 */
+	public boolean isDone() {
+		synchronized (mScheduler) {
+			return mDone;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the deadline of the job has passed.
+	 */
+	boolean isPastDeadline() {
+		return mProgress.isPastDeadline();
+	}
+
+	/**
+	 * Asks the running chunks of the job to yield their threads to a job of a
+	 * higher priority: they stop at their next checkpoint and the rest of
+	 * each one is queued again. Called by the scheduler, holding its monitor.
+	 */
+	void preempt() {
+		mProgress.requestYield();
+	}
+
+	/**
+	 * Records the time a chunk took, for the estimate of the next ones.
+	 * Called by the scheduler, holding its monitor.
+	 *
+	 * @param elapsedTime
+	 *            the time the chunk took (in nanos).
+	 */
+	void recordChunkTime(final long elapsedTime) {
+		mChunksTimed++;
+		mChunkTime += elapsedTime;
+		mChunkEstimate = Math.max(1, mChunkTime / mChunksTimed);
+	}
+
+	/**
+	 * Records the start of the first chunk. Called by the scheduler, holding
+	 * its monitor.
+	 */
+	void recordStart() {
+		if (!mStarted) {
+			mStarted = true;
+			mFirstStartTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Runs a single task in the current thread, unless the deadline of the
+	 * job has passed, and keeps its result. Called by a worker of the
+	 * scheduler, without holding its monitor.
+	 *
+	 * @param index
+	 *            the index of the task.
+	 */
+	void runTask(final int index) {
+		if (mProgress.isPastDeadline()) {
+			// too late to start (or cancelled), the chunk is left uncovered
+			return;
+		}
+
+		final Callable<TaskResult> task;
+		synchronized (mScheduler) {
+			task = mTasks.get(index);
+		}
+
+		mStatistics.start();
+		mProgress.begin();
+		TaskResult result = null;
+		BlockRange rest = null;
+		try {
+			result = task.call();
+		} catch (final Exception e) {
+			// the chunk is left uncovered and reported as such
+			e.printStackTrace();
+		} finally {
+			if (result != null && !mProgress.isPastDeadline() && mProgress.isYieldRequested()) {
+				rest = restOf(task, result.getCoveredRange());
+			}
+
+			// a task that ends past the deadline may have stopped with partial results
+			final boolean complete = result != null && result.getCoveredRange() != null
+					&& !mProgress.isPastDeadline();
+			if (complete) {
+				// a preempted chunk counts its covered part, the rest is a chunk of its own
+				mStatistics.end(result.getCoveredRange());
+			} else if (rest == null) {
+				mStatistics.endIncomplete();
+			}
+			mProgress.end(complete ? result : null);
+		}
+
+		synchronized (mScheduler) {
+			mResults.set(index, result);
+			if (rest != null) {
+				mTasks.add(MiningExecutor.createMiningTask(rest, mAlgorithm, mJob.getMode()));
+				mResults.add(null);
+				if (result.getCoveredRange() != null) {
+					mProgress.addChunk();
+				}
+				mScheduler.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the part of the chunk of a task that its result does not cover,
+	 * once the task yielded its thread.
+	 *
+	 * @param task
+	 *            the task, a {@link MiningTask} or a {@link WideMiningTask}.
+	 * @param covered
+	 *            the part of the chunk that the task covered, from its start,
+	 *            or <code>null</code> if it covered nothing.
+	 * @return the rest of the chunk, or <code>null</code> if the task covered
+	 *         all of it.
+	 */
+	private static BlockRange restOf(final Callable<TaskResult> task, final BlockRange covered) {
+		final BlockRange chunk = (task instanceof MiningTask) ? ((MiningTask) task).getChunk()
+				: ((WideMiningTask) task).getChunk();
+		if (covered == null) {
+			return chunk;
+		}
+		if (covered.getEndValue().compareTo(chunk.getEndValue()) >= 0) {
+			return null;
+		}
+
+		return new BlockRange(covered.getEndValue().add(BigInteger.ONE), chunk.getEndValue());
+	}
+
+	@Override
+	public String toString() {
+		return mJob.toString();
+	}
+
+	/**
+	 * Runs what was to be run once the job is done, if anything. Called by
+	 * the scheduler, without holding its monitor.
+	 */
+	void whenDone() {
+		if (mWhenDone != null) {
+			mWhenDone.run();
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, memory-mapped result file of a single {@link BlockShard}: the
+ * CivicBucks it found in ascending order, along with the block, the shard and
+ * the parts of its stripes that were covered, so that {@link ShardMerger} can
+ * merge the files of all the shards without knowing how they were mined.
+ *
+ * The file is made of a header (magic, shard position and number of shards,
+ * length-prefixed two's-complement block start and end, number of covered
+ * ranges followed by their length-prefixed starts and ends, words per number
+ * and number of CivicBucks) and the words of the CivicBucks (see
+ * {@link ResultBuffer}). The words are stored as is rather than compressed
+ * like in a {@link StoreSegment}, so that merging reads them straight from
+ * the mapping.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class ShardFile {
+
+	/**
+	 * The first bytes of every shard file ("CBR1").
+	 */
+	private static final int MAGIC = 0x43425231;
+
+	/**
+	 * The size of the buffer the CivicBucks are written through (in bytes).
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The shard the CivicBucks were mined for.
+	 */
+	private final BlockShard mShard;
+
+	/**
+	 * The block the shard belongs to.
+	 */
+	private final BlockRange mBlock;
+
+	/**
+	 * The parts of the stripes of the shard that were covered, in ascending
+	 * order.
+	 */
+	private final List<BlockRange> mCoveredRanges;
+
+	/**
+	 * The number of 64-bit words per number of the CivicBucks (see
+	 * {@link ResultBuffer#wordsFor(BigInteger)}).
+	 */
+	private final int mWordsPerNumber;
+
+	/**
+	 * The number of CivicBucks in the file.
+	 */
+	private final int mSize;
+
+	/**
+	 * The mapped words of the CivicBucks.
+	 */
+	private final LongBuffer mWords;
+
+	/**
+	 * Reads the header of a mapped shard file.
+	 *
+	 * @param file
+	 *            the mapped shard file.
+	 * @throws IOException
+	 *             if the file is not a shard file.
+	 */
+	private ShardFile(final MappedByteBuffer file) throws IOException {
+		try {
+			if (file.getInt() != MAGIC) {
+				throw new IOException("Not a CivicBucks shard file");
+			}
+
+			mShard = new BlockShard(file.getInt(), file.getInt());
+			mBlock = new BlockRange(getBigInteger(file), getBigInteger(file));
+			final int coveredRanges = file.getInt();
+			final List<BlockRange> covered = new ArrayList<BlockRange>();
+			for (int range = 0; range < coveredRanges; range++) {
+				covered.add(new BlockRange(getBigInteger(file), getBigInteger(file)));
+			}
+			mCoveredRanges = Collections.unmodifiableList(covered);
+			mWordsPerNumber = file.getInt();
+			mSize = file.getInt();
+			if (mWordsPerNumber < 1 || mSize < 0 || (long) mSize * mWordsPerNumber * 8 != file.remaining()) {
+				throw new IOException("Corrupt CivicBucks shard file");
+			}
+		} catch (final RuntimeException e) {
+			// a truncated file underflows the buffer, a corrupt one may hold an invalid shard or range
+			throw new IOException("Corrupt CivicBucks shard file", e);
+		}
+
+		mWords = file.slice().asLongBuffer();
+	}
+
+	/**
+	 * Reads a length-prefixed {@link BigInteger} from a mapped file.
+	 *
+	 * @param file
+	 *            the file to read from.
+	 * @return the number.
+	 */
+	private static BigInteger getBigInteger(final ByteBuffer file) {
+		final byte[] bytes = new byte[file.getInt()];
+		file.get(bytes);
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Maps a shard file.
+	 *
+	 * @param path
+	 *            the shard file.
+	 * @return the shard file.
+	 * @throws IOException
+	 *             if the file cannot be mapped, or if it is not a shard file.
+	 */
+	static ShardFile open(final Path path) throws IOException {
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return new ShardFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Writes a length-prefixed {@link BigInteger} to a buffer.
+	 *
+	 * @param buffer
+	 *            the buffer to write to.
+	 * @param value
+	 *            the number.
+	 */
+	private static void putBigInteger(final ByteBuffer buffer, final BigInteger value) {
+		final byte[] bytes = value.toByteArray();
+		buffer.putInt(bytes.length).put(bytes);
+	}
+
+	/**
+	 * Returns the size (in bytes) of a length-prefixed {@link BigInteger}.
+	 *
+	 * @param value
+	 *            the number.
+	 * @return the size of the number and its length.
+	 */
+	private static int sizeOf(final BigInteger value) {
+		return 4 + value.toByteArray().length;
+	}
+
+	/**
+	 * Writes the CivicBucks of a shard to the specified file, which is
+	 * created or truncated, and forces it to the storage device. The
+	 * CivicBucks are streamed from the cursor through a small buffer, so that
+	 * they need not fit in the heap (see {@link ResultSpillStore}).
+	 *
+	 * @param path
+	 *            the shard file.
+	 * @param shard
+	 *            the shard the CivicBucks were mined for.
+	 * @param block
+	 *            the block the shard belongs to.
+	 * @param coveredRanges
+	 *            the parts of the stripes of the shard that were covered, in
+	 *            ascending order.
+	 * @param civicBucks
+	 *            a cursor over the CivicBucks, in ascending order, positioned
+	 *            before the first one; they are stored with
+	 *            {@link ResultBuffer#wordsFor(BigInteger)} words per number
+	 *            for the end of the block.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	static void write(final Path path, final BlockShard shard, final BlockRange block,
+			final List<BlockRange> coveredRanges, final CivicBucksCursor civicBucks) throws IOException {
+		final int wordsPerNumber = ResultBuffer.wordsFor(block.getEndValue());
+		int headerSize = 4 + 4 + 4 + sizeOf(block.getStartValue()) + sizeOf(block.getEndValue()) + 4 + 4 + 4;
+		for (final BlockRange range : coveredRanges) {
+			headerSize += sizeOf(range.getStartValue()) + sizeOf(range.getEndValue());
+		}
+
+		// the number of CivicBucks is patched in once they were all written
+		final ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(MAGIC).putInt(shard.getIndex()).putInt(shard.getCount());
+		putBigInteger(header, block.getStartValue());
+		putBigInteger(header, block.getEndValue());
+		header.putInt(coveredRanges.size());
+		for (final BlockRange range : coveredRanges) {
+			putBigInteger(header, range.getStartValue());
+			putBigInteger(header, range.getEndValue());
+		}
+		header.putInt(wordsPerNumber).putInt(0);
+		header.flip();
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, header);
+
+			final ByteBuffer data = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			int size = 0;
+			while (civicBucks.next()) {
+				if (data.remaining() < wordsPerNumber * 8) {
+					data.flip();
+					writeFully(channel, data);
+					data.clear();
+				}
+				if (civicBucks.fitsLong()) {
+					for (int word = 1; word < wordsPerNumber; word++) {
+						data.putLong(0);
+					}
+					data.putLong(civicBucks.getLong());
+				} else {
+					final BigInteger number = civicBucks.getValue();
+					for (int word = 0; word < wordsPerNumber; word++) {
+						data.putLong(number.shiftRight(Long.SIZE * (wordsPerNumber - 1 - word)).longValue());
+					}
+				}
+				size++;
+			}
+			data.flip();
+			writeFully(channel, data);
+
+			final ByteBuffer sizeField = ByteBuffer.allocate(4);
+			sizeField.putInt(size).flip();
+			while (sizeField.hasRemaining()) {
+				channel.write(sizeField, headerSize - 4 + sizeField.position());
+			}
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Writes out the remaining contents of a buffer to a channel.
+	 *
+	 * @param channel
+	 *            the channel to write to.
+	 * @param buffer
+	 *            the buffer to write out.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Returns the block the shard belongs to.
+	 */
+	BlockRange getBlock() {
+		return mBlock;
+	}
+
+	/**
+	 * Returns the parts of the stripes of the shard that were covered, in
+	 * ascending order.
+	 */
+	List<BlockRange> getCoveredRanges() {
+		return mCoveredRanges;
+	}
+
+	/**
+	 * Returns the shard the CivicBucks were mined for.
+	 */
+	BlockShard getShard() {
+		return mShard;
+	}
+
+	/**
+	 * Returns a single word of the CivicBucks, straight from the mapping.
+	 *
+	 * @param wordIndex
+	 *            the position of the word, counting all the words of all
+	 *            numbers one after another.
+	 * @return the word.
+	 */
+	long getWord(final int wordIndex) {
+		return mWords.get(wordIndex);
+	}
+
+	/**
+	 * Returns the number of 64-bit words per number of the CivicBucks.
+	 */
+	int getWordsPerNumber() {
+		return mWordsPerNumber;
+	}
+
+	/**
+	 * Returns the number of CivicBucks in the file.
+	 */
+	int size() {
+		return mSize;
+	}
+}
@@ -0,0 +1,409 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The entry point for merging the shard files written by independent
+ * {@link CivicBucksMiner} processes (see the <code>--shard=i/N</code> option)
+ * into the final sorted list of CivicBucks, with its totals and coverage:
+ *
+ * <pre>
+ * java ShardMerger [options] shardFile...
+ *
+ * Options:
+ *    --output=file  - write the CivicBucks to a file instead of the standard
+ *                     output stream
+ * </pre>
+ *
+ * The shard files are memory-mapped and merged k ways: a priority queue holds
+ * a cursor per file, ordered by its current CivicBuck, so that every
+ * CivicBuck costs a comparison per level of the queue, and is copied straight
+ * from the mapping into a batch for the {@link OrderedResultWriter}. The
+ * CivicBucks that appear in more than one file (e.g. a shard file passed
+ * twice) are written out once. Missing shards, and the parts of the shards
+ * that their process did not cover, are reported as not covered.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class ShardMerger {
+
+	/**
+	 * A cursor over the CivicBucks of a shard file, ordered by its current
+	 * CivicBuck.
+	 *
+	 * @author Pablo A. Carbajal
+	 *
+	 */
+	private static final class MergeCursor {
+
+		/**
+		 * The shard file.
+		 */
+		final ShardFile mFile;
+
+		/**
+		 * The position of the current CivicBuck within the file.
+		 */
+		int mPosition = 0;
+
+		/**
+		 * Creates a cursor on the first CivicBuck of a shard file.
+		 *
+		 * @param file
+		 *            the shard file, with at least one CivicBuck.
+		 */
+		MergeCursor(final ShardFile file) {
+			mFile = file;
+		}
+
+		/**
+		 * Compares the current CivicBuck with the current CivicBuck of another
+		 * cursor over a file with the same number of words per number.
+		 *
+		 * @param other
+		 *            the other cursor.
+		 * @return a negative number, zero or a positive number if the current
+		 *         CivicBuck is lower than, equal to or greater than the other
+		 *         one.
+		 */
+		int compareTo(final MergeCursor other) {
+			final int wordsPerNumber = mFile.getWordsPerNumber();
+			final int first = mPosition * wordsPerNumber;
+			final int otherFirst = other.mPosition * wordsPerNumber;
+			for (int word = 0; word < wordsPerNumber; word++) {
+				final int comparison = compareWords(wordsPerNumber, mFile.getWord(first + word),
+						other.mFile.getWord(otherFirst + word));
+				if (comparison != 0) {
+					return comparison;
+				}
+			}
+
+			return 0;
+		}
+
+		/**
+		 * Compares the current CivicBuck with a number.
+		 *
+		 * @param words
+		 *            the words of the number.
+		 * @return a negative number, zero or a positive number if the current
+		 *         CivicBuck is lower than, equal to or greater than the number.
+		 */
+		int compareTo(final long[] words) {
+			final int wordsPerNumber = mFile.getWordsPerNumber();
+			final int first = mPosition * wordsPerNumber;
+			for (int word = 0; word < wordsPerNumber; word++) {
+				final int comparison = compareWords(wordsPerNumber, mFile.getWord(first + word), words[word]);
+				if (comparison != 0) {
+					return comparison;
+				}
+			}
+
+			return 0;
+		}
+
+		/**
+		 * Copies the words of the current CivicBuck.
+		 *
+		 * @param words
+		 *            where to copy the words to.
+		 * @param offset
+		 *            the position of the first word to copy.
+		 */
+		void copyTo(final long[] words, final int offset) {
+			final int wordsPerNumber = mFile.getWordsPerNumber();
+			final int first = mPosition * wordsPerNumber;
+			for (int word = 0; word < wordsPerNumber; word++) {
+				words[offset + word] = mFile.getWord(first + word);
+			}
+		}
+
+		/**
+		 * Moves to the next CivicBuck.
+		 *
+		 * @return <code>true</code> if there is one.
+		 */
+		boolean next() {
+			return ++mPosition < mFile.size();
+		}
+	}
+
+	/**
+	 * The number of CivicBucks handed over to the writer at once.
+	 */
+	static final int BATCH_SIZE = 1 << 16;
+
+	/**
+	 * The prefix of every option.
+	 */
+	private static final String OPTION_PREFIX = "--";
+
+	/**
+	 * The usage message printed out when the arguments are not valid.
+	 */
+	static final String USAGE = "Usage: java ShardMerger [options] shardFile..." + System.getProperty("line.separator")
+			+ "Options:" + System.getProperty("line.separator")
+			+ "    --output=file          write the CivicBucks to a file instead of the standard output";
+
+	/**
+	 * Orders cursors by their current CivicBuck.
+	 */
+	private static final Comparator<MergeCursor> BY_CURRENT_CIVICBUCK = new Comparator<MergeCursor>() {
+
+		@Override
+		public int compare(final MergeCursor first, final MergeCursor second) {
+			return first.compareTo(second);
+		}
+	};
+
+	/**
+	 * This class only has static methods.
+	 */
+	private ShardMerger() {
+	}
+
+	/**
+	 * Compares the same word of two numbers.
+	 *
+	 * @param wordsPerNumber
+	 *            the number of words per number: a single word is a signed
+	 *            long, the words of wider numbers are the unsigned parts of
+	 *            their magnitude, most significant first.
+	 * @param first
+	 *            the word of the first number.
+	 * @param second
+	 *            the word of the second number.
+	 * @return a negative number, zero or a positive number if the first word
+	 *         is lower than, equal to or greater than the second one.
+	 */
+	private static int compareWords(final int wordsPerNumber, final long first, final long second) {
+		// shifting both words by the lowest long turns the unsigned order into the signed one
+		final long shift = (wordsPerNumber == 1) ? 0 : Long.MIN_VALUE;
+		final long a = first + shift;
+		final long b = second + shift;
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+
+	/**
+	 * Returns the parts of the block covered by any of the shard files.
+	 *
+	 * @param files
+	 *            the shard files.
+	 * @return the covered ranges, in ascending order and joined when they
+	 *         overlap or touch.
+	 */
+	static List<BlockRange> coveredRanges(final List<ShardFile> files) {
+		final List<BlockRange> ranges = new ArrayList<BlockRange>();
+		for (final ShardFile file : files) {
+			ranges.addAll(file.getCoveredRanges());
+		}
+		Collections.sort(ranges, new Comparator<BlockRange>() {
+
+			@Override
+			public int compare(final BlockRange first, final BlockRange second) {
+				return first.getStartValue().compareTo(second.getStartValue());
+			}
+		});
+
+		final List<BlockRange> covered = new ArrayList<BlockRange>();
+		for (final BlockRange range : ranges) {
+			final int last = covered.size() - 1;
+			if (last >= 0 && covered.get(last).getEndValue().add(BigInteger.ONE).compareTo(range.getStartValue()) >= 0) {
+				final BlockRange joined = covered.get(last);
+				covered.set(last, new BlockRange(joined.getStartValue(), joined.getEndValue().max(range.getEndValue())));
+			} else {
+				covered.add(range);
+			}
+		}
+
+		return covered;
+	}
+
+	/**
+	 * Launches the program for merging shard files (see the usage above).
+	 *
+	 * @param args
+	 *            the program arguments: options and shard files.
+	 */
+	public static void main(final String[] args) {
+		String outputFile = null;
+		final List<String> shardFiles = new ArrayList<String>();
+		for (final String arg : args) {
+			if (arg.startsWith(OPTION_PREFIX + "output=")) {
+				outputFile = arg.substring(arg.indexOf('=') + 1);
+			} else if (arg.startsWith(OPTION_PREFIX)) {
+				System.out.println("Unknown option: " + arg);
+				System.out.println(USAGE);
+				System.exit(CivicBucksMiner.EXIT_INVALID_ARGUMENTS);
+				return;
+			} else {
+				shardFiles.add(arg);
+			}
+		}
+		if (shardFiles.isEmpty()) {
+			System.out.println("Missing shard files.");
+			System.out.println(USAGE);
+			System.exit(CivicBucksMiner.EXIT_INVALID_ARGUMENTS);
+			return;
+		}
+
+		final List<ShardFile> files = new ArrayList<ShardFile>();
+		for (final String shardFile : shardFiles) {
+			try {
+				files.add(ShardFile.open(Paths.get(shardFile)));
+			} catch (final IOException e) {
+				System.out.println("Unable to open the shard file " + shardFile + " (see error below).");
+				e.printStackTrace();
+				return;
+			}
+		}
+
+		final ShardFile first = files.get(0);
+		final BlockRange block = first.getBlock();
+		final int shardCount = first.getShard().getCount();
+		final boolean[] merged = new boolean[shardCount];
+		for (int index = 0; index < files.size(); index++) {
+			final ShardFile file = files.get(index);
+			if (!file.getBlock().getStartValue().equals(block.getStartValue())
+					|| !file.getBlock().getEndValue().equals(block.getEndValue())
+					|| file.getShard().getCount() != shardCount) {
+				System.out.println("The shard file " + shardFiles.get(index) + " does not belong to the same run: shard "
+						+ file.getShard() + " of block " + file.getBlock() + ", expected a shard of " + shardCount
+						+ " of block " + block + ".");
+				return;
+			}
+			merged[file.getShard().getIndex() - 1] = true;
+		}
+
+		final List<String> missing = new ArrayList<String>();
+		for (int index = 0; index < shardCount; index++) {
+			if (!merged[index]) {
+				missing.add(new BlockShard(index + 1, shardCount).toString());
+			}
+		}
+
+		final OrderedResultWriter writer;
+		try {
+			writer = (outputFile == null) ? OrderedResultWriter.toStandardOutput()
+					: OrderedResultWriter.toFile(Paths.get(outputFile));
+		} catch (final IOException e) {
+			System.out.println("Unable to open the output file (see error below).");
+			e.printStackTrace();
+			return;
+		}
+
+		System.out.println("Merging CivicBucks");
+		System.out.println("block to merge: " + block.getStartValue() + " to " + block.getEndValue());
+		System.out.println("shards: " + (shardCount - missing.size()) + " of " + shardCount
+				+ (missing.isEmpty() ? "" : " (missing " + missing + ")"));
+		System.out.println((outputFile == null) ? "Palindromes:" : "Palindromes: written to " + outputFile);
+
+		final long mergeStartTime = System.currentTimeMillis();
+		final int civicBucks = merge(files, writer);
+		try {
+			writer.close();
+		} catch (final IOException e) {
+			System.out.println("Unable to write the results (see error below).");
+			e.printStackTrace();
+		}
+		final long mergeEndTime = System.currentTimeMillis();
+
+		final List<BlockRange> coveredRanges = coveredRanges(files);
+		System.out.println("Palindromes computed: " + civicBucks);
+		System.out.println("Shard files merged: " + files.size());
+		System.out.println("Duration: " + (mergeEndTime - mergeStartTime) + " millis.");
+		CivicBucksMiner.printCoverage("block", coveredRanges,
+				MiningExecutorResults.uncoveredRanges(Collections.singletonList(block), coveredRanges));
+	}
+
+	/**
+	 * Merges the CivicBucks of the shard files in ascending order, writing
+	 * each of them out once.
+	 *
+	 * @param files
+	 *            the shard files, all with the same number of words per
+	 *            number.
+	 * @param writer
+	 *            the writer to hand over the CivicBucks to, in batches of
+	 *            {@link #BATCH_SIZE}; the caller closes it.
+	 * @return the number of CivicBucks written out.
+	 */
+	static int merge(final List<ShardFile> files, final OrderedResultWriter writer) {
+		final int wordsPerNumber = files.get(0).getWordsPerNumber();
+		final PriorityQueue<MergeCursor> cursors = new PriorityQueue<MergeCursor>(files.size(), BY_CURRENT_CIVICBUCK);
+		long total = 0;
+		for (final ShardFile file : files) {
+			if (file.size() > 0) {
+				cursors.add(new MergeCursor(file));
+				total += file.size();
+			}
+		}
+
+		// duplicates only make the last batches smaller, so there are never more batches than planned
+		final int batches = (int) ((total + BATCH_SIZE - 1) / BATCH_SIZE);
+		writer.start(batches);
+
+		long[] batch = new long[BATCH_SIZE * wordsPerNumber];
+		int batchIndex = 0;
+		int batchSize = 0;
+		int written = 0;
+		final long[] last = new long[wordsPerNumber];
+		while (!cursors.isEmpty()) {
+			final MergeCursor cursor = cursors.poll();
+			if (written == 0 || cursor.compareTo(last) != 0) {
+				cursor.copyTo(batch, batchSize * wordsPerNumber);
+				cursor.copyTo(last, 0);
+				batchSize++;
+				written++;
+				if (batchSize == BATCH_SIZE) {
+					writer.commit(batchIndex++, new TaskResult(null, new ResultBuffer(wordsPerNumber, batch)));
+					batch = new long[BATCH_SIZE * wordsPerNumber];
+					batchSize = 0;
+				}
+			}
+			if (cursor.next()) {
+				cursors.add(cursor);
+			}
+		}
+
+		while (batchIndex < batches) {
+			writer.commit(batchIndex++, new TaskResult(null,
+					new ResultBuffer(wordsPerNumber, Arrays.copyOf(batch, batchSize * wordsPerNumber))));
+			batchSize = 0;
+		}
+
+		return written;
+	}
+}
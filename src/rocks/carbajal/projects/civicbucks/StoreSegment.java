@@ -0,0 +1,351 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An immutable, memory-mapped segment file of a {@link CivicBucksStore}: a
+ * sorted run of CivicBucks with a sparse index.
+ *
+ * The CivicBucks are stored as the unsigned varint (7 bits per byte, least
+ * significant group first) of their difference with the previous one. Every
+ * {@link #INDEX_INTERVAL}-th CivicBuck is a restart point, stored as is
+ * instead of as a difference, and the sparse index holds the value and the
+ * data offset of every restart point. A lookup binary searches the index for
+ * the last restart point not above the range it wants, then decodes forward
+ * from there, so it never decodes more than {@link #INDEX_INTERVAL} numbers
+ * outside of the range.
+ *
+ * The file is made of a header (magic, words per number, number of CivicBucks
+ * and number of index entries), the index entries (data offset and
+ * length-prefixed two's-complement value) and the data.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+final class StoreSegment {
+
+	/**
+	 * The first bytes of every segment file ("CBS1").
+	 */
+	private static final int MAGIC = 0x43425331;
+
+	/**
+	 * The number of CivicBucks between restart points.
+	 */
+	static final int INDEX_INTERVAL = 64;
+
+	/**
+	 * The mapped data of the segment, from the first CivicBuck on.
+	 */
+	private final ByteBuffer mData;
+
+	/**
+	 * The number of 64-bit words per number of the CivicBucks (see
+	 * {@link ResultBuffer#wordsFor(BigInteger)}); 1 if they all fit in type
+	 * long, which allows decoding them without allocating memory.
+	 */
+	private final int mWordsPerNumber;
+
+	/**
+	 * The number of CivicBucks in the segment.
+	 */
+	private final int mSize;
+
+	/**
+	 * The value of every restart point, in ascending order.
+	 */
+	private final BigInteger[] mIndexValues;
+
+	/**
+	 * The data offset of every restart point.
+	 */
+	private final int[] mIndexOffsets;
+
+	/**
+	 * Reads the header and the index of a mapped segment file.
+	 *
+	 * @param file
+	 *            the mapped segment file.
+	 * @throws IOException
+	 *             if the file is not a segment.
+	 */
+	private StoreSegment(final MappedByteBuffer file) throws IOException {
+		try {
+			if (file.getInt() != MAGIC) {
+				throw new IOException("Not a CivicBucks store segment");
+			}
+
+			mWordsPerNumber = file.getInt();
+			mSize = file.getInt();
+			final int indexEntries = file.getInt();
+			mIndexValues = new BigInteger[indexEntries];
+			mIndexOffsets = new int[indexEntries];
+			for (int entry = 0; entry < indexEntries; entry++) {
+				mIndexOffsets[entry] = file.getInt();
+				final byte[] value = new byte[file.getInt()];
+				file.get(value);
+				mIndexValues[entry] = new BigInteger(value);
+			}
+		} catch (final RuntimeException e) {
+			// a truncated file underflows the buffer, a corrupt one may ask for an invalid array size
+			throw new IOException("Corrupt CivicBucks store segment", e);
+		}
+
+		mData = file.slice();
+	}
+
+	/**
+	 * Maps a segment file.
+	 *
+	 * @param path
+	 *            the segment file.
+	 * @return the segment.
+	 * @throws IOException
+	 *             if the file cannot be mapped, or if it is not a segment.
+	 */
+	static StoreSegment open(final Path path) throws IOException {
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return new StoreSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads an unsigned varint of any size.
+	 *
+	 * @param data
+	 *            the data to read from.
+	 * @return the value.
+	 */
+	private static BigInteger readBigVarint(final ByteBuffer data) {
+		BigInteger value = BigInteger.ZERO;
+		int shift = 0;
+		byte group;
+		do {
+			group = data.get();
+			value = value.or(BigInteger.valueOf(group & 0x7F).shiftLeft(shift));
+			shift += 7;
+		} while (group < 0);
+
+		return value;
+	}
+
+	/**
+	 * Reads an unsigned varint of up to 64 bits.
+	 *
+	 * @param data
+	 *            the data to read from.
+	 * @return the value.
+	 */
+	private static long readVarint(final ByteBuffer data) {
+		long value = 0;
+		int shift = 0;
+		byte group;
+		do {
+			group = data.get();
+			value |= (long) (group & 0x7F) << shift;
+			shift += 7;
+		} while (group < 0);
+
+		return value;
+	}
+
+	/**
+	 * Writes a segment file with the specified CivicBucks, which is created
+	 * or truncated, and forces it to the storage device.
+	 *
+	 * @param path
+	 *            the segment file.
+	 * @param civicBucks
+	 *            the CivicBucks, non-negative and in ascending order.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	static void write(final Path path, final ResultBuffer civicBucks) throws IOException {
+		final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		final ByteBuffer word = ByteBuffer.allocate(8);
+
+		/*
+		 * Differences are taken as longs when the numbers fit in type long,
+		 * and as BigIntegers otherwise.
+		 */
+		final boolean fitsLong = civicBucks.getWordsPerNumber() == 1;
+		int indexEntries = 0;
+		long previousLong = 0;
+		BigInteger previous = BigInteger.ZERO;
+		for (int position = 0; position < civicBucks.size(); position++) {
+			final boolean restart = position % INDEX_INTERVAL == 0;
+			if (restart) {
+				final byte[] value = civicBucks.getValue(position).toByteArray();
+				word.clear();
+				index.write(word.putInt(data.size()).putInt(value.length).array(), 0, 8);
+				index.write(value, 0, value.length);
+				indexEntries++;
+			}
+
+			if (fitsLong) {
+				final long number = civicBucks.getLong(position);
+				writeVarint(data, restart ? number : number - previousLong);
+				previousLong = number;
+			} else {
+				final BigInteger number = civicBucks.getValue(position);
+				writeBigVarint(data, restart ? number : number.subtract(previous));
+				previous = number;
+			}
+		}
+
+		final ByteBuffer header = ByteBuffer.allocate(16);
+		header.putInt(MAGIC).putInt(civicBucks.getWordsPerNumber()).putInt(civicBucks.size()).putInt(indexEntries);
+		header.flip();
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (final ByteBuffer buffer : new ByteBuffer[] { header, ByteBuffer.wrap(index.toByteArray()),
+					ByteBuffer.wrap(data.toByteArray()) }) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Writes a non-negative number of any size as an unsigned varint.
+	 *
+	 * @param data
+	 *            the data to write to.
+	 * @param value
+	 *            the value.
+	 */
+	private static void writeBigVarint(final ByteArrayOutputStream data, final BigInteger value) {
+		BigInteger remaining = value;
+		while (remaining.bitLength() > 7) {
+			data.write((remaining.intValue() & 0x7F) | 0x80);
+			remaining = remaining.shiftRight(7);
+		}
+		data.write(remaining.intValue());
+	}
+
+	/**
+	 * Writes a number of type long as an unsigned varint.
+	 *
+	 * @param data
+	 *            the data to write to.
+	 * @param value
+	 *            the value, taken as unsigned.
+	 */
+	private static void writeVarint(final ByteArrayOutputStream data, final long value) {
+		long remaining = value;
+		while ((remaining & ~0x7FL) != 0) {
+			data.write((int) (remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		data.write((int) remaining);
+	}
+
+	/**
+	 * Returns the number of 64-bit words per number of the CivicBucks.
+	 */
+	int getWordsPerNumber() {
+		return mWordsPerNumber;
+	}
+
+	/**
+	 * Appends the CivicBucks of the segment within the specified range to a
+	 * buffer, in ascending order.
+	 *
+	 * @param from
+	 *            the start of the range.
+	 * @param to
+	 *            the end of the range (inclusive).
+	 * @param civicBucks
+	 *            the buffer to append to, with at least as many words per
+	 *            number as the segment.
+	 */
+	void read(final BigInteger from, final BigInteger to, final ResultBuffer civicBucks) {
+		if (mSize == 0) {
+			return;
+		}
+
+		/*
+		 * Binary search the last restart point not above the start of the
+		 * range, then decode forward until past its end.
+		 */
+		int low = 0;
+		int high = mIndexValues.length - 1;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (mIndexValues[middle].compareTo(from) <= 0) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		final ByteBuffer data = mData.duplicate();
+		data.position(mIndexOffsets[low]);
+		if (mWordsPerNumber == 1 && civicBucks.getWordsPerNumber() == 1) {
+			if (from.bitLength() >= Long.SIZE) {
+				// beyond the limit of type long, where there is nothing
+				return;
+			}
+			final long first = from.longValue();
+			final long last = to.min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+			long number = 0;
+			for (int position = low * INDEX_INTERVAL; position < mSize; position++) {
+				final long delta = readVarint(data);
+				number = (position % INDEX_INTERVAL == 0) ? delta : number + delta;
+				if (number > last) {
+					break;
+				}
+				if (number >= first) {
+					civicBucks.add(number);
+				}
+			}
+		} else {
+			BigInteger number = BigInteger.ZERO;
+			for (int position = low * INDEX_INTERVAL; position < mSize; position++) {
+				final BigInteger delta = readBigVarint(data);
+				number = (position % INDEX_INTERVAL == 0) ? delta : number.add(delta);
+				if (number.compareTo(to) > 0) {
+					break;
+				}
+				if (number.compareTo(from) >= 0) {
+					civicBucks.add(number);
+				}
+			}
+		}
+	}
+}
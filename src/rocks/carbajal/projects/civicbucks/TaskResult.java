@@ -38,22 +38,59 @@ public class TaskResult {
 	private final int mCivicBucksTotal;
 
 	/**
-	 * The output generated by a task.
+	 * The CivicBucks kept by a task, in ascending order, or <code>null</code>
+	 * if they were not kept (e.g. because they were already written out).
 	 */
-	private final StringBuilder mTaskOutput;
+	private final ResultBuffer mCivicBucks;
+
+	/**
+	 * The part of the block that was completely mined by a task, or
+	 * <code>null</code> if the task was interrupted before mining anything.
+	 */
+	private final BlockRange mCoveredRange;
 
 	/**
 	 * Creates an instance of an object with task results from a mining
 	 * computation.
 	 *
+	 * @param coveredRange
+	 *            The part of the block that was completely mined, which is
+	 *            smaller than the block when the task was interrupted, or
+	 *            <code>null</code> if nothing was mined.
+	 * @param civicBucks
+	 *            The CivicBucks found by a task, in ascending order. No more
+	 *            numbers may be appended to the buffer afterwards.
+	 */
+	public TaskResult(final BlockRange coveredRange, final ResultBuffer civicBucks) {
+		mCivicBucksTotal = civicBucks.size();
+		mCivicBucks = civicBucks;
+		mCivicBucks.trimToSize();
+		mCoveredRange = coveredRange;
+	}
+
+	/**
+	 * Creates an instance of an object with the number of CivicBucks
+	 * calculated by a mining computation, but not the CivicBucks themselves.
+	 *
+	 * @param coveredRange
+	 *            The part of the block that was completely mined, or
+	 *            <code>null</code> if nothing was mined.
 	 * @param numberOfCivicBucks
 	 *            The total number of CivicBucks calculated by a task.
-	 * @param output
-	 *            The output generated by a task.
 	 */
-	public TaskResult(final int numberOfCivicBucks, final StringBuilder output) {
+	public TaskResult(final BlockRange coveredRange, final int numberOfCivicBucks) {
 		mCivicBucksTotal = numberOfCivicBucks;
-		mTaskOutput = output;
+		mCivicBucks = null;
+		mCoveredRange = coveredRange;
+	}
+
+	/**
+	 * Returns the CivicBucks found by a mining computation, in ascending
+	 * order, or <code>null</code> if they were not kept (see
+	 * {@link #hasCivicBucks()}).
+	 */
+	public ResultBuffer getCivicBucks() {
+		return mCivicBucks;
 	}
 
 	/**
@@ -65,10 +102,20 @@ public class TaskResult {
 	}
 
 	/**
-	 * Returns the output generated by a mining computation.
+	 * Returns the part of the block that was completely mined, which is
+	 * smaller than the block when the task was interrupted, or
+	 * <code>null</code> if nothing was mined.
+	 */
+	public BlockRange getCoveredRange() {
+		return mCoveredRange;
+	}
+
+	/**
+	 * Returns <code>true</code> if the CivicBucks themselves were kept, not
+	 * just their number.
 	 */
-	public StringBuilder getMiningOutput() {
-		return mTaskOutput;
+	public boolean hasCivicBucks() {
+		return mCivicBucks != null;
 	}
 
 }
@@ -0,0 +1,318 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+
+/**
+ * A mutable unsigned 128-bit number built from two longs, with the kernels
+ * needed for mining CivicBucks beyond the limit of type long (see
+ * {@link NumericTier#UINT128}).
+ *
+ * Instances are mutable so that mining loops can update a single instance for
+ * every candidate instead of allocating new values; they are not thread-safe.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public final class UInt128 {
+
+	/**
+	 * The maximum number of decimal digits of an unsigned 128-bit number.
+	 */
+	public static final int MAX_DECIMAL_DIGITS = 39;
+
+	/**
+	 * A mask for the low 32 bits of a long.
+	 */
+	private static final long LOW_32_BITS = 0xFFFFFFFFL;
+
+	/**
+	 * The high 64 bits.
+	 */
+	private long mHigh;
+
+	/**
+	 * The low 64 bits.
+	 */
+	private long mLow;
+
+	/**
+	 * A buffer for the decimal digits of the number, reused by
+	 * {@link #isDecimalPalindrome()}.
+	 */
+	private final byte[] mDigitBuffer = new byte[MAX_DECIMAL_DIGITS];
+
+	/**
+	 * Creates a new number with the value of the specified {@link BigInteger}.
+	 *
+	 * @param value
+	 *            the value, from 0 to 2^128 - 1.
+	 * @throws ArithmeticException
+	 *             if the value does not fit in 128 unsigned bits.
+	 */
+	public UInt128(final BigInteger value) {
+		set(value);
+	}
+
+	/**
+	 * Compares two long values as if they were unsigned.
+	 *
+	 * @return <code>true</code> if {@code a} is lower than {@code b}.
+	 */
+	private static boolean isUnsignedLower(final long a, final long b) {
+		return (a + Long.MIN_VALUE) < (b + Long.MIN_VALUE);
+	}
+
+	/**
+	 * Multiplies the number by ten and adds the specified digit.
+	 *
+	 * @param digit
+	 *            the digit to add, from 0 to 9.
+	 */
+	private void appendDigit(final int digit) {
+		/*
+		 * x * 10 + digit = (x << 3) + (x << 1) + digit, adding the 64-bit
+		 * halves separately and carrying over to the high half.
+		 */
+		final long high8 = (mHigh << 3) | (mLow >>> 61);
+		final long low8 = mLow << 3;
+		final long high2 = (mHigh << 1) | (mLow >>> 63);
+		final long low2 = mLow << 1;
+
+		long low = low8 + low2;
+		long high = high8 + high2 + (isUnsignedLower(low, low8) ? 1 : 0);
+		final long lowWithDigit = low + digit;
+		high += isUnsignedLower(lowWithDigit, low) ? 1 : 0;
+		low = lowWithDigit;
+
+		mHigh = high;
+		mLow = low;
+	}
+
+	/**
+	 * Returns the number of significant bits of the number (zero has none).
+	 */
+	public int bitLength() {
+		if (mHigh != 0) {
+			return 128 - Long.numberOfLeadingZeros(mHigh);
+		}
+
+		return 64 - Long.numberOfLeadingZeros(mLow);
+	}
+
+	/**
+	 * Compares the number with another one.
+	 *
+	 * @param other
+	 *            the number to compare with.
+	 * @return a negative value, zero or a positive value if this number is
+	 *         lower than, equal to or greater than {@code other}.
+	 */
+	public int compareTo(final UInt128 other) {
+		if (mHigh != other.mHigh) {
+			return isUnsignedLower(mHigh, other.mHigh) ? -1 : 1;
+		}
+		if (mLow != other.mLow) {
+			return isUnsignedLower(mLow, other.mLow) ? -1 : 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns the high 64 bits of the number.
+	 */
+	public long getHigh() {
+		return mHigh;
+	}
+
+	/**
+	 * Returns the low 64 bits of the number.
+	 */
+	public long getLow() {
+		return mLow;
+	}
+
+	/**
+	 * Adds one to the number, wrapping around to zero after 2^128 - 1.
+	 */
+	public void increment() {
+		mLow++;
+		if (mLow == 0) {
+			mHigh++;
+		}
+	}
+
+	/**
+	 * Finds out if the binary representation of the number is a palindrome.
+	 *
+	 * @return <code>true</code> if the binary representation is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean isBinaryPalindrome() {
+		if (mHigh == 0) {
+			// also covers 64-bit values, which the long kernel reads as negative
+			return PalindromeKernels.isBinaryPalindrome(mLow);
+		}
+
+		/*
+		 * Reverse all 128 bits (swapping and reversing the halves), then shift
+		 * out the leading zeros that moved to the right: what is left must be
+		 * the number itself.
+		 */
+		final long reversedHigh = Long.reverse(mLow);
+		final long reversedLow = Long.reverse(mHigh);
+		final int shift = Long.numberOfLeadingZeros(mHigh);
+		if (shift == 0) {
+			return reversedHigh == mHigh && reversedLow == mLow;
+		}
+
+		final long shiftedHigh = reversedHigh >>> shift;
+		final long shiftedLow = (reversedLow >>> shift) | (reversedHigh << (64 - shift));
+		return shiftedHigh == mHigh && shiftedLow == mLow;
+	}
+
+	/**
+	 * Finds out if the decimal representation of the number is a palindrome.
+	 *
+	 * @return <code>true</code> if the number is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	public boolean isDecimalPalindrome() {
+		if (mHigh == 0 && mLow >= 0) {
+			return PalindromeKernels.isDecimalPalindrome(mLow);
+		}
+
+		final int length = toDigits(mDigitBuffer);
+		for (int left = 0, right = length - 1; left < right; left++, right--) {
+			if (mDigitBuffer[left] != mDigitBuffer[right]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sets the value of the number.
+	 *
+	 * @param value
+	 *            the value, from 0 to 2^128 - 1.
+	 * @throws ArithmeticException
+	 *             if the value does not fit in 128 unsigned bits.
+	 */
+	public void set(final BigInteger value) {
+		if (value.signum() < 0 || value.bitLength() > 128) {
+			throw new ArithmeticException("Value does not fit in 128 unsigned bits: " + value);
+		}
+
+		mHigh = value.shiftRight(64).longValue();
+		mLow = value.longValue();
+	}
+
+	/**
+	 * Sets the value of the number from its decimal digits.
+	 *
+	 * @param digits
+	 *            the decimal digits (0 to 9), most significant first.
+	 * @param length
+	 *            the number of digits to read, up to
+	 *            {@value #MAX_DECIMAL_DIGITS}.
+	 */
+	public void setDigits(final byte[] digits, final int length) {
+		mHigh = 0;
+		mLow = 0;
+		for (int index = 0; index < length; index++) {
+			appendDigit(digits[index]);
+		}
+	}
+
+	/**
+	 * Returns the value of the number as a {@link BigInteger}.
+	 */
+	public BigInteger toBigInteger() {
+		final byte[] magnitude = new byte[16];
+		for (int index = 0; index < 8; index++) {
+			magnitude[index] = (byte) (mHigh >>> (56 - 8 * index));
+			magnitude[index + 8] = (byte) (mLow >>> (56 - 8 * index));
+		}
+
+		return new BigInteger(1, magnitude);
+	}
+
+	/**
+	 * Writes the decimal digits of the number into the specified buffer, least
+	 * significant first.
+	 *
+	 * @param buffer
+	 *            the buffer, with room for {@value #MAX_DECIMAL_DIGITS} digits.
+	 * @return the number of digits written.
+	 */
+	private int toDigits(final byte[] buffer) {
+		/*
+		 * Divide by ten repeatedly: while the number needs more than 63 bits,
+		 * divide it as four 32-bit limbs (long division, most significant limb
+		 * first), then finish with plain long arithmetic.
+		 */
+		long high = mHigh;
+		long low = mLow;
+		int length = 0;
+		while (high != 0 || low < 0) {
+			long remainder = 0;
+
+			long current = high >>> 32;
+			final long quotient3 = current / 10;
+			remainder = current % 10;
+
+			current = (remainder << 32) | (high & LOW_32_BITS);
+			final long quotient2 = current / 10;
+			remainder = current % 10;
+
+			current = (remainder << 32) | (low >>> 32);
+			final long quotient1 = current / 10;
+			remainder = current % 10;
+
+			current = (remainder << 32) | (low & LOW_32_BITS);
+			final long quotient0 = current / 10;
+			remainder = current % 10;
+
+			high = (quotient3 << 32) | quotient2;
+			low = (quotient1 << 32) | quotient0;
+			buffer[length++] = (byte) remainder;
+		}
+
+		do {
+			buffer[length++] = (byte) (low % 10);
+			low /= 10;
+		} while (low != 0);
+
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return toBigInteger().toString();
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * MIT License
+ *
+ * Copyright (c) 2017 Pablo Alejandro Carbajal Siller
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package rocks.carbajal.projects.civicbucks;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link Callable} task for performing mining computations on blocks beyond
+ * the limit of type long. This is the counterpart of {@link MiningTask} for the
+ * {@link NumericTier#UINT128} and {@link NumericTier#BIG_INTEGER} tiers.
+ *
+ * @author Pablo A. Carbajal
+ *
+ */
+public class WideMiningTask implements Callable<TaskResult> {
+
+	/**
+	 * The starting range of the block to mine.
+	 */
+	final private BigInteger mStartBlock;
+
+	/**
+	 * The end range of the block to mine (inclusive).
+	 */
+	final private BigInteger mEndBlock;
+
+	/**
+	 * The strategy for finding CivicBucks within the block.
+	 */
+	final private MiningMode mMode;
+
+	/**
+	 * The numeric backend used for mining the block.
+	 */
+	final private NumericTier mTier;
+
+	/**
+	 * Creates a new task for mining CivicBucks from a specified block with the
+	 * cheapest numeric tier that can hold it.
+	 *
+	 * @param range
+	 *            the block to mine.
+	 * @param mode
+	 *            the strategy for finding CivicBucks within the block.
+	 */
+	public WideMiningTask(final BlockRange range, final MiningMode mode) {
+		mStartBlock = range.getStartValue();
+		mEndBlock = range.getEndValue();
+		mMode = mode;
+		mTier = range.getTier();
+	}
+
+	/**
+	 * Finds out if the binary representation of the specified non-negative
+	 * number is a palindrome.
+	 *
+	 * @param number
+	 *            the number to check
+	 * @return <code>true</code> if the binary representation is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	private static boolean isBinaryPalindrome(final BigInteger number) {
+		final int bitLength = number.bitLength();
+		for (int low = 0, high = bitLength - 1; low < high; low++, high--) {
+			if (number.testBit(low) != number.testBit(high)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Finds out if the decimal representation of the specified number is a
+	 * palindrome.
+	 *
+	 * @param number
+	 *            the number to check
+	 * @return <code>true</code> if the number is a palindrome,
+	 *         <code>false</code> otherwise.
+	 */
+	private static boolean isDecimalPalindrome(final BigInteger number) {
+		final String string = number.toString();
+		for (int left = 0, right = string.length() - 1; left < right; left++, right--) {
+			if (string.charAt(left) != string.charAt(right)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Converts decimal digits into a {@link String}.
+	 *
+	 * @param digits
+	 *            the digits, most significant first.
+	 * @param length
+	 *            the number of digits.
+	 * @return the decimal representation of the digits.
+	 */
+	private static String toDecimalString(final byte[] digits, final int length) {
+		final char[] characters = new char[length];
+		for (int index = 0; index < length; index++) {
+			characters[index] = (char) ('0' + digits[index]);
+		}
+
+		return new String(characters);
+	}
+
+	@Override
+	public TaskResult call() throws Exception {
+		final long startTime = MiningRecorder.KERNEL_ENABLED ? System.nanoTime() : 0;
+		final TaskResult result;
+		if (mTier == NumericTier.UINT128) {
+			result = mMode.isScan() ? mineUInt128Block() : generateUInt128Block();
+		} else {
+			result = mMode.isScan() ? mineBigIntegerBlock() : generateBigIntegerBlock();
+		}
+		if (MiningRecorder.KERNEL_ENABLED) {
+			MiningRecorder.record(MiningRecorder.KERNEL, startTime, null, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the part of the block that was mined before reaching a number.
+	 *
+	 * @param number
+	 *            the first number of the block that was not mined.
+	 * @return the range of mined numbers, or <code>null</code> if none.
+	 */
+	private BlockRange coveredBefore(final BigInteger number) {
+		return (number.compareTo(mStartBlock) > 0) ? new BlockRange(mStartBlock, number.subtract(BigInteger.ONE))
+				: null;
+	}
+
+	/**
+	 * Mines the block by generating its decimal palindromes as
+	 * {@link BigInteger} values.
+	 *
+	 * @return a {@link TaskResult} with information about the result of the
+	 *         mining computation.
+	 */
+	private TaskResult generateBigIntegerBlock() {
+		final ResultBuffer civicBucks = new ResultBuffer(ResultBuffer.wordsFor(mEndBlock));
+
+		final DigitPalindromeGenerator generator = new DigitPalindromeGenerator(mStartBlock, mEndBlock);
+		long iterations = 0;
+		while (generator.hasNext()) {
+			final int length = generator.next();
+			final BigInteger number = new BigInteger(toDecimalString(generator.getDigits(), length));
+			if ((iterations++ & MiningProgress.CHECKPOINT_MASK) == 0 && MiningProgress.checkpoint()) {
+				// Interruptions or past the deadline? return with partial results
+				return new TaskResult(coveredBefore(number), civicBucks);
+			}
+
+			if (isBinaryPalindrome(number)) {
+				civicBucks.add(number);
+			}
+		}
+
+		return new TaskResult(new BlockRange(mStartBlock, mEndBlock), civicBucks);
+	}
+
+	/**
+	 * Mines the block by generating its decimal palindromes as {@link UInt128}
+	 * values.
+	 *
+	 * @return a {@link TaskResult} with information about the result of the
+	 *         mining computation.
+	 */
+	private TaskResult generateUInt128Block() {
+		final ResultBuffer civicBucks = new ResultBuffer(ResultBuffer.wordsFor(mEndBlock));
+
+		/*
+		 * A single UInt128 is updated with the digits of every palindrome, so
+		 * the loop does not allocate memory.
+		 */
+		final UInt128 number = new UInt128(BigInteger.ZERO);
+		final DigitPalindromeGenerator generator = new DigitPalindromeGenerator(mStartBlock, mEndBlock);
+		long iterations = 0;
+		while (generator.hasNext()) {
+			final int length = generator.next();
+			number.setDigits(generator.getDigits(), length);
+			if ((iterations++ & MiningProgress.CHECKPOINT_MASK) == 0 && MiningProgress.checkpoint()) {
+				// Interruptions or past the deadline? return with partial results
+				return new TaskResult(coveredBefore(number.toBigInteger()), civicBucks);
+			}
+
+			if (number.isBinaryPalindrome()) {
+				civicBucks.add(number.getHigh(), number.getLow());
+			}
+		}
+
+		return new TaskResult(new BlockRange(mStartBlock, mEndBlock), civicBucks);
+	}
+
+	/**
+	 * Mines the block by testing every number in it as a {@link BigInteger}.
+	 *
+	 * @return a {@link TaskResult} with information about the result of the
+	 *         mining computation.
+	 */
+	private TaskResult mineBigIntegerBlock() {
+		final ResultBuffer civicBucks = new ResultBuffer(ResultBuffer.wordsFor(mEndBlock));
+
+		long iterations = 0;
+		for (BigInteger number = mStartBlock; number.compareTo(mEndBlock) <= 0; number = number
+				.add(BigInteger.ONE)) {
+			if ((iterations++ & MiningProgress.CHECKPOINT_MASK) == 0 && MiningProgress.checkpoint()) {
+				// Interruptions or past the deadline? return with partial results
+				return new TaskResult(coveredBefore(number), civicBucks);
+			}
+
+			if (number.signum() >= 0 && isDecimalPalindrome(number) && isBinaryPalindrome(number)) {
+				civicBucks.add(number);
+			}
+		}
+
+		return new TaskResult(new BlockRange(mStartBlock, mEndBlock), civicBucks);
+	}
+
+	/**
+	 * Mines the block by testing every number in it as a {@link UInt128}.
+	 *
+	 * @return a {@link TaskResult} with information about the result of the
+	 *         mining computation.
+	 */
+	private TaskResult mineUInt128Block() {
+		final ResultBuffer civicBucks = new ResultBuffer(ResultBuffer.wordsFor(mEndBlock));
+
+		final UInt128 number = new UInt128(mStartBlock);
+		final UInt128 end = new UInt128(mEndBlock);
+		long iterations = 0;
+		while (true) {
+			if ((iterations++ & MiningProgress.CHECKPOINT_MASK) == 0 && MiningProgress.checkpoint()) {
+				// Interruptions or past the deadline? return with partial results
+				return new TaskResult(coveredBefore(number.toBigInteger()), civicBucks);
+			}
+
+			if (number.isDecimalPalindrome() && number.isBinaryPalindrome()) {
+				civicBucks.add(number.getHigh(), number.getLow());
+			}
+
+			// stop at the end without incrementing, it may be 2^128 - 1
+			if (number.compareTo(end) == 0) {
+				break;
+			}
+			number.increment();
+		}
+
+		return new TaskResult(new BlockRange(mStartBlock, mEndBlock), civicBucks);
+	}
+
+	/**
+	 * Returns the chunk of the block mined by this task.
+	 */
+	BlockRange getChunk() {
+		return new BlockRange(mStartBlock, mEndBlock);
+	}
+
+	@Override
+	public String toString() {
+		return "WideMiningTask [" + mStartBlock + ", " + mEndBlock + "]";
+	}
+}